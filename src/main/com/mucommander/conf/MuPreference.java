@@ -60,13 +60,18 @@ public enum MuPreference {
 	USE_SYSTEM_FILE_ICONS(MuPreferences.USE_SYSTEM_FILE_ICONS),
 	SHOW_FOLDERS_FIRST(MuPreferences.SHOW_FOLDERS_FIRST),
 	CD_FOLLOWS_SYMLINKS(MuPreferences.CD_FOLLOWS_SYMLINKS),
+	CALCULATE_FOLDER_SIZES(MuPreferences.CALCULATE_FOLDER_SIZES),
 	USE_BRUSHED_METAL(MuPreferences.USE_BRUSHED_METAL),
 	USE_SCREEN_MENU_BAR(MuPreferences.USE_SCREEN_MENU_BAR),
 	STARTUP_FOLDERS(MuPreferences.STARTUP_FOLDERS),
 	LEFT_CUSTOM_FOLDER(MuPreferences.LEFT_CUSTOM_FOLDER),
 	RIGHT_CUSTOM_FOLDER(MuPreferences.RIGHT_CUSTOM_FOLDER),
+	TREE_CACHE_MAX_ENTRIES(MuPreferences.TREE_CACHE_MAX_ENTRIES),
+	TREE_CACHE_MAX_MEMORY(MuPreferences.TREE_CACHE_MAX_MEMORY),
 	REFRESH_CHECK_PERIOD(MuPreferences.REFRESH_CHECK_PERIOD),
+	LOCAL_REFRESH_CHECK_PERIOD(MuPreferences.LOCAL_REFRESH_CHECK_PERIOD),
 	WAIT_AFTER_REFRESH(MuPreferences.WAIT_AFTER_REFRESH),
+	FINGERPRINT_CHECK_PROTOCOLS(MuPreferences.FINGERPRINT_CHECK_PROTOCOLS),
 	PROGRESS_DIALOG_EXPANDED(MuPreferences.PROGRESS_DIALOG_EXPANDED),
 	PROGRESS_DIALOG_CLOSE_WHEN_FINISHED(MuPreferences.PROGRESS_DIALOG_CLOSE_WHEN_FINISHED),
 	THEME_TYPE(MuPreferences.THEME_TYPE),
@@ -192,6 +192,20 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String VOLUME_EXCLUDE_REGEXP               = VOLUME_LIST_SECTION + '.' + "exclude_regexp";
 
 
+	// - Folders tree variables ----------------------------------------------
+	// -----------------------------------------------------------------------
+	/** Section describing the folders tree CONFIGURATION. */
+	public static final String TREE_SECTION                        = "tree";
+	/** Maximum number of folders whose children are cached by the folders tree. */
+	public static final String TREE_CACHE_MAX_ENTRIES              = TREE_SECTION + '.' + "cache_max_entries";
+	/** Default maximum number of folders cached by the folders tree. */
+	public static final int    DEFAULT_TREE_CACHE_MAX_ENTRIES      = 5000;
+	/** Maximum estimated memory used by the folders cached by the folders tree, in bytes. */
+	public static final String TREE_CACHE_MAX_MEMORY               = TREE_SECTION + '.' + "cache_max_memory";
+	/** Default maximum estimated memory used by the folders cached by the folders tree. */
+	public static final long   DEFAULT_TREE_CACHE_MAX_MEMORY       = 8*1024*1024;
+
+
 	// - FileTable variables ---------------------------------------------------
 	// -----------------------------------------------------------------------
 	/** Section describing the folders view CONFIGURATION. */
@@ -232,6 +246,10 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String  CD_FOLLOWS_SYMLINKS                = FILE_TABLE_SECTION + '.' + "cd_follows_symlinks";
 	/** Default value for 'Follow symlinks when changing directory' option. */
 	public static final boolean DEFAULT_CD_FOLLOWS_SYMLINKS        = false;
+	/** Whether or not to calculate the size of folders in the background. */
+	public static final String  CALCULATE_FOLDER_SIZES             = FILE_TABLE_SECTION + '.' + "calculate_folder_sizes";
+	/** Default value for 'Calculate folder sizes' option. */
+	public static final boolean DEFAULT_CALCULATE_FOLDER_SIZES     = false;
 	/** Whether to always show the header of a single tab or not */
 	public static final String SHOW_SINGLE_TAB_HEADER			   = FILE_TABLE_SECTION + '.' + "show_single_tab_header";
 	/** Default value for 'Always show single tab header" */
@@ -289,10 +307,18 @@ public class MuPreferences implements MuPreferencesAPI {
 	public static final String REFRESH_CHECK_PERIOD               = REFRESH_SECTION + '.' + "check_period";
 	/** Default folder refresh frequency. */
 	public static final long   DEFAULT_REFRESH_CHECK_PERIOD       = 3000;
+	/** Frequency at which the current folder is checked for updates when it is a local one. */
+	public static final String LOCAL_REFRESH_CHECK_PERIOD         = REFRESH_SECTION + '.' + "local_check_period";
+	/** Default local folder refresh frequency, the same as the default folder refresh frequency. */
+	public static final long   DEFAULT_LOCAL_REFRESH_CHECK_PERIOD = DEFAULT_REFRESH_CHECK_PERIOD;
 	/** Minimum amount of time a folder should be checked for updates after it's been refreshed. */
 	public static final String WAIT_AFTER_REFRESH                 = REFRESH_SECTION + '.' + "wait_after_refresh";
 	/** Default minimum amount of time between two refreshes. */
 	public static final long   DEFAULT_WAIT_AFTER_REFRESH         = 10000;
+	/** Comma-separated list of the protocols whose folders are checked for changes by listing them, as their date is unreliable. */
+	public static final String FINGERPRINT_CHECK_PROTOCOLS        = REFRESH_SECTION + '.' + "fingerprint_check_protocols";
+	/** Default protocols whose folders are checked for changes by listing them. */
+	public static final String DEFAULT_FINGERPRINT_CHECK_PROTOCOLS = "ftp,smb,nfs";
 
 
 
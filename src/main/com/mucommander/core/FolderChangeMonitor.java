@@ -20,8 +20,18 @@ package com.mucommander.core;
 
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,6 +47,7 @@ import com.mucommander.conf.MuPreferences;
 import com.mucommander.ui.event.LocationEvent;
 import com.mucommander.ui.event.LocationListener;
 import com.mucommander.ui.main.FolderPanel;
+import com.mucommander.ui.main.table.ListingFingerprint;
 
 
 /**
@@ -47,7 +58,27 @@ import com.mucommander.ui.main.FolderPanel;
  * on will be not happen until the MainFrame becomes active again.
  *
  * <p>Implementation note: the monitoring is done in one single thread for all folders, each folder being monitored
- * one after another. Current folder refreshes are performed in a separate thread.
+ * one after another. The thread sleeps until the next folder check is due, and is woken up when a check may be needed
+ * sooner: when a window is activated, when a monitor is resumed or when a folder has been changed. When no window is
+ * in the foreground, it does not wake up at all. Local folders have a check period of their own,
+ * {@link MuPreference#LOCAL_REFRESH_CHECK_PERIOD}, which defaults to the default period and does not back off, as
+ * checking a local folder is cheap: lowering it makes changes show up sooner, at the cost of more wakeups and disk
+ * accesses while idle. Current folder refreshes are
+ * performed in a separate thread. The fields of a monitor are shared by the monitor thread, the remote check threads
+ * and the event dispatch thread, hence volatile.
+ *
+ * <p>Remote folders are checked by a small pool of threads, so that a slow server does not delay the checks of other
+ * folders and no more than {@link #MAX_CONCURRENT_REMOTE_CHECKS} remote checks run at a time. Their check period adapts
+ * to the cost of checks and to how often they change: it doubles after each check that finds no change, up to
+ * {@link #MAX_BACKOFF_LEVEL} times, and goes back to the configured period as soon as a change is detected. The
+ * average cost and change rate of checks are also kept per protocol, to estimate the cost of folders that have not been
+ * checked yet. Scheduling decisions are logged at the debug level.
+ *
+ * <p>Some servers do not update the date of a folder when the files it contains are modified. The folders of the
+ * protocols listed by the {@link MuPreference#FINGERPRINT_CHECK_PROTOCOLS} preference are therefore also listed when
+ * their date has not changed, and refreshed if the {@link ListingFingerprint fingerprint} of the listing differs from
+ * the one of the files displayed by the table. As folders are refreshed by updating only the rows of the files that
+ * have changed, a change detected this way is cheap to apply.</p>
  *
  * @author Maxence Bernard
  * @see <a href="http://trac.mucommander.com/wiki/FolderAutoRefresh">FolderAutoRefresh wiki entry</a>
@@ -59,28 +90,34 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     private FolderPanel folderPanel;
 
     /** Current file table's folder */
-    private AbstractFile currentFolder;
+    private volatile AbstractFile currentFolder;
 
     /** True when the current folder is currently being changed */
-    private boolean folderChanging;
+    private volatile boolean folderChanging;
 
     /** Current folder's date */
-    private long currentFolderDate;
+    private volatile long currentFolderDate;
 
     /** Folder check/refresh while be skipped while this field is set to <code>true</code> */ 
-    private boolean paused;
+    private volatile boolean paused;
 
     /** Number of milliseconds to wait before next folder check */
-    private long waitBeforeCheckTime;
+    private volatile long waitBeforeCheckTime;
 	
     /** Timestamp of the last folder change check */
-    private long lastCheckTimestamp;
+    private volatile long lastCheckTimestamp;
 
     /** Total time spent checking for folder changes in current folder */
-    private long totalCheckTime = 0;
+    private volatile long totalCheckTime = 0;
 	
     /** Number of checks in current folder */
-    private int nbSamples = 0;
+    private volatile int nbSamples = 0;
+
+    /** Number of times the check period of the current remote folder has been doubled since it last changed */
+    private volatile int backoffLevel;
+
+    /** True while the current remote folder is being checked by a remote check thread */
+    private volatile boolean checking;
 
 	
     //////////////////////
@@ -88,7 +125,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     //////////////////////
 	
     /** Thread in which the actual monitoring is performed */
-    private static Thread monitorThread;
+    private static volatile Thread monitorThread;
 
     /** FolderChangeMonitor instances */
     private static List<FolderChangeMonitor> instances;
@@ -97,6 +134,9 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 		
     /** Milliseconds period between checks to current folder's date */
     private static long checkPeriod;
+
+    /** Milliseconds period between checks to current folder's date, for local folders */
+    private static long localCheckPeriod;
 	
     /** Delay in milliseconds before folder date check after a folder has been refreshed */
     private static long waitAfterRefresh;
@@ -104,8 +144,34 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     /** If folder change check took an average of N milliseconds, thread will wait at least N*WAIT_MULTIPLIER before next check */
     private final static int WAIT_MULTIPLIER = 50;
 
-    /** Granularity of the thread check (number of milliseconds to sleep before next loop) */
-    private final static int TICK = 300;
+    /** Lock the monitor thread waits on until the next folder check is due */
+    private final static Object LOCK = new Object();
+
+    /** True if the monitor thread has been asked to check folders before it next waits */
+    private static boolean wakeUpRequested;
+
+    /** Maximum number of remote folders checked at the same time */
+    private final static int MAX_CONCURRENT_REMOTE_CHECKS = 2;
+
+    /** Maximum number of times the check period of a remote folder that does not change is doubled */
+    private final static int MAX_BACKOFF_LEVEL = 6;
+
+    /** Checks remote folders */
+    private final static ExecutorService REMOTE_CHECK_EXECUTOR = Executors.newFixedThreadPool(MAX_CONCURRENT_REMOTE_CHECKS, new ThreadFactory() {
+        private int count;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FolderChangeMonitor remote check-"+(++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Protocols whose folders are checked for changes by comparing listing fingerprints */
+    private final static Set<String> fingerprintCheckProtocols = new HashSet<String>();
+
+    /** Cost and change rate of checks, by protocol */
+    private final static Map<String, ProtocolStats> protocolStats = new HashMap<String, ProtocolStats>();
 
     static {
         instances = new Vector<FolderChangeMonitor>();
@@ -113,8 +179,14 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         // Retrieve configuration values
         checkPeriod = MuConfigurations.getPreferences().getVariable(MuPreference.REFRESH_CHECK_PERIOD,
                                                        MuPreferences.DEFAULT_REFRESH_CHECK_PERIOD);
+        localCheckPeriod = MuConfigurations.getPreferences().getVariable(MuPreference.LOCAL_REFRESH_CHECK_PERIOD,
+                                                       MuPreferences.DEFAULT_LOCAL_REFRESH_CHECK_PERIOD);
         waitAfterRefresh = MuConfigurations.getPreferences().getVariable(MuPreference.WAIT_AFTER_REFRESH,
                                                             MuPreferences.DEFAULT_WAIT_AFTER_REFRESH);
+        StringTokenizer protocols = new StringTokenizer(MuConfigurations.getPreferences().getVariable(MuPreference.FINGERPRINT_CHECK_PROTOCOLS,
+                                                            MuPreferences.DEFAULT_FINGERPRINT_CHECK_PROTOCOLS), ", ");
+        while(protocols.hasMoreTokens())
+            fingerprintCheckProtocols.add(protocols.nextToken().toLowerCase());
 
         disableAutoRefreshFilter.addFileFilter(new AbstractFileFilter() {
             public boolean accept(AbstractFile file) {
@@ -163,44 +235,154 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
 
 	
     public void run() {
-        // TODO: it would be more efficient to use a wait/notify scheme rather than sleeping. 
-        // It would also allow folders to be checked immediately upon certain conditions such as a window becoming activated.
-
-        int nbInstances;
-        FolderChangeMonitor monitor;
-        boolean folderRefreshed;
-		
         while(monitorThread!=null) {
-			
-            // Sleep for a while
-            try { Thread.sleep(TICK);}
-            catch(InterruptedException e) {}
-			
-            // Loop on instances
-            nbInstances = instances.size();
-            for(int i=0; i<nbInstances; i++) {
-                try { monitor = instances.get(i); }
-                catch(Exception e) { continue; } // Exception may be raised when an instance is removed
-				
-                // Check for changes in current folder and refresh it only if :
-                // - MainFrame is in the foreground
-                // - monitor is not paused
-                // - current folder is not being changed
-                if(monitor.folderPanel.getMainFrame().isForegroundActive() && !folderChanging && !monitor.paused) {
-                    // By checking FolderPanel.getLastFolderChangeTime(), we ensure that we don't check right after
-                    // the folder has been refreshed.
-                    if(System.currentTimeMillis()-Math.max(monitor.lastCheckTimestamp, monitor.folderPanel.getLastFolderChangeTime())>monitor.waitBeforeCheckTime) {
-                        // Checks folder contents and refreshes view if necessary
-                        folderRefreshed = monitor.checkAndRefresh();
-                        monitor.lastCheckTimestamp = System.currentTimeMillis();
-
-                        // If folder change check took an average of N milliseconds, we will wait at least N*WAIT_MULTIPLIER before next check
-                        monitor.waitBeforeCheckTime = monitor.nbSamples==0?
-                            checkPeriod
-                            :Math.max(folderRefreshed?waitAfterRefresh:checkPeriod, (int)(WAIT_MULTIPLIER*(monitor.totalCheckTime/(float)monitor.nbSamples)));
-                    }
-                }					
-            }		
+            long waitTime = checkFolders();
+
+            // Sleep until the next check is due, or until woken up
+            synchronized(LOCK) {
+                if(!wakeUpRequested) {
+                    try { LOCK.wait(waitTime); }
+                    catch(InterruptedException e) {}
+                }
+                wakeUpRequested = false;
+            }
+        }
+    }
+
+    /**
+     * Checks the folders whose check is due, and returns the number of milliseconds until the next check is due,
+     * <code>0</code> if no folder is to be checked until the monitor thread is woken up. Local folders are checked by
+     * the calling thread, remote folders are handed over to remote check threads, which wake the monitor thread up once
+     * they are done.
+     */
+    private static long checkFolders() {
+        long nextCheckTime = Long.MAX_VALUE;
+
+        // Loop on instances
+        FolderChangeMonitor monitors[] = instances.toArray(new FolderChangeMonitor[0]);
+        for(final FolderChangeMonitor monitor : monitors) {
+            // Check for changes in current folder and refresh it only if :
+            // - MainFrame is in the foreground (it is not when minimized)
+            // - monitor is not paused
+            // - current folder is not being changed
+            // - current folder is not being checked already
+            if(!monitor.folderPanel.getMainFrame().isForegroundActive() || monitor.folderChanging || monitor.paused || monitor.checking)
+                continue;
+
+            // By checking FolderPanel.getLastFolderChangeTime(), we ensure that we don't check right after
+            // the folder has been refreshed.
+            long checkTime = monitor.getNextCheckTime();
+            if(System.currentTimeMillis()>=checkTime) {
+                if(monitor.isLocal()) {
+                    monitor.check();
+                    checkTime = monitor.getNextCheckTime();
+                }
+                else {
+                    monitor.checking = true;
+                    REMOTE_CHECK_EXECUTOR.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                monitor.check();
+                            }
+                            finally {
+                                monitor.checking = false;
+                                wakeUp();
+                            }
+                        }
+                    });
+                    continue;
+                }
+            }
+
+            nextCheckTime = Math.min(nextCheckTime, checkTime);
+        }
+
+        if(nextCheckTime==Long.MAX_VALUE)
+            return 0;
+
+        return Math.max(1, nextCheckTime-System.currentTimeMillis());
+    }
+
+    /**
+     * Returns the time at which the current folder is to be checked next.
+     */
+    private long getNextCheckTime() {
+        return Math.max(lastCheckTimestamp, folderPanel.getLastFolderChangeTime())+waitBeforeCheckTime;
+    }
+
+    /**
+     * Returns <code>true</code> if the current folder is a local one.
+     */
+    private boolean isLocal() {
+        return FileProtocols.FILE.equals(currentFolder.getURL().getScheme());
+    }
+
+    /**
+     * Checks the current folder for changes, refreshes it if it has changed and works out when to check it next.
+     */
+    private void check() {
+        AbstractFile folder = currentFolder;
+        long timeStamp = System.currentTimeMillis();
+        boolean changed = checkAndRefresh();
+        lastCheckTimestamp = System.currentTimeMillis();
+
+        // The folder may have been changed while it was being checked
+        int samples = nbSamples;
+        if(folder!=currentFolder || samples==0)
+            return;
+
+        String scheme = folder.getURL().getScheme();
+        ProtocolStats stats = getProtocolStats(scheme);
+        stats.addCheck(lastCheckTimestamp-timeStamp, changed);
+
+        // Remote folders are checked less and less often while they do not change
+        if(isLocal() || changed)
+            backoffLevel = 0;
+        else if(backoffLevel<MAX_BACKOFF_LEVEL)
+            backoffLevel++;
+
+        // If folder change check took an average of N milliseconds, we will wait at least N*WAIT_MULTIPLIER before next check
+        long averageCheckTime = totalCheckTime/samples;
+        waitBeforeCheckTime = Math.max(getCheckPeriod(), WAIT_MULTIPLIER*averageCheckTime);
+
+        if(LOGGER.isDebugEnabled())
+            LOGGER.debug(folder.getName()+" ("+scheme+") checked in "+(lastCheckTimestamp-timeStamp)+"ms, changed="+changed
+                    +", average="+averageCheckTime+"ms, backoff level="+backoffLevel+", next check in "+waitBeforeCheckTime+"ms"
+                    +", "+scheme+" stats: "+stats);
+    }
+
+    /**
+     * Returns the number of milliseconds to wait between two checks of the current folder, when checks are fast.
+     */
+    private long getCheckPeriod() {
+        if(isLocal())
+            return localCheckPeriod;
+
+        return checkPeriod<<backoffLevel;
+    }
+
+    /**
+     * Returns the check statistics of the given protocol, creating them if needed.
+     */
+    private static ProtocolStats getProtocolStats(String scheme) {
+        synchronized(protocolStats) {
+            ProtocolStats stats = protocolStats.get(scheme);
+            if(stats==null) {
+                stats = new ProtocolStats();
+                protocolStats.put(scheme, stats);
+            }
+            return stats;
+        }
+    }
+
+    /**
+     * Wakes the monitor thread up, so that it checks the folders whose check is due and works out when to check them
+     * next.
+     */
+    private static void wakeUp() {
+        synchronized(LOCK) {
+            wakeUpRequested = true;
+            LOCK.notify();
         }
     }
 
@@ -210,6 +392,7 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
      */
     public void stop() {
         monitorThread = null;
+        wakeUp();
     }
 
 
@@ -224,8 +407,10 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         this.paused = paused;
 
         // Check folder for changes immediately as setPaused(false) is often called after a FileJob
-        if(!paused)
+        if(!paused) {
             this.waitBeforeCheckTime = 0;
+            wakeUp();
+        }
     }
 	
 	
@@ -239,17 +424,32 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         this.currentFolder = folder;
         this.currentFolderDate = currentFolder.getDate();
 
-        // Reset time average
+        // Reset time average and back-off
         totalCheckTime = 0;
         nbSamples = 0;
+        backoffLevel = 0;
+
+        // The wait before the next check is the one of the new folder, not the one the previous folder backed off to.
+        // Folders of a protocol that is expensive to check, or that rarely changes, are not checked as often as the
+        // configured period
+        if(isLocal()) {
+            waitBeforeCheckTime = getCheckPeriod();
+        }
+        else {
+            ProtocolStats stats = getProtocolStats(folder.getURL().getScheme());
+            if(stats.isRarelyChanged())
+                backoffLevel = 1;
+            waitBeforeCheckTime = Math.max(getCheckPeriod(), WAIT_MULTIPLIER*stats.getAverageCheckTime());
+        }
     }
 	
 	
     /**
-     * Checks if current file table's folder has changed and if it hasn't, checks if current folder's date has changed
-     * and if it has, refresh the file table.
+     * Checks if current file table's folder has changed and if it hasn't, checks if current folder's date has changed,
+     * or if the fingerprint of its listing has changed for the protocols whose folder dates are unreliable, and if it
+     * has, refresh the file table.
      *
-     * @return <code>true</code> if the folder was refreshed.
+     * @return <code>true</code> if changes have been detected and the folder is being refreshed.
      */
     private synchronized boolean checkAndRefresh() {
         if(paused || disableAutoRefreshFilter.match(currentFolder))
@@ -261,22 +461,56 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         // Check folder's date
         long date = currentFolder.getDate();
 
-        totalCheckTime += System.currentTimeMillis()-timeStamp;
-        nbSamples++;
-		
         // Has date changed ?
         // Note that date will be 0 if the folder is no longer available, and thus yield a refresh: this is exactly
         // what we want (the folder will be changed to a 'workable' folder).
-        if(date!=currentFolderDate) {
+        boolean changed = date!=currentFolderDate;
+        if(!changed && fingerprintCheckProtocols.contains(currentFolder.getURL().getScheme()))
+            changed = hasListingChanged();
+
+        totalCheckTime += System.currentTimeMillis()-timeStamp;
+        nbSamples++;
+
+        if(changed) {
             LOGGER.debug(this+" ("+currentFolder.getName()+") Detected changes in current folder, refreshing table!");
 			
             // Try and refresh current folder in a separate thread as to not lock monitor thread
             folderPanel.tryRefreshCurrentFolder();
+
+            return true;
         }
 		
         return false;
     }
 
+    /**
+     * Lists the current folder and returns <code>true</code> if the fingerprint of its listing differs from the one
+     * of the files displayed by the table. Errors and listings that cannot be compared yet are reported as no change,
+     * the folder's date check taking care of folders that are no longer available.
+     */
+    private boolean hasListingChanged() {
+        long tableFingerprint = folderPanel.getFileTable().getListingFingerprint();
+        if(tableFingerprint==ListingFingerprint.UNKNOWN)
+            return false;
+
+        long fingerprint;
+        try {
+            fingerprint = ListingFingerprint.compute(currentFolder.ls(folderPanel.getLocationManager().getFolderFilter()));
+        }
+        catch(Exception e) {
+            LOGGER.debug("Could not list "+currentFolder, e);
+            return false;
+        }
+
+        // The table may have been refreshed in the meantime
+        if(fingerprint!=tableFingerprint && folderPanel.getFileTable().getListingFingerprint()==tableFingerprint) {
+            LOGGER.debug(currentFolder.getName()+" has the same date but its listing fingerprint has changed");
+            return true;
+        }
+
+        return false;
+    }
+
 
     /////////////////////////////////////
     // LocationListener implementation //
@@ -291,14 +525,17 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         updateFolderInfo(locationEvent.getFolderPanel().getCurrentFolder());
 
         folderChanging = false;
+        wakeUp();
     }
 
     public void locationCancelled(LocationEvent locationEvent) {
         folderChanging = false;
+        wakeUp();
     }
 
     public void locationFailed(LocationEvent locationEvent) {
         folderChanging = false;
+        wakeUp();
     }
 
 
@@ -306,7 +543,14 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
     // WindowListener implementation //
     ///////////////////////////////////
 
-    public void windowActivated(WindowEvent e) {}
+    public void windowActivated(WindowEvent e) {
+        // The MainFrame is flagged as active by another listener of this event, folders are checked once it has been
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                wakeUp();
+            }
+        });
+    }
 
     public void windowDeactivated(WindowEvent e) {}
 
@@ -322,6 +566,45 @@ public class FolderChangeMonitor implements Runnable, WindowListener, LocationLi
         // Remove the MainFrame from the list of monitored instances
         instances.remove(this);
         LOGGER.debug("nbInstances="+instances.size());
-    }	
-	
+    }
+
+
+    /**
+     * Cost and change rate of the checks of the folders of a protocol.
+     */
+    private static class ProtocolStats {
+
+        /** Number of checks */
+        private int nbChecks;
+
+        /** Number of checks that detected changes */
+        private int nbChanges;
+
+        /** Total time spent checking, in milliseconds */
+        private long totalCheckTime;
+
+        private synchronized void addCheck(long checkTime, boolean changed) {
+            nbChecks++;
+            if(changed)
+                nbChanges++;
+            totalCheckTime += checkTime;
+        }
+
+        /**
+         * Returns <code>true</code> if enough folders of the protocol have been checked, and less than one check in
+         * ten detected changes.
+         */
+        private synchronized boolean isRarelyChanged() {
+            return nbChecks>=10 && nbChanges*10<nbChecks;
+        }
+
+        private synchronized long getAverageCheckTime() {
+            return nbChecks==0?0:totalCheckTime/nbChecks;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return nbChecks+" checks, average="+getAverageCheckTime()+"ms, changes="+nbChanges;
+        }
+    }
 }
@@ -18,7 +18,10 @@
 
 package com.mucommander.core;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 
 import org.slf4j.Logger;
@@ -30,6 +33,7 @@ import com.mucommander.commons.file.FileProtocols;
 import com.mucommander.commons.file.FileURL;
 import com.mucommander.commons.file.impl.local.LocalFile;
 import com.mucommander.ui.main.FolderPanel;
+import com.mucommander.ui.main.table.FileTableState;
 
 /**
  * This class maintains a history of visited locations for a given tab, and provides methods to go back and go forward
@@ -37,6 +41,11 @@ import com.mucommander.ui.main.FolderPanel;
  *
  * <p>There is a limit to the number of locations the history can contain, defined by {@link #HISTORY_CAPACITY}.</p>
  *
+ * <p>The state of the file table is saved when it leaves a folder, for the most recently visited folders: going back or
+ * forward to one of those folders displays it from its saved state right away, the folder is then checked for changes
+ * in the background. The number of saved states is limited by {@link #STATE_CACHE_CAPACITY} and the total number of
+ * files they contain by {@link #STATE_CACHE_MAX_FILES}, least recently used states being discarded first.</p>
+ *
  * @author Maxence Bernard, Arik Hadas
  */
 public class LocalLocationHistory {
@@ -45,6 +54,12 @@ public class LocalLocationHistory {
 	/** Maximum number of elements the folder history can contain */
 	private final static int HISTORY_CAPACITY = 100;
 
+	/** Maximum number of folder states that are kept */
+	private final static int STATE_CACHE_CAPACITY = 8;
+
+	/** Maximum total number of files of the folder states that are kept */
+	private final static int STATE_CACHE_MAX_FILES = 50000;
+
 	/** List of visited locations, ordered by last visit date */
 	private List<FileURL> history = new Vector<FileURL>(HISTORY_CAPACITY+1);
 
@@ -57,6 +72,12 @@ public class LocalLocationHistory {
 	/** Last folder which can be recalled on next startup */
 	private String lastRecallableFolder;
 
+	/** Saved states of the file table, ordered from least to most recently used */
+	private Map<FileURL, FileTableState> folderStates = new LinkedHashMap<FileURL, FileTableState>(16, 0.75f, true);
+
+	/** Total number of files of the saved states */
+	private int nbFolderStateFiles;
+
 
 	/**
 	 * Creates a new FolderHistory instance which will keep track of visited folders in the given FolderPanel.
@@ -117,7 +138,7 @@ public class LocalLocationHistory {
 		if (historyIndex==0)
 			return;
 
-		folderPanel.tryChangeCurrentFolder(history.get(--historyIndex));
+		changeCurrentFolder(history.get(--historyIndex));
 	}
 
 	/**
@@ -128,7 +149,44 @@ public class LocalLocationHistory {
 		if (historyIndex==history.size()-1)
 			return;
 
-		folderPanel.tryChangeCurrentFolder(history.get(++historyIndex));
+		changeCurrentFolder(history.get(++historyIndex));
+	}
+
+	/**
+	 * Changes current folder to the given one, from its saved state if there is one.
+	 */
+	private void changeCurrentFolder(FileURL folderURL) {
+		FileTableState state = folderStates.get(folderURL);
+		if (state!=null)
+			folderPanel.tryRestoreCurrentFolder(state);
+		else
+			folderPanel.tryChangeCurrentFolder(folderURL);
+	}
+
+	/**
+	 * Saves the state of the file table before it leaves a folder, replacing the previous state of the same folder.
+	 * States of folders that are not in the history are not kept.
+	 *
+	 * <p>This method is called by FolderPanel each time a folder is changed.</p>
+	 *
+	 * @param state the state of the file table
+	 */
+	public synchronized void saveFolderState(FileTableState state) {
+		FileURL folderURL = state.getFolder().getURL();
+		if (!historyContains(folderURL) || state.getFileCount()>STATE_CACHE_MAX_FILES)
+			return;
+
+		FileTableState previousState = folderStates.put(folderURL, state);
+		if (previousState!=null)
+			nbFolderStateFiles -= previousState.getFileCount();
+		nbFolderStateFiles += state.getFileCount();
+
+		// Discard the least recently used states
+		Iterator<FileTableState> iterator = folderStates.values().iterator();
+		while (folderStates.size()>STATE_CACHE_CAPACITY || nbFolderStateFiles>STATE_CACHE_MAX_FILES) {
+			nbFolderStateFiles -= iterator.next().getFileCount();
+			iterator.remove();
+		}
 	}
 
 
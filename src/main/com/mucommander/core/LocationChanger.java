@@ -55,6 +55,7 @@ import com.mucommander.ui.dialog.file.DownloadDialog;
 import com.mucommander.ui.event.LocationManager;
 import com.mucommander.ui.main.FolderPanel;
 import com.mucommander.ui.main.MainFrame;
+import com.mucommander.ui.main.table.FileTableState;
 import com.mucommander.utils.Callback;
 
 /**
@@ -301,6 +302,38 @@ public class LocationChanger {
 		}
 	}
 
+	/**
+	 * Tries to change the current folder to the folder of the given state, which is displayed as it was when the
+	 * state was saved, without listing the folder. The folder's date is then checked in the background, and the folder
+	 * is refreshed if it has changed since the state was saved.
+	 *
+	 * <p>This method spawns a separate thread that takes care of the actual folder change and returns it.
+	 * It does nothing and returns <code>null</code> if another folder change is already underway.</p>
+	 *
+	 * <p>This method is <b>not</b> I/O-bound and returns immediately, without any chance of locking the calling thread.</p>
+	 *
+	 * @param state the state of the file table when it was displaying the folder
+	 * @return the thread that performs the actual folder change, null if another folder change is already underway
+	 */
+	public ChangeFolderThread tryRestoreCurrentFolder(FileTableState state) {
+		LOGGER.debug("folder="+state.getFolder());
+
+		synchronized(FOLDER_CHANGE_LOCK) {
+			// Make sure a folder change is not already taking place (see #tryChangeCurrentFolder)
+			if(changeFolderThread!=null) {
+				LOGGER.debug("A folder change is already taking place ("+changeFolderThread+"), returning null");
+				return null;
+			}
+
+			ChangeFolderThread thread = new ChangeFolderThread(state.getFolder(), true, false);
+			thread.restoreState(state);
+			thread.start();
+
+			changeFolderThread = thread;
+			return thread;
+		}
+	}
+
 	/**
 	 * Shorthand for {@link #tryRefreshCurrentFolder(AbstractFile)} called with no specific file (<code>null</code>)
 	 * to select after the folder has been changed.
@@ -483,6 +516,8 @@ public class LocationChanger {
 		private FileURL folderURL;
 		private AbstractFile fileToSelect;
 		private CredentialsMapping credentialsMapping;
+		/** State of the file table to display the folder from, null to list the folder */
+		private FileTableState state;
 
 		/** True if this thread has been interrupted by the user using #tryKill */
 		private boolean killed;
@@ -534,6 +569,47 @@ public class LocationChanger {
 			this.fileToSelect = fileToSelect;
 		}
 
+		/**
+		 * Makes this thread display the folder from the given state of the file table rather than list it, and then
+		 * check that it hasn't changed since. The folder is listed as usual if the state cannot be restored.
+		 *
+		 * @param state the state of the file table when it was displaying the folder
+		 */
+		public void restoreState(FileTableState state) {
+			this.state = state;
+		}
+
+		/**
+		 * Displays the folder from the state of the file table and returns <code>true</code>, or returns
+		 * <code>false</code> if the thread has been killed in the meantime or the state could not be restored.
+		 */
+		private boolean restoreFolder() {
+			// Render all actions inactive while changing folder
+			mainFrame.setNoEventsMode(true);
+
+			synchronized(KILL_LOCK) {
+				if(killed) {
+					LOGGER.debug("this thread has been killed, returning");
+					return false;
+				}
+				// From now on, thread cannot be killed (would comprise table integrity)
+				doNotKill = true;
+			}
+
+			try {
+				// Update the timestamp right before the folder is set, see #setCurrentFolder
+				lastFolderChangeTime = System.currentTimeMillis();
+
+				locationManager.restoreCurrentFolder(state);
+				return true;
+			}
+			catch(Exception e) {
+				LOGGER.debug("Caught exception while restoring folder, listing it", e);
+				doNotKill = false;
+				return false;
+			}
+		}
+
 		/**
 		 * Returns <code>true</code> if the given file should have its canonical path followed. In that case, the
 		 * AbstractFile instance must be resolved again.
@@ -625,6 +701,22 @@ public class LocationChanger {
 		@Override
 		public void run() {
 			LOGGER.debug("starting folder change...");
+
+			// Display the folder as it was when it was last visited, and make sure that it hasn't changed since
+			if(state!=null && restoreFolder()) {
+				synchronized(KILL_LOCK) {
+					cleanup(true);
+				}
+
+				// Same check as FolderChangeMonitor: the folder is refreshed if its date has changed, which only
+				// updates the rows of the files that have changed
+				if(locationManager.getCurrentFolder()==folder && folder.getDate()!=state.getFolderDate()) {
+					LOGGER.debug("Folder has changed since it was last visited, refreshing it");
+					tryRefreshCurrentFolder();
+				}
+				return;
+			}
+
 			boolean folderChangedSuccessfully = false;
 
 			// Show some progress in the progress bar to give hope
@@ -26,11 +26,24 @@ import com.mucommander.conf.MuPreferences;
 
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 
 /**
  * CustomDateFormat allows custom date formatting, according to the date format stored in the preferences.
  *
+ * <p>This class is thread-safe and can be used concurrently, e.g. by threads that list folders in parallel: each
+ * thread formats dates with its own <code>SimpleDateFormat</code> instances, which are not thread-safe.
+ * The date and time parts of formatted dates are memoized, so that formatting the dates of a large folder, whose files
+ * have often been modified on the same few days, mostly boils down to concatenating two cached strings:
+ * <ul>
+ *   <li>the date part is cached per local day</li>
+ *   <li>the time part is cached per unit of the smallest field of the time format, e.g. per minute for the default
+ * format</li>
+ * </ul>
+ * A part is not cached if its format contains fields that depend on more than the local day or time, like a time
+ * zone, or milliseconds.</p>
+ *
  * @author Maxence Bernard
  */
 public class CustomDateFormat implements ConfigurationListener {
@@ -38,8 +51,23 @@ public class CustomDateFormat implements ConfigurationListener {
     /** Singleton instance */
     private static CustomDateFormat singleton;
 
-    /** Custom SimpleDateFormat instance */
-    private static SimpleDateFormat dateFormat;
+    /** The current date format, replaced when the preferences change */
+    private static volatile Formats formats;
+
+    /** Formatters of each thread */
+    private final static ThreadLocal<Formatter> formatters = new ThreadLocal<Formatter>();
+
+    /** Number of milliseconds in a day */
+    private final static long DAY_MILLIS = 24*60*60*1000;
+
+    /** Pattern letters of the fields that only depend on the local day */
+    private final static String DAY_FIELDS = "GyYMwWDdFEu";
+
+    /** Pattern letters of the fields that only depend on the local time, with a resolution of at least one second */
+    private final static String TIME_FIELDS = "HkKhmsa";
+
+    /** Number of days whose date part is cached, must be a power of 2 */
+    private final static int DAY_CACHE_SIZE = 4096;
 
 
     /**
@@ -58,7 +86,7 @@ public class CustomDateFormat implements ConfigurationListener {
         singleton = new CustomDateFormat();
         MuConfigurations.addPreferencesListener(singleton);
 
-        dateFormat = createDateFormat();
+        updateDateFormat();
     }
 
 
@@ -89,43 +117,224 @@ public class CustomDateFormat implements ConfigurationListener {
      * The format of the returned string is the one used by the <code>java.text.SimpleDateFormat</code> class. 
      */
     public static String getDateFormatString() {
+        return getDatePartFormatString() + " " + getTimePartFormatString();
+    }
+
+    /**
+     * Returns the date part of the date format stored in the preferences, with the custom separator.
+     */
+    private static String getDatePartFormatString() {
         return replaceDateSeparator(
         		MuConfigurations.getPreferences().getVariable(MuPreference.DATE_FORMAT, MuPreferences.DEFAULT_DATE_FORMAT),
-        		MuConfigurations.getPreferences().getVariable(MuPreference.DATE_SEPARATOR, MuPreferences.DEFAULT_DATE_SEPARATOR))
-        + " " + MuConfigurations.getPreferences().getVariable(MuPreference.TIME_FORMAT, MuPreferences.DEFAULT_TIME_FORMAT);
+        		MuConfigurations.getPreferences().getVariable(MuPreference.DATE_SEPARATOR, MuPreferences.DEFAULT_DATE_SEPARATOR));
+    }
+
+    /**
+     * Returns the time part of the date format stored in the preferences.
+     */
+    private static String getTimePartFormatString() {
+        return MuConfigurations.getPreferences().getVariable(MuPreference.TIME_FORMAT, MuPreferences.DEFAULT_TIME_FORMAT);
     }
 
 
     /**
      * Forces CustomDateFormat to update the date format by looking it up in the preferences.
      */
-    public static synchronized void updateDateFormat() {
-        dateFormat = createDateFormat();
+    public static void updateDateFormat() {
+        // The formatters and caches of the previous format are discarded along with it
+        formats = new Formats(getDatePartFormatString(), getTimePartFormatString(), TimeZone.getDefault());
     }
 
 
     /**
-     * Creates and returns a SimpleDateFormat instance using the date format stored in the preferences.
+     * Formats the given with custom date format and returns a formatted date string. 
+     *
+     * @return a formatted string representing the given date.
      */
-    private static SimpleDateFormat createDateFormat() {
-        return new SimpleDateFormat(getDateFormatString());
+    public static String format(Date date) {
+        return format(date.getTime());
     }
-	
-	
+
     /**
-     * Formats the given with custom date format and returns a formatted date string. 
+     * Formats the given date, expressed in milliseconds since the epoch, with custom date format and returns a
+     * formatted date string. This method does not allocate anything other than the returned string, when both parts
+     * of the date are cached.
      *
+     * @param date the date to format, in milliseconds since the epoch
      * @return a formatted string representing the given date.
      */
-    public static synchronized String format(Date date) {
-        // Calls to SimpleDateFormat MUST be synchronized otherwise it will start throwing exceptions (verified that!),
-        // that is why this method is synchronized.
+    public static String format(long date) {
+        Formats currentFormats = formats;
+        if(currentFormats==null) {
+            updateDateFormat();
+            currentFormats = formats;
+        }
+
+        // Calls to SimpleDateFormat MUST NOT be concurrent otherwise it will start throwing exceptions (verified that!),
+        // that is why each thread has its own formatter.
         // Quote from SimpleDateFormat's Javadoc: "Date formats are not synchronized. It is recommended to create
         // separate format instances for each thread. If multiple threads access a format concurrently, 
         // it must be synchronized externally."
-        return dateFormat.format(date);
+        Formatter formatter = formatters.get();
+        if(formatter==null || formatter.formats!=currentFormats) {
+            formatter = new Formatter(currentFormats);
+            formatters.set(formatter);
+        }
+
+        return formatter.format(date);
+    }
+
+    /**
+     * Returns <code>true</code> if the given <code>SimpleDateFormat</code> pattern only contains the given fields,
+     * letters within quotes excepted.
+     */
+    private static boolean containsOnly(String pattern, String fields) {
+        boolean quoted = false;
+        for(int i=0; i<pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if(c=='\'')
+                quoted = !quoted;
+            else if(!quoted && ((c>='a' && c<='z') || (c>='A' && c<='Z')) && fields.indexOf(c)==-1)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if the given <code>SimpleDateFormat</code> pattern contains one of the given fields.
+     */
+    private static boolean containsAny(String pattern, String fields) {
+        for(int i=0; i<fields.length(); i++) {
+            if(pattern.indexOf(fields.charAt(i))!=-1)
+                return true;
+        }
+        return false;
     }
-	
+
+
+    /**
+     * A date format and the caches of its date and time parts, shared by all threads. Cached strings are stored in
+     * arrays without synchronization: as strings are immutable, the worst that can happen is for a thread to miss a
+     * string that has just been cached by another thread, and format it again.
+     */
+    private static class Formats {
+        private final String datePattern;
+        private final String timePattern;
+        private final TimeZone timeZone;
+
+        /** Date parts by local day modulo {@link #DAY_CACHE_SIZE}, null if the date part cannot be cached */
+        private final DatePart dateParts[];
+
+        /** Number of milliseconds represented by a time part, e.g. 60000 if the smallest field is minutes */
+        private final int timeResolution;
+
+        /** Time parts by unit of {@link #timeResolution} within the local day, null if the time part cannot be cached */
+        private final String timeParts[];
+
+        private Formats(String datePattern, String timePattern, TimeZone timeZone) {
+            this.datePattern = datePattern;
+            this.timePattern = timePattern;
+            this.timeZone = timeZone;
+
+            dateParts = containsOnly(datePattern, DAY_FIELDS)?new DatePart[DAY_CACHE_SIZE]:null;
+
+            if(containsOnly(timePattern, TIME_FIELDS)) {
+                if(timePattern.indexOf('s')!=-1)
+                    timeResolution = 1000;
+                else if(timePattern.indexOf('m')!=-1)
+                    timeResolution = 60*1000;
+                else if(containsAny(timePattern, "HkKha"))
+                    timeResolution = 60*60*1000;
+                else
+                    timeResolution = (int)DAY_MILLIS;
+                timeParts = new String[(int)(DAY_MILLIS/timeResolution)];
+            }
+            else {
+                timeResolution = 1;
+                timeParts = null;
+            }
+        }
+    }
+
+    /**
+     * The date part of the dates of a local day.
+     */
+    private static class DatePart {
+        private final long day;
+        private final String string;
+
+        private DatePart(long day, String string) {
+            this.day = day;
+            this.string = string;
+        }
+    }
+
+    /**
+     * Formats dates on behalf of a single thread, with its own <code>SimpleDateFormat</code> instances and buffers.
+     */
+    private static class Formatter {
+        private final Formats formats;
+        private final SimpleDateFormat dateFormat;
+        private final SimpleDateFormat timeFormat;
+        private final Date date = new Date();
+        private final StringBuilder sb = new StringBuilder(32);
+
+        private Formatter(Formats formats) {
+            this.formats = formats;
+            this.dateFormat = new SimpleDateFormat(formats.datePattern);
+            this.timeFormat = new SimpleDateFormat(formats.timePattern);
+            dateFormat.setTimeZone(formats.timeZone);
+            timeFormat.setTimeZone(formats.timeZone);
+        }
+
+        private String format(long time) {
+            // Local day and time of day of the date
+            long localTime = time + formats.timeZone.getOffset(time);
+            long day = localTime/DAY_MILLIS;
+            if(localTime<0 && day*DAY_MILLIS!=localTime)
+                day--;
+            int timeOfDay = (int)(localTime - day*DAY_MILLIS);
+
+            String datePart;
+            DatePart dateParts[] = formats.dateParts;
+            if(dateParts!=null) {
+                int index = (int)day & (DAY_CACHE_SIZE-1);
+                DatePart cached = dateParts[index];
+                if(cached!=null && cached.day==day) {
+                    datePart = cached.string;
+                }
+                else {
+                    datePart = formatPart(dateFormat, time);
+                    dateParts[index] = new DatePart(day, datePart);
+                }
+            }
+            else {
+                datePart = formatPart(dateFormat, time);
+            }
+
+            String timePart;
+            String timeParts[] = formats.timeParts;
+            if(timeParts!=null) {
+                int index = timeOfDay/formats.timeResolution;
+                timePart = timeParts[index];
+                if(timePart==null)
+                    timeParts[index] = timePart = formatPart(timeFormat, time);
+            }
+            else {
+                timePart = formatPart(timeFormat, time);
+            }
+
+            sb.setLength(0);
+            sb.append(datePart).append(' ').append(timePart);
+            return sb.toString();
+        }
+
+        private String formatPart(SimpleDateFormat format, long time) {
+            date.setTime(time);
+            return format.format(date);
+        }
+    }
+
 
     ///////////////////////////////////
     // ConfigurationListener methods //
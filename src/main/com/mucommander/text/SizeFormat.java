@@ -87,6 +87,26 @@ public class SizeFormat {
     /** Localized decimal separator */
     private final static String DECIMAL_SEPARATOR = ""+DECIMAL_FORMAT.getDecimalFormatSymbols().getDecimalSeparator();
 
+    /** Copies of {@link #DECIMAL_FORMAT} used by each thread to format all digits */
+    private final static ThreadLocal<DecimalFormat> FULL_DIGITS_FORMATS = new ThreadLocal<DecimalFormat>() {
+        @Override
+        protected DecimalFormat initialValue() {
+            synchronized(DECIMAL_FORMAT) {
+                return (DecimalFormat)DECIMAL_FORMAT.clone();
+            }
+        }
+    };
+
+    /** Number of cached strings of each unit: numbers from 0 to 1023, followed by numbers from 0.0 to 9.9 */
+    private final static int CACHE_SLOTS = KB_1+100;
+
+    /**
+     * Cached strings by format bitmask, unit and number, see {@link #format(long, int)}. Arrays are created and filled
+     * without synchronization: strings are immutable, so the worst that can happen is for a thread to miss a string
+     * that has just been cached by another thread, and create it again.
+     */
+    private final static String CACHE[][] = new String[ROUND_TO_KB*2][];
+
 
     /////////////////////
     // Dictionary keys //
@@ -106,6 +126,10 @@ public class SizeFormat {
     /**
      * Returns a String representation of the given byte size.
      *
+     * <p>Except when all digits are displayed, the returned string only depends on the unit of the given size and on a
+     * small number of digits, e.g. "436 KB" or "4.3 MB": those strings are cached for each format and returned without
+     * any allocation the next time they are needed. This method is thread-safe.</p>
+     *
      * @param size the size to format
      * @param format format bitmask, see constant fields for allowed values
      * @return a String representation of the given byte size
@@ -114,91 +138,141 @@ public class SizeFormat {
         if(size<0)
             return "?";
 
-        String digitsString;
-        String unitString;
-		
         // Whether the unit string should be long or not
         boolean unitLong = (format&UNIT_LONG)!=0;
         // Whether the unit string should be short or not
         boolean unitShort = (format&UNIT_SHORT)!=0;
-        // Whether the unit string should be short or not
-        boolean noUnit = !(unitLong||unitShort);
         // Whether the digits string should be short or not
         boolean digitsShort = (format&DIGITS_SHORT)!=0;
         // Whether any size < 1024 bytes should be rounded to a kilobyte
         boolean roundToKb = (format&ROUND_TO_KB)!=0;
-		
+
+        int unit;
+        // Integer part of the displayed number
+        long digits;
+        // Tenths of the displayed number, -1 if the number has no decimal part
+        int tenths = -1;
+
         // size < 1KB
         if(size<KB_1) {
             if(roundToKb) {
                 // Note: ROUND_TO_KB must have precedence over DIGITS_FULL
-                digitsString = size==0?"0":"1";
-                unitString = noUnit?"":KB;
+                unit = KILOBYTE_UNIT;
+                digits = size==0?0:1;
             }
             else {
-                digitsString = ""+size;
-                unitString = unitLong?(size<=1?BYTE:BYTES):unitShort?B:"";
+                unit = BYTE_UNIT;
+                digits = size;
             }
         }
         else if((format&DIGITS_FULL)!=0) {
-            // DecimalFormat localizes thousands separators
+            // DecimalFormat localizes thousands separators. Decimal formats are not thread-safe, each thread has its own.
+            String digitsString = FULL_DIGITS_FORMATS.get().format(size);
+            String unitString = unitLong?BYTES:unitShort?B:"";
+            if((format&UNIT_SPEED)!=0)
+                unitString = Translator.get(SPEED_KEY, unitString);
 
-            // Calls to DecimalFormat must be synchronized.
-            // Quote from DecimalFormat's Javadoc: "Decimal formats are generally not synchronized. It is recommended 
-            // to create separate format instances for each thread. If multiple threads access a format concurrently,
-            // it must be synchronized externally."
-            synchronized(DECIMAL_FORMAT) {
-                digitsString = DECIMAL_FORMAT.format(size);
-            }
-            unitString = unitLong?BYTES:unitShort?B:"";
+            return digitsString+((format&INCLUDE_SPACE)!=0?" ":"")+unitString;
         }
         else {
             // size < 10KB	-> "9.6 KB"
             if(size<KB_10 && !digitsShort) {
-                int nKB = (int)size/KB_1;
-                digitsString = nKB+DECIMAL_SEPARATOR+(int)((size-nKB*KB_1)/(float)KB_1*10);
-                unitString = noUnit?"":KB;
+                unit = KILOBYTE_UNIT;
+                digits = (int)size/KB_1;
+                tenths = (int)((size-digits*KB_1)/(float)KB_1*10);
             }
             // size < 1MB -> "436 KB"
             else if(size<MB_1) {
-                digitsString = ""+size/KB_1;
-                unitString = noUnit?"":KB;
+                unit = KILOBYTE_UNIT;
+                digits = size/KB_1;
             }
             // size < 10MB -> "4.3 MB"
             else if(size<MB_10 && !digitsShort) {
-                int nMB = (int)size/MB_1;
-                digitsString = nMB+DECIMAL_SEPARATOR+(int)((size-nMB*MB_1)/(float)MB_1*10);
-                unitString = noUnit?"":MB;
+                unit = MEGABYTE_UNIT;
+                digits = (int)size/MB_1;
+                tenths = (int)((size-digits*MB_1)/(float)MB_1*10);
             }
             // size < 1GB -> "548 MB"
             else if(size<GB_1) {
-                digitsString = ""+size/MB_1;
-                unitString = noUnit?"":MB;
+                unit = MEGABYTE_UNIT;
+                digits = size/MB_1;
             }	
             // size < 10GB -> "4.8 GB"
             else if(size<GB_10 && !digitsShort) {
-                long nGB = size/GB_1;
-                digitsString = nGB+DECIMAL_SEPARATOR+(int)((size-nGB*GB_1)/(double)GB_1*10);
-                unitString = noUnit?"":GB;
+                unit = GIGABYTE_UNIT;
+                digits = size/GB_1;
+                tenths = (int)((size-digits*GB_1)/(double)GB_1*10);
             }
             // size < 1TB -> "216 GB"
             else if(size<TB_1) {
-                digitsString = ""+size/GB_1;
-                unitString = noUnit?"":GB;
+                unit = GIGABYTE_UNIT;
+                digits = size/GB_1;
             }
             // size < 10TB -> "4.8 TB"
             else if(size<TB_10 && !digitsShort) {
-                long nTB = size/TB_1;
-                digitsString = nTB+DECIMAL_SEPARATOR+(int)((size-nTB*TB_1)/(double)TB_1*10);
-                unitString = noUnit?"":TB;
+                unit = TERABYTE_UNIT;
+                digits = size/TB_1;
+                tenths = (int)((size-digits*TB_1)/(double)TB_1*10);
             }
             else {
                 // Will I live long enough to see files that large ??
-                digitsString = ""+size/TB_1;
-                unitString = noUnit?"":TB;
+                unit = TERABYTE_UNIT;
+                digits = size/TB_1;
             }
         }
 
+        // Look the string up in the cache of the format. Numbers with a decimal part are stored after the integers.
+        if(digits>=KB_1 || format<0 || format>=CACHE.length)
+            return createString(unit, digits, tenths, format);
+
+        int index = unit*CACHE_SLOTS + (tenths==-1?(int)digits:KB_1+(int)digits*10+tenths);
+        String cache[] = CACHE[format];
+        if(cache==null)
+            CACHE[format] = cache = new String[CACHE_SLOTS*(TERABYTE_UNIT+1)];
+
+        String string = cache[index];
+        if(string==null)
+            cache[index] = string = createString(unit, digits, tenths, format);
+
+        return string;
+    }
+
+    /**
+     * Creates the string representation of the given number of the given unit.
+     *
+     * @param unit the unit of the number
+     * @param digits the integer part of the number
+     * @param tenths the tenths of the number, -1 if the number has no decimal part
+     * @param format format bitmask
+     * @return the string representation of the number, with its unit
+     */
+    private static String createString(int unit, long digits, int tenths, int format) {
+        // Whether the unit string should be long or not
+        boolean unitLong = (format&UNIT_LONG)!=0;
+        // Whether the unit string should be short or not
+        boolean unitShort = (format&UNIT_SHORT)!=0;
+        // Whether the unit string should be short or not
+        boolean noUnit = !(unitLong||unitShort);
+
+        String digitsString = tenths==-1?""+digits:digits+DECIMAL_SEPARATOR+tenths;
+        String unitString;
+        switch(unit) {
+            case BYTE_UNIT:
+                unitString = unitLong?(digits<=1?BYTE:BYTES):unitShort?B:"";
+                break;
+            case KILOBYTE_UNIT:
+                unitString = noUnit?"":KB;
+                break;
+            case MEGABYTE_UNIT:
+                unitString = noUnit?"":MB;
+                break;
+            case GIGABYTE_UNIT:
+                unitString = noUnit?"":GB;
+                break;
+            default:
+                unitString = noUnit?"":TB;
+        }
+
         // Add localized '/s' to unit string if unit is speed
         if((format&UNIT_SPEED)!=0)
             unitString = Translator.get(SPEED_KEY, unitString);
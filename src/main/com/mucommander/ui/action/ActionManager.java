@@ -153,6 +153,7 @@ public class ActionManager {
     	registerAction(new PopupLeftDriveButtonAction.Descriptor(),         new PopupLeftDriveButtonAction.Factory());
     	registerAction(new PopupRightDriveButtonAction.Descriptor(),        new PopupRightDriveButtonAction.Factory());
     	registerAction(new PreviousTabAction.Descriptor(),					new PreviousTabAction.Factory());
+    	registerAction(new QuickFilterAction.Descriptor(),              	new QuickFilterAction.Factory());
     	registerAction(new QuitAction.Descriptor(),              			new QuitAction.Factory());
     	registerAction(new RecallNextWindowAction.Descriptor(),             new RecallNextWindowAction.Factory());
     	registerAction(new RecallPreviousWindowAction.Descriptor(),         new RecallPreviousWindowAction.Factory());
@@ -215,14 +216,17 @@ public class ActionManager {
     	registerAction(new ToggleCommandBarAction.Descriptor(),             new ToggleCommandBarAction.Factory());
     	registerAction(new ToggleDateColumnAction.Descriptor(),             new ToggleDateColumnAction.Factory());
     	registerAction(new ToggleExtensionColumnAction.Descriptor(),        new ToggleExtensionColumnAction.Factory());
+    	registerAction(new ToggleFolderSizesAction.Descriptor(),            new ToggleFolderSizesAction.Factory());
     	registerAction(new ToggleGroupColumnAction.Descriptor(),            new ToggleGroupColumnAction.Factory());
     	registerAction(new ToggleHiddenFilesAction.Descriptor(),            new ToggleHiddenFilesAction.Factory());
     	registerAction(new ToggleLockTabAction.Descriptor(),                new ToggleLockTabAction.Factory());
     	registerAction(new ToggleOwnerColumnAction.Descriptor(),            new ToggleOwnerColumnAction.Factory());
     	registerAction(new TogglePermissionsColumnAction.Descriptor(),      new TogglePermissionsColumnAction.Factory());
+    	registerAction(new TogglePreviewAction.Descriptor(),                new TogglePreviewAction.Factory());
     	registerAction(new ToggleShowFoldersFirstAction.Descriptor(),       new ToggleShowFoldersFirstAction.Factory());
     	registerAction(new ToggleSizeColumnAction.Descriptor(),             new ToggleSizeColumnAction.Factory());
     	registerAction(new ToggleStatusBarAction.Descriptor(),              new ToggleStatusBarAction.Factory());
+    	registerAction(new ToggleThumbnailsAction.Descriptor(),             new ToggleThumbnailsAction.Factory());
     	registerAction(new ToggleToolBarAction.Descriptor(),                new ToggleToolBarAction.Factory());
     	registerAction(new ToggleTreeAction.Descriptor(),             	    new ToggleTreeAction.Factory());
     	registerAction(new UnmarkAllAction.Descriptor(),            		new UnmarkAllAction.Factory());
@@ -19,6 +19,7 @@
 package com.mucommander.ui.action.impl;
 
 import java.awt.event.KeyEvent;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.swing.KeyStroke;
@@ -50,53 +51,49 @@ public class CompareFoldersAction extends MuAction {
         FileTable leftTable = mainFrame.getLeftPanel().getFileTable();
         FileTable rightTable = mainFrame.getRightPanel().getFileTable();
 
-        FileTableModel leftTableModel = leftTable.getFileTableModel();
-        FileTableModel rightTableModel = rightTable.getFileTableModel();
+        markNewerFiles(leftTable, rightTable.getFileTableModel());
+        markNewerFiles(rightTable, leftTable.getFileTableModel());
 
-        int nbFilesLeft = leftTableModel.getFileCount();
-        int nbFilesRight = rightTableModel.getFileCount();
-        int fileIndex;
-        String tempFileName;
-        AbstractFile tempFile;
-        for(int i=0; i<nbFilesLeft; i++) {
-            tempFile = leftTableModel.getFileAt(i);
-            if(tempFile.isDirectory())
-                continue;
+        // Notify registered listeners that currently marked files have changed on the file tables
+        leftTable.fireMarkedFilesChangedEvent();
+        rightTable.fireMarkedFilesChangedEvent();
+    }
 
-            tempFileName = tempFile.getName();
-            fileIndex = -1;
-            for(int j=0; j<nbFilesRight; j++)
-                if (rightTableModel.getFileAt(j).getName().equals(tempFileName)) {
-                    fileIndex = j;
-                    break;
-                }
-            if (fileIndex==-1 || rightTableModel.getFileAt(fileIndex).getDate()<tempFile.getDate()) {
-                leftTableModel.setFileMarked(tempFile, true);
-                leftTable.repaint();
-            }
+    /**
+     * Marks the files of the given table that do not exist in the other table, or that are more recent than the
+     * file with the same name in it. The rows of marked files are repainted once, when all files have been marked.
+     *
+     * @param table the table whose files are marked
+     * @param otherTableModel the model of the table to compare files with
+     */
+    private static void markNewerFiles(FileTable table, FileTableModel otherTableModel) {
+        FileTableModel tableModel = table.getFileTableModel();
+
+        // Files are looked up by name, the first file with a given name is used
+        int nbOtherFiles = otherTableModel.getFileCount();
+        Map<String, AbstractFile> otherFiles = new HashMap<String, AbstractFile>(nbOtherFiles*4/3+1);
+        for(int j=nbOtherFiles-1; j>=0; j--) {
+            AbstractFile otherFile = otherTableModel.getFileAt(j);
+            otherFiles.put(otherFile.getName(), otherFile);
         }
 
-        for(int i=0; i<nbFilesRight; i++) {
-            tempFile = rightTableModel.getFileAt(i);
+        int nbFiles = tableModel.getFileCount();
+        AbstractFile tempFile;
+        AbstractFile otherFile;
+        for(int i=0; i<nbFiles; i++) {
+            tempFile = tableModel.getFileAt(i);
             if(tempFile.isDirectory())
                 continue;
 
-            tempFileName = tempFile.getName();
-            fileIndex = -1;
-            for(int j=0; j<nbFilesLeft; j++)
-                if (leftTableModel.getFileAt(j).getName().equals(tempFileName)) {
-                    fileIndex = j;
-                    break;
+            otherFile = otherFiles.get(tempFile.getName());
+            if(otherFile==null || otherFile.getDate()<tempFile.getDate()) {
+                int row = tableModel.getFileRow(tempFile);
+                if(row!=-1) {
+                    tableModel.setRowMarked(row, true);
+                    table.repaintRows(row, row);
                 }
-            if (fileIndex==-1 || leftTableModel.getFileAt(fileIndex).getDate()<tempFile.getDate()) {
-                rightTableModel.setFileMarked(tempFile, true);
-                rightTable.repaint();
             }
         }
-
-        // Notify registered listeners that currently marked files have changed on the file tables
-        leftTable.fireMarkedFilesChangedEvent();
-        rightTable.fireMarkedFilesChangedEvent();
     }
 
 	@Override
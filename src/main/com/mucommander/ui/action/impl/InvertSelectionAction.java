@@ -23,7 +23,6 @@ import java.util.Map;
 
 import javax.swing.KeyStroke;
 
-import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.ui.action.AbstractActionDescriptor;
 import com.mucommander.ui.action.ActionCategories;
 import com.mucommander.ui.action.ActionCategory;
@@ -31,8 +30,6 @@ import com.mucommander.ui.action.ActionDescriptor;
 import com.mucommander.ui.action.ActionFactory;
 import com.mucommander.ui.action.MuAction;
 import com.mucommander.ui.main.MainFrame;
-import com.mucommander.ui.main.table.FileTable;
-import com.mucommander.ui.main.table.FileTableModel;
 
 /**
  * This action .
@@ -47,21 +44,8 @@ public class InvertSelectionAction extends MuAction {
 
     @Override
     public void performAction() {
-        FileTable fileTable = mainFrame.getActiveTable();
-        FileTableModel tableModel = fileTable.getFileTableModel();
-
-        // Starts at 1 if current folder is not root so that '..' is not marked
-        AbstractFile file;
-        int nbRows = tableModel.getRowCount();
-        for(int i=tableModel.getFirstMarkableRow(); i<nbRows; i++) {
-            file = tableModel.getFileAtRow(i);
-            if(!file.isDirectory())
-                tableModel.setRowMarked(i, !tableModel.isRowMarked(i));
-        }
-        fileTable.repaint();
-
-        // Notify registered listeners that currently marked files have changed on the FileTable
-        fileTable.fireMarkedFilesChangedEvent();
+        // Folders are left untouched
+        mainFrame.getActiveTable().invertMarks(false);
     }
 
 	@Override
@@ -30,8 +30,6 @@ import com.mucommander.ui.action.ActionDescriptor;
 import com.mucommander.ui.action.ActionFactory;
 import com.mucommander.ui.action.MuAction;
 import com.mucommander.ui.main.MainFrame;
-import com.mucommander.ui.main.table.FileTable;
-import com.mucommander.ui.main.table.FileTableModel;
 
 /**
  * This action marks all files in the current file table.
@@ -52,16 +50,7 @@ public class MarkAllAction extends MuAction {
 
     @Override
     public void performAction() {
-        FileTable fileTable = mainFrame.getActiveTable();
-        FileTableModel tableModel = fileTable.getFileTableModel();
-
-        int nbRows = tableModel.getRowCount();
-        for(int i=tableModel.getFirstMarkableRow(); i<nbRows; i++)
-            tableModel.setRowMarked(i, mark);
-        fileTable.repaint();
-
-        // Notify registered listeners that currently marked files have changed on the FileTable
-        fileTable.fireMarkedFilesChangedEvent();
+        mainFrame.getActiveTable().setAllMarked(mark, true);
     }
 
 	@Override
@@ -35,7 +35,6 @@ import com.mucommander.ui.action.ActionFactory;
 import com.mucommander.ui.action.MuAction;
 import com.mucommander.ui.main.MainFrame;
 import com.mucommander.ui.main.table.FileTable;
-import com.mucommander.ui.main.table.FileTableModel;
 
 /**
  * Action that marks / unmarks all files with a specific extension.
@@ -177,27 +176,17 @@ public class MarkExtensionAction extends MuAction {
     @Override
     public void performAction() {
         FileTable      fileTable;
-        FileTableModel tableModel;
         FilenameFilter filter;
-        int            rowCount;
         boolean        mark;
 
         // Initialization. Aborts if there is no selected file.
         fileTable  = mainFrame.getActiveTable();
         if((filter = getFilter(fileTable.getSelectedFile(false, true))) == null)
             return;
-        tableModel = fileTable.getFileTableModel();
-        rowCount   = tableModel.getRowCount();
-        mark       = !tableModel.isRowMarked(fileTable.getSelectedRow());
-
-        // Goes through all files in the active table, marking all that match 'filter'.
-        for(int i = tableModel.getFirstMarkableRow(); i < rowCount; i++)
-            if(filter.accept(tableModel.getCachedFileAtRow(i)))
-                tableModel.setRowMarked(i, mark);
-        fileTable.repaint();
-
-        // Notify registered listeners that currently marked files have changed on the FileTable
-        fileTable.fireMarkedFilesChangedEvent();
+        mark       = !fileTable.getFileTableModel().isRowMarked(fileTable.getSelectedRow());
+
+        // Marks all files in the active table that match 'filter'.
+        fileTable.setFilesMarked(filter, mark);
     }
 
 	@Override
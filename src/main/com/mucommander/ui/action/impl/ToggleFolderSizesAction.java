@@ -0,0 +1,78 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.action.impl;
+
+import java.util.Map;
+
+import javax.swing.KeyStroke;
+
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
+import com.mucommander.ui.action.AbstractActionDescriptor;
+import com.mucommander.ui.action.ActionCategories;
+import com.mucommander.ui.action.ActionCategory;
+import com.mucommander.ui.action.ActionDescriptor;
+import com.mucommander.ui.action.ActionFactory;
+import com.mucommander.ui.action.MuAction;
+import com.mucommander.ui.main.MainFrame;
+
+/**
+ * This action toggles the 'Calculate folder sizes' option: when it is enabled, file tables calculate the size of the
+ * folders they display in the background and show it in the size column, instead of &lt;DIR&gt;.
+ */
+public class ToggleFolderSizesAction extends MuAction {
+
+    public ToggleFolderSizesAction(MainFrame mainFrame, Map<String,Object> properties) {
+        super(mainFrame, properties);
+    }
+
+    /**
+     * Toggles the calculation of folder sizes on and off, all file tables follow the new value.
+     */
+    @Override
+    public void performAction() {
+        MuConfigurations.getPreferences().setVariable(MuPreference.CALCULATE_FOLDER_SIZES,
+                !MuConfigurations.getPreferences().getVariable(MuPreference.CALCULATE_FOLDER_SIZES, MuPreferences.DEFAULT_CALCULATE_FOLDER_SIZES));
+    }
+
+	@Override
+	public ActionDescriptor getDescriptor() {
+		return new Descriptor();
+	}
+
+    public static class Factory implements ActionFactory {
+
+		public MuAction createAction(MainFrame mainFrame, Map<String,Object> properties) {
+			return new ToggleFolderSizesAction(mainFrame, properties);
+		}
+    }
+
+    public static class Descriptor extends AbstractActionDescriptor {
+    	public static final String ACTION_ID = "ToggleFolderSizes";
+
+		public String getId() { return ACTION_ID; }
+
+		public ActionCategory getCategory() { return ActionCategories.VIEW; }
+
+		public KeyStroke getDefaultAltKeyStroke() { return null; }
+
+		public KeyStroke getDefaultKeyStroke() { return null; }
+    }
+}
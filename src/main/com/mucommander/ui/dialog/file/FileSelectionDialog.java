@@ -240,13 +240,9 @@ public class FileSelectionDialog extends FocusDialog implements ActionListener {
                 );
             }
 
-            // Mark/unmark the files using the filter
-            activeTable.getFileTableModel().setFilesMarked(filter, addToSelection);
-
-            // Notify registered listeners that currently marked files have changed on this FileTable
-            activeTable.fireMarkedFilesChangedEvent();
-
-            activeTable.repaint();
+            // Mark/unmark the files using the filter, the table is repainted and listeners are notified if marks
+            // have changed
+            activeTable.setFilesMarked(filter, addToSelection);
         }
 		
         dispose();
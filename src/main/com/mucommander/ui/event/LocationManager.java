@@ -31,6 +31,7 @@ import com.mucommander.core.FolderChangeMonitor;
 import com.mucommander.core.GlobalLocationHistory;
 import com.mucommander.ui.main.ConfigurableFolderFilter;
 import com.mucommander.ui.main.FolderPanel;
+import com.mucommander.ui.main.table.FileTableState;
 
 /**
  * @author Maxence Bernard
@@ -94,6 +95,23 @@ public class LocationManager {
     		folderChangeMonitor = new FolderChangeMonitor(folderPanel);
     }
 
+    /**
+     * Set the folder of the given {@link FileTableState} as the folder presented in the {@link FolderPanel}, without
+     * listing it, and notify the {@link LocationListener}s that the location was changed to it.
+     *
+     * @param state the state of the table when it was presenting the folder
+     */
+    public void restoreCurrentFolder(FileTableState state) {
+    	AbstractFile folder = state.getFolder();
+
+    	folderPanel.restoreCurrentFolder(state);
+
+    	this.currentFolder = folder;
+
+    	// Notify listeners that the location has changed
+    	fireLocationChanged(folder.getURL());
+    }
+
     /**
      * Return the folder presented in the {@link FolderPanel}
      * 
@@ -103,6 +121,15 @@ public class LocationManager {
     	return currentFolder;
     }
 
+    /**
+     * Returns the filter that filters out unwanted files when listing folder contents.
+     *
+     * @return the filter applied to the listing of folders
+     */
+    public ConfigurableFolderFilter getFolderFilter() {
+    	return configurableFolderFilter;
+    }
+
     public FolderChangeMonitor getFolderChangeMonitor() {
         return folderChangeMonitor;
     }
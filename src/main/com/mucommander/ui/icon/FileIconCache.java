@@ -0,0 +1,252 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.icon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.Icon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.desktop.DesktopManager;
+
+/**
+ * Caches the icons returned by {@link FileIcons#getFileIcon(AbstractFile)} and resolves them outside of the event
+ * dispatch thread, so that components which display many files, like the file table, never wait for the system icon
+ * provider while painting.
+ *
+ * <p>Most files have the same icon as the other files of their kind and extension: icons are cached under a key
+ * made of the file's type (directory, archive or regular file), whether it is a symlink and its lower-cased extension.
+ * Only applications, and files whose system icon depends on their contents such as shortcuts, have a key of their
+ * own. The cache holds at most {@link #CAPACITY} icons, the least recently used ones are evicted first. It is cleared
+ * when the icon scale factor or the system icons policy changes.</p>
+ *
+ * <p>{@link #getIcon(AbstractFile, Runnable)} returns the cached icon, or <code>null</code> after having requested the
+ * icon to be resolved by a background thread: the given callback is run, from that thread, when the icon is
+ * available. In the meantime, callers are expected to display the icon returned by {@link #getPlaceholderIcon(boolean)}.</p>
+ */
+public class FileIconCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FileIconCache.class);
+
+    /** Maximum number of icons held by the cache */
+    public final static int CAPACITY = 512;
+
+    /** Extensions of the files whose system icon is specific to each file */
+    private final static String PER_FILE_EXTENSIONS[] = {"exe", "lnk", "ico", "cur", "ani", "scr", "url", "app"};
+
+    /** Cached icons, in access order */
+    private static Map<String, Icon> icons = new LinkedHashMap<String, Icon>(CAPACITY*4/3+1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Icon> eldest) {
+            return size()>CAPACITY;
+        }
+    };
+
+    /** Callbacks to run when the icons that are being resolved are available, by key */
+    private static Map<String, List<Runnable>> pendingIcons = new HashMap<String, List<Runnable>>();
+
+    /** Scale factor of the cached icons */
+    private static float scaleFactor = FileIcons.getScaleFactor();
+
+    /** System icons policy the cached icons were resolved with */
+    private static String systemIconsPolicy = FileIcons.getSystemIconsPolicy();
+
+    /** Incremented each time the cache is cleared, so that icons resolved before are not cached */
+    private static int generation;
+
+    /** Placeholder icons for directories and files, and parent folder icon, at the current scale factor */
+    private static Icon folderPlaceholder;
+    private static Icon filePlaceholder;
+    private static Icon parentFolderIcon;
+
+    /** Resolves icons one at a time: system icon providers are not necessarily thread-safe */
+    private final static ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileIconCache loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+
+    /**
+     * Creates a new instance of FileIconCache.
+     */
+    private FileIconCache() {}
+
+    /**
+     * Returns the icon of the given file, as returned by {@link FileIcons#getFileIcon(AbstractFile)}, if it is cached.
+     * Otherwise, the icon is resolved by a background thread and the given callback is run from that thread once it
+     * is available, unless it has already been registered for the same icon.
+     *
+     * <p>The file's attributes are read to find out its key, the file should preferably be a
+     * {@link com.mucommander.commons.file.impl.CachedFile} with its attributes pre-fetched.</p>
+     *
+     * @param file the file whose icon to return
+     * @param callback run once the icon is available if it is not cached, may be <code>null</code>
+     * @return the cached icon of the given file, <code>null</code> if it is not cached
+     */
+    public static synchronized Icon getIcon(final AbstractFile file, Runnable callback) {
+        checkSettings();
+
+        final String key = getKey(file);
+        Icon icon = icons.get(key);
+        if(icon!=null)
+            return icon;
+
+        List<Runnable> callbacks = pendingIcons.get(key);
+        if(callbacks==null) {
+            callbacks = new ArrayList<Runnable>(2);
+            pendingIcons.put(key, callbacks);
+
+            final List<Runnable> requestCallbacks = callbacks;
+            final int requestGeneration = generation;
+            EXECUTOR.execute(new Runnable() {
+                public void run() {
+                    resolve(file, key, requestCallbacks, requestGeneration);
+                }
+            });
+        }
+
+        if(callback!=null && !callbacks.contains(callback))
+            callbacks.add(callback);
+
+        return null;
+    }
+
+    /**
+     * Resolves the icon of the given file, caches it under the given key and runs the given callbacks that are waiting
+     * for it. If the settings have changed in the meantime, the icon is not cached but the callbacks are still run, so
+     * that the icon is requested again with the current settings. This method is called by the loader thread.
+     */
+    private static void resolve(AbstractFile file, String key, List<Runnable> callbacks, int requestGeneration) {
+        Icon icon;
+        try {
+            icon = FileIcons.getFileIcon(file);
+        }
+        catch(Exception e) {
+            LOGGER.debug("Caught exception while resolving the icon of "+file, e);
+            icon = FileIcons.getCustomFileIcon(file);
+        }
+
+        synchronized(FileIconCache.class) {
+            // The callbacks may have been replaced by the ones of a request made with the current settings
+            if(pendingIcons.get(key)==callbacks)
+                pendingIcons.remove(key);
+
+            // The icon has been resolved with settings that no longer apply
+            if(requestGeneration==generation)
+                icons.put(key, icon);
+        }
+
+        // No callback can be added once the list is no longer pending
+        for(Runnable callback : callbacks)
+            callback.run();
+    }
+
+    /**
+     * Returns the key under which the icon of the given file is cached.
+     */
+    private static String getKey(AbstractFile file) {
+        boolean isDirectory = file.isDirectory();
+        boolean systemIcon = FileIcons.USE_SYSTEM_ICONS_ALWAYS.equals(systemIconsPolicy)
+            || (FileIcons.USE_SYSTEM_ICONS_APPLICATIONS.equals(systemIconsPolicy) && DesktopManager.isApplication(file));
+
+        String extension = file.getExtension();
+        extension = extension==null?"":extension.toLowerCase();
+
+        if(systemIcon) {
+            for(String perFileExtension : PER_FILE_EXTENSIONS) {
+                if(perFileExtension.equals(extension))
+                    return "p"+file.getAbsolutePath();
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(extension.length()+4);
+        sb.append(systemIcon?'s':'c');
+        sb.append(file.isSymlink()?'l':'-');
+        sb.append(isDirectory?'d':file.isBrowsable()?'a':'f');
+        sb.append(extension);
+
+        return sb.toString();
+    }
+
+    /**
+     * Clears the cache if the icon scale factor or the system icons policy has changed since the icons were cached.
+     */
+    private static void checkSettings() {
+        float currentScaleFactor = FileIcons.getScaleFactor();
+        String currentPolicy = FileIcons.getSystemIconsPolicy();
+        if(currentScaleFactor==scaleFactor && currentPolicy.equals(systemIconsPolicy))
+            return;
+
+        scaleFactor = currentScaleFactor;
+        systemIconsPolicy = currentPolicy;
+        icons.clear();
+        folderPlaceholder = null;
+        filePlaceholder = null;
+        parentFolderIcon = null;
+        // Icons that are being resolved with the previous settings are requested again
+        pendingIcons.clear();
+        generation++;
+    }
+
+    /**
+     * Returns the icon to display in place of the icon of a directory or a file until it is available. The returned
+     * icon has the current scale factor.
+     *
+     * @param isDirectory <code>true</code> for the placeholder of a directory, <code>false</code> for a file
+     * @return the icon to display until the actual one is available
+     */
+    public static synchronized Icon getPlaceholderIcon(boolean isDirectory) {
+        checkSettings();
+
+        if(isDirectory) {
+            if(folderPlaceholder==null)
+                folderPlaceholder = IconManager.getIcon(IconManager.FILE_ICON_SET, CustomFileIconProvider.FOLDER_ICON_NAME, scaleFactor);
+            return folderPlaceholder;
+        }
+
+        if(filePlaceholder==null)
+            filePlaceholder = IconManager.getIcon(IconManager.FILE_ICON_SET, CustomFileIconProvider.FILE_ICON_NAME, scaleFactor);
+        return filePlaceholder;
+    }
+
+    /**
+     * Returns the icon of the parent folder '..', with the current scale factor.
+     *
+     * @return the icon of the parent folder
+     */
+    public static synchronized Icon getParentFolderIcon() {
+        checkSettings();
+
+        if(parentFolderIcon==null)
+            parentFolderIcon = IconManager.getIcon(IconManager.FILE_ICON_SET, CustomFileIconProvider.PARENT_FOLDER_ICON_NAME, scaleFactor);
+        return parentFolderIcon;
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.icon;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.PlatformManager;
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Caches the thumbnails of image files, decoded by {@link ThumbnailDecoder} outside of the event dispatch thread.
+ *
+ * <p>Thumbnails are cached under a key made of the file's path, size and date and of the thumbnail's size: a file
+ * that is modified gets a new thumbnail. They are held in memory up to a total of {@link #MEMORY_CAPACITY} pixels, the
+ * least recently used ones being evicted first. Each entry counts for at least {@link #MIN_ENTRY_PIXELS} pixels, which
+ * accounts for its key and bounds the number of files that could not be decoded. Thumbnails are also written to a
+ * disk cache located in the preferences folder, so that going back to a folder of photos, even after a restart, does
+ * not decode them again. The disk cache is trimmed down, oldest thumbnails first, when it grows larger than
+ * {@link #DISK_CAPACITY} bytes.</p>
+ *
+ * <p>Like {@link FileIconCache}, {@link #getThumbnail(AbstractFile, int, Runnable)} returns the cached thumbnail, or
+ * <code>null</code> after having requested it: the given callback is run from a background thread once it is
+ * available. Thumbnails are decoded by a pool of {@link #NB_THREADS} threads, whose queue holds at most
+ * {@link #QUEUE_CAPACITY} requests: when scrolling through a large folder, the oldest requests, which are the least
+ * likely to still be displayed, are dropped. Their callbacks are run nonetheless, so that a thumbnail that is still
+ * displayed gets requested again.</p>
+ */
+public class ThumbnailCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    /** Maximum number of pixels of the thumbnails held in memory */
+    public final static int MEMORY_CAPACITY = 8*1024*1024;
+
+    /** Number of pixels that each thumbnail held in memory counts for at least, including those of files that could not
+     * be decoded */
+    private final static int MIN_ENTRY_PIXELS = 256;
+
+    /** Maximum number of bytes of the thumbnails held on disk */
+    public final static long DISK_CAPACITY = 128*1024*1024;
+
+    /** Files larger than this are not decoded */
+    public final static long MAX_FILE_SIZE = 64*1024*1024;
+
+    /** Number of threads that decode thumbnails */
+    private final static int NB_THREADS = 2;
+
+    /** Maximum number of requests waiting to be decoded */
+    private final static int QUEUE_CAPACITY = 128;
+
+    /** Name of the disk cache folder, within the preferences folder */
+    private final static String CACHE_FOLDER_NAME = "thumbnails";
+
+    /** Held in memory for the files that could not be decoded, so that they are not decoded again */
+    private final static ImageIcon NO_THUMBNAIL = new ImageIcon();
+
+    /** Cached thumbnails, in access order */
+    private static Map<String, ImageIcon> thumbnails = new LinkedHashMap<String, ImageIcon>(256, 0.75f, true);
+
+    /** Combined number of pixels of the cached thumbnails, see {@link #getNbPixels(ImageIcon)} */
+    private static int nbPixels;
+
+    /** Callbacks to run when the thumbnails that are being decoded are available, by key */
+    private static Map<String, List<Runnable>> pendingThumbnails = new HashMap<String, List<Runnable>>();
+
+    /** Lock of the disk cache */
+    private final static Object DISK_LOCK = new Object();
+
+    /** The disk cache folder, null until it is first needed */
+    private static File cacheFolder;
+
+    /** Combined size of the files of the disk cache, -1 until it is first needed */
+    private static long diskSize = -1;
+
+    /** Decodes thumbnails, dropping the oldest requests when the queue is full */
+    private final static ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(NB_THREADS, NB_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(QUEUE_CAPACITY), new ThreadFactory() {
+        private int count;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ThumbnailCache loader-"+(++count));
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }, new RejectedExecutionHandler() {
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            Runnable oldest = executor.getQueue().poll();
+            if(oldest!=null)
+                ((LoadTask)oldest).discard();
+            executor.execute(r);
+        }
+    });
+
+
+    /**
+     * Creates a new instance of ThumbnailCache.
+     */
+    private ThumbnailCache() {}
+
+    /**
+     * Returns <code>true</code> if a thumbnail can be created for the given file, based on its extension and size.
+     * Directories are not checked for, callers are expected to know whether the file is a directory.
+     *
+     * @param file a regular file
+     * @return <code>true</code> if the given file is an image that can be decoded into a thumbnail
+     */
+    public static boolean isSupported(AbstractFile file) {
+        return ThumbnailDecoder.isSupported(file) && file.getSize()<=MAX_FILE_SIZE;
+    }
+
+    /**
+     * Returns the thumbnail of the given image file if it is cached in memory. Otherwise, the thumbnail is loaded from
+     * the disk cache or decoded by a background thread, and the given callback is run from that thread once it is
+     * available, unless it has already been registered for the same thumbnail.
+     *
+     * @param file an image file, for which {@link #isSupported(AbstractFile)} returns <code>true</code>
+     * @param size maximum width and height of the thumbnail, in pixels
+     * @param callback run once the thumbnail is available if it is not cached, may be <code>null</code>
+     * @return the cached thumbnail, <code>null</code> if it is not cached or if the file could not be decoded
+     */
+    public static synchronized ImageIcon getThumbnail(AbstractFile file, int size, Runnable callback) {
+        String key = file.getAbsolutePath()+'|'+file.getSize()+'|'+file.getDate()+'|'+size;
+        ImageIcon thumbnail = thumbnails.get(key);
+        if(thumbnail!=null)
+            return thumbnail==NO_THUMBNAIL?null:thumbnail;
+
+        List<Runnable> callbacks = pendingThumbnails.get(key);
+        boolean submit = callbacks==null;
+        if(submit) {
+            callbacks = new ArrayList<Runnable>(2);
+            pendingThumbnails.put(key, callbacks);
+        }
+
+        if(callback!=null && !callbacks.contains(callback))
+            callbacks.add(callback);
+
+        if(submit)
+            EXECUTOR.execute(new LoadTask(file, size, key));
+
+        return null;
+    }
+
+    /**
+     * Caches the given thumbnail in memory, evicting the least recently used thumbnails if needed, and returns the
+     * callbacks that were waiting for it. This method must be called while holding the lock of this class.
+     */
+    private static List<Runnable> put(String key, ImageIcon thumbnail) {
+        ImageIcon previous = thumbnails.put(key, thumbnail);
+        if(previous!=null)
+            nbPixels -= getNbPixels(previous);
+        nbPixels += getNbPixels(thumbnail);
+
+        // NO_THUMBNAIL is shared by several entries, the new entry is identified by its key
+        Iterator<Map.Entry<String, ImageIcon>> iterator = thumbnails.entrySet().iterator();
+        while(nbPixels>MEMORY_CAPACITY && iterator.hasNext()) {
+            Map.Entry<String, ImageIcon> eldest = iterator.next();
+            if(eldest.getKey().equals(key))
+                break;
+            nbPixels -= getNbPixels(eldest.getValue());
+            iterator.remove();
+        }
+
+        return pendingThumbnails.remove(key);
+    }
+
+    /**
+     * Returns the number of pixels that the given thumbnail counts for, at least {@link #MIN_ENTRY_PIXELS}.
+     */
+    private static int getNbPixels(ImageIcon thumbnail) {
+        if(thumbnail==NO_THUMBNAIL)
+            return MIN_ENTRY_PIXELS;
+        return Math.max(MIN_ENTRY_PIXELS, thumbnail.getIconWidth()*thumbnail.getIconHeight());
+    }
+
+    private static void runCallbacks(List<Runnable> callbacks) {
+        if(callbacks!=null) {
+            for(Runnable callback : callbacks)
+                callback.run();
+        }
+    }
+
+    /**
+     * Returns the disk cache folder, creating it if needed, or <code>null</code> if it could not be created.
+     * This method must be called while holding {@link #DISK_LOCK}.
+     */
+    private static File getCacheFolder() {
+        if(cacheFolder==null) {
+            try {
+                File folder = new File(PlatformManager.getPreferencesFolder().getAbsolutePath(), CACHE_FOLDER_NAME);
+                if(folder.isDirectory() || folder.mkdirs())
+                    cacheFolder = folder;
+            }
+            catch(IOException e) {
+                LOGGER.debug("Could not resolve the preferences folder", e);
+            }
+
+            if(cacheFolder==null) {
+                LOGGER.info("Thumbnails will not be cached on disk");
+                // Do not try again
+                cacheFolder = new File("");
+            }
+        }
+
+        return cacheFolder.getPath().length()==0?null:cacheFolder;
+    }
+
+    /**
+     * Returns the disk cache file of the thumbnail with the given key: its name is the MD5 digest of the key.
+     */
+    private static File getCacheFile(File folder, String key) {
+        try {
+            byte digest[] = MessageDigest.getInstance("MD5").digest(key.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length*2);
+            for(byte b : digest) {
+                sb.append(Character.forDigit((b>>4)&0xF, 16));
+                sb.append(Character.forDigit(b&0xF, 16));
+            }
+            return new File(folder, sb.toString());
+        }
+        catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        catch(UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the thumbnail with the given key from the disk cache, returns <code>null</code> if it is not there.
+     */
+    private static BufferedImage readFromDisk(String key) {
+        File file;
+        synchronized(DISK_LOCK) {
+            File folder = getCacheFolder();
+            if(folder==null)
+                return null;
+            file = getCacheFile(folder, key);
+            if(!file.exists())
+                return null;
+            // Keeps recently used thumbnails from being trimmed
+            file.setLastModified(System.currentTimeMillis());
+        }
+
+        try {
+            return ImageIO.read(file);
+        }
+        catch(IOException e) {
+            LOGGER.debug("Could not read cached thumbnail "+file, e);
+            synchronized(DISK_LOCK) {
+                removeFromDisk(file);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given thumbnail to the disk cache, as a JPEG file if it is opaque or as a PNG file otherwise, and
+     * trims the cache if it has grown too large.
+     */
+    private static void writeToDisk(String key, BufferedImage thumbnail) {
+        File file;
+        File tempFile;
+        synchronized(DISK_LOCK) {
+            File folder = getCacheFolder();
+            if(folder==null)
+                return;
+            file = getCacheFile(folder, key);
+            tempFile = new File(folder, file.getName()+".tmp");
+        }
+
+        try {
+            // Written to a temporary file first, so that a partly written thumbnail is never read
+            if(!ImageIO.write(thumbnail, thumbnail.getColorModel().hasAlpha()?"png":"jpg", tempFile))
+                return;
+        }
+        catch(IOException e) {
+            LOGGER.debug("Could not write thumbnail "+tempFile, e);
+            tempFile.delete();
+            return;
+        }
+
+        synchronized(DISK_LOCK) {
+            if(file.exists())
+                removeFromDisk(file);
+            if(!tempFile.renameTo(file)) {
+                tempFile.delete();
+                return;
+            }
+
+            if(diskSize<0)
+                diskSize = getDiskSize(file.getParentFile());
+            else
+                diskSize += file.length();
+
+            if(diskSize>DISK_CAPACITY)
+                trimDisk(file.getParentFile());
+        }
+    }
+
+    private static void removeFromDisk(File file) {
+        long length = file.length();
+        if(file.delete() && diskSize>=0)
+            diskSize -= length;
+    }
+
+    private static long getDiskSize(File folder) {
+        long size = 0;
+        File files[] = folder.listFiles();
+        if(files!=null) {
+            for(File file : files)
+                size += file.length();
+        }
+        return size;
+    }
+
+    /**
+     * Deletes the least recently used thumbnails of the disk cache, until it is down to three quarters of its
+     * capacity. This method must be called while holding {@link #DISK_LOCK}.
+     */
+    private static void trimDisk(File folder) {
+        File files[] = folder.listFiles();
+        if(files==null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long date1 = f1.lastModified();
+                long date2 = f2.lastModified();
+                return date1<date2?-1:(date1==date2?0:1);
+            }
+        });
+
+        for(int i=0; i<files.length && diskSize>DISK_CAPACITY*3/4; i++)
+            removeFromDisk(files[i]);
+    }
+
+
+    /**
+     * Loads a thumbnail from the disk cache, or decodes it and writes it to the disk cache.
+     */
+    private static class LoadTask implements Runnable {
+        private final AbstractFile file;
+        private final int size;
+        private final String key;
+
+        private LoadTask(AbstractFile file, int size, String key) {
+            this.file = file;
+            this.size = size;
+            this.key = key;
+        }
+
+        public void run() {
+            BufferedImage image = readFromDisk(key);
+            if(image==null) {
+                try {
+                    image = ThumbnailDecoder.decode(file, size);
+                }
+                catch(Exception e) {
+                    // Catch runtime exceptions as well, thrown by some decoders on corrupt images
+                    LOGGER.debug("Could not decode "+file, e);
+                }
+                catch(OutOfMemoryError e) {
+                    LOGGER.info("Not enough memory to decode "+file);
+                }
+
+                if(image!=null)
+                    writeToDisk(key, image);
+            }
+
+            List<Runnable> callbacks;
+            synchronized(ThumbnailCache.class) {
+                callbacks = put(key, image==null?NO_THUMBNAIL:new ImageIcon(image));
+            }
+
+            runCallbacks(callbacks);
+        }
+
+        /**
+         * Called when this task is dropped from the queue: the thumbnail is no longer pending, and the callbacks are
+         * run so that it gets requested again if it is still needed.
+         */
+        private void discard() {
+            List<Runnable> callbacks;
+            synchronized(ThumbnailCache.class) {
+                callbacks = pendingThumbnails.remove(key);
+            }
+
+            runCallbacks(callbacks);
+        }
+    }
+}
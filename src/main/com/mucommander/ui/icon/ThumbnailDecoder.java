@@ -0,0 +1,145 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.icon;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Decodes images into thumbnails without decoding them entirely: images are read through ImageIO with source
+ * subsampling, i.e. only one pixel out of n in each direction is decoded, which takes a fraction of the time and
+ * memory needed to decode a full-size photo. The subsampled image is then scaled down to the thumbnail's size.
+ */
+class ThumbnailDecoder {
+
+    /** Lower-cased extensions of the files that can be decoded, as reported by ImageIO */
+    private final static Set<String> EXTENSIONS = new HashSet<String>();
+
+    static {
+        for(String format : ImageIO.getReaderFormatNames())
+            EXTENSIONS.add(format.toLowerCase());
+    }
+
+
+    private ThumbnailDecoder() {}
+
+    /**
+     * Returns <code>true</code> if the given file's extension is one of an image format that can be decoded.
+     *
+     * @param file a file
+     * @return <code>true</code> if the given file is most likely an image that can be decoded
+     */
+    static boolean isSupported(AbstractFile file) {
+        String extension = file.getExtension();
+        return extension!=null && EXTENSIONS.contains(extension.toLowerCase());
+    }
+
+    /**
+     * Decodes the given image file into a thumbnail that fits in a square of the given size. Images that are smaller
+     * than the square are returned as they are.
+     *
+     * @param file an image file
+     * @param size maximum width and height of the thumbnail, in pixels
+     * @return the thumbnail, <code>null</code> if the file's format is not supported
+     * @throws IOException if the file could not be read or decoded
+     */
+    static BufferedImage decode(AbstractFile file, int size) throws IOException {
+        InputStream in = file.getInputStream();
+        try {
+            // Use a memory cache rather than ImageIO's default, which may be a temporary file
+            ImageInputStream iin = new MemoryCacheImageInputStream(in);
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(iin);
+                if(!readers.hasNext())
+                    return null;
+
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(iin, true, true);
+                    int width = reader.getWidth(0);
+                    int height = reader.getHeight(0);
+
+                    // Decode twice as many pixels as needed, so that scaling down the result gives a smooth thumbnail
+                    int subsampling = Math.max(1, Math.max(width, height)/(2*size));
+                    ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+                    return scale(reader.read(0, param), size);
+                }
+                finally {
+                    reader.dispose();
+                }
+            }
+            finally {
+                iin.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Scales the given image down so that it fits in a square of the given size, keeping its aspect ratio.
+     */
+    private static BufferedImage scale(BufferedImage image, int size) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if(width<=size && height<=size)
+            return image;
+
+        int scaledWidth;
+        int scaledHeight;
+        if(width>=height) {
+            scaledWidth = size;
+            scaledHeight = Math.max(1, height*size/width);
+        }
+        else {
+            scaledWidth = Math.max(1, width*size/height);
+            scaledHeight = size;
+        }
+
+        BufferedImage scaled = new BufferedImage(scaledWidth, scaledHeight,
+                image.getColorModel().hasAlpha()?BufferedImage.TYPE_INT_ARGB:BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(image, 0, 0, scaledWidth, scaledHeight, null);
+        }
+        finally {
+            g.dispose();
+        }
+
+        return scaled;
+    }
+}
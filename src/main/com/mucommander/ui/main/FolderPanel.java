@@ -63,6 +63,7 @@ import com.mucommander.ui.main.quicklist.RootFoldersQL;
 import com.mucommander.ui.main.quicklist.TabsQL;
 import com.mucommander.ui.main.table.FileTable;
 import com.mucommander.ui.main.table.FileTableConfiguration;
+import com.mucommander.ui.main.table.FileTableState;
 import com.mucommander.ui.main.tabs.ConfFileTableTab;
 import com.mucommander.ui.main.tabs.FileTableTab;
 import com.mucommander.ui.main.tabs.FileTableTabs;
@@ -98,6 +99,8 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     private FileTableTabs tabs;
     private FoldersTreePanel foldersTreePanel;
     private JSplitPane treeSplitPane;
+    private PreviewPanel previewPanel;
+    private JSplitPane previewSplitPane;
 
     private FileDragSourceListener fileDragSourceListener;
 
@@ -109,6 +112,12 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     /** Saved width of a directory tree (when it's not visible) */ 
     private int oldTreeWidth = 150;
 
+    /** Is preview pane visible */
+    private boolean previewVisible = false;
+
+    /** Saved width of the preview pane (when it's not visible) */
+    private int oldPreviewWidth = 250;
+
     /** Array of all the existing pop ups for this panel's FileTable **/
     private QuickList[] fileTablePopups;
 
@@ -186,7 +195,15 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
         treeSplitPane.setDividerLocation(0);
         // Remove default border
         treeSplitPane.setBorder(null);
-        add(treeSplitPane, BorderLayout.CENTER);
+
+        // create preview pane on the right of the tree and tabs, the table gets all extra space
+        previewPanel = new PreviewPanel(fileTable);
+        previewPanel.setVisible(false);
+        previewSplitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, treeSplitPane, previewPanel);
+        previewSplitPane.setResizeWeight(1);
+        previewSplitPane.setDividerSize(0);
+        previewSplitPane.setBorder(null);
+        add(previewSplitPane, BorderLayout.CENTER);
                 
         // Disable Ctrl+Tab and Shift+Ctrl+Tab focus traversal keys
         disableCtrlFocusTraversalKeys(locationTextField);
@@ -372,6 +389,10 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     	return locationChanger.tryChangeCurrentFolder(folderURL, credentialsMapping, false);
     }
 
+    public ChangeFolderThread tryRestoreCurrentFolder(FileTableState state) {
+        return locationChanger.tryRestoreCurrentFolder(state);
+    }
+
     public ChangeFolderThread tryRefreshCurrentFolder() {
     	return locationChanger.tryRefreshCurrentFolder();
     }
@@ -410,6 +431,9 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
      * the currently selected tab although it's locked (used when switching tabs)
      */
     public void setCurrentFolder(AbstractFile folder, AbstractFile children[], AbstractFile fileToSelect, boolean changeLockedTab) {
+    		if(!changeLockedTab)
+    			saveFolderState(folder);
+
     		// Change the current folder in the table and select the given file if not null
     		if(fileToSelect == null)
     			fileTable.setCurrentFolder(folder, children);
@@ -417,6 +441,29 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     			fileTable.setCurrentFolder(folder, children, fileToSelect);
     }
 
+    /**
+     * Changes the current folder to the one of the given state, without listing it.
+     *
+     * @param state the state of the table when it was displaying the folder
+     * @see FileTable#restoreState(FileTableState)
+     */
+    public void restoreCurrentFolder(FileTableState state) {
+    		saveFolderState(state.getFolder());
+    		fileTable.restoreState(state);
+    }
+
+    /**
+     * Saves the state of the table in the current tab's history before it moves to the given folder, so that going
+     * back to the current folder is instant. Nothing is saved when the folder is refreshed.
+     *
+     * @param newFolder the folder the table is moving to
+     */
+    private void saveFolderState(AbstractFile newFolder) {
+    		FileTableState state = fileTable.getState();
+    		if(state!=null && !state.getFolder().getURL().equals(newFolder.getURL()))
+    			getFolderHistory().saveFolderState(state);
+    }
+
     /**
      * Shows the pop up which is located the given index in fileTablePopups.
      * 
@@ -484,6 +531,34 @@ public class FolderPanel extends JPanel implements FocusListener, QuickListConta
     	}
     }
 
+    /**
+     * Returns true if the preview pane is visible.
+     */
+    public boolean isPreviewVisible() {
+        return previewVisible;
+    }
+
+    /**
+     * Shows/hides the preview pane, which displays a thumbnail of the selected file if it is an image.
+     * Invoked by {@link com.mucommander.ui.action.impl.TogglePreviewAction}.
+     */
+    public void setPreviewVisible(boolean previewVisible) {
+    	if (this.previewVisible != previewVisible) {
+	        this.previewVisible = previewVisible;
+	        int width = previewSplitPane.getWidth();
+	        if (!previewVisible) {
+	            // save width of the preview pane
+	            oldPreviewWidth = width - previewSplitPane.getDividerLocation() - previewSplitPane.getDividerSize();
+	        }
+	        previewPanel.setVisible(previewVisible);
+	        // hide completely divider if the preview pane isn't visible
+	        previewSplitPane.setDividerSize(previewVisible ? 5 : 0);
+	        previewSplitPane.setDividerLocation(previewVisible ? Math.max(0, width - oldPreviewWidth - 5) : width);
+	        if (previewVisible)
+	            previewPanel.refresh();
+    	}
+    }
+
     
 
     ////////////////////////
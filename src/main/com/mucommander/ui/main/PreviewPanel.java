@@ -0,0 +1,150 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main;
+
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Insets;
+import java.awt.RenderingHints;
+
+import javax.swing.BorderFactory;
+import javax.swing.ImageIcon;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.ui.event.TableSelectionListener;
+import com.mucommander.ui.icon.ThumbnailCache;
+import com.mucommander.ui.main.table.FileTable;
+
+/**
+ * Displays a preview of the file that is selected in a {@link FileTable}: a large thumbnail if the file is an image,
+ * its name otherwise. The preview is displayed next to the table by {@link FolderPanel}, when it is enabled.
+ *
+ * <p>Thumbnails are obtained from {@link ThumbnailCache}, so that moving the selection over large images never blocks
+ * the event dispatch thread: the file's name is displayed until its thumbnail is available. The panel ignores
+ * selection changes while it is not showing.</p>
+ */
+class PreviewPanel extends JPanel implements TableSelectionListener {
+
+    /** Maximum width and height of the thumbnails displayed by the panel */
+    private final static int PREVIEW_SIZE = 512;
+
+    /** Space between the panel's edges and its contents */
+    private final static int MARGIN = 4;
+
+    /** The table whose selected file is previewed */
+    private FileTable table;
+
+    /** The file being previewed, null if there is none */
+    private AbstractFile file;
+
+    /** Thumbnail of the file being previewed, null if it is not an image or if its thumbnail is not available yet */
+    private ImageIcon thumbnail;
+
+
+    /**
+     * Creates a new panel that previews the selected file of the given table.
+     *
+     * @param table the table whose selected file to preview
+     */
+    PreviewPanel(FileTable table) {
+        this.table = table;
+
+        setBorder(BorderFactory.createEmptyBorder(MARGIN, MARGIN, MARGIN, MARGIN));
+        setMinimumSize(new Dimension(0, 0));
+        setPreferredSize(new Dimension(250, 0));
+
+        table.addTableSelectionListener(this);
+    }
+
+    /**
+     * Previews the file that is currently selected in the table. This method is called when the panel is made
+     * visible, and each time the selected file changes while it is showing.
+     */
+    void refresh() {
+        final AbstractFile selectedFile = table.getSelectedFile(false, true);
+
+        ImageIcon newThumbnail = null;
+        if(selectedFile!=null && !selectedFile.isDirectory() && ThumbnailCache.isSupported(selectedFile)) {
+            newThumbnail = ThumbnailCache.getThumbnail(selectedFile, PREVIEW_SIZE, new Runnable() {
+                public void run() {
+                    // Called from the cache's loader thread
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            if(file==selectedFile && isShowing())
+                                refresh();
+                        }
+                    });
+                }
+            });
+        }
+
+        if(selectedFile!=file || newThumbnail!=thumbnail) {
+            file = selectedFile;
+            thumbnail = newThumbnail;
+            repaint();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+
+        Insets insets = getInsets();
+        int width = getWidth()-insets.left-insets.right;
+        int height = getHeight()-insets.top-insets.bottom;
+        if(file==null || width<=0 || height<=0)
+            return;
+
+        if(thumbnail!=null) {
+            // Scale the thumbnail down if the panel is smaller than it
+            int thumbnailWidth = thumbnail.getIconWidth();
+            int thumbnailHeight = thumbnail.getIconHeight();
+            float scale = Math.min(1f, Math.min(width/(float)thumbnailWidth, height/(float)thumbnailHeight));
+            int scaledWidth = Math.max(1, (int)(thumbnailWidth*scale));
+            int scaledHeight = Math.max(1, (int)(thumbnailHeight*scale));
+
+            ((Graphics2D)g).setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(thumbnail.getImage(), insets.left+(width-scaledWidth)/2, insets.top+(height-scaledHeight)/2,
+                    scaledWidth, scaledHeight, null);
+        }
+        else {
+            FontMetrics fm = g.getFontMetrics();
+            String name = file.getName();
+            g.setColor(getForeground());
+            g.drawString(name, insets.left+Math.max(0, (width-fm.stringWidth(name))/2), insets.top+(height+fm.getAscent())/2);
+        }
+    }
+
+
+    ///////////////////////////////////////////
+    // TableSelectionListener implementation //
+    ///////////////////////////////////////////
+
+    public void selectedFileChanged(FileTable source) {
+        if(isShowing())
+            refresh();
+    }
+
+    public void markedFilesChanged(FileTable source) {
+    }
+}
@@ -21,12 +21,16 @@ package com.mucommander.ui.main;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
@@ -36,17 +40,15 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JPopupMenu;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.mucommander.cache.FastLRUCache;
-import com.mucommander.cache.LRUCache;
 import com.mucommander.commons.conf.ConfigurationEvent;
 import com.mucommander.commons.conf.ConfigurationListener;
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.commons.file.impl.local.LocalFile;
-import com.mucommander.commons.runtime.JavaVersion;
 import com.mucommander.conf.MuConfigurations;
 import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
@@ -82,12 +84,14 @@ import com.mucommander.ui.theme.ThemeManager;
  * selected files and volume info, and display the waiting message when the folder is changing. Quick search info
  * is set by FileTable.QuickSearch.
  *
- * <p>When StatusBar is visible, a Thread runs in the background to periodically update free/total space volume info.
- * This thread stops when the StatusBar is hidden.
+ * <p>Selected files info is produced in the background, shortly after the selection has stopped changing, and
+ * discarded if the status bar's info has been replaced in the meantime. When StatusBar is visible, the current volume's
+ * free/total space is kept up to date by the application's {@link VolumeMonitor}, while the MainFrame is active and in
+ * the foreground. The monitor stops notifying it when the StatusBar is hidden or its MainFrame disposed.
  *
  * @author Maxence Bernard
  */
-public class StatusBar extends JPanel implements Runnable, MouseListener, ActivePanelListener, TableSelectionListener, LocationListener, ComponentListener, ThemeListener {
+public class StatusBar extends JPanel implements VolumeMonitor.Listener, MouseListener, ActivePanelListener, TableSelectionListener, LocationListener, ComponentListener, ThemeListener {
 	private static final Logger LOGGER = LoggerFactory.getLogger(StatusBar.class);
 	
     private MainFrame mainFrame;
@@ -101,21 +105,26 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
     /** Label that displays info about current volume (free/total space) */
     private VolumeSpaceLabel volumeSpaceLabel;
 
-    /** Thread which auto updates volume info */
-    private Thread autoUpdateThread;
+    /** Folder whose volume info is displayed, null if the status bar is hidden */
+    private AbstractFile volumeFolder;
 
-    /** Number of volume info strings that can be temporarily cached */
-    private final static int VOLUME_INFO_CACHE_CAPACITY = 50;
+    /** Number of milliseconds during which selection changes are gathered before selected files info is updated */
+    private final static int SELECTED_FILES_INFO_DELAY = 50;
 
-    /** Number of milliseconds before cached volume info strings expire */
-    private final static int VOLUME_INFO_TIME_TO_LIVE = 60000;
+    /** Updates selected files info once the selection has stopped changing */
+    private Timer selectedFilesInfoTimer;
 
-    /** Number of milliseconds between each volume info update by auto-update thread */
-    private final static int AUTO_UPDATE_PERIOD = 6000;
+    /** Incremented each time the status info is replaced, selected files info produced in the meantime is discarded */
+    private int statusInfoVersion;
 
-    /** Caches volume info strings (free/total space) for a while, since this information is expensive to retrieve
-     * (I/O bound). This map uses folders' volume path as its key. */
-    private static LRUCache<String, Long[]> volumeInfoCache = new FastLRUCache<String, Long[]>(VOLUME_INFO_CACHE_CAPACITY);
+    /** Produces selected files info in the background */
+    private final static ExecutorService SELECTED_FILES_INFO_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StatusBar selected files info");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 	
     /** Icon that is displayed when folder is changing */
     public final static String WAITING_ICON = "waiting.png";
@@ -172,6 +181,13 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
         setLayout(new BoxLayout(this, BoxLayout.X_AXIS));
 
         this.mainFrame = mainFrame;
+
+        selectedFilesInfoTimer = new Timer(SELECTED_FILES_INFO_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                computeSelectedFilesInfo();
+            }
+        });
+        selectedFilesInfoTimer.setRepeats(false);
 		
         selectedFilesLabel = new JLabel("");
         dial               = new SpinningDial();
@@ -192,7 +208,7 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
         add(volumeSpaceLabel);
 
         // Show/hide this status bar based on user preferences
-        // Note: setVisible has to be called even with true for the auto-update thread to be initialized
+        // Note: setVisible has to be called even with true for volume info to be watched
         setVisible(MuConfigurations.getPreferences().getVariable(MuPreference.STATUS_BAR_VISIBLE, MuPreferences.DEFAULT_STATUS_BAR_VISIBLE));
         
         // Catch location events to update status bar info when folder is changed
@@ -243,6 +259,8 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
 
     /**
      * Updates info about currently selected files ((nb of selected files, combined size), displayed on the left-side of this status bar.
+     * The info is updated once the selection has stopped changing for {@link #SELECTED_FILES_INFO_DELAY} milliseconds,
+     * so that calling this method repeatedly is cheap. This method can be called from any thread.
      */
 // Making this method synchronized creates a deadlock with FileTable
 //    public synchronized void updateSelectedFilesInfo() {
@@ -251,21 +269,61 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
         if(!isVisible())
             return;
 
+        selectedFilesInfoTimer.restart();
+    }
+
+    /**
+     * Gathers the state of the active table and produces the selected files info from it in the background. The info
+     * is displayed unless the status info has been replaced in the meantime. This method must be called from the event
+     * dispatch thread.
+     */
+    private void computeSelectedFilesInfo() {
+        // No need to waste precious cycles if status bar is not visible
+        if(!isVisible())
+            return;
+
         FileTable currentFileTable = mainFrame.getActiveTable();
 
         // Currently select file, can be null
         AbstractFile selectedFile = currentFileTable.getSelectedFile(false, true);
+        final String selectedFileName = selectedFile==null?null:selectedFile.getName();
         FileTableModel tableModel = currentFileTable.getFileTableModel();
         // Number of marked files, can be 0
-        int nbMarkedFiles = tableModel.getNbMarkedFiles();
+        final int nbMarkedFiles = tableModel.getNbMarkedFiles();
         // Combined size of marked files, 0 if no file has been marked
-        long markedTotalSize = tableModel.getTotalMarkedSize();
+        final long markedTotalSize = tableModel.getTotalMarkedSize();
         // number of files in folder
-        int fileCount = tableModel.getFileCount();
+        final int fileCount = tableModel.getFileCount();
+
+        final int version = ++statusInfoVersion;
+        SELECTED_FILES_INFO_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                final String filesInfo = getSelectedFilesInfo(selectedFileName, nbMarkedFiles, markedTotalSize, fileCount);
+
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        // Discard the info if the status info has been replaced or updated since
+                        if(version==statusInfoVersion)
+                            showStatusInfo(filesInfo, null, false);
+                    }
+                });
+            }
+        });
+    }
 
+    /**
+     * Returns the selected files info string.
+     *
+     * @param selectedFileName name of the currently selected file, null if there is none
+     * @param nbMarkedFiles number of marked files, can be 0
+     * @param markedTotalSize combined size of marked files, 0 if no file has been marked
+     * @param fileCount number of files in the folder
+     * @return the text to display on the left-side of the status bar
+     */
+    private static String getSelectedFilesInfo(String selectedFileName, int nbMarkedFiles, long markedTotalSize, int fileCount) {
         // Update files info based on marked files if there are some, or currently selected file otherwise
         int nbSelectedFiles;
-        if(nbMarkedFiles==0 && selectedFile!=null)
+        if(nbMarkedFiles==0 && selectedFileName!=null)
             nbSelectedFiles = 1;
         else
             nbSelectedFiles = nbMarkedFiles;
@@ -283,77 +341,25 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
             if(nbMarkedFiles>0)
                 filesInfo += " - "+ SizeFormat.format(markedTotalSize, selectedFileSizeFormat);
 	
-            if(selectedFile!=null)
-                filesInfo += " - "+selectedFile.getName();
+            if(selectedFileName!=null)
+                filesInfo += " - "+selectedFileName;
         }		
 
-        // Update label
-        setStatusInfo(filesInfo);
+        return filesInfo;
     }
 	
 	
     /**
      * Updates info about current volume (free space, total space), displayed on the right-side of this status bar.
+     * Volume info is retrieved and kept up to date in the background by {@link VolumeMonitor}.
      */
-    private synchronized void updateVolumeInfo() {
+    private void updateVolumeInfo() {
         // No need to waste precious cycles if status bar is not visible
         if(!isVisible())
             return;
 
-        final AbstractFile currentFolder = mainFrame.getActivePanel().getCurrentFolder();
-        // Resolve the current folder's volume and use its path as a key for the volume info cache
-        final String volumePath = currentFolder.exists() ?
-        		currentFolder.getVolume().getAbsolutePath(true) : "";
-
-        Long cachedVolumeInfo[] = volumeInfoCache.get(volumePath);
-        if(cachedVolumeInfo!=null) {
-            LOGGER.debug("Cache hit!");
-            volumeSpaceLabel.setVolumeSpace(cachedVolumeInfo[0], cachedVolumeInfo[1]);
-        }
-        else {
-            // Retrieves free and total volume space.
-            // Perform volume info retrieval in a separate thread as this method may be called
-            // by the event thread and it can take a while, we want to return as soon as possible
-            new Thread("StatusBar.updateVolumeInfo") {
-                @Override
-                public void run() {
-                    // Free space on current volume, -1 if this information is not available 
-                    long volumeFree;
-                    // Total space on current volume, -1 if this information is not available 
-                    long volumeTotal;
-
-                    // Folder is a local file and Java version is 1.5: call getVolumeInfo() instead of
-                    // separate calls to getFreeSpace() and getTotalSpace() as it is twice as fast.
-                    if(currentFolder instanceof LocalFile && JavaVersion.JAVA_1_5.isCurrentOrLower()) {
-                        try {
-                            long volumeInfo[] = ((LocalFile)currentFolder).getVolumeInfo();
-                            volumeTotal = volumeInfo[0];
-                            volumeFree = volumeInfo[1];
-                        }
-                        catch(IOException e) {
-                            volumeTotal = -1;
-                            volumeFree = -1;
-                        }
-                    }
-                    // Java 1.6 and up or any other file type
-                    else {
-                        try { volumeFree = currentFolder.getFreeSpace(); }
-                        catch(IOException e) { volumeFree = -1; }
-
-                        try { volumeTotal = currentFolder.getTotalSpace(); }
-                        catch(IOException e) { volumeTotal = -1; }
-                    }
-
-// For testing the free space indicator 
-//volumeFree = (long)(volumeTotal * Math.random());
-                    
-                    volumeSpaceLabel.setVolumeSpace(volumeTotal, volumeFree);
-
-                    LOGGER.debug("Adding to cache");
-                    volumeInfoCache.add(volumePath, new Long[]{volumeTotal, volumeFree}, VOLUME_INFO_TIME_TO_LIVE);
-                }
-            }.start();
-        }
+        volumeFolder = mainFrame.getActivePanel().getCurrentFolder();
+        VolumeMonitor.watch(this, volumeFolder);
     }
 
 
@@ -366,6 +372,14 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
      * @param iconBeforeText if true, icon will be placed on the left side of the text, if not on the right side
      */
     public void setStatusInfo(String text, Icon icon, boolean iconBeforeText) {
+        // Selected files info that is pending or being produced would replace this info
+        selectedFilesInfoTimer.stop();
+        statusInfoVersion++;
+
+        showStatusInfo(text, icon, iconBeforeText);
+    }
+
+    private void showStatusInfo(String text, Icon icon, boolean iconBeforeText) {
         selectedFilesLabel.setText(text);
 
         if(icon==null) {
@@ -396,63 +410,56 @@ public class StatusBar extends JPanel implements Runnable, MouseListener, Active
 	
 
     /**
-     * Starts a volume info auto-update thread, only if there isn't already one running.
-     */    
-    private synchronized void startAutoUpdate() {
-        if(autoUpdateThread==null) {
-            // Start volume info auto-update thread
-            autoUpdateThread = new Thread(this, "StatusBar autoUpdateThread");
-            // Set the thread as a daemon thread
-            autoUpdateThread.setDaemon(true);
-            autoUpdateThread.start();
-        }
-    }
-
-    
-    /**
-     * Overrides JComponent.setVisible(boolean) to start/stop volume info auto-update thread.
+     * Overrides JComponent.setVisible(boolean) to start/stop watching volume info.
      */
     @Override
     public void setVisible(boolean visible) {
         if(visible) {
-            // Start auto-update thread
-            startAutoUpdate();
             super.setVisible(true);
             // Update status bar info
             updateStatusInfo();
         }
         else {
-            // Stop auto-update thread
-            this.autoUpdateThread = null;
+            // Stop watching volume info
+            VolumeMonitor.unwatch(this);
+            volumeFolder = null;
             super.setVisible(false);
         }
     }
-    
-    
-    //////////////////////
-    // Runnable methods //
-    //////////////////////
 
     /**
-     * Periodically updates volume info (free / total space).
+     * Overrides JComponent.removeNotify() to stop watching volume info when the MainFrame is disposed.
      */
-    public void run() {
-        do {
-            // Sleep for a while
-            try { Thread.sleep(AUTO_UPDATE_PERIOD); }
-            catch (InterruptedException e) {}
-            
-            // Update volume info if:
-            // - status bar is visible
-            // - MainFrame isn't changing folders
-            // - MainFrame is active and in the foreground
-            // Volume info update will potentially hit the LRU cache and not actually update volume info
-            if(isVisible() && !mainFrame.getNoEventsMode() && mainFrame.isForegroundActive())
-                updateVolumeInfo();
-        }
-        while(autoUpdateThread!=null && mainFrame.isVisible());   // Stop when MainFrame is disposed
+    @Override
+    public void removeNotify() {
+        VolumeMonitor.unwatch(this);
+        volumeFolder = null;
+        super.removeNotify();
     }
     
+    
+    ///////////////////////////////////////////
+    // VolumeMonitor.Listener implementation //
+    ///////////////////////////////////////////
+
+    public void volumeSpaceChanged(final AbstractFile folder, final long totalSpace, final long freeSpace) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                // Discard the info of a folder that is not the current one anymore
+                if(folder==volumeFolder)
+                    volumeSpaceLabel.setVolumeSpace(totalSpace, freeSpace);
+            }
+        });
+    }
+
+    public boolean isActive() {
+        // Keep volume info up to date only if:
+        // - status bar is visible
+        // - MainFrame isn't changing folders
+        // - MainFrame is active and in the foreground
+        return isVisible() && !mainFrame.getNoEventsMode() && mainFrame.isForegroundActive();
+    }
+
 
     ////////////////////////////////////////
     // ActivePanelListener implementation //
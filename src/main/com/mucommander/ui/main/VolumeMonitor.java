@@ -0,0 +1,312 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.local.LocalFile;
+import com.mucommander.commons.runtime.JavaVersion;
+
+/**
+ * Retrieves the free and total space of the volumes that folders are located on, and keeps them up to date for the
+ * folders that are being watched. There is a single monitor for the whole application, shared by the status bars of
+ * all windows.
+ *
+ * <p>Volume space is retrieved by background threads, as it is I/O-bound and can take a while on remote volumes.
+ * It is cached per volume for {@link #TIME_TO_LIVE} milliseconds, and retrieved again when it expires for the volumes
+ * of watched folders whose listeners are {@link Listener#isActive() active}. Each volume is only retrieved by one thread at a time, no matter how many listeners watch it.</p>
+ *
+ * <p>A listener watches a single folder at a time: watching another folder replaces the previous one, and
+ * listeners are never notified of the space of a folder they no longer watch. Listeners are weakly referenced, and
+ * are notified from a background thread.</p>
+ */
+public class VolumeMonitor {
+	private static final Logger LOGGER = LoggerFactory.getLogger(VolumeMonitor.class);
+
+    /** Number of milliseconds before the space of a volume is retrieved again */
+    private final static int TIME_TO_LIVE = 60000;
+
+    /** Number of milliseconds between two checks for expired volumes */
+    private final static int CHECK_PERIOD = 6000;
+
+    /** Number of threads retrieving volume space, so that a slow volume does not hold the others */
+    private final static int NB_THREADS = 2;
+
+    /** Retrieves volume space and periodically checks for expired volumes */
+    private final static ScheduledExecutorService EXECUTOR = new ScheduledThreadPoolExecutor(NB_THREADS, new ThreadFactory() {
+        private int count;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "VolumeMonitor-"+(++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Folder watched by each listener */
+    private final static Map<Listener, AbstractFile> watchedFolders = new WeakHashMap<Listener, AbstractFile>();
+
+    /** Path of the volume of the folder watched by each listener, once it has been resolved */
+    private final static Map<Listener, String> watchedVolumes = new WeakHashMap<Listener, String>();
+
+    /** Space of the volumes retrieved so far: total space, free space and retrieval timestamp */
+    private final static Map<String, long[]> volumeSpaces = new HashMap<String, long[]>();
+
+    /** Paths of the volumes whose space is being retrieved */
+    private final static Set<String> pendingVolumes = new HashSet<String>();
+
+    static {
+        EXECUTOR.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                updateExpiredVolumes();
+            }
+        }, CHECK_PERIOD, CHECK_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Watches the volume of the given folder for the given listener, in place of the folder it was watching, if any.
+     * The listener is notified of the volume's space as soon as it is known, from the cache if it is current, and
+     * then each time it is retrieved again.
+     *
+     * @param listener the listener to notify
+     * @param folder the folder whose volume to watch
+     */
+    public static void watch(final Listener listener, final AbstractFile folder) {
+        synchronized(VolumeMonitor.class) {
+            watchedFolders.put(listener, folder);
+            watchedVolumes.remove(listener);
+        }
+
+        EXECUTOR.execute(new Runnable() {
+            public void run() {
+                resolveVolume(listener, folder);
+            }
+        });
+    }
+
+    /**
+     * Stops watching volumes for the given listener, which will not be notified anymore.
+     *
+     * @param listener the listener to remove
+     */
+    public static synchronized void unwatch(Listener listener) {
+        watchedFolders.remove(listener);
+        watchedVolumes.remove(listener);
+    }
+
+    /**
+     * Returns <code>true</code> if the given folder is the one watched by the given listener.
+     */
+    private static synchronized boolean isWatched(Listener listener, AbstractFile folder) {
+        return watchedFolders.get(listener)==folder;
+    }
+
+    /**
+     * Resolves the volume of the given folder, which is I/O-bound, and notifies the listener of its space.
+     */
+    private static void resolveVolume(Listener listener, AbstractFile folder) {
+        // The listener may have moved on to another folder in the meantime
+        if(!isWatched(listener, folder))
+            return;
+
+        String volumePath;
+        try {
+            volumePath = folder.exists()?folder.getVolume().getAbsolutePath(true):"";
+        }
+        catch(Exception e) {
+            LOGGER.debug("Could not resolve the volume of "+folder, e);
+            volumePath = "";
+        }
+
+        long space[];
+        synchronized(VolumeMonitor.class) {
+            if(watchedFolders.get(listener)!=folder)
+                return;
+
+            watchedVolumes.put(listener, volumePath);
+            space = volumeSpaces.get(volumePath);
+        }
+
+        if(space==null || isExpired(space))
+            updateVolume(volumePath, folder);
+        else
+            listener.volumeSpaceChanged(folder, space[0], space[1]);
+    }
+
+    /**
+     * Retrieves the space of the volumes that are watched by active listeners and whose space has expired, and
+     * discards the expired space of volumes that are not watched anymore.
+     */
+    private static void updateExpiredVolumes() {
+        Map<Listener, String> volumes;
+        synchronized(VolumeMonitor.class) {
+            volumes = new HashMap<Listener, String>(watchedVolumes);
+        }
+
+        // Listeners are asked outside of the lock, they may need their own
+        List<Listener> activeListeners = new ArrayList<Listener>();
+        for(Listener listener : volumes.keySet()) {
+            if(listener.isActive())
+                activeListeners.add(listener);
+        }
+
+        Map<String, AbstractFile> expiredVolumes = new HashMap<String, AbstractFile>();
+        synchronized(VolumeMonitor.class) {
+            for(Listener listener : activeListeners) {
+                String volumePath = watchedVolumes.get(listener);
+                AbstractFile folder = watchedFolders.get(listener);
+                if(volumePath==null || folder==null)
+                    continue;
+
+                long space[] = volumeSpaces.get(volumePath);
+                if(space==null || isExpired(space))
+                    expiredVolumes.put(volumePath, folder);
+            }
+
+            Iterator<Map.Entry<String, long[]>> iterator = volumeSpaces.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<String, long[]> entry = iterator.next();
+                if(isExpired(entry.getValue()) && !expiredVolumes.containsKey(entry.getKey()))
+                    iterator.remove();
+            }
+        }
+
+        for(Map.Entry<String, AbstractFile> entry : expiredVolumes.entrySet())
+            updateVolume(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Retrieves the space of the given volume using the given folder, unless it is already being retrieved by
+     * another thread, and notifies the listeners that watch it.
+     */
+    private static void updateVolume(String volumePath, AbstractFile folder) {
+        synchronized(VolumeMonitor.class) {
+            if(!pendingVolumes.add(volumePath))
+                return;
+        }
+
+        long space[];
+        try {
+            space = retrieveVolumeSpace(folder);
+        }
+        finally {
+            synchronized(VolumeMonitor.class) {
+                pendingVolumes.remove(volumePath);
+            }
+        }
+
+        List<Listener> listeners = new ArrayList<Listener>();
+        List<AbstractFile> folders = new ArrayList<AbstractFile>();
+        synchronized(VolumeMonitor.class) {
+            volumeSpaces.put(volumePath, space);
+
+            for(Map.Entry<Listener, String> entry : watchedVolumes.entrySet()) {
+                if(entry.getValue().equals(volumePath)) {
+                    listeners.add(entry.getKey());
+                    folders.add(watchedFolders.get(entry.getKey()));
+                }
+            }
+        }
+
+        for(int i=0; i<listeners.size(); i++)
+            listeners.get(i).volumeSpaceChanged(folders.get(i), space[0], space[1]);
+    }
+
+    /**
+     * Returns the total and free space of the volume of the given folder, -1 for the values that are not available,
+     * followed by the current time.
+     */
+    private static long[] retrieveVolumeSpace(AbstractFile folder) {
+        // Free space on current volume, -1 if this information is not available
+        long volumeFree;
+        // Total space on current volume, -1 if this information is not available
+        long volumeTotal;
+
+        // Folder is a local file and Java version is 1.5: call getVolumeInfo() instead of
+        // separate calls to getFreeSpace() and getTotalSpace() as it is twice as fast.
+        if(folder instanceof LocalFile && JavaVersion.JAVA_1_5.isCurrentOrLower()) {
+            try {
+                long volumeInfo[] = ((LocalFile)folder).getVolumeInfo();
+                volumeTotal = volumeInfo[0];
+                volumeFree = volumeInfo[1];
+            }
+            catch(IOException e) {
+                volumeTotal = -1;
+                volumeFree = -1;
+            }
+        }
+        // Java 1.6 and up or any other file type
+        else {
+            try { volumeFree = folder.getFreeSpace(); }
+            catch(IOException e) { volumeFree = -1; }
+
+            try { volumeTotal = folder.getTotalSpace(); }
+            catch(IOException e) { volumeTotal = -1; }
+        }
+
+        return new long[]{volumeTotal, volumeFree, System.currentTimeMillis()};
+    }
+
+    private static boolean isExpired(long space[]) {
+        long age = System.currentTimeMillis()-space[2];
+        return age>=TIME_TO_LIVE || age<0;
+    }
+
+
+    /**
+     * Notified of the space of the volume of the folder it watches.
+     */
+    public interface Listener {
+
+        /**
+         * Called from a background thread when the space of the volume of the given folder has been retrieved.
+         *
+         * @param folder the folder watched by the listener
+         * @param totalSpace total space of the volume, -1 if not available
+         * @param freeSpace free space of the volume, -1 if not available
+         */
+        public void volumeSpaceChanged(AbstractFile folder, long totalSpace, long freeSpace);
+
+        /**
+         * Returns <code>true</code> if the space of the watched volume should be kept up to date, i.e. if it is
+         * displayed. Called periodically from a background thread: the space of an inactive listener's volume is
+         * retrieved again once it becomes active, or watches another folder.
+         *
+         * @return <code>true</code> if the space of the watched volume should be kept up to date
+         */
+        public boolean isActive();
+    }
+}
@@ -97,6 +97,7 @@ import com.mucommander.ui.action.impl.OpenLocationAction;
 import com.mucommander.ui.action.impl.OpenNativelyAction;
 import com.mucommander.ui.action.impl.PackAction;
 import com.mucommander.ui.action.impl.PasteClipboardFilesAction;
+import com.mucommander.ui.action.impl.QuickFilterAction;
 import com.mucommander.ui.action.impl.QuitAction;
 import com.mucommander.ui.action.impl.RecallNextWindowAction;
 import com.mucommander.ui.action.impl.RecallPreviousWindowAction;
@@ -124,10 +125,13 @@ import com.mucommander.ui.action.impl.SplitHorizontallyAction;
 import com.mucommander.ui.action.impl.SplitVerticallyAction;
 import com.mucommander.ui.action.impl.SwapFoldersAction;
 import com.mucommander.ui.action.impl.ToggleAutoSizeAction;
+import com.mucommander.ui.action.impl.ToggleFolderSizesAction;
 import com.mucommander.ui.action.impl.ToggleCommandBarAction;
 import com.mucommander.ui.action.impl.ToggleHiddenFilesAction;
 import com.mucommander.ui.action.impl.ToggleShowFoldersFirstAction;
+import com.mucommander.ui.action.impl.TogglePreviewAction;
 import com.mucommander.ui.action.impl.ToggleStatusBarAction;
+import com.mucommander.ui.action.impl.ToggleThumbnailsAction;
 import com.mucommander.ui.action.impl.ToggleToolBarAction;
 import com.mucommander.ui.action.impl.ToggleTreeAction;
 import com.mucommander.ui.action.impl.UnmarkAllAction;
@@ -170,7 +174,10 @@ public class MainMenuBar extends JMenuBar implements ActionListener, MenuListene
     private JCheckBoxMenuItem toggleToggleAutoSizeItem;
     private JCheckBoxMenuItem toggleShowFoldersFirstItem;
     private JCheckBoxMenuItem toggleShowHiddenFilesItem;
+    private JCheckBoxMenuItem toggleFolderSizesItem;
     private JCheckBoxMenuItem toggleTreeItem;
+    private JCheckBoxMenuItem toggleThumbnailsItem;
+    private JCheckBoxMenuItem togglePreviewItem;
     /* TODO branch private JCheckBoxMenuItem toggleBranchView; */
 
 
@@ -294,7 +301,11 @@ public class MainMenuBar extends JMenuBar implements ActionListener, MenuListene
         viewMenu.add(new JSeparator());
         toggleShowFoldersFirstItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(ToggleShowFoldersFirstAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
         toggleShowHiddenFilesItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(ToggleHiddenFilesAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
+        toggleFolderSizesItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(ToggleFolderSizesAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
         toggleTreeItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(ToggleTreeAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
+        toggleThumbnailsItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(ToggleThumbnailsAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
+        togglePreviewItem = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(TogglePreviewAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
+        MenuToolkit.addMenuItem(viewMenu, ActionManager.getActionInstance(QuickFilterAction.Descriptor.ACTION_ID, mainFrame), menuItemMnemonicHelper);
         /* TODO branch toggleBranchView = MenuToolkit.addCheckBoxMenuItem(viewMenu, ActionManager.getActionInstance(ToggleBranchViewAction.class, mainFrame), menuItemMnemonicHelper); */
 
         viewMenu.add(new JSeparator());
@@ -486,7 +497,10 @@ public class MainMenuBar extends JMenuBar implements ActionListener, MenuListene
 
             toggleShowFoldersFirstItem.setSelected(activeTable.getSortInfo().getFoldersFirst());
             toggleShowHiddenFilesItem.setSelected(MuConfigurations.getPreferences().getVariable(MuPreference.SHOW_HIDDEN_FILES, MuPreferences.DEFAULT_SHOW_HIDDEN_FILES));
+            toggleFolderSizesItem.setSelected(MuConfigurations.getPreferences().getVariable(MuPreference.CALCULATE_FOLDER_SIZES, MuPreferences.DEFAULT_CALCULATE_FOLDER_SIZES));
             toggleTreeItem.setSelected(activeTable.getFolderPanel().isTreeVisible());
+            toggleThumbnailsItem.setSelected(activeTable.isThumbnailsEnabled());
+            togglePreviewItem.setSelected(activeTable.getFolderPanel().isPreviewVisible());
             toggleToggleAutoSizeItem.setSelected(mainFrame.isAutoSizeColumnsEnabled());
             /* TODO branch toggleBranchView.setSelected(activeTable.getFolderPanel().isBranchView()); */ 
         }
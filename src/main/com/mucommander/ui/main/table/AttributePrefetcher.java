@@ -0,0 +1,230 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractArchiveEntryFile;
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileProtocols;
+import com.mucommander.commons.file.impl.CachedFile;
+
+/**
+ * Wraps the children of a folder in {@link CachedFile} instances and pre-fetches their attributes using several
+ * threads at once, as described in {@link FileTableModel#createCachedFile(AbstractFile)}. On network filesystems,
+ * each attribute that is not returned by the listing costs a round trip to the server: fetching them concurrently
+ * divides the time it takes to display a folder by the number of threads.
+ *
+ * <p>The number of threads used for a folder depends on its protocol: a handful for remote protocols, so as not to
+ * flood the server (or exhaust its connection pool), more for local filesystems which include network mounts.
+ * Threads are taken from a pool that is shared by all tables.</p>
+ *
+ * <p>A prefetch can be cancelled using {@link #cancel()}, or by interrupting the thread that called
+ * {@link #prefetch(AbstractFile[], int, int, long)}.</p>
+ */
+class AttributePrefetcher {
+	private static final Logger LOGGER = LoggerFactory.getLogger(AttributePrefetcher.class);
+
+    /** Number of threads used for local folders, this includes NFS and SMB mounts */
+    private final static int LOCAL_PARALLELISM = 8;
+
+    /** Number of threads used for remote folders */
+    private final static int REMOTE_PARALLELISM = 4;
+
+    /** Number of files under which attributes are pre-fetched in the calling thread */
+    private final static int MIN_PARALLEL_FILES = 64;
+
+    /** Pool of threads shared by all prefetchers */
+    private final static ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private int count;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AttributePrefetcher-"+(++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** The folder whose children are pre-fetched */
+    private AbstractFile folder;
+
+    /** Maximum number of threads used by this prefetcher */
+    private int parallelism;
+
+    /** True when this prefetcher has been cancelled */
+    private volatile boolean cancelled;
+
+    /** Total number of files pre-fetched by this prefetcher so far */
+    private int nbPrefetchedFiles;
+
+    /** Total time spent pre-fetching files so far, in milliseconds */
+    private long prefetchTime;
+
+    /**
+     * Creates a new prefetcher for the children of the given folder.
+     *
+     * @param folder the folder whose children will be pre-fetched
+     */
+    AttributePrefetcher(AbstractFile folder) {
+        this.folder = folder;
+        this.parallelism = getParallelism(folder);
+    }
+
+    /**
+     * Returns the number of threads to use for pre-fetching the children of the given folder.
+     *
+     * @param folder a folder
+     * @return the number of threads to use for pre-fetching the children of the given folder
+     */
+    private static int getParallelism(AbstractFile folder) {
+        // Archive entries are already in memory, there is nothing to gain
+        if(folder.isArchive() || folder.hasAncestor(AbstractArchiveEntryFile.class))
+            return 1;
+
+        String scheme = folder.getURL().getScheme();
+        if(FileProtocols.FILE.equals(scheme))
+            return LOCAL_PARALLELISM;
+
+        return REMOTE_PARALLELISM;
+    }
+
+    /**
+     * Cancels this prefetcher: files that have not been pre-fetched yet will be left as they are. This method returns
+     * immediately.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Replaces the files located between <code>from</code> (inclusive) and <code>to</code> (exclusive) in the given
+     * array by CachedFile instances whose attributes have been pre-fetched, and returns when they have all been
+     * processed. Files are processed in order: if this prefetcher is cancelled, the calling thread interrupted or
+     * the given deadline reached, only a prefix of the range will have been processed, the length of which is
+     * returned. Files whose attributes could not be pre-fetched are wrapped nonetheless. This method never returns
+     * before the threads it has started are done with the array.
+     *
+     * @param files the files to pre-fetch, modified in place
+     * @param from index of the first file to pre-fetch
+     * @param to index of the last file to pre-fetch, plus one
+     * @param deadline time (in milliseconds since the epoch) after which no new file will be pre-fetched, 0 for none
+     * @return the number of files that have been pre-fetched, starting at <code>from</code>
+     */
+    int prefetch(final AbstractFile files[], final int from, final int to, final long deadline) {
+        long startTime = System.currentTimeMillis();
+        final AtomicInteger nextIndex = new AtomicInteger(from);
+        int nbThreads = Math.min(parallelism, (to-from+MIN_PARALLEL_FILES-1)/MIN_PARALLEL_FILES);
+
+        int nbFiles;
+        if(nbThreads<=1) {
+            // Not worth the threads
+            int i = from;
+            while(i<to && !cancelled && !Thread.currentThread().isInterrupted() && (deadline==0 || System.currentTimeMillis()<deadline)) {
+                prefetchFile(files, i);
+                i++;
+            }
+            nbFiles = i-from;
+        }
+        else {
+            // Set when the file with the same index (relative to from) has been processed
+            final boolean processed[] = new boolean[to-from];
+            final CountDownLatch done = new CountDownLatch(nbThreads);
+            Runnable worker = new Runnable() {
+                public void run() {
+                    try {
+                        int i;
+                        // Files are claimed in order, so that the processed files form a prefix of the range once all workers are done
+                        while(!cancelled && (deadline==0 || System.currentTimeMillis()<deadline) && (i = nextIndex.getAndIncrement())<to) {
+                            prefetchFile(files, i);
+                            processed[i-from] = true;
+                        }
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            };
+
+            for(int t=0; t<nbThreads; t++)
+                EXECUTOR.execute(worker);
+
+            // Wait for the workers even if interrupted, they must not write to the array once this method has returned
+            boolean interrupted = false;
+            while(true) {
+                try {
+                    done.await();
+                    break;
+                }
+                catch(InterruptedException e) {
+                    // Stop the workers, they will finish the files they are processing and leave the others alone
+                    cancelled = true;
+                    interrupted = true;
+                }
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+
+            // The latch makes the workers' writes visible to this thread
+            nbFiles = 0;
+            while(nbFiles<processed.length && processed[nbFiles])
+                nbFiles++;
+        }
+
+        long time = System.currentTimeMillis()-startTime;
+
+        synchronized(this) {
+            nbPrefetchedFiles += nbFiles;
+            prefetchTime += time;
+        }
+
+        LOGGER.debug("Pre-fetched "+nbFiles+"/"+(to-from)+" files of "+folder+" in "+time+"ms using "+Math.max(nbThreads, 1)+" thread(s)"
+                +(cancelled?", cancelled":""));
+
+        return nbFiles;
+    }
+
+    /**
+     * Replaces the file with the given index by a CachedFile whose attributes have been pre-fetched. If pre-fetching
+     * fails, the file is wrapped without its attributes, which will be fetched when they are first requested.
+     */
+    private static void prefetchFile(AbstractFile files[], int i) {
+        try {
+            files[i] = FileTableModel.createCachedFile(files[i]);
+        }
+        catch(Exception e) {
+            LOGGER.debug("Caught exception while pre-fetching attributes of "+files[i], e);
+            if(!(files[i] instanceof CachedFile))
+                files[i] = new CachedFile(files[i], true);
+        }
+    }
+
+    /**
+     * Logs the total number of files pre-fetched by this prefetcher and the time it took.
+     */
+    synchronized void logTotal() {
+        LOGGER.debug("Pre-fetched a total of "+nbPrefetchedFiles+" files of "+folder+" in "+prefetchTime+"ms"+(cancelled?", cancelled":""));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.awt.Color;
+
+import com.mucommander.ui.theme.ThemeCache;
+
+/**
+ * The colors a {@link FileTableCellRenderer} paints a cell with: foreground, background (possibly a gradient) and
+ * outline.
+ *
+ * <p>There are few distinct styles, which only depend on the state of the row (focused table, selected row,
+ * alternate row, quick search) and on the kind of file it displays (marked, folder, archive...). They are all created
+ * at once by {@link #createStyles(Color[][][], Color[][], Color, Color, Color, Color)} when the theme's colors change,
+ * and looked up by {@link #getIndex(int, int)} when cells are rendered.</p>
+ */
+class CellStyle {
+
+    /** The table has the focus */
+    final static int FOCUSED = 1;
+    /** The row is selected, in the active table */
+    final static int SELECTED = 2;
+    /** The row has an odd index */
+    final static int ALTERNATE = 4;
+    /** Quick search is active in the table */
+    final static int SEARCHING = 8;
+    /** Quick search is active and the row does not match it */
+    final static int UNMATCHED = 16;
+
+    /** Number of row states, i.e. of combinations of the above bits */
+    private final static int NB_STATES = 32;
+
+    /** Number of color indexes defined by {@link ThemeCache}, one per kind of file */
+    private final static int NB_COLOR_INDEXES = ThemeCache.PLAIN_FILE+1;
+
+    /** Foreground color */
+    final Color foreground;
+    /** Background color, at the top of the cell if the background is a gradient */
+    final Color background;
+    /** Background color at the bottom of the cell, null if the background is not a gradient */
+    final Color gradient;
+    /** Outline color, null if the cell has no outline */
+    final Color outline;
+
+
+    private CellStyle(Color foreground, Color background, Color gradient, Color outline) {
+        this.foreground = foreground;
+        this.background = background;
+        this.gradient = gradient==null || gradient.equals(background)?null:gradient;
+        this.outline = outline;
+    }
+
+    /**
+     * Returns the index of the style of the given row state and color index in the array returned by
+     * {@link #createStyles(Color[][][], Color[][], Color, Color, Color, Color)}.
+     *
+     * @param state a combination of {@link #FOCUSED}, {@link #SELECTED}, {@link #ALTERNATE}, {@link #SEARCHING} and
+     * {@link #UNMATCHED}
+     * @param colorIndex one of the file color indexes defined by {@link ThemeCache}
+     * @return the index of the style
+     */
+    static int getIndex(int state, int colorIndex) {
+        return state*NB_COLOR_INDEXES + colorIndex;
+    }
+
+    /**
+     * Creates the styles of all row states and color indexes, from the colors of the theme as laid out by
+     * {@link ThemeCache}.
+     *
+     * @param foregroundColors foreground colors by focus, selection and color index
+     * @param backgroundColors background colors by focus and kind of row
+     * @param unmatchedForeground foreground color of rows that do not match quick search
+     * @param unmatchedBackground background color of rows that do not match quick search
+     * @param activeOutlineColor outline color of the selected row when the table has the focus
+     * @param inactiveOutlineColor outline color of the selected row when the table does not have the focus
+     * @return the styles, indexed by {@link #getIndex(int, int)}
+     */
+    static CellStyle[] createStyles(Color foregroundColors[][][], Color backgroundColors[][], Color unmatchedForeground,
+                                    Color unmatchedBackground, Color activeOutlineColor, Color inactiveOutlineColor) {
+        CellStyle styles[] = new CellStyle[NB_STATES*NB_COLOR_INDEXES];
+
+        for(int state=0; state<NB_STATES; state++) {
+            int focusedIndex = (state&FOCUSED)!=0?ThemeCache.ACTIVE:ThemeCache.INACTIVE;
+            boolean selected = (state&SELECTED)!=0;
+            boolean matches = (state&UNMATCHED)==0;
+
+            Color background;
+            Color gradient = null;
+            if(selected) {
+                background = backgroundColors[focusedIndex][ThemeCache.SELECTED];
+                gradient = backgroundColors[focusedIndex][ThemeCache.SECONDARY];
+            }
+            else if(!matches)
+                background = unmatchedBackground;
+            // Rows are not alternated while quick search is active
+            else if((state&SEARCHING)!=0 || (state&ALTERNATE)==0)
+                background = backgroundColors[focusedIndex][ThemeCache.NORMAL];
+            else
+                background = backgroundColors[focusedIndex][ThemeCache.ALTERNATE];
+
+            Color outline = null;
+            if(selected)
+                outline = (state&FOCUSED)!=0?activeOutlineColor:inactiveOutlineColor;
+
+            for(int colorIndex=0; colorIndex<NB_COLOR_INDEXES; colorIndex++) {
+                Color foreground;
+                if(matches || selected)
+                    foreground = foregroundColors[focusedIndex][selected?ThemeCache.SELECTED:ThemeCache.NORMAL][colorIndex];
+                else
+                    foreground = unmatchedForeground;
+
+                styles[getIndex(state, colorIndex)] = new CellStyle(foreground, background, gradient, outline);
+            }
+        }
+
+        return styles;
+    }
+
+    /**
+     * Applies this style to the given label.
+     *
+     * @param label the label a cell is rendered with
+     * @param text <code>true</code> if the label displays text, <code>false</code> if it only displays an icon
+     */
+    void apply(CellLabel label, boolean text) {
+        if(text)
+            label.setForeground(foreground);
+
+        if(gradient==null)
+            label.setBackground(background);
+        else
+            label.setBackground(background, gradient);
+
+        label.setOutline(outline);
+    }
+}
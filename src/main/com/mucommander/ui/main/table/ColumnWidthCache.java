@@ -0,0 +1,168 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Keeps track of the width of the widest value of each column of a {@link FileTable}, for the automatic column layout.
+ *
+ * <p>Values are measured once per listing rather than each time the table is laid out: when files are appended to
+ * the listing, as a large folder is being loaded, only the new files are measured. Resizing, sorting or filtering the
+ * table does not measure anything. The table must call {@link #invalidate()} when the values of files that have
+ * already been measured change, which is detected automatically when the listing is replaced by another one.</p>
+ *
+ * <p>The width of each distinct string is cached, so that the many identical values of a column, like sizes, are
+ * measured once. In large folders, only a sample of the files is measured: all of the first {@link #SAMPLE_SIZE}
+ * files, then one file out of 2 for the next <code>SAMPLE_SIZE</code> files, one out of 4 for the next
+ * <code>2*SAMPLE_SIZE</code> ones, and so on. The number of measured files thus grows with the logarithm of the
+ * number of files.</p>
+ */
+class ColumnWidthCache {
+
+    /** Number of files measured at each sampling rate */
+    private final static int SAMPLE_SIZE = 4096;
+
+    /** Maximum number of string widths held by the cache */
+    private final static int STRING_CACHE_CAPACITY = 8192;
+
+    /** Font of the measured widths */
+    private Font font;
+
+    /** Widths of the strings measured so far, in access order */
+    private Map<String, Integer> stringWidths = new LinkedHashMap<String, Integer>(STRING_CACHE_CAPACITY*4/3+1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size()>STRING_CACHE_CAPACITY;
+        }
+    };
+
+    /** Files of the measured listing, null if none */
+    private AbstractFile files[];
+
+    /** Number of files of the listing that have been measured, by column */
+    private int nbMeasuredFiles[] = new int[Column.values().length];
+
+    /** Width of the widest value measured so far, by column */
+    private int widths[] = new int[Column.values().length];
+
+
+    /**
+     * Returns the width of the widest value of the given column in the given snapshot, measuring the files that have
+     * not been measured yet. This method must be called from the event dispatch thread.
+     *
+     * @param snapshot the current snapshot of the table's model
+     * @param column a column other than {@link Column#NAME} and {@link Column#EXTENSION}
+     * @param fm metrics of the font the values are displayed with
+     * @return the width in pixels of the widest value of the column, not including cell borders
+     */
+    int getWidth(ListingSnapshot snapshot, Column column, FontMetrics fm) {
+        if(!fm.getFont().equals(font)) {
+            font = fm.getFont();
+            stringWidths.clear();
+            invalidate();
+        }
+
+        AbstractFile newFiles[] = snapshot.files;
+        if(!isExtendedBy(newFiles))
+            invalidate();
+        files = newFiles;
+
+        int c = column.ordinal();
+        int from = nbMeasuredFiles[c];
+        int width = widths[c];
+
+        if(from==0 && snapshot.parentCellValues!=null)
+            width = getStringWidth(snapshot.parentCellValues[c-1], fm);
+
+        for(int fileIndex=from; fileIndex<newFiles.length; fileIndex++) {
+            if(isSampled(fileIndex))
+                width = Math.max(width, getStringWidth(snapshot.getCellValue(fileIndex, column), fm));
+        }
+
+        nbMeasuredFiles[c] = newFiles.length;
+        widths[c] = width;
+
+        return width;
+    }
+
+    /**
+     * Discards the measured widths of all columns: they will be measured again the next time they are requested.
+     */
+    void invalidate() {
+        for(int i=0; i<widths.length; i++) {
+            nbMeasuredFiles[i] = 0;
+            widths[i] = 0;
+        }
+    }
+
+    /**
+     * Discards the measured widths of the given column.
+     *
+     * @param column the column whose values have changed
+     */
+    void invalidate(Column column) {
+        nbMeasuredFiles[column.ordinal()] = 0;
+        widths[column.ordinal()] = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if the given files start with the files that have been measured, i.e. if files have
+     * only been appended to the measured listing, if any.
+     */
+    private boolean isExtendedBy(AbstractFile newFiles[]) {
+        if(files==newFiles)
+            return true;
+        if(files==null || newFiles.length<files.length)
+            return false;
+
+        int nbFiles = files.length;
+        return nbFiles==0 || (newFiles[0]==files[0] && newFiles[nbFiles-1]==files[nbFiles-1]);
+    }
+
+    /**
+     * Returns <code>true</code> if the file with the given index is part of the sample of measured files.
+     */
+    private static boolean isSampled(int fileIndex) {
+        if(fileIndex<SAMPLE_SIZE)
+            return true;
+
+        // Files are sampled one out of 2^n, for the 2^(n-1)*SAMPLE_SIZE files that follow the first 2^(n-1)*SAMPLE_SIZE
+        int rate = Integer.highestOneBit(fileIndex/SAMPLE_SIZE)*2;
+        return (fileIndex&(rate-1))==0;
+    }
+
+    private int getStringWidth(String value, FontMetrics fm) {
+        if(value==null)
+            return 0;
+
+        Integer width = stringWidths.get(value);
+        if(width==null) {
+            width = fm.stringWidth(value);
+            stringWidths.put(value, width);
+        }
+
+        return width;
+    }
+}
@@ -36,6 +36,10 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.util.Iterator;
 import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.DefaultCellEditor;
 import javax.swing.InputMap;
@@ -47,6 +51,7 @@ import javax.swing.KeyStroke;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableCellRenderer;
 import javax.swing.table.TableColumn;
@@ -61,6 +66,7 @@ import com.mucommander.commons.collections.Enumerator;
 import com.mucommander.commons.conf.ConfigurationEvent;
 import com.mucommander.commons.conf.ConfigurationListener;
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.commons.runtime.OsFamily;
 import com.mucommander.commons.runtime.OsVersion;
@@ -113,6 +119,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     private final static int RESERVED_NAME_COLUMN_WIDTH = 40;
     /** Miniumn column width when in automatic column sizing mode */
     private final static int MIN_COLUMN_AUTO_WIDTH = 20;
+    /** Maximum width and height of the thumbnails displayed in place of icons, when thumbnails are enabled */
+    public final static int THUMBNAIL_SIZE = 64;
 
 
     // - Containers ----------------------------------------------------------------------
@@ -153,14 +161,51 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     /** Timestamp of last row selection change */
     private long selectionChangedTimestamp;
 
+    /** Minimum delay in milliseconds between two selection events fired as the selection moves from row to row */
+    private final static int SELECTION_EVENT_INTERVAL = 100;
+
+    /** Timestamp of the last selection event fired to listeners */
+    private long selectionEventTimestamp;
+
+    /** Fires the selection event that has been deferred because the selection moved too quickly, if any */
+    private final Timer selectionEventTimer = new Timer(SELECTION_EVENT_INTERVAL, new ActionListener() {
+        public void actionPerformed(ActionEvent e) {
+            fireSelectedFileChangedEvent();
+        }
+    });
+
     /** Timestamp of last double click */
     private long lastDoubleClickTimestamp;
 
     /** Is automatic columns sizing enabled ? */
     private boolean autoSizeColumnsEnabled;
 
+    /** Widths of the widest values of the columns, for automatic columns sizing */
+    private ColumnWidthCache columnWidths = new ColumnWidthCache();
+
     /** Instance of the inner class that handles quick search */
-    private QuickSearch<AbstractFile> quickSearch = new FileTableQuickSearch();
+    private FileTableQuickSearch quickSearch = new FileTableQuickSearch();
+
+    /** Pass of the quick filter that has not been applied yet, null if there is none */
+    private FilterTask filterTask;
+
+    /** Runs the passes of the quick filter of all tables, one at a time */
+    private final static ExecutorService FILTER_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileTable filter thread");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Reads the optional attributes of the enabled columns that the current files lack, for all tables */
+    private final static ExecutorService ATTRIBUTE_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileTable attribute loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
 
     /** TableSelectionListener instances registered to receive selection change events */
     private WeakHashMap<TableSelectionListener, ?> tableSelectionListeners = new WeakHashMap<TableSelectionListener, Object>();
@@ -190,6 +235,48 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     /** Table that shows the user to refresh if the location doesn't exist */
     private DefaultOverlayable overlayTable;
 
+    /** Loads the remaining files of a large folder after its first batch has been displayed, null if none */
+    private volatile FolderLoader folderLoader;
+
+    /** Marked files that are still to be restored while the current folder is being loaded */
+    private FileSet loaderMarkedFiles;
+
+    /** File to select once it has been loaded, null if none */
+    private AbstractFile loaderFileToSelect;
+
+    /** Value of {@link #selectionChangedTimestamp} when the loader last changed the selection */
+    private long loaderSelectionTimestamp;
+
+    /** Viewport position to restore the next time the table is laid out, null if none */
+    private Point pendingViewPosition;
+
+    /** True if the size of folders is calculated in the background */
+    private boolean calculateFolderSizes;
+
+    /** Calculates the size of the current folder's folders, null if none */
+    private FolderSizeCalculator folderSizeCalculator;
+
+    /** True if image files are displayed with a thumbnail in place of their icon */
+    private boolean thumbnailsEnabled;
+
+    /** First row to repaint at the end of the current event, -1 if none */
+    private int dirtyStartRow = -1;
+
+    /** Last row to repaint at the end of the current event */
+    private int dirtyEndRow;
+
+    /** Repaints the rows invalidated by {@link #repaintRows(int, int)} in one go */
+    private final Runnable dirtyRowsPainter = new Runnable() {
+        public void run() {
+            int startRow = dirtyStartRow;
+            int endRow = dirtyEndRow;
+            dirtyStartRow = -1;
+
+            int rowHeight = getRowHeight();
+            repaint(0, startRow*rowHeight, getWidth(), (endRow-startRow+1)*rowHeight);
+        }
+    };
+
     public FileTable(MainFrame mainFrame, FolderPanel folderPanel, FileTableConfiguration conf) {
         super(new FileTableModel(), new FileTableColumnModel(conf));
 
@@ -218,6 +305,9 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         setIntercellSpacing(new Dimension(0,0));
         setRowHeight();
         setAutoSizeColumnsEnabled(MuConfigurations.getPreferences().getVariable(MuPreference.AUTO_SIZE_COLUMNS, MuPreferences.DEFAULT_AUTO_SIZE_COLUMNS));
+        calculateFolderSizes = MuConfigurations.getPreferences().getVariable(MuPreference.CALCULATE_FOLDER_SIZES, MuPreferences.DEFAULT_CALCULATE_FOLDER_SIZES);
+
+        selectionEventTimer.setRepeats(false);
 
         // Initializes event listening.
         addMouseListener(this);
@@ -413,6 +503,71 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         return quickSearch;
     }
 
+    /**
+     * Starts the quick filter: the characters typed while it is active make up a pattern, and only the files whose
+     * name matches it are displayed, as it is being typed. The pattern is a plain string, a glob such as
+     * <code>*.txt</code>, or a regular expression preceded by <code>/</code>.
+     *
+     * <p>Pressing Escape removes the filter. Performing an action, e.g. opening a file, keeps it until the current
+     * folder is changed or {@link #clearFilter()} is called. Marked files remain marked when they are filtered out.</p>
+     */
+    public void startQuickFilter() {
+        quickSearch.startFilter();
+    }
+
+    /**
+     * Returns <code>true</code> if some files of the current folder may not be displayed because of the quick filter.
+     *
+     * @return <code>true</code> if the rows of this table are filtered
+     */
+    public boolean isFiltered() {
+        return tableModel.getFilter()!=null;
+    }
+
+    /**
+     * Removes the quick filter, if any, so that all files of the current folder are displayed again.
+     */
+    public void clearFilter() {
+        filterRows("");
+    }
+
+    /**
+     * Filters the rows of this table with the given pattern, asynchronously. The files are matched against the
+     * pattern outside of the event dispatch thread, and the pass that was started for the previous pattern, if any,
+     * is cancelled. This method must be called from the event dispatch thread.
+     *
+     * @param pattern a pattern as described in {@link NameFilter}, an empty string to display all files
+     */
+    private void filterRows(String pattern) {
+        NameFilter filter = NameFilter.compile(pattern);
+
+        // Keep the current rows while the regular expression is invalid, it is most likely still being typed
+        if(filter==null && pattern.length()>0)
+            return;
+
+        submitFilter(filter);
+    }
+
+    private void submitFilter(NameFilter filter) {
+        cancelFilter();
+
+        if(filter==null && tableModel.getFilter()==null)
+            return;
+
+        filterTask = new FilterTask(tableModel.getSnapshot(), filter);
+        filterTask.future = FILTER_EXECUTOR.submit(filterTask);
+    }
+
+    /**
+     * Cancels the pass of the quick filter that has not been applied yet, if any.
+     */
+    private void cancelFilter() {
+        if(filterTask!=null) {
+            filterTask.future.cancel(true);
+            filterTask = null;
+        }
+    }
+
     /**
      * Returns the file that is currently selected (highlighted), <code>null</code> if the parent folder '..' is
      * currently selected.
@@ -437,13 +592,14 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
 
     /**
-     * Returns the file that is currently selected (highlighted), wrapped in a {@link com.mucommander.commons.file.impl.CachedFile}
-     * instance if the corresponding parameter is <code>true</code>. If the currently selected file is the
+     * Returns the file that is currently selected (highlighted), with its attributes cached like those of a
+     * {@link com.mucommander.commons.file.impl.CachedFile} if the corresponding parameter is <code>true</code>:
+     * they are then read from the table's listing without any I/O. If the currently selected file is the
      * parent folder '..', the parent folder is returned only if the corresponding parameter is <code>true</code>.
      *
      * @param includeParentFolder if true and the parent folder '..' is currently selected, the parent folder file
      * will be returned. If false, null will be returned if the parent folder file is currently selected.
-     * @param returnCachedFile if true, a CachedFile corresponding to the currently selected file will be returned
+     * @param returnCachedFile if true, the currently selected file will be returned with its attributes cached
      * @return the file that is currently selected (highlighted)
      */
     public synchronized AbstractFile getSelectedFile(boolean includeParentFolder, boolean returnCachedFile) {
@@ -533,12 +689,21 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         quickSearch.stop();
 
         AbstractFile currentFolder = folderPanel.getCurrentFolder();
+        boolean isRefresh = currentFolder != null && folder.equalsCanonical(currentFolder);
+
+        // If we're refreshing a folder that is fully loaded, only update the rows that have changed
+        if(isRefresh && folderLoader==null && refreshChangedRows(folder, children, fileToSelect))
+            return;
 
         // If we're refreshing the current folder, save the current selection and marked files
         // in order to restore them properly.
         FileSet markedFiles  = null;
-        if(currentFolder != null && folder.equalsCanonical(currentFolder)) {
+        if(isRefresh) {
             markedFiles = tableModel.getMarkedFiles();
+            // Files marked before a refresh may not have been loaded yet
+            FileSet pendingMarkedFiles = loaderMarkedFiles;
+            if(folderLoader!=null && pendingMarkedFiles!=null)
+                markedFiles.addAll(pendingMarkedFiles);
             if(fileToSelect==null)
                 fileToSelect = getSelectedFile();
         }
@@ -549,21 +714,138 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
                 fileToSelect = currentFolder;
         }
 
+        // Stop loading the previous folder's files, if it was still being loaded
+        FolderLoader loader = folderLoader;
+        if(loader!=null) {
+            loader.cancel();
+            folderLoader = null;
+        }
+
+        // Large folders are displayed as soon as a first batch of files is ready, the remaining files are loaded
+        // and merged into the table in the background.
+        AttributePrefetcher prefetcher = new AttributePrefetcher(folder);
+        AbstractFile firstBatch[] = children;
+        if(children.length>FolderLoader.STREAMING_THRESHOLD) {
+            firstBatch = new AbstractFile[FolderLoader.FIRST_BATCH_SIZE];
+            System.arraycopy(children, 0, firstBatch, 0, firstBatch.length);
+            loader = new FolderLoader(this, children, firstBatch.length, prefetcher);
+        }
+        else {
+            loader = null;
+        }
+
+        // Pre-fetch the files' attributes, sort them and format the first cells in this thread rather than in the
+        // event dispatch thread, which only has to swap the model's snapshot
+        prefetcher.prefetch(firstBatch, 0, firstBatch.length, 0);
+        if(loader==null)
+            prefetcher.logTotal();
+        ListingSnapshot snapshot = tableModel.createSnapshot(folder, firstBatch);
+
         // Changes the current folder in the swing thread to make sure that repaints cannot
         // happen in the middle of the operation - this is used to prevent flickering, badly
         // refreshed frames and such unpleasant graphical artifacts.
-        Runnable folderChangeThread = new FolderChangeThread(folder, children, markedFiles, fileToSelect);
-
         // Wait for the task to complete, so that we return only when the folder has actually been changed and the
         // table updated to reflect the new folder.
-        // Note: we use a wait/notify scheme rather than calling SwingUtilities#invokeAndWait to avoid deadlocks
-        // due to AWT thread synchronization issues.
-        synchronized(folderChangeThread) {
-            SwingUtilities.invokeLater(folderChangeThread);
+        invokeAndWait(new FolderChangeThread(snapshot, markedFiles, fileToSelect, loader, null));
+
+        if(loader!=null)
+            loader.start();
+    }
+
+    /**
+     * Refreshes the current folder by comparing the given children to the table's files, as described in
+     * {@link ListingDiff}: rows of files that have not changed are kept along with their marked state, and the selected
+     * file remains selected if it still exists. This method returns only when the table has been updated.
+     *
+     * @param folder the current folder
+     * @param children the current folder's children
+     * @param fileToSelect the file to select, <code>null</code> to keep the current selection
+     * @return <code>true</code> if the table has been refreshed, <code>false</code> if the table's files have been
+     * replaced in the meantime and the folder must be set again
+     */
+    private boolean refreshChangedRows(AbstractFile folder, AbstractFile children[], AbstractFile fileToSelect) {
+        AttributePrefetcher prefetcher = new AttributePrefetcher(folder);
+        ListingDiff diff = ListingDiff.compute(tableModel.getSnapshot(), folder, children, prefetcher);
+        prefetcher.logTotal();
+
+        FolderRefreshThread folderRefreshThread = new FolderRefreshThread(diff, fileToSelect);
+        invokeAndWait(folderRefreshThread);
+
+        return folderRefreshThread.applied;
+    }
+
+    /**
+     * Returns the {@link ListingFingerprint fingerprint} of the listing of the current folder displayed by this table,
+     * which can be compared to the fingerprint of a new listing to find out whether the folder has changed.
+     *
+     * @return the fingerprint of the current folder's listing, {@link ListingFingerprint#UNKNOWN} if there is no
+     * current folder or if it is still being loaded
+     */
+    public long getListingFingerprint() {
+        ListingSnapshot snapshot = tableModel.getSnapshot();
+        if(snapshot.folder==null || folderLoader!=null)
+            return ListingFingerprint.UNKNOWN;
+
+        return ListingFingerprint.compute(snapshot.store);
+    }
+
+    /**
+     * Returns the state of this table: its current folder's listing, selected file and scroll position, to be
+     * restored later using {@link #restoreState(FileTableState)}. The returned state can be restored even after this
+     * table's folder has been changed.
+     *
+     * @return the state of this table, <code>null</code> if there is no current folder or if it is still being loaded
+     */
+    public FileTableState getState() {
+        ListingSnapshot snapshot = tableModel.getSnapshot();
+        if(snapshot.folder==null || folderLoader!=null)
+            return null;
+
+        // The filter is not part of the state, all files are displayed when it is restored
+        if(snapshot.filter!=null)
+            snapshot = snapshot.filter(null);
+
+        Point viewPosition = scrollpaneWrapper==null?null:scrollpaneWrapper.getViewport().getViewPosition();
+        return new FileTableState(snapshot, tableModel.getFileAtRow(currentRow), viewPosition);
+    }
+
+    /**
+     * Changes the current folder to the one of the given state, without listing it: the folder's files are those it
+     * contained when the state was created, sorted using the current criterion, and the file that was selected is
+     * selected again. No file is marked.
+     *
+     * <p>This method returns only when the folder has actually been changed and the table refreshed. The same
+     * restrictions as {@link #setCurrentFolder(AbstractFile, AbstractFile[], AbstractFile)} apply.</p>
+     *
+     * @param state a state returned by {@link #getState()}
+     */
+    public void restoreState(FileTableState state) {
+        overlayTable.setOverlayVisible(false);
+        quickSearch.stop();
+
+        FolderLoader loader = folderLoader;
+        if(loader!=null) {
+            loader.cancel();
+            folderLoader = null;
+        }
+
+        invokeAndWait(new FolderChangeThread(state.snapshot.clearMarks(), null, state.selectedFile, null, state.viewPosition));
+    }
+
+    /**
+     * Runs the given task in the event dispatch thread and waits for it to call <code>notify</code> on itself, which
+     * it must do when done.
+     *
+     * <p>Note: we use a wait/notify scheme rather than calling SwingUtilities#invokeAndWait to avoid deadlocks
+     * due to AWT thread synchronization issues.</p>
+     */
+    private static void invokeAndWait(Runnable task) {
+        synchronized(task) {
+            SwingUtilities.invokeLater(task);
             while(true) {
                 try {
-                    // FolderChangeThread will call notify when done
-                    folderChangeThread.wait();
+                    // The task will call notify when done
+                    task.wait();
                     break;
                 }
                 catch(InterruptedException e) {
@@ -573,6 +855,140 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         }
     }
 
+    /**
+     * Adds a batch of files loaded by the given {@link FolderLoader} to the table. The batch is merged into the
+     * current sort order, the selected file remains selected and files that were marked before the folder was
+     * refreshed are marked again as soon as they are loaded. This method must be called from the event dispatch
+     * thread, batches of a loader that is no longer the current one are ignored.
+     *
+     * @param loader the loader that loaded the files
+     * @param files the loaded files, as returned by {@link FileTableModel#createCachedFile(AbstractFile)}
+     * @param base the model's snapshot that <code>prepared</code> was created from
+     * @param prepared the snapshot returned by <code>base.append(files)</code>
+     */
+    void addLoadedFiles(FolderLoader loader, AbstractFile files[], ListingSnapshot base, ListingSnapshot prepared) {
+        if(loader!=folderLoader || loader.isCancelled())
+            return;
+
+        AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+
+        tableModel.addFiles(files, base, prepared);
+
+        // Select the requested file if it has just been loaded and the user has not moved the selection since
+        int rowToSelect = -1;
+        if(loaderFileToSelect!=null && selectionChangedTimestamp==loaderSelectionTimestamp) {
+            rowToSelect = tableModel.getFileRow(loaderFileToSelect);
+            if(rowToSelect!=-1) {
+                loaderFileToSelect = null;
+                selectRow(rowToSelect);
+                loaderSelectionTimestamp = selectionChangedTimestamp;
+            }
+        }
+
+        // Otherwise, keep the selected file selected: rows may have been inserted before it
+        if(rowToSelect==-1 && selectedFile!=null) {
+            rowToSelect = tableModel.getFileRow(selectedFile);
+            if(rowToSelect!=-1 && rowToSelect!=currentRow) {
+                lastRow = currentRow = rowToSelect;
+                super.changeSelection(rowToSelect, 0, false, false);
+            }
+        }
+
+        // Restore previously marked files that have just been loaded
+        boolean markedFilesChanged = false;
+        if(loaderMarkedFiles!=null) {
+            int fileRow;
+            for(Iterator<AbstractFile> i = loaderMarkedFiles.iterator(); i.hasNext();) {
+                fileRow = tableModel.getFileRow(i.next());
+                if(fileRow!=-1) {
+                    tableModel.setRowMarked(fileRow, true);
+                    i.remove();
+                    markedFilesChanged = true;
+                }
+            }
+        }
+
+        // The folder is fully loaded
+        if(tableModel.getFileCount()>=loader.getTotalFileCount()) {
+            folderLoader = null;
+            loaderMarkedFiles = null;
+            loaderFileToSelect = null;
+        }
+
+        if(markedFilesChanged)
+            fireMarkedFilesChangedEvent();
+
+        calculateFolderSizes();
+
+        resizeAndRepaint();
+    }
+
+    /**
+     * Calculates the size of the current folder's folders whose size is not known yet, in the background, if
+     * folder sizes are enabled. This method must be called from the event dispatch thread whenever files are added
+     * to the table.
+     */
+    private void calculateFolderSizes() {
+        if(!calculateFolderSizes || tableModel.getCurrentFolder()==null)
+            return;
+
+        if(folderSizeCalculator==null)
+            folderSizeCalculator = new FolderSizeCalculator(this);
+        folderSizeCalculator.calculate(tableModel.getSnapshot());
+    }
+
+    /**
+     * Cancels the calculation of the current folder's folder sizes, if any.
+     */
+    private void cancelFolderSizes() {
+        if(folderSizeCalculator!=null) {
+            folderSizeCalculator.cancel();
+            folderSizeCalculator = null;
+        }
+    }
+
+    /**
+     * Displays the sizes of folders calculated by the given {@link FolderSizeCalculator}. Rows are sorted again if
+     * they are sorted by size, the selected file remains selected. This method must be called from the event
+     * dispatch thread, sizes of a calculator that is no longer the current one are ignored.
+     *
+     * @param calculator the calculator that calculated the sizes
+     * @param folders the table's instances of the folders
+     * @param sizes the size of each folder, in bytes
+     */
+    void applyFolderSizes(FolderSizeCalculator calculator, AbstractFile folders[], long sizes[]) {
+        if(calculator!=folderSizeCalculator)
+            return;
+
+        AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+        long markedTotalSize = tableModel.getTotalMarkedSize();
+
+        boolean resorted = tableModel.setFolderSizes(folders, sizes);
+        columnWidths.invalidate(Column.SIZE);
+        if(resorted && selectedFile!=null) {
+            int rowToSelect = tableModel.getFileRow(selectedFile);
+            if(rowToSelect!=-1 && rowToSelect!=currentRow) {
+                lastRow = currentRow = rowToSelect;
+                super.changeSelection(rowToSelect, 0, false, false);
+            }
+        }
+
+        if(markedTotalSize!=tableModel.getTotalMarkedSize())
+            fireMarkedFilesChangedEvent();
+
+        resizeAndRepaint();
+    }
+
+    /**
+     * Returns <code>true</code> if the current folder's files are still being loaded, i.e. if the table does not
+     * contain all of them yet.
+     *
+     * @return true if the current folder's files are still being loaded
+     */
+    public boolean isLoadingFolder() {
+        return folderLoader!=null;
+    }
+
     /**
      * Sets row height based on current cell's font and border, revalidates and repaints this JTable.
      */
@@ -580,13 +996,51 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         // JTable.setRowHeight() revalidates and repaints the JTable.
         // Note that it's important here to use the cell editor's font rather than the cell renderer's: if this method is called
         // as a result to a font changed event, we do not know which class' fontChanged event will be called first.
-        setRowHeight(2*CellLabel.CELL_BORDER_HEIGHT + Math.max(getFontMetrics(filenameEditor.filenameField.getFont()).getHeight(), (int)FileIcons.getIconDimension().getHeight()));
+        setRowHeight(2*CellLabel.CELL_BORDER_HEIGHT + Math.max(getFontMetrics(filenameEditor.filenameField.getFont()).getHeight(),
+                thumbnailsEnabled?THUMBNAIL_SIZE:(int)FileIcons.getIconDimension().getHeight()));
         // Filename editor's row resize disabled because of Java bug #4398268 which prevents new rows from being visible after setRowHeight(row, height) has been called :/
         //		setRowHeight(Math.max(getFontMetrics(cellRenderer.getCellFont()).getHeight()+cellRenderer.CELL_BORDER_HEIGHT, editorRowHeight));
     }
 
 
 
+    /**
+     * Returns <code>true</code> if image files are displayed with a thumbnail in place of their icon.
+     *
+     * @return true if thumbnails are enabled
+     */
+    public boolean isThumbnailsEnabled() {
+        return thumbnailsEnabled;
+    }
+
+    /**
+     * Enables/disables thumbnails: when they are enabled, image files are displayed with a thumbnail of at most
+     * {@link #THUMBNAIL_SIZE} pixels in the icon column, and rows are made high enough for it. Thumbnails are
+     * decoded in the background by {@link com.mucommander.ui.icon.ThumbnailCache}, the file's icon is displayed until they are available.
+     *
+     * @param enabled true to enable thumbnails, false to disable them
+     */
+    public void setThumbnailsEnabled(boolean enabled) {
+        if(thumbnailsEnabled==enabled)
+            return;
+
+        thumbnailsEnabled = enabled;
+
+        // The icon column is resized by the automatic layout, but its width has to be set here otherwise
+        if(!autoSizeColumnsEnabled && isColumnVisible(Column.EXTENSION))
+            getColumnModel().getColumn(convertColumnIndexToView(Column.EXTENSION.ordinal())).setWidth(getIconColumnWidth());
+
+        // Revalidates and repaints the table
+        setRowHeight();
+    }
+
+    /**
+     * Returns the width of the icon column: the width of icons or thumbnails, plus the cell borders.
+     */
+    private int getIconColumnWidth() {
+        return (thumbnailsEnabled?THUMBNAIL_SIZE:(int)FileIcons.getIconDimension().getWidth()) + 2 * CellLabel.CELL_BORDER_WIDTH;
+    }
+
     /**
      * Returns <code>true</code> if the auto-columns sizing is currently enabled.
      *
@@ -777,6 +1231,50 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         fireMarkedFilesChangedEvent();
     }
 
+    /**
+     * Marks or unmarks all the files displayed by this table, the parent folder row '..' excepted. The table is
+     * repainted and registered {@link com.mucommander.ui.event.TableSelectionListener} are notified once, if marks
+     * have changed.
+     *
+     * @param marked if true, the files will be marked, unmarked otherwise
+     * @param includeFolders if false, folders are left untouched
+     */
+    public void setAllMarked(boolean marked, boolean includeFolders) {
+        if(tableModel.setAllMarked(marked, includeFolders))
+            marksChanged();
+    }
+
+    /**
+     * Inverts the marks of all the files displayed by this table, the parent folder row '..' excepted. The table is
+     * repainted and registered {@link com.mucommander.ui.event.TableSelectionListener} are notified once, if marks
+     * have changed.
+     *
+     * @param includeFolders if false, folders are left untouched
+     */
+    public void invertMarks(boolean includeFolders) {
+        if(tableModel.invertMarks(includeFolders))
+            marksChanged();
+    }
+
+    /**
+     * Marks or unmarks the files displayed by this table that match the given filter. The table is repainted and
+     * registered {@link com.mucommander.ui.event.TableSelectionListener} are notified once, if marks have changed.
+     *
+     * @param filter the filter to match files against
+     * @param marked if true, matching files will be marked, unmarked otherwise
+     */
+    public void setFilesMarked(FileFilter filter, boolean marked) {
+        if(tableModel.setFilesMarked(filter, marked))
+            marksChanged();
+    }
+
+    private void marksChanged() {
+        repaint();
+
+        // Notify registered listeners that currently marked files have changed on this FileTable
+        fireMarkedFilesChangedEvent();
+    }
+
 
     /**
      * Repaints the given row.
@@ -784,7 +1282,7 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
      * @param row the row to repaint
      */
     private void repaintRow(int row) {
-        repaint(0, row*getRowHeight(), getWidth(), rowHeight);
+        repaintRows(row, row);
     }
 
     /**
@@ -795,8 +1293,36 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
      * @param endRow index of the last row to repaint, can be lower, greater or equals to startRow
      */
     private void repaintRange(int startRow, int endRow) {
-        int rowHeight = getRowHeight();
-        repaint(0, Math.min(startRow, endRow)*rowHeight, getWidth(), (Math.abs(startRow-endRow)+1)*rowHeight);
+        repaintRows(Math.min(startRow, endRow), Math.max(startRow, endRow));
+    }
+
+    /**
+     * Invalidates a range of rows, delimited by the provided start row index and end row index (inclusive). The rows
+     * invalidated while an event is being dispatched are merged into a single range, which is repainted once after
+     * the event has been processed: operations that mark or update rows one at a time should use this method rather
+     * than {@link #repaint()}, so that processing many rows costs a single paint.
+     *
+     * <p>If this method is called outside of the event dispatch thread, the rows are repainted right away.</p>
+     *
+     * @param startRow index of the first row to repaint
+     * @param endRow index of the last row to repaint, must be greater or equal to startRow
+     */
+    public void repaintRows(int startRow, int endRow) {
+        if(!SwingUtilities.isEventDispatchThread()) {
+            int rowHeight = getRowHeight();
+            repaint(0, startRow*rowHeight, getWidth(), (endRow-startRow+1)*rowHeight);
+            return;
+        }
+
+        if(dirtyStartRow==-1) {
+            dirtyStartRow = startRow;
+            dirtyEndRow = endRow;
+            SwingUtilities.invokeLater(dirtyRowsPainter);
+        }
+        else {
+            dirtyStartRow = Math.min(dirtyStartRow, startRow);
+            dirtyEndRow = Math.max(dirtyEndRow, endRow);
+        }
     }
 
 
@@ -950,6 +1476,83 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
         for(Column c : Column.values())
             columnModel.setColumnVisible(c, columnModel.isColumnEnabled(c) && isColumnDisplayable(c));
+
+        updateStoredAttributes();
+    }
+
+    /**
+     * Has the optional attributes of the enabled columns stored for new folders, and loads those that the current
+     * files lack in the background: permissions, owners and groups are only read if their column is enabled.
+     * This method must be called from the event dispatch thread.
+     */
+    private void updateStoredAttributes() {
+        FileTableColumnModel columnModel = getFileTableColumnModel();
+        int attributes = 0;
+        for(Column c : Column.values()) {
+            if(columnModel.isColumnEnabled(c))
+                attributes |= ListingStore.getAttribute(c);
+        }
+
+        tableModel.setStoredAttributes(attributes);
+        loadStoredAttributes();
+    }
+
+    /**
+     * Reads the optional attributes that the current files lack in the background, and hands them to
+     * {@link #applyStoredAttributes(ListingStore, ListingStore)}. This method must be called from the event dispatch
+     * thread.
+     */
+    private void loadStoredAttributes() {
+        ListingSnapshot current = tableModel.getSnapshot();
+        final ListingStore base = current.store;
+        final AbstractFile files[] = current.files;
+        final int attributes = tableModel.getStoredAttributes();
+        if(base.hasAttributes(attributes))
+            return;
+
+        ATTRIBUTE_EXECUTOR.execute(new Runnable() {
+            public void run() {
+                final ListingStore newStore = new ListingStore(base, files, attributes);
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        applyStoredAttributes(base, newStore);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Displays the optional attributes loaded by {@link #loadStoredAttributes()}. Rows are sorted again if they are
+     * sorted by one of them, the selected file remains selected. If the current files have changed in the meantime,
+     * the attributes are loaded again for them. This method must be called from the event dispatch thread.
+     *
+     * @param base the store that the attributes were loaded for
+     * @param newStore the store holding the loaded attributes
+     */
+    private void applyStoredAttributes(ListingStore base, ListingStore newStore) {
+        AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+
+        if(!tableModel.setStore(base, newStore)) {
+            loadStoredAttributes();
+            return;
+        }
+
+        for(Column c : Column.values()) {
+            int attribute = ListingStore.getAttribute(c);
+            if(attribute!=0 && !base.hasAttributes(attribute))
+                columnWidths.invalidate(c);
+        }
+
+        if(selectedFile!=null) {
+            int rowToSelect = tableModel.getFileRow(selectedFile);
+            if(rowToSelect!=-1 && rowToSelect!=currentRow) {
+                lastRow = currentRow = rowToSelect;
+                super.changeSelection(rowToSelect, 0, false, false);
+            }
+        }
+
+        resizeAndRepaint();
     }
 
     /**
@@ -1080,13 +1683,39 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
 
     /**
-     * Notifies all registered listeners that the currently selected file has changed on this FileTable.
+     * Notifies all registered listeners that the currently selected file has changed on this FileTable. A selection
+     * event that has been deferred by {@link #changeSelection(int, int, boolean, boolean)} is cancelled, as listeners
+     * are notified of the latest selection.
      */
     public void fireSelectedFileChangedEvent() {
+        selectionEventTimer.stop();
+        selectionEventTimestamp = System.currentTimeMillis();
+
         for(TableSelectionListener listener : tableSelectionListeners.keySet())
             listener.selectedFileChanged(this);
     }
 
+    /**
+     * Notifies registered listeners that the currently selected file has changed, at most once every
+     * {@link #SELECTION_EVENT_INTERVAL} milliseconds: when the selection moves from row to row faster than that, for
+     * instance while an arrow key is held down, listeners are notified of the latest selection at that rate rather than
+     * of every row. The last selection is always delivered, either when the interval has elapsed or when the key is
+     * released.
+     */
+    private void scheduleSelectedFileChangedEvent() {
+        if(selectionEventTimer.isRunning())
+            return;
+
+        long elapsed = System.currentTimeMillis()-selectionEventTimestamp;
+        if(elapsed>=SELECTION_EVENT_INTERVAL || elapsed<0) {
+            fireSelectedFileChangedEvent();
+        }
+        else {
+            selectionEventTimer.setInitialDelay((int)(SELECTION_EVENT_INTERVAL-elapsed));
+            selectionEventTimer.start();
+        }
+    }
+
     /**
      * Notifies all registered listeners that the currently marked files have changed on this FileTable.
      */
@@ -1106,14 +1735,11 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         Column                c;
         int                   remainingWidth;
         int                   columnWidth;
-        int                   rowCount;
         FontMetrics           fm;
-        String                val;
-        int                   dirStringWidth;
-        int                   stringWidth;
+        ListingSnapshot       snapshot;
 
         fm             = getFontMetrics(FileTableCellRenderer.getCellFont());
-        dirStringWidth = fm.stringWidth(FileTableModel.DIRECTORY_SIZE_STRING);
+        snapshot       = tableModel.getSnapshot();
         remainingWidth = getSize().width - RESERVED_NAME_COLUMN_WIDTH;
         columns        = respectSize ? new Enumerator<TableColumn>(getColumnModel().getColumns()) : getFileTableColumnModel().getAllColumns();
         nameColumn     = null;
@@ -1126,20 +1752,10 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
                 nameColumn = column;
             else {
                 if(c == Column.EXTENSION)
-                    columnWidth = (int)FileIcons.getIconDimension().getWidth();
-                else {
-                    columnWidth = MIN_COLUMN_AUTO_WIDTH;
-
-                    rowCount = getModel().getRowCount();
-                    for(int rowNum = 0; rowNum < rowCount; rowNum++) {
-                        val = (String)getModel().getValueAt(rowNum, column.getModelIndex());
-                        stringWidth = val==null?0
-                                :c==Column.SIZE && val.equals(FileTableModel.DIRECTORY_SIZE_STRING)?dirStringWidth
-                                :fm.stringWidth(val);
-
-                        columnWidth = Math.max(columnWidth, stringWidth);
-                    }
-                }
+                    columnWidth = thumbnailsEnabled?THUMBNAIL_SIZE:(int)FileIcons.getIconDimension().getWidth();
+                else
+                    // Only the values that have not been measured yet are measured
+                    columnWidth = Math.max(MIN_COLUMN_AUTO_WIDTH, columnWidths.getWidth(snapshot, c, fm));
                 if(respectSize)
                     columnWidth = Math.min(columnWidth, remainingWidth);
                 columnWidth +=  2 * CellLabel.CELL_BORDER_WIDTH;
@@ -1185,17 +1801,20 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         else
             doAutoLayout(true);
 
-        // Ensures that current row is visible (within current viewport), and if not adjusts viewport to center it
+        // Restores the viewport position of a restored state if there is one. Otherwise, ensures that current row is
+        // visible (within current viewport), and if not adjusts viewport to center it
+        final Point viewPosition = pendingViewPosition;
+        pendingViewPosition = null;
         Rectangle visibleRect = getVisibleRect();
         final Rectangle cellRect = getCellRect(currentRow, 0, false);
-        if(cellRect.y<visibleRect.y || cellRect.y+getRowHeight()>visibleRect.y+visibleRect.height) {
+        if(viewPosition!=null || cellRect.y<visibleRect.y || cellRect.y+getRowHeight()>visibleRect.y+visibleRect.height) {
             if(scrollpaneWrapper!=null) {
                 // At this point JViewport is not yet aware of the new FileTable dimensions, calling setViewPosition
                 // would not work. Instead, SwingUtilities.invokeLater is used to delay the call after all pending
                 // UI events (including JViewport revalidation) have been processed.
                 SwingUtilities.invokeLater(new Runnable() {
                     public void run() {
-                    	scrollpaneWrapper.getViewport().setViewPosition(new java.awt.Point(0, Math.max(0, cellRect.y-scrollpaneWrapper.getHeight()/2-getRowHeight()/2)));
+                    	scrollpaneWrapper.getViewport().setViewPosition(viewPosition!=null?viewPosition:new java.awt.Point(0, Math.max(0, cellRect.y-scrollpaneWrapper.getHeight()/2-getRowHeight()/2)));
                     }
                 });
             }
@@ -1245,8 +1864,9 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         if(currentRow!=lastRow) {
             // Update selection changed timestamp
             selectionChangedTimestamp = System.currentTimeMillis();
-            // notify registered TableSelectionListener instances that the currently selected file has changed
-            fireSelectedFileChangedEvent();
+            // notify registered TableSelectionListener instances that the currently selected file has changed, at a
+            // bounded rate
+            scheduleSelectedFileChangedEvent();
         }
 
         //		// Don't refresh status bar if up, down, space or insert key is pressed (repeated key strokes).
@@ -1482,6 +2102,10 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
     }
 
     public void keyReleased(KeyEvent e) {
+        // Deliver the last selection right away if its event has been deferred while the key was repeated
+        if(selectionEventTimer.isRunning())
+            fireSelectedFileChangedEvent();
+
         // Discard keyReleased events while quick search is active
         if(quickSearch.isActive())
             return;
@@ -1525,7 +2149,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         
         if (var.equals(MuPreferences.DISPLAY_COMPACT_FILE_SIZE)) {
         	FileTableModel.setSizeFormat(event.getBooleanValue());
-        	tableModel.fillCellCache();
+        	tableModel.clearCellCache();
+        	columnWidths.invalidate();
         	resizeAndRepaint();
         }
         else if (var.equals(MuPreferences.DATE_FORMAT) || var.equals(MuPreferences.DATE_SEPARATOR) || var.equals(MuPreferences.TIME_FORMAT)) {
@@ -1534,7 +2159,8 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
             // Since listeners are stored by MuConfiguration in a hash map, order is pretty much random.
             // So CustomDateFormat#updateDateFormat() has to be called before to ensure that is uses the new date format.
             CustomDateFormat.updateDateFormat();
-            tableModel.fillCellCache();
+            tableModel.clearCellCache();
+            columnWidths.invalidate();
             resizeAndRepaint();
         }
         // Repaint file icons if their size has changed
@@ -1545,6 +2171,14 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         // Repaint file icons if the system file icons policy has changed
         else if (var.equals(MuPreferences.USE_SYSTEM_FILE_ICONS))
             repaint();
+        // Start or stop calculating folder sizes, the sizes already displayed remain until the folder is changed
+        else if (var.equals(MuPreferences.CALCULATE_FOLDER_SIZES)) {
+            calculateFolderSizes = event.getBooleanValue();
+            if(calculateFolderSizes)
+                calculateFolderSizes();
+            else
+                cancelFolderSizes();
+        }
     }
 
     /**
@@ -1666,24 +2300,72 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
      */
     private class FileTableQuickSearch extends QuickSearch<AbstractFile> {
 
+        /** True if the search string is used to filter the rows, rather than to find a matching row */
+        private boolean filterMode;
+
         /**
          * Creates a new QuickSearch instance, only one instance per FileTable should be created.
          */
         private FileTableQuickSearch() {
         	super(FileTable.this);
         }
-        
+
+        /**
+         * Starts the quick search in filter mode, stopping the current quick search if there is one.
+         */
+        private void startFilter() {
+            stop();
+            filterMode = true;
+            start();
+        }
+
+        /**
+         * Displays the search string in the status bar, along with an icon that indicates whether the filter matches
+         * some files. This method has no effect if the quick search is not in filter mode.
+         */
+        private void filterApplied() {
+            if(!filterMode || !isActive())
+                return;
+
+            boolean hasMatches = tableModel.getRowCount()>tableModel.getFirstMarkableRow();
+            mainFrame.getStatusBar().setStatusInfo(getSearchString(), IconManager.getIcon(IconManager.STATUS_BAR_ICON_SET, hasMatches?QUICK_SEARCH_OK_ICON:QUICK_SEARCH_KO_ICON), false);
+        }
+
+        /**
+         * Selects the row after or before the current one, all rows matching the filter in filter mode.
+         */
+        private void selectAdjacentRow(boolean down) {
+            int row = currentRow + (down ? 1 : -1);
+            if(row>=0 && row<tableModel.getRowCount())
+                selectRow(row);
+        }
+
+        @Override
+        public boolean matchesItem(int index) {
+            // Displayed rows are those that match the filter, there is nothing to dim
+            return filterMode || super.matchesItem(index);
+        }
+
         @Override
 		protected void searchStarted() {
         	// Repaint the table to add the 'dim' effect on non-matching files
-            scrollpaneWrapper.dimBackground();
+            if(!filterMode)
+                scrollpaneWrapper.dimBackground();
 		}
 
 		@Override
 		protected void searchStopped() {
 			mainFrame.getStatusBar().updateSelectedFilesInfo();
             // Removes the 'dim' effect on non-matching files.
-            scrollpaneWrapper.undimBackground();
+            if(!filterMode)
+                scrollpaneWrapper.undimBackground();
+            filterMode = false;
+		}
+
+		@Override
+		protected boolean isTimeoutEnabled() {
+			// The pattern may be typed at any pace
+			return !filterMode;
 		}
 		
 		@Override
@@ -1696,6 +2378,12 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
             return getFileNameAtRow(index);
 		}
 
+		@Override
+		protected Object getItemsKey() {
+			// A new snapshot is published whenever rows are added, removed or sorted
+			return tableModel.getSnapshot();
+		}
+
 		@Override
 		protected void searchStringBecameEmpty(String searchString) {
 			mainFrame.getStatusBar().setStatusInfo(searchString); // TODO: is needed?			
@@ -1759,19 +2447,28 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 
 	            removeLastCharacterFromSearchString();
 
-	            // Find the row that best matches the new search string and select it
-	            findMatch(0, true, true);
+	            // Filter the rows with the new search string, or find the row that best matches it and select it
+	            if(filterMode)
+	                filterRows(getSearchString());
+	            else
+	                findMatch(0, true, true);
 	        }
-	        // Escape immediately cancels the quick search
+	        // Escape immediately cancels the quick search, and removes the filter in filter mode
 	        else if(keyCode==KeyEvent.VK_ESCAPE && !keyHasModifiers) {
+	            boolean wasFilterMode = filterMode;
 	            stop();
+	            if(wasFilterMode)
+	                clearFilter();
 	        }
 	        // Up/Down jumps to previous/next match
 	        // Shift+Up/Shift+Down marks currently selected file and jumps to previous/next match
 	        else if((keyCode==KeyEvent.VK_UP || keyCode==KeyEvent.VK_DOWN) && !keyHasModifiers) {
 	            // Find the first row before/after the current row that matches the search string
 	            boolean down = keyCode==KeyEvent.VK_DOWN;
-	            findMatch(currentRow + (down ? 1 : -1), down, false);
+	            if(filterMode)
+	                selectAdjacentRow(down);
+	            else
+	                findMatch(currentRow + (down ? 1 : -1), down, false);
 	        }
 	        // MarkSelectedFileAction and MarkNextRowAction mark the current row and moves to the next match
 	        else if(ActionManager.getActionInstance(MarkSelectedFileAction.Descriptor.ACTION_ID, mainFrame).isAccelerator(KeyStroke.getKeyStrokeForEvent(e))
@@ -1781,7 +2478,10 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 	                setRowMarked(currentRow, !tableModel.isRowMarked(currentRow));
 
 	            // Find the first the next row that matches the search string
-	            findMatch(currentRow+1, true, false);
+	            if(filterMode)
+	                selectAdjacentRow(true);
+	            else
+	                findMatch(currentRow+1, true, false);
 	        }
 	        // MarkPreviousRowAction marks the current row and moves to the previous match
 	        else if(ActionManager.getActionInstance(MarkPreviousRowAction.Descriptor.ACTION_ID, mainFrame).isAccelerator(KeyStroke.getKeyStrokeForEvent(e))) {
@@ -1790,15 +2490,21 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
 	                setRowMarked(currentRow, !tableModel.isRowMarked(currentRow));
 
 	            // Find the first the previous row that matches the search string
-	            findMatch(currentRow-1, false, false);
+	            if(filterMode)
+	                selectAdjacentRow(false);
+	            else
+	                findMatch(currentRow-1, false, false);
 	        }
 	        // If no modifier other than Shift is pressed and the typed character is not a control character (space is ok)
 	        // and a valid Unicode character, add it to the current search string
 	        else if(isValidQuickSearchInput(e)) {
 	            appendCharacterToSearchString(keyChar);
 
-	            // Find the row that best matches the new search string and select it
-	            findMatch(0, true, true);
+	            // Filter the rows with the new search string, or find the row that best matches it and select it
+	            if(filterMode)
+	                filterRows(getSearchString());
+	            else
+	                findMatch(0, true, true);
 	        }
 	        else {
 	            // Test if the typed key combination corresponds to a registered action.
@@ -1855,28 +2561,173 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
         return getFileTableColumnModel().getColumnFromId(column.ordinal()).getWidth();
     }
 
+    /**
+     * This task filters the rows of the table: files are matched against the filter outside of the event dispatch
+     * thread, then the rows are replaced in the event dispatch thread. A task is cancelled, and interrupted if it is
+     * running, as soon as another filter is submitted.
+     */
+    private class FilterTask implements Runnable {
+        private ListingSnapshot base;
+        private NameFilter      filter;
+        private Future<?>       future;
+        /** The filtered snapshot, null until files have been matched against the filter */
+        private ListingSnapshot filtered;
+
+        private FilterTask(ListingSnapshot base, NameFilter filter) {
+            this.base   = base;
+            this.filter = filter;
+        }
+
+        public void run() {
+            if(filtered==null) {
+                long startTime = System.currentTimeMillis();
+                filtered = base.filter(filter);
+                // The task has been cancelled if the snapshot is null
+                if(filtered!=null) {
+                    LOGGER.debug("Filtered "+base.files.length+" files in "+(System.currentTimeMillis()-startTime)+"ms");
+                    SwingUtilities.invokeLater(this);
+                }
+                return;
+            }
+
+            // The task may have been cancelled while waiting for the event dispatch thread
+            if(filterTask!=this)
+                return;
+            filterTask = null;
+
+            try {
+                AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+
+                // Files have been added or refreshed since the task was submitted, filter them again
+                if(!tableModel.applyFilter(filtered)) {
+                    submitFilter(filter);
+                    return;
+                }
+
+                // Keep the selected file selected if it is still displayed, select the first file otherwise
+                int rowToSelect = selectedFile==null?-1:tableModel.getFileRow(selectedFile);
+                if(rowToSelect==-1)
+                    rowToSelect = Math.min(tableModel.getFirstMarkableRow(), tableModel.getRowCount()-1);
+
+                lastRow = currentRow = rowToSelect;
+                if(rowToSelect!=-1)
+                    FileTable.super.changeSelection(rowToSelect, 0, false, false);
+
+                AbstractFile newSelectedFile = tableModel.getFileAtRow(rowToSelect);
+                if(newSelectedFile==null?selectedFile!=null:!newSelectedFile.equals(selectedFile)) {
+                    selectionChangedTimestamp = System.currentTimeMillis();
+                    fireSelectedFileChangedEvent();
+                }
+
+                quickSearch.filterApplied();
+            }
+
+            catch(Throwable e) {
+                // While no such thing should happen, we want to make absolutely sure no exception
+                // is propagated to the AWT event dispatch thread.
+                LOGGER.warn("Caught exception while filtering rows, this should not happen!", e);
+            }
+        }
+    }
+
+    /**
+     * This thread applies the changes of the current folder's contents to the table.
+     */
+    private class FolderRefreshThread implements Runnable {
+        private ListingDiff  diff;
+        private AbstractFile fileToSelect;
+        /** True if the diff has been applied */
+        private boolean      applied;
+
+        private FolderRefreshThread(ListingDiff diff, AbstractFile fileToSelect) {
+            this.diff         = diff;
+            this.fileToSelect = fileToSelect;
+        }
+
+        public void run() {
+            try {
+                AbstractFile selectedFile = tableModel.getFileAtRow(currentRow);
+                int nbMarkedFiles = tableModel.getNbMarkedFiles();
+                long markedTotalSize = tableModel.getTotalMarkedSize();
+
+                if(!tableModel.applyDiff(diff))
+                    return;
+                applied = true;
+                columnWidths.invalidate();
+
+                // Keep the selected file selected without notifying listeners, unless another file must be selected
+                // or the selected file no longer exists
+                boolean selectionChanged = fileToSelect!=null && !fileToSelect.equals(selectedFile);
+                AbstractFile file = selectionChanged?fileToSelect:selectedFile;
+                int rowToSelect = file==null?-1:tableModel.getFileRow(file);
+                if(rowToSelect==-1) {
+                    int rowCount = tableModel.getRowCount();
+                    rowToSelect = currentRow < rowCount ? currentRow : rowCount - 1;
+                    selectionChanged = true;
+                }
+
+                lastRow = currentRow = rowToSelect;
+                if(rowToSelect!=-1)
+                    FileTable.super.changeSelection(rowToSelect, 0, false, false);
+                if(selectionChanged) {
+                    selectionChangedTimestamp = System.currentTimeMillis();
+                    fireSelectedFileChangedEvent();
+                }
+
+                if(nbMarkedFiles!=tableModel.getNbMarkedFiles() || markedTotalSize!=tableModel.getTotalMarkedSize())
+                    fireMarkedFilesChangedEvent();
+
+                // The parent folder row displays the current folder's date
+                if(tableModel.hasParentFolder())
+                    repaintRow(0);
+
+                // Folders that have changed or have been added have no size yet
+                calculateFolderSizes();
+            }
+
+            catch(Throwable e) {
+                // While no such thing should happen, we want to make absolutely sure no exception
+                // is propagated to the AWT event dispatch thread.
+                LOGGER.warn("Caught exception while refreshing folder, this should not happen!", e);
+            }
+            finally {
+                // Notify #refreshChangedRows that we're done refreshing the folder.
+                synchronized(this) {
+                    notify();
+                }
+            }
+        }
+    }
+
     /**
      * This thread performs the change of current folder.
      *
      * @author Nicolas Rinaudo, Maxence Bernard
      */
     private class FolderChangeThread implements Runnable {
-        private AbstractFile   folder;
-        private AbstractFile[] children;
-        private FileSet        markedFiles;
-        private AbstractFile   selectedFile;
-
-        private FolderChangeThread(AbstractFile folder, AbstractFile[] children, FileSet markedFiles, AbstractFile selectedFile) {
-            this.folder       = folder;
-            this.children     = children;
+        private ListingSnapshot snapshot;
+        private FileSet         markedFiles;
+        private AbstractFile    selectedFile;
+        private FolderLoader    loader;
+
+        private Point           viewPosition;
+
+        private FolderChangeThread(ListingSnapshot snapshot, FileSet markedFiles, AbstractFile selectedFile, FolderLoader loader, Point viewPosition) {
+            this.snapshot     = snapshot;
             this.markedFiles  = markedFiles;
             this.selectedFile = selectedFile;
+            this.loader       = loader;
+            this.viewPosition = viewPosition;
         }
 
         public void run() {
             try {
+                // The pending filter and folder sizes, if any, apply to the previous folder
+                cancelFilter();
+                cancelFolderSizes();
+
                 // Set the new current folder.
-                tableModel.setCurrentFolder(folder, children);
+                tableModel.setSnapshot(snapshot);
 
                 // Update the visibility state of conditional columns
                 FileTableColumnModel columnModel = getFileTableColumnModel();
@@ -1906,6 +2757,10 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
                         int rowCount = tableModel.getRowCount();
                         rowToSelect = currentRow < rowCount ? currentRow : rowCount - 1;
                     }
+                    // The file may not have been loaded yet
+                    else {
+                        selectedFile = null;
+                    }
                 }
                 // If no file was marked as needing to be selected, selects the first line.
                 else {
@@ -1930,6 +2785,19 @@ public class FileTable extends JTable implements MouseListener, MouseMotionListe
                     fireMarkedFilesChangedEvent();
                 }
 
+                // Let the loader add the remaining files, and select and mark them as they come in
+                folderLoader = loader;
+                if(loader!=null) {
+                    loaderMarkedFiles = markedFiles;
+                    loaderFileToSelect = selectedFile;
+                    loaderSelectionTimestamp = selectionChangedTimestamp;
+                }
+
+                // Scroll back to where the table was when its state was saved
+                pendingViewPosition = viewPosition;
+
+                calculateFolderSizes();
+
                 resizeAndRepaint();
             }
 
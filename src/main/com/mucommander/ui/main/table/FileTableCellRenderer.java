@@ -21,17 +21,21 @@ package com.mucommander.ui.main.table;
 
 import java.awt.Component;
 import java.awt.Font;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 
+import javax.swing.Icon;
 import javax.swing.JTable;
+import javax.swing.Timer;
 import javax.swing.table.TableCellRenderer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
-import com.mucommander.ui.icon.CustomFileIconProvider;
-import com.mucommander.ui.icon.FileIcons;
-import com.mucommander.ui.icon.IconManager;
+import com.mucommander.ui.icon.FileIconCache;
+import com.mucommander.ui.icon.ThumbnailCache;
 import com.mucommander.ui.quicksearch.QuickSearch;
 import com.mucommander.ui.theme.ColorChangedEvent;
 import com.mucommander.ui.theme.FontChangedEvent;
@@ -69,6 +73,24 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
     /** Custom JLabel that render specific column cells */
     private CellLabel[] cellLabels = new CellLabel[Column.values().length];
 
+    /** Styles of cells by row state and file color index, created again when the theme's colors change */
+    private CellStyle[] cellStyles;
+
+    /** Delay in milliseconds during which icons that become available are gathered before being painted */
+    private final static int ICON_REPAINT_DELAY = 50;
+
+    /** Repaints the icon column once icons that were missing have become available */
+    private Timer iconRepaintTimer;
+
+    /** Called by {@link FileIconCache} and {@link ThumbnailCache} from their loader threads when an icon that was missing becomes available */
+    private Runnable iconLoadedCallback = new Runnable() {
+        public void run() {
+            // Swing timers can be started from any thread
+            if(!iconRepaintTimer.isRunning())
+                iconRepaintTimer.start();
+        }
+    };
+
 
     public FileTableCellRenderer(FileTable table) {
     	this.table = table;
@@ -90,10 +112,41 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
         cellLabels[Column.OWNER.ordinal()].setHorizontalAlignment(CellLabel.LEFT);
         cellLabels[Column.GROUP.ordinal()].setHorizontalAlignment(CellLabel.LEFT);
 
+        createCellStyles();
+
         // Listens to certain configuration variables
         ThemeCache.addThemeListener(this);
+
+        iconRepaintTimer = new Timer(ICON_REPAINT_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                repaintIconColumn();
+            }
+        });
+        iconRepaintTimer.setRepeats(false);
     }
 
+    /**
+     * Repaints the visible cells of the icon column, if it is visible.
+     */
+    private void repaintIconColumn() {
+        int columnIndex = table.convertColumnIndexToView(Column.EXTENSION.ordinal());
+        if(columnIndex==-1)
+            return;
+
+        Rectangle visibleRect = table.getVisibleRect();
+        Rectangle cellRect = table.getCellRect(0, columnIndex, true);
+        table.repaint(cellRect.x, visibleRect.y, cellRect.width, visibleRect.height);
+    }
+
+
+    /**
+     * Creates the cell styles from the current theme's colors.
+     */
+    private void createCellStyles() {
+        cellStyles = CellStyle.createStyles(ThemeCache.foregroundColors, ThemeCache.backgroundColors,
+                ThemeCache.unmatchedForeground, ThemeCache.unmatchedBackground,
+                ThemeCache.activeOutlineColor, ThemeCache.inactiveOutlineColor);
+    }
 
     /**
      * Returns the font used to render all table cells.
@@ -122,7 +175,7 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
     // TableCellRenderer methods //
     ///////////////////////////////
 
-    private static int getColorIndex(int row, AbstractFile file, FileTableModel tableModel) {
+    private static int getColorIndex(int row, int flags, FileTableModel tableModel) {
         // Parent directory.
         if(row==0 && tableModel.hasParentFolder())
             return ThemeCache.FOLDER;
@@ -132,19 +185,19 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
             return ThemeCache.MARKED;
 
         // Symlink.
-        if(file.isSymlink())
+        if((flags&ListingStore.SYMLINK)!=0)
             return ThemeCache.SYMLINK;
 
         // Hidden file.
-        if(file.isHidden())
+        if((flags&ListingStore.HIDDEN)!=0)
             return ThemeCache.HIDDEN_FILE;
 
         // Directory.
-        if(file.isDirectory())
+        if((flags&ListingStore.DIRECTORY)!=0)
             return ThemeCache.FOLDER;
 
         // Archive.
-        if(file.isBrowsable())
+        if((flags&ListingStore.BROWSABLE)!=0)
             return ThemeCache.ARCHIVE;
 
         // Plain file.
@@ -153,12 +206,10 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
 
     public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int rowIndex, int columnIndex) {
         Column                column;
-        int                   colorIndex;
-        int                   focusedIndex;
-        int                   selectedIndex;
+        int                   state;
+        CellStyle             style;
         CellLabel             label;
         AbstractFile          file;
-        boolean               matches;
         QuickSearch 		  search;
 
         // Need to check that row index is not out of bounds because when the folder
@@ -167,46 +218,62 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
         if(rowIndex < 0 || rowIndex >= tableModel.getRowCount())
             return null;
 
-        // Sanity check.
-        file = tableModel.getCachedFileAtRow(rowIndex);
-        if(file==null) {
-            LOGGER.debug("tableModel.getCachedFileAtRow("+ rowIndex +") RETURNED NULL !");
-            return null;
-        }
-
-        search = this.table.getQuickSearch();
-        if(!table.hasFocus())
-            matches = true;
-        else {
-            if(search.isActive())
-                matches = search.matches(this.table.getFileNameAtRow(rowIndex));
-            else
-                matches = true;
+        // Works out the state of the row, which along with the kind of file selects the style of the cell.
+        // Selection only applies when the table is the active one, quick search when the table has the focus.
+        state = 0;
+        if(table.hasFocus()) {
+            state |= CellStyle.FOCUSED;
+            search = this.table.getQuickSearch();
+            if(search.isActive()) {
+                state |= CellStyle.SEARCHING;
+                if(!search.matchesItem(rowIndex))
+                    state |= CellStyle.UNMATCHED;
+            }
         }
+        if(isSelected && ((FileTable)table).isActiveTable())
+            state |= CellStyle.SELECTED;
+        if(rowIndex % 2 != 0)
+            state |= CellStyle.ALTERNATE;
 
-        // Retrieves the various indexes of the colors to apply.
-        // Selection only applies when the table is the active one
-        selectedIndex =  (isSelected && ((FileTable)table).isActiveTable()) ? ThemeCache.SELECTED : ThemeCache.NORMAL;
-        focusedIndex  = table.hasFocus() ? ThemeCache.ACTIVE : ThemeCache.INACTIVE;
-        colorIndex    = getColorIndex(rowIndex, file, tableModel);
+        int flags = tableModel.getFileFlagsAtRow(rowIndex);
+        style = cellStyles[CellStyle.getIndex(state, getColorIndex(rowIndex, flags, tableModel))];
 
         column = Column.valueOf(table.convertColumnIndexToModel(columnIndex));
         label = cellLabels[column.ordinal()];
 
         // Extension/icon column: return ImageIcon instance
         if(column == Column.EXTENSION) {
-            // Set file icon (parent folder icon if '..' file)
-            label.setIcon(rowIndex ==0 && tableModel.hasParentFolder()
-                    ?IconManager.getIcon(IconManager.FILE_ICON_SET, CustomFileIconProvider.PARENT_FOLDER_ICON_NAME, FileIcons.getScaleFactor())
-                    :FileIcons.getFileIcon(file));
+            // Sanity check.
+            file = tableModel.getCachedFileAtRow(rowIndex);
+            if(file==null) {
+                LOGGER.debug("tableModel.getCachedFileAtRow("+ rowIndex +") RETURNED NULL !");
+                return null;
+            }
+
+            // Set file icon (parent folder icon if '..' file). Icons that have not been resolved yet are replaced
+            // by a placeholder, the column is repainted once they are available. The same goes for the thumbnails of
+            // image files, which are displayed in place of their icon if thumbnails are enabled.
+            Icon icon;
+            if(rowIndex==0 && tableModel.hasParentFolder()) {
+                icon = FileIconCache.getParentFolderIcon();
+            }
+            else {
+                boolean isDirectory = (flags&ListingStore.DIRECTORY)!=0;
+                icon = null;
+                if(this.table.isThumbnailsEnabled() && !isDirectory && ThumbnailCache.isSupported(file))
+                    icon = ThumbnailCache.getThumbnail(file, FileTable.THUMBNAIL_SIZE, iconLoadedCallback);
+                if(icon==null)
+                    icon = FileIconCache.getIcon(file, iconLoadedCallback);
+                if(icon==null)
+                    icon = FileIconCache.getPlaceholderIcon(isDirectory);
+            }
+            label.setIcon(icon);
+            style.apply(label, false);
         }
         // Any other column (name, date or size)
         else {
             String text = (String)value;
-            if(matches || isSelected)
-                label.setForeground(ThemeCache.foregroundColors[focusedIndex][selectedIndex][colorIndex]);
-            else
-                label.setForeground(ThemeCache.unmatchedForeground);
+            style.apply(label, true);
 
             // Set the label's text, before calculating it width
             label.setText(text);
@@ -215,11 +282,12 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
             // - truncate the text from the center and equally to the left and right sides, adding an ellipsis ('...')
             // where characters have been removed. This allows both the start and end of filename to be visible.
             // - set a tooltip text that will display the whole text when mouse is over the label
-            if (table.getColumnModel().getColumn(columnIndex).getWidth() < label.getPreferredSize().getWidth()) {
+            int columnWidth = table.getColumnModel().getColumn(columnIndex).getWidth();
+            if (columnWidth < label.getPreferredSize().getWidth()) {
                 String leftText = text.substring(0, text.length()/2);
                 String rightText = text.substring(text.length()/2, text.length());
 
-                while(table.getColumnModel().getColumn(columnIndex).getWidth() < label.getPreferredSize().getWidth()
+                while(columnWidth < label.getPreferredSize().getWidth()
                    && leftText.length()>0 && rightText.length()>0) {    // Prevents against going out of bounds
 
                     if(leftText.length()>rightText.length())
@@ -239,23 +307,6 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
                 label.setToolTipText(null);
         }
 
-        // Set background color depending on whether the row is selected or not, and whether the table has focus or not
-        if(selectedIndex == ThemeCache.SELECTED)
-            label.setBackground(ThemeCache.backgroundColors[focusedIndex][ThemeCache.SELECTED], ThemeCache.backgroundColors[focusedIndex][ThemeCache.SECONDARY]);
-        else if(matches) {
-            if(table.hasFocus() && search.isActive())
-                label.setBackground(ThemeCache.backgroundColors[focusedIndex][ThemeCache.NORMAL]);
-            else
-                label.setBackground(ThemeCache.backgroundColors[focusedIndex][(rowIndex % 2 == 0) ? ThemeCache.NORMAL : ThemeCache.ALTERNATE]);
-        }
-        else
-            label.setBackground(ThemeCache.unmatchedBackground);
-
-        if(selectedIndex == ThemeCache.SELECTED)
-            label.setOutline(table.hasFocus() ? ThemeCache.activeOutlineColor : ThemeCache.inactiveOutlineColor);
-        else
-            label.setOutline(null);
-
         return label;
     }
 
@@ -267,6 +318,7 @@ public class FileTableCellRenderer implements TableCellRenderer, ThemeListener {
      * Receives theme color changes notifications.
      */
     public void colorChanged(ColorChangedEvent event) {
+        createCellStyles();
         table.repaint();
     }
 
@@ -18,62 +18,100 @@
 
 package com.mucommander.ui.main.table;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.table.AbstractTableModel;
 
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.impl.CachedFile;
-import com.mucommander.commons.file.util.FileComparator;
 import com.mucommander.commons.file.util.FileSet;
 import com.mucommander.conf.MuConfigurations;
 import com.mucommander.conf.MuPreference;
 import com.mucommander.conf.MuPreferences;
-import com.mucommander.text.CustomDateFormat;
 import com.mucommander.text.SizeFormat;
 
 
 /**
  * This class maps table cells onto file attributes.
  *
+ * <p>The model's contents are held by an immutable {@link ListingSnapshot}, which is replaced as a whole when the
+ * current folder changes, when rows are sorted or when files are added. Methods that read the model do not lock it:
+ * they read the current snapshot once and work with it, so that painting never waits for a background thread.
+ * Methods that modify the model, including those that mark files, are synchronized.</p>
+ *
+ * <p>Marks are held by a {@link MarkSet}, one bit per file: marking or unmarking all files, inverting marks or
+ * marking the files that match a filter are done 64 files at a time, and the number and combined size of marked files
+ * are updated with the files whose mark has actually changed.</p>
+ *
  * @author Maxence Bernard
  */
 public class FileTableModel extends AbstractTableModel {
 
-    /** The current folder */
-    private AbstractFile currentFolder;
-
-    /** Date of the current folder when it was changed */
-    private long currentFolderDateSnapshot;
-
-    /** The current folder's parent folder, may be null */
-    private AbstractFile parent;
+    /** The current snapshot */
+    private volatile ListingSnapshot snapshot;
 
-    /** Cached file instances */
-    private AbstractFile cachedFiles[];
-
-    /** Index array */
-    private int fileArrayIndex[];
-
-    /** Cell values cache */
-    private Object cellValuesCache[][];
-
-    /** Marked rows array */
-    private boolean rowMarked[];
-	
     /** Combined size of files currently marked */
     private long markedTotalSize;
 
     /** Number of files currently marked */
     private int nbRowsMarked;
 
+    /** Marked files in sorted order, null if they must be collected again */
+    private AbstractFile markedFiles[];
+
+    /** Marks that {@link #markedFiles} were collected from */
+    private MarkSet markedFilesMarks;
+
+    /** Sort order that {@link #markedFiles} were collected in */
+    private int markedFilesOrder[];
+
+    /** Updates the number and combined size of marked files when marks are changed in bulk */
+    private final MarkSet.Listener markListener = new MarkSet.Listener() {
+        public void markChanged(int fileIndex, boolean marked) {
+            updateMarkedTotals(snapshot, fileIndex, marked);
+        }
+    };
+
     /** Contains sort-related variables */
     private SortInfo sortInfo;
 
+    /** Optional attributes stored by the snapshots of new folders, see {@link ListingStore} */
+    private volatile int storedAttributes;
+
     /** True if the name column is temporarily editable */
     private boolean nameColumnEditable;
 
+    /** Maximum number of row events fired when a refresh is applied, above which a single data changed event is fired */
+    private final static int MAX_ROW_EVENTS = 64;
+
+    /** Minimum number of files above which files are matched against a filter by several threads */
+    private final static int PARALLEL_MATCH_THRESHOLD = 8192;
+
+    /** Number of threads that files are matched by in large folders */
+    private final static int NB_MATCH_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Matches the files of large folders against filters */
+    private final static ExecutorService MATCH_EXECUTOR = Executors.newFixedThreadPool(NB_MATCH_THREADS, new ThreadFactory() {
+        private int count;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileTableModel matcher-"+(++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     /** SizeFormat format used to create the size column's string */
     private static int sizeFormat;
 
@@ -102,16 +140,22 @@ public class FileTableModel extends AbstractTableModel {
         sizeFormat |= SizeFormat.INCLUDE_SPACE;
     }
 
+    /**
+     * Returns the SizeFormat format used to create the size column's string.
+     *
+     * @return the SizeFormat format used to create the size column's string
+     */
+    static int getSizeFormat() {
+        return sizeFormat;
+    }
+
 
     /**
      * Creates a new FileTableModel, without any initial current folder.
      */
     public FileTableModel() {
-        // Init arrays to avoid NullPointerExceptions until setCurrentFolder() gets called for the first time
-        cachedFiles = new AbstractFile[0];
-        fileArrayIndex = new int[0];
-        cellValuesCache = new Object[0][Column.values().length-1];
-        rowMarked = new boolean[0];
+        // Start with an empty snapshot to avoid NullPointerExceptions until setCurrentFolder() gets called for the first time
+        snapshot = ListingSnapshot.createEmpty();
     }
 
     /**
@@ -129,8 +173,8 @@ public class FileTableModel extends AbstractTableModel {
      *
      * @return the current folder
      */
-    public synchronized AbstractFile getCurrentFolder() {
-        return currentFolder;
+    public AbstractFile getCurrentFolder() {
+        return snapshot.folder;
     }
 
     /**
@@ -139,8 +183,8 @@ public class FileTableModel extends AbstractTableModel {
      *
      * @return Returns the date of the current folder, when it was set using #setCurrentFolder(Abstract, Abstract[])
      */
-    public synchronized long getCurrentFolderDateSnapshot() {
-        return currentFolderDateSnapshot;
+    public long getCurrentFolderDateSnapshot() {
+        return snapshot.folderDate;
     }
 
     /**
@@ -148,8 +192,8 @@ public class FileTableModel extends AbstractTableModel {
      *
      * @return <code>true</code> if the current folder has a parent
      */
-    public synchronized boolean hasParentFolder() {
-        return parent!=null;
+    public boolean hasParentFolder() {
+        return snapshot.parent!=null;
     }
 
     /**
@@ -157,8 +201,8 @@ public class FileTableModel extends AbstractTableModel {
      *
      * @return the current folder's parent if there is one, <code>null</code> otherwise
      */
-    public synchronized AbstractFile getParentFolder() {
-        return parent;
+    public AbstractFile getParentFolder() {
+        return snapshot.parent;
     }
 
     /**
@@ -168,50 +212,323 @@ public class FileTableModel extends AbstractTableModel {
      * @return the index of the first row that can be marked/unmarked
      */
     public int getFirstMarkableRow() {
-        return parent==null?0:1;
+        return snapshot.parent==null?0:1;
+    }
+
+    /**
+     * Returns the current snapshot of this model. The returned snapshot can be read from any thread.
+     *
+     * @return the current snapshot of this model
+     */
+    ListingSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Creates a snapshot of the given folder and children, sorted by the current criterion, to be set using
+     * {@link #setSnapshot(ListingSnapshot)}. This method is I/O-bound and should not be called from the event
+     * dispatch thread.
+     *
+     * @param folder the current folder
+     * @param children the current folder's children
+     * @return a snapshot of the given folder and children
+     */
+    ListingSnapshot createSnapshot(AbstractFile folder, AbstractFile children[]) {
+        return ListingSnapshot.create(folder, children, sortInfo, storedAttributes);
+    }
+
+    /**
+     * Sets the optional attributes that the snapshots of new folders store, i.e. those of the enabled columns. The
+     * current snapshot is left as it is, the missing attributes are added to it using {@link #setStore(ListingStore, ListingStore)}.
+     *
+     * @param attributes a combination of the optional attributes defined by {@link ListingStore}
+     */
+    void setStoredAttributes(int attributes) {
+        this.storedAttributes = attributes;
+    }
+
+    /**
+     * Returns the optional attributes that the snapshots of new folders store.
+     *
+     * @return a combination of the optional attributes defined by {@link ListingStore}
+     */
+    int getStoredAttributes() {
+        return storedAttributes;
+    }
+
+    /**
+     * Replaces the store of the current snapshot by the given one, which holds more optional attributes and was
+     * created from it by {@link ListingStore#ListingStore(ListingStore, AbstractFile[], int)}. Rows are sorted again
+     * if they are sorted by one of the new attributes. This method must be called from the event dispatch thread.
+     *
+     * @param base the store that the given store was created from
+     * @param newStore the store to use
+     * @return <code>false</code> if the files of the current snapshot have changed since <code>base</code>, in which
+     * case the given store is ignored
+     */
+    synchronized boolean setStore(ListingStore base, ListingStore newStore) {
+        ListingSnapshot current = snapshot;
+        if(current.store!=base)
+            return false;
+
+        this.snapshot = current.setStore(newStore);
+        return true;
+    }
+
+    /**
+     * Replaces the contents of this model by the given snapshot of a folder, created by
+     * {@link #createSnapshot(AbstractFile, AbstractFile[])}. Marked files are reset.
+     *
+     * @param newSnapshot the snapshot of the new current folder
+     */
+    synchronized void setSnapshot(ListingSnapshot newSnapshot) {
+        this.markedTotalSize = 0;
+        this.nbRowsMarked = 0;
+        this.snapshot = newSnapshot;
     }
 
     /**
-     * Sets the current folder and its children.
+     * Sets the current folder and its children. This method is I/O-bound, the folder should preferably be changed
+     * using {@link #createSnapshot(AbstractFile, AbstractFile[])} outside of the event dispatch thread and
+     * {@link #setSnapshot(ListingSnapshot)}.
      *
      * @param folder the current folder
      * @param children the current folder's children
      */
     synchronized void setCurrentFolder(AbstractFile folder, AbstractFile children[]) {
-        int nbFiles = children.length;
+        setSnapshot(createSnapshot(folder, children));
+    }
+
+    /**
+     * Adds the given files to the current folder's children, as they come in when a large folder is being loaded
+     * in several batches by {@link FolderLoader}. The new files are merged into the current sort order, so that rows
+     * that were already displayed remain sorted. Marked rows are left untouched.
+     *
+     * <p>The new snapshot can be prepared outside of the event dispatch thread by calling
+     * {@link ListingSnapshot#append(AbstractFile[])} on the current snapshot: it is used if the current snapshot has
+     * not been replaced in the meantime, and is created again otherwise.</p>
+     *
+     * @param files the files to add, as returned by {@link #createCachedFile(AbstractFile)}
+     * @param base the snapshot that <code>prepared</code> was created from, may be <code>null</code>
+     * @param prepared the snapshot returned by <code>base.append(files)</code>, may be <code>null</code>
+     */
+    synchronized void addFiles(AbstractFile files[], ListingSnapshot base, ListingSnapshot prepared) {
+        if(files.length==0)
+            return;
+
+        ListingSnapshot current = snapshot;
+        ListingSnapshot newSnapshot = (prepared!=null && base==current)?prepared:current.append(files);
+
+        // Files may have been marked since the new snapshot was prepared
+        newSnapshot.marks.copy(current.marks);
+
+        this.snapshot = newSnapshot;
+    }
+
+    /**
+     * Replaces the contents of this model by the snapshot of the given diff, which reflects a new listing of the
+     * current folder. Files that have not changed keep their rows, marked files that still exist remain marked and
+     * the table is notified of the rows that have been removed and inserted, rather than of a complete change of its
+     * data. This method must be called from the event dispatch thread.
+     *
+     * <p>The diff can only be applied if the current snapshot contains the files it was computed against: they may
+     * have been sorted since, but not replaced.</p>
+     *
+     * @param diff the differences between the current snapshot and a new listing of the current folder
+     * @return <code>true</code> if the diff has been applied, <code>false</code> if the current files have been replaced
+     * since it was computed
+     */
+    synchronized boolean applyDiff(ListingDiff diff) {
+        ListingSnapshot current = snapshot;
+        ListingSnapshot newSnapshot = diff.snapshot;
+        if(current.files!=diff.base.files || (current.parent==null)!=(newSnapshot.parent==null))
+            return false;
 
-        this.currentFolder = (folder instanceof CachedFile)?folder:new CachedFile(folder, true);
+        // The cell values may have been discarded and the filter changed since the diff was computed
+        if(!current.sharesCellCache(diff.base))
+            newSnapshot = newSnapshot.clearCellCache();
+        if(newSnapshot.filter!=current.filter)
+            newSnapshot = newSnapshot.filter(current.filter);
+        newSnapshot = newSnapshot.sort(current.sortInfo);
+
+        // Mark the files again, including those that have changed
+        markedTotalSize = 0;
+        nbRowsMarked = 0;
+        for(int i=current.marks.nextMarked(0); i!=-1; i=current.marks.nextMarked(i+1)) {
+            int j = diff.newIndexes[i];
+            if(j!=-1) {
+                newSnapshot.marks.setMarked(j, true);
+                updateMarkedTotals(newSnapshot, j, true);
+            }
+        }
 
-        this.parent = currentFolder.getParent();    // Note: the returned parent is a CachedFile instance
-        if(parent!=null) {
-            // Pre-fetch the attributes that are used by the table renderer and some actions.
-            prefetchCachedFileAttributes(parent);
+        // Rows of the files that have changed or have been removed are removed, rows of the files that have changed
+        // or have been added are inserted
+        int offset = current.parent==null?0:1;
+        int nbRemovedRows = 0;
+        int removedRows[] = new int[current.fileArrayIndex.length];
+        for(int row=0; row<current.fileArrayIndex.length; row++) {
+            int i = current.fileArrayIndex[row];
+            int j = diff.newIndexes[i];
+            if(j==-1 || diff.baseIndexes[j]!=i)
+                removedRows[nbRemovedRows++] = row+offset;
         }
 
-        // Initialize file indexes and create CachedFile instances to speed up table display and navigation
-        this.cachedFiles = children;
-        this.fileArrayIndex = new int[nbFiles];
-        AbstractFile file;
-        for(int i=0; i<nbFiles; i++) {
-            file = new CachedFile(children[i], true);
+        int nbInsertedRows = 0;
+        int insertedRows[] = new int[newSnapshot.fileArrayIndex.length];
+        for(int row=0; row<newSnapshot.fileArrayIndex.length; row++) {
+            if(diff.baseIndexes[newSnapshot.fileArrayIndex[row]]==-1)
+                insertedRows[nbInsertedRows++] = row+offset;
+        }
 
-            // Pre-fetch the attributes that are used by the table renderer and some actions.
-            prefetchCachedFileAttributes(file);
+        this.snapshot = newSnapshot;
 
-            cachedFiles[i] = file;
-            fileArrayIndex[i] = i;
+        // The snapshot is replaced at once: events are fired afterwards, in an order that lets the table track
+        // the rows it knew about, i.e. removed rows from the bottom up, then inserted rows from the top down
+        if(countRanges(removedRows, nbRemovedRows)+countRanges(insertedRows, nbInsertedRows)>MAX_ROW_EVENTS) {
+            fireTableDataChanged();
         }
+        else {
+            int end = nbRemovedRows;
+            while(end>0) {
+                int start = end-1;
+                while(start>0 && removedRows[start-1]==removedRows[start]-1)
+                    start--;
+                fireTableRowsDeleted(removedRows[start], removedRows[end-1]);
+                end = start;
+            }
 
-        // Reset marked files
-        int nbRows = getRowCount();
-        this.rowMarked = new boolean[nbRows];
-        this.markedTotalSize = 0;
-        this.nbRowsMarked = 0;
+            int start = 0;
+            while(start<nbInsertedRows) {
+                end = start+1;
+                while(end<nbInsertedRows && insertedRows[end]==insertedRows[end-1]+1)
+                    end++;
+                fireTableRowsInserted(insertedRows[start], insertedRows[end-1]);
+                start = end;
+            }
+        }
 
-        // Init and fill cell cache to speed up table even more
-        this.cellValuesCache = new Object[nbRows][Column.values().length-1];
+        return true;
+    }
 
-        fillCellCache();
+    /**
+     * Returns the filter that the files displayed in rows match.
+     *
+     * @return the filter that the files displayed in rows match, <code>null</code> if all files are displayed
+     */
+    NameFilter getFilter() {
+        return snapshot.filter;
+    }
+
+    /**
+     * Replaces the rows of this model by those of the given snapshot, derived from the current one by
+     * {@link ListingSnapshot#filter(NameFilter)} outside of the event dispatch thread. The current sort order and
+     * marked files are kept, including the marks of files that are no longer displayed. The table is notified that
+     * all of its rows have changed. This method must be called from the event dispatch thread.
+     *
+     * @param filtered a filtered snapshot of the current files
+     * @return <code>true</code> if the filter has been applied, <code>false</code> if the current files have been
+     * replaced since the filtered snapshot was created
+     */
+    synchronized boolean applyFilter(ListingSnapshot filtered) {
+        ListingSnapshot current = snapshot;
+        if(current.files!=filtered.files)
+            return false;
+
+        this.snapshot = current.filterLike(filtered);
+        fireTableDataChanged();
+
+        return true;
+    }
+
+    /**
+     * Sets the sizes of the given folders, as calculated by a {@link FolderSizeCalculator}: they are displayed in the
+     * size column, counted in the combined size of marked files, and rows are sorted again if they are sorted by
+     * size. Folders are identified by their file instance, which refreshes keep as long as a file has not
+     * changed: folders that are no longer among the current files are ignored. This method must be called from the
+     * event dispatch thread.
+     *
+     * @param folders the folders, as held by the current snapshot
+     * @param sizes the size of each folder, in bytes
+     * @return <code>true</code> if the rows have been sorted again
+     */
+    synchronized boolean setFolderSizes(AbstractFile folders[], long sizes[]) {
+        ListingSnapshot current = snapshot;
+
+        Map<AbstractFile, Long> folderSizes = new IdentityHashMap<AbstractFile, Long>(folders.length*2);
+        for(int i=0; i<folders.length; i++)
+            folderSizes.put(folders[i], sizes[i]);
+
+        int fileIndexes[] = new int[folders.length];
+        long directorySizes[] = new long[folders.length];
+        int nbDirectories = 0;
+        int nbFiles = current.files.length;
+        for(int i=0; i<nbFiles && nbDirectories<folders.length; i++) {
+            Long size = folderSizes.get(current.files[i]);
+            if(size==null || !current.store.isDirectory(i))
+                continue;
+
+            // Marked folders were counted with their previous size, if any
+            if(current.marks.isMarked(i)) {
+                long previousSize = current.store.getSize(i);
+                if(previousSize>0)
+                    markedTotalSize -= previousSize;
+                if(size>0)
+                    markedTotalSize += size;
+            }
+
+            fileIndexes[nbDirectories] = i;
+            directorySizes[nbDirectories++] = size;
+        }
+
+        if(nbDirectories==0)
+            return false;
+
+        ListingSnapshot newSnapshot = current.setDirectorySizes(fileIndexes, directorySizes, nbDirectories);
+        boolean resorted = current.sortInfo.getCriterion()==Column.SIZE;
+        if(resorted)
+            newSnapshot = newSnapshot.resort();
+
+        this.snapshot = newSnapshot;
+
+        return resorted;
+    }
+
+    /**
+     * Returns the number of ranges of consecutive rows in the first <code>length</code> values of the given sorted
+     * array.
+     */
+    private static int countRanges(int rows[], int length) {
+        int nbRanges = 0;
+        for(int i=0; i<length; i++) {
+            if(i==0 || rows[i]!=rows[i-1]+1)
+                nbRanges++;
+        }
+        return nbRanges;
+    }
+
+    /**
+     * Creates a {@link CachedFile} instance for the given file, unless it already is one, and pre-fetches the attributes that are used by the
+     * table renderer and some actions. Permissions, owner and group are not pre-fetched: {@link ListingStore} reads
+     * them from the wrapped file if their columns are enabled. The CachedFile instance is only used to read the
+     * attributes into the store, which takes over from it. This method is I/O-bound and can be called from any thread.
+     *
+     * @param file the file to wrap
+     * @return a CachedFile wrapping the given file, with its attributes pre-fetched
+     */
+    static AbstractFile createCachedFile(AbstractFile file) {
+        // Files that have already been wrapped are pre-fetched in place
+        AbstractFile cachedFile = (file instanceof CachedFile)?file:new CachedFile(file, true);
+
+        // Pre-fetch the attributes that are used by the table renderer and some actions.
+        prefetchCachedFileAttributes(cachedFile);
+
+        // Pre-fetch the attributes that are stored in the ListingStore
+        if(!cachedFile.isDirectory())
+            cachedFile.getSize();
+        cachedFile.getDate();
+
+        return cachedFile;
     }
 
     /**
@@ -221,7 +538,7 @@ public class FileTableModel extends AbstractTableModel {
      *
      * @param cachedFile a CachedFile instance from which to pre-fetch attributes
      */
-    private static void prefetchCachedFileAttributes(AbstractFile cachedFile) {
+    static void prefetchCachedFileAttributes(AbstractFile cachedFile) {
         cachedFile.isDirectory();
         cachedFile.isBrowsable();
         cachedFile.isHidden();
@@ -235,82 +552,77 @@ public class FileTableModel extends AbstractTableModel {
 
 	
     /**
-     * Retrieves all cell values and stores them in an array for fast access.
+     * Discards all cell values, they will be computed again when they are next requested. This method must be called
+     * when the format of a column's values has changed.
      */
-    synchronized void fillCellCache() {
-        int len = cellValuesCache.length;
-        if(len==0)
-            return;
-		
-        // Special '..' file
-        if(parent!=null) {
-            cellValuesCache[0][Column.NAME.ordinal()-1] = "..";
-            cellValuesCache[0][Column.SIZE.ordinal()-1] = DIRECTORY_SIZE_STRING;
-            currentFolderDateSnapshot = currentFolder.getDate();
-            cellValuesCache[0][Column.DATE.ordinal()-1] =	CustomDateFormat.format(new Date(currentFolderDateSnapshot));
-            // Don't display parent's permissions as they can have a different format from the folder contents
-            // (e.g. for archives) and this looks weird
-            cellValuesCache[0][Column.PERMISSIONS.ordinal()-1] = "";
-            cellValuesCache[0][Column.OWNER.ordinal()-1] = "";
-            cellValuesCache[0][Column.GROUP.ordinal()-1] = "";
-        }
-		
-        AbstractFile file;
-        int fileIndex = 0;
-
-        for(int i=parent==null?0:1; i<len; i++) {
-            file = getCachedFileAtRow(i);
-            int cellIndex = fileArrayIndex[fileIndex]+(parent==null?0:1);
-            cellValuesCache[cellIndex][Column.NAME.ordinal()-1] = file.getName();
-            cellValuesCache[cellIndex][Column.SIZE.ordinal()-1] = file.isDirectory()?DIRECTORY_SIZE_STRING:SizeFormat.format(file.getSize(), sizeFormat);
-            cellValuesCache[cellIndex][Column.DATE.ordinal()-1] = CustomDateFormat.format(new Date(file.getDate()));
-            cellValuesCache[cellIndex][Column.PERMISSIONS.ordinal()-1] = file.getPermissionsString();
-            cellValuesCache[cellIndex][Column.OWNER.ordinal()-1] = file.getOwner();
-            cellValuesCache[cellIndex][Column.GROUP.ordinal()-1] = file.getGroup();
-
-            fileIndex++;
-        }
+    synchronized void clearCellCache() {
+        this.snapshot = snapshot.clearCellCache();
     }
-	
-	
+
     /**
-     * Returns a CachedFile instance of the file located at the given row index.
-     * This method can return the parent folder file ('..') if a parent exists and rowIndex is 0.
+     * Returns the file located at the given row index, whose attributes displayed by the table are read from the
+     * {@link ListingStore} without any I/O, like those of a CachedFile.
+     * This method can return the parent folder file ('..'), as a CachedFile, if a parent exists and rowIndex is 0.
      * 
      * <p>Returns <code>null</code> if rowIndex is lower than 0 or is greater than or equals
      * {@link #getRowCount() getRowCount()}.</p>
      *
      * @param rowIndex a row index, comprised between 0 and #getRowCount()
-     * @return a CachedFile instance of the file located at the given row index
+     * @return the file located at the given row index, with its attributes cached
      */
-    public synchronized AbstractFile getCachedFileAtRow(int rowIndex) {
-        if(rowIndex==0 && parent!=null)
-            return parent;
+    public AbstractFile getCachedFileAtRow(int rowIndex) {
+        ListingSnapshot s = snapshot;
+        if(rowIndex==0 && s.parent!=null)
+            return s.parent;
 		
-        if(parent!=null)
+        if(s.parent!=null)
             rowIndex--;
 		
         // Need to check that row index is not larger than actual number of rows
         // because if table has just been changed (rows have been removed),
         // JTable may have an old row count value and may try to repaint rows that are out of bounds.
-        if(rowIndex>=0 && rowIndex<fileArrayIndex.length)
-            return cachedFiles[fileArrayIndex[rowIndex]];
+        if(rowIndex>=0 && rowIndex<s.fileArrayIndex.length) {
+            int fileIndex = s.fileArrayIndex[rowIndex];
+            return new StoredFile(s.files[fileIndex], s.store, fileIndex);
+        }
         return null;
     }
 
     /**
-     * Returns the current folder's children. The returned array contains {@link CachedFile} instances, where
-     * most attributes have already been fetched and cached.
+     * Returns the {@link ListingStore} flags of the file located at the given row index. The parent folder '..' file
+     * is reported as a browsable directory.
      *
-     * @return the current folder's children, as an array of CachedFile instances
+     * @param rowIndex a row index, comprised between 0 and #getRowCount()-1
+     * @return the flags of the file located at the given row index, 0 if the row index is out of bounds
+     */
+    int getFileFlagsAtRow(int rowIndex) {
+        ListingSnapshot s = snapshot;
+        if(rowIndex==0 && s.parent!=null)
+            return ListingStore.DIRECTORY|ListingStore.BROWSABLE;
+
+        if(s.parent!=null)
+            rowIndex--;
+
+        if(rowIndex>=0 && rowIndex<s.fileArrayIndex.length)
+            return s.store.getFlags(s.fileArrayIndex[rowIndex]);
+        return 0;
+    }
+
+    /**
+     * Returns the current folder's children, whose attributes displayed by the table are read from the
+     * {@link ListingStore} without any I/O, like those of CachedFile instances.
+     *
+     * @return the current folder's children, with their attributes cached
      * @see #getFiles()
      */
-    public synchronized AbstractFile[] getCachedFiles() {
-        // Clone the array to make sure it can't be modified outside of this class
-        AbstractFile[] cachedFilesCopy = new AbstractFile[cachedFiles.length];
-        System.arraycopy(cachedFiles, 0, cachedFilesCopy, 0, cachedFiles.length);
+    public AbstractFile[] getCachedFiles() {
+        ListingSnapshot s = snapshot;
+        int nbFiles = s.files.length;
+        AbstractFile[] cachedFiles = new AbstractFile[nbFiles];
+        for(int i=0; i<nbFiles; i++)
+            cachedFiles[i] = new StoredFile(s.files[i], s.store, i);
 
-        return cachedFilesCopy;
+        return cachedFiles;
     }
 
 
@@ -324,31 +636,34 @@ public class FileTableModel extends AbstractTableModel {
      * @param rowIndex a row index, comprised between 0 and #getRowCount()
      * @return the file located at the given row index
      */
-    public synchronized AbstractFile getFileAtRow(int rowIndex) {
-        AbstractFile file = getCachedFileAtRow(rowIndex);
-	
-        if(file==null)
-            return null;
-        else if(file instanceof CachedFile)
-            return ((CachedFile)file).getProxiedFile();
-        else
-            return file;
+    public AbstractFile getFileAtRow(int rowIndex) {
+        ListingSnapshot s = snapshot;
+        if(rowIndex==0 && s.parent!=null)
+            return ((CachedFile)s.parent).getProxiedFile();
+
+        if(s.parent!=null)
+            rowIndex--;
+
+        if(rowIndex>=0 && rowIndex<s.fileArrayIndex.length)
+            return s.files[s.fileArrayIndex[rowIndex]];
+        return null;
     }
 	
     /**
-     * Returns the current folder's children. The returned array contains {@link AbstractFile} instances, and not
-     * CachedFile instances contrary to {@link #getCachedFiles()}.
+     * Returns the current folder's children. The returned array contains the files as returned by the folder's
+     * listing, whose attributes are not cached contrary to {@link #getCachedFiles()}.
      *
      * @return the current folder's children
      * @see #getCachedFiles()
      */
-    public synchronized AbstractFile[] getFiles() {
-        int nbFiles = cachedFiles.length;
-        AbstractFile[] files = new AbstractFile[nbFiles];
-        for(int i=0; i<nbFiles; i++)
-            files[i] = cachedFiles[i]==null?null:((CachedFile)cachedFiles[i]).getProxiedFile();
+    public AbstractFile[] getFiles() {
+        AbstractFile files[] = snapshot.files;
+
+        // Clone the array to make sure it can't be modified outside of this class
+        AbstractFile[] filesCopy = new AbstractFile[files.length];
+        System.arraycopy(files, 0, filesCopy, 0, files.length);
 
-        return files;
+        return filesCopy;
     }
 
     /**
@@ -359,59 +674,79 @@ public class FileTableModel extends AbstractTableModel {
      * @return the index of the row where the given file is located, <code>-1<code> if the file is not in the
      * current folder
      */
-    public synchronized int getFileRow(AbstractFile file) {
+    public int getFileRow(AbstractFile file) {
+        return getFileRow(snapshot, file);
+    }
+
+    /**
+     * Returns the index of the row where the given file is located in the given snapshot, <code>-1<code> if the file
+     * is not in it.
+     */
+    private static int getFileRow(ListingSnapshot s, AbstractFile file) {
         // Handle parent folder file
-        if(parent!=null && file.equals(parent))
+        if(s.parent!=null && file.equals(s.parent))
             return 0;
 
         // Use dichotomic binary search rather than a dumb linear search since file array is sorted,
         // complexity is reduced to O(log n) instead of O(n^2)
-        int left = parent==null?0:1;
-        int right = getRowCount()-1;
+        int offset = s.parent==null?0:1;
+        int left = 0;
+        int right = s.fileArrayIndex.length-1;
         int mid;
-        AbstractFile midFile;
-        FileComparator fc = getFileComparator(sortInfo);
+        int midFileIndex;
+        SortKeys.IndexComparator comparator = s.sortKeys.getComparator(s.sortInfo);
 
         while(left<=right) {
             mid = (right-left)/2 + left;
-            midFile = getCachedFileAtRow(mid);
-            if(midFile.equals(file))
-                return mid;
-            if(fc.compare(file, midFile)<0)
+            midFileIndex = s.fileArrayIndex[mid];
+            if(s.files[midFileIndex].equals(file))
+                return mid+offset;
+            if(comparator.compareFile(file, midFileIndex)<0)
                 right = mid-1;
             else
                 left = mid+1;
         }
+
+        // The given file does not have the calculated size of a folder, the rows may not be sorted by its keys
+        if(s.sortInfo.getCriterion()==Column.SIZE && file.isDirectory()) {
+            for(int row=0; row<s.fileArrayIndex.length; row++) {
+                if(s.files[s.fileArrayIndex[row]].equals(file))
+                    return row+offset;
+            }
+        }
 		
         return -1;
     }
 
 	
     /**
-     * Returns the file located at the given index, not including the parent file.
+     * Returns the file located at the given index, not including the parent file. Files that are not displayed
+     * because of the filter are included.
      * Returns <code>null</code> if fileIndex is lower than 0 or is greater than or equals {@link #getFileCount() getFileCount()}.
      *
      * @param fileIndex index of a file, comprised between 0 and #getFileCount()
      * @return the file located at the given index, not including the parent file
      */
-    public synchronized AbstractFile getFileAt(int fileIndex) {
+    public AbstractFile getFileAt(int fileIndex) {
+        ListingSnapshot s = snapshot;
         // Need to check that row index is not larger than actual number of rows
         // because if table has just been changed (rows have been removed),
         // JTable may have an old row count value and may try to repaint rows that are out of bounds.
-        if(fileIndex>=0 && fileIndex<fileArrayIndex.length) {
-            return ((CachedFile)cachedFiles[fileArrayIndex[fileIndex]]).getProxiedFile();
+        if(fileIndex>=0 && fileIndex<s.sortedFileArrayIndex.length) {
+            return s.files[s.sortedFileArrayIndex[fileIndex]];
         }
     	return null;
     }
 
 	
     /**
-     * Returns the actual number of files the current folder contains, excluding the parent '..' file (if any).
+     * Returns the actual number of files the current folder contains, excluding the parent '..' file (if any),
+     * whether or not they are displayed.
      *
      * @return the actual number of files the current folder contains, excluding the parent '..' file (if any)
      */
-    public synchronized int getFileCount() {
-        return cachedFiles.length;
+    public int getFileCount() {
+        return snapshot.files.length;
     }
 
 	
@@ -422,11 +757,12 @@ public class FileTableModel extends AbstractTableModel {
      * @param row index of a row to test
      * @return <code>true</code> if the given row is marked
      */
-    public synchronized boolean isRowMarked(int row) {
-        if(row==0 && parent!=null)
+    public boolean isRowMarked(int row) {
+        ListingSnapshot s = snapshot;
+        if(row==0 && s.parent!=null)
             return false;
 
-        return row<getRowCount() && rowMarked[fileArrayIndex[parent==null?row:row-1]];
+        return row>=0 && row<s.getRowCount() && s.marks.isMarked(s.fileArrayIndex[s.parent==null?row:row-1]);
     }
 
 
@@ -438,23 +774,31 @@ public class FileTableModel extends AbstractTableModel {
      * @param marked <code>true</code> to mark the row, <code>false</code> to unmark it
      */
     public synchronized void setRowMarked(int row, boolean marked) {
-        if(row==0 && parent!=null)
+        ListingSnapshot s = snapshot;
+        if(row==0 && s.parent!=null)
             return;
 			
-        int rowIndex = parent==null?row:row-1;
+        int rowIndex = s.parent==null?row:row-1;
+        int fileIndex = s.fileArrayIndex[rowIndex];
 
         // Return if the row is already marked/unmarked
-        if((marked && rowMarked[fileArrayIndex[rowIndex]]) || (!marked && !rowMarked[fileArrayIndex[rowIndex]]))
+        if(marked==s.marks.isMarked(fileIndex))
             return;
 
-        AbstractFile file = getCachedFileAtRow(row);
+        s.marks.setMarked(fileIndex, marked);
+        updateMarkedTotals(s, fileIndex, marked);
+    }
 
-        // Do not call getSize() on directories, it's unnecessary and the value is most likely not cached by CachedFile yet
-        long fileSize = file.isDirectory()?0:file.getSize();
+    /**
+     * Updates the number and combined size of marked files after the mark of the given file has changed.
+     */
+    private void updateMarkedTotals(ListingSnapshot s, int fileIndex, boolean marked) {
+        // Size is -1 for directories whose size has not been calculated
+        long fileSize = s.store.getSize(fileIndex);
 
         // Update :
         // - Combined size of marked files
-        // - marked files FileSet 
+        // - Number of marked files
         if(marked) {
             // File size can equal -1 if not available, do not count that in total
             if(fileSize>0)
@@ -470,7 +814,7 @@ public class FileTableModel extends AbstractTableModel {
             nbRowsMarked--;
         }
 
-        rowMarked[fileArrayIndex[rowIndex]] = marked;
+        markedFiles = null;
     }
 
 
@@ -482,7 +826,7 @@ public class FileTableModel extends AbstractTableModel {
      * @param endRow index of the last row to mark/ummark, startRow may be less or greater than startRow
      * @param marked if true, all the rows within the range will be marked, unmarked otherwise
      */
-    public void setRangeMarked(int startRow, int endRow, boolean marked) {
+    public synchronized void setRangeMarked(int startRow, int endRow, boolean marked) {
         if(endRow >= startRow) {
             for(int i= startRow; i<= endRow; i++)
                 setRowMarked(i, marked);
@@ -509,16 +853,150 @@ public class FileTableModel extends AbstractTableModel {
 
 
     /**
-     * Marks/unmarks the files that match the given {@link FileFilter}.
+     * Marks/unmarks the displayed files that match the given {@link FileFilter}. In large folders, files are matched
+     * by several threads.
      *
      * @param filter the FileFilter to match the files against
      * @param marked if true, matching files will be marked, if false, they will be unmarked
+     * @return <code>true</code> if the mark of at least one file has changed
      */
-    public synchronized void setFilesMarked(FileFilter filter, boolean marked) {
-        int nbFiles = getRowCount();
-        for(int i=parent==null?0:1; i<nbFiles; i++) {
-            if(filter.match(getCachedFileAtRow(i)))
-                setRowMarked(i, marked);
+    public synchronized boolean setFilesMarked(FileFilter filter, boolean marked) {
+        ListingSnapshot s = snapshot;
+        long mask[] = match(s, filter);
+        long visibleMask[] = createVisibleMask(s, true);
+        for(int w=0; w<mask.length; w++)
+            mask[w] &= visibleMask[w];
+
+        return applyMarks(s, mask, marked?MarkSet.MARK:MarkSet.UNMARK);
+    }
+
+    /**
+     * Marks/unmarks all the displayed files, the special '..' parent file excepted.
+     *
+     * @param marked if true, all files will be marked, if false, they will be unmarked
+     * @param includeFolders if false, folders are left untouched
+     * @return <code>true</code> if the mark of at least one file has changed
+     */
+    public synchronized boolean setAllMarked(boolean marked, boolean includeFolders) {
+        ListingSnapshot s = snapshot;
+        return applyMarks(s, createVisibleMask(s, includeFolders), marked?MarkSet.MARK:MarkSet.UNMARK);
+    }
+
+    /**
+     * Inverts the marks of all the displayed files, the special '..' parent file excepted.
+     *
+     * @param includeFolders if false, folders are left untouched
+     * @return <code>true</code> if the mark of at least one file has changed
+     */
+    public synchronized boolean invertMarks(boolean includeFolders) {
+        ListingSnapshot s = snapshot;
+        return applyMarks(s, createVisibleMask(s, includeFolders), MarkSet.INVERT);
+    }
+
+    /**
+     * Applies the given mask to the marks of the given snapshot, which must be the current one.
+     */
+    private boolean applyMarks(ListingSnapshot s, long mask[], int operation) {
+        return s.marks.apply(mask, operation, markListener);
+    }
+
+    /**
+     * Returns a mask of the files of the given snapshot that are displayed, i.e. that are matched by its filter.
+     */
+    private static long[] createVisibleMask(ListingSnapshot s, boolean includeFolders) {
+        int nbFiles = s.files.length;
+        long mask[];
+        if(s.filter==null) {
+            mask = MarkSet.createFullMask(nbFiles);
+        }
+        else {
+            mask = new long[MarkSet.getNbWords(nbFiles)];
+            for(int fileIndex : s.fileArrayIndex)
+                mask[fileIndex>>>6] |= 1L<<fileIndex;
+        }
+
+        if(!includeFolders) {
+            for(int fileIndex=0; fileIndex<nbFiles; fileIndex++) {
+                if(s.store.isDirectory(fileIndex))
+                    mask[fileIndex>>>6] &= ~(1L<<fileIndex);
+            }
+        }
+
+        return mask;
+    }
+
+    /**
+     * Returns a mask of the files of the given snapshot that match the given filter. The files of large folders are
+     * split into ranges of whole words, which are matched concurrently without sharing any word of the mask.
+     */
+    private static long[] match(final ListingSnapshot s, final FileFilter filter) {
+        int nbFiles = s.files.length;
+        final long mask[] = new long[MarkSet.getNbWords(nbFiles)];
+        if(nbFiles<PARALLEL_MATCH_THRESHOLD || NB_MATCH_THREADS<2) {
+            match(s, filter, mask, 0, nbFiles);
+            return mask;
+        }
+
+        int nbWordsPerTask = (mask.length+NB_MATCH_THREADS-1)/NB_MATCH_THREADS;
+        int nbTasks = (mask.length+nbWordsPerTask-1)/nbWordsPerTask;
+        int froms[] = new int[nbTasks];
+        int tos[] = new int[nbTasks];
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(nbTasks);
+        for(int t=0; t<nbTasks; t++) {
+            final int from = froms[t] = (t*nbWordsPerTask)<<6;
+            final int to = tos[t] = Math.min(nbFiles, ((t+1)*nbWordsPerTask)<<6);
+            futures.add(MATCH_EXECUTOR.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    // The ranges of the tasks that have not started when the match is cancelled are matched by the
+                    // calling thread
+                    if(cancelled.get())
+                        return false;
+                    match(s, filter, mask, from, to);
+                    return true;
+                }
+            }));
+        }
+
+        // Tasks write to the mask until they are done: wait for all of them, even if this thread is interrupted
+        boolean interrupted = false;
+        try {
+            for(int t=0; t<nbTasks; t++) {
+                Boolean matched = null;
+                while(matched==null) {
+                    try {
+                        matched = futures.get(t).get();
+                    }
+                    catch(InterruptedException e) {
+                        interrupted = true;
+                        cancelled.set(true);
+                    }
+                }
+
+                // Ranges do not share any word of the mask, the tasks that are still running are not disturbed
+                if(!matched)
+                    match(s, filter, mask, froms[t], tos[t]);
+            }
+        }
+        catch(ExecutionException e) {
+            cancelled.set(true);
+            if(e.getCause() instanceof RuntimeException)
+                throw (RuntimeException)e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        return mask;
+    }
+
+    private static void match(ListingSnapshot s, FileFilter filter, long mask[], int from, int to) {
+        // Filters read the attributes of the files from the store
+        for(int fileIndex=from; fileIndex<to; fileIndex++) {
+            if(filter.match(new StoredFile(s.files[fileIndex], s.store, fileIndex)))
+                mask[fileIndex>>>6] |= 1L<<fileIndex;
         }
     }
 
@@ -531,29 +1009,34 @@ public class FileTableModel extends AbstractTableModel {
      * which might not reflect the current marked files state after this method has returned and additional
      * files have been marked/unmarked.
      * </p>
+     * <p>Marked files that are not displayed because of the filter are included. They are collected the first time
+     * this method is called after marks or the sort order have changed.</p>
      *
      * @return a FileSet containing all the files that are currently marked
      */
     public synchronized FileSet getMarkedFiles() {
-        FileSet markedFiles = new FileSet(currentFolder, nbRowsMarked);
-        int nbRows = getRowCount();
-
-        if(parent==null) {
-            for(int i=0; i<nbRows; i++) {
-                if(rowMarked[fileArrayIndex[i]])
-                    markedFiles.add(getFileAtRow(i));
+        ListingSnapshot s = snapshot;
+        if(markedFiles==null || markedFilesMarks!=s.marks || markedFilesOrder!=s.sortedFileArrayIndex) {
+            AbstractFile files[] = new AbstractFile[nbRowsMarked];
+            int nbFiles = s.sortedFileArrayIndex.length;
+            int nbMarkedFiles = 0;
+
+            for(int i=0; i<nbFiles && nbMarkedFiles<files.length; i++) {
+                int fileIndex = s.sortedFileArrayIndex[i];
+                if(s.marks.isMarked(fileIndex))
+                    files[nbMarkedFiles++] = s.files[fileIndex];
             }
-        }
-        else {
-            for(int i=1, iMinusOne=0; i<nbRows; i++) {
-                if(rowMarked[fileArrayIndex[iMinusOne]])
-                    markedFiles.add(getFileAtRow(i));
 
-                iMinusOne = i;
-            }
+            markedFiles = files;
+            markedFilesMarks = s.marks;
+            markedFilesOrder = s.sortedFileArrayIndex;
         }
 
-        return markedFiles;
+        FileSet markedFileSet = new FileSet(s.folder, markedFiles.length);
+        for(AbstractFile file : markedFiles)
+            markedFileSet.add(file);
+
+        return markedFileSet;
     }
 
     /**
@@ -591,77 +1074,13 @@ public class FileTableModel extends AbstractTableModel {
     // Sort methods //
     //////////////////
 
-    private static FileComparator getFileComparator(SortInfo sortInfo) {
-        return new FileComparator(sortInfo.getCriterion().getFileComparatorCriterion(), sortInfo.getAscendingOrder(), sortInfo.getFoldersFirst());
-    }
-
-
     /**
-     * Sorts rows by the current criterion, ascending/descending order and 'folders first' value.
+     * Sorts rows by the current criterion, ascending/descending order and 'folders first' value. Files are compared
+     * using keys that are extracted the first time a criterion is used. If only the ascending/descending order has
+     * changed since the last sort, rows are simply reversed.
      */
     synchronized void sortRows()  {
-        sort(getFileComparator(sortInfo), 0, fileArrayIndex.length-1);
-    }
-
-
-    /**
-     * Quick sort implementation, based on James Gosling's implementation.
-     */
-    private void sort(FileComparator fc, int lo0, int hi0) {
-        int lo = lo0;
-        int hi = hi0;
-
-        int temp;
-
-        if (lo >= hi) {
-            return;
-        }
-        else if( lo == hi - 1 ) {
-            // sort a two element list by swapping if necessary
-            if (fc.compare(cachedFiles[fileArrayIndex[lo]],cachedFiles[fileArrayIndex[hi]])>0) {
-                temp = fileArrayIndex[lo];
-                fileArrayIndex[lo] = fileArrayIndex[hi];
-                fileArrayIndex[hi] = temp;
-            }
-            return;
-        }
-
-        // Pick a pivot and move it out of the way
-        int pivotIndex = fileArrayIndex[(lo + hi) / 2];
-        fileArrayIndex[(lo + hi) / 2] = fileArrayIndex[hi];
-        fileArrayIndex[hi] = pivotIndex;
-        AbstractFile pivot = cachedFiles[pivotIndex];
-
-        while( lo < hi ) {
-            // Search forward from files[lo] until an element is found that
-            // is greater than the pivot or lo >= hi
-            while (fc.compare(cachedFiles[fileArrayIndex[lo]], pivot)<=0 && lo < hi) {
-                lo++;
-            }
-
-            // Search backward from files[hi] until element is found that
-            // is less than the pivot, or lo >= hi
-            while (fc.compare(pivot, cachedFiles[fileArrayIndex[hi]])<=0 && lo < hi ) {
-                hi--;
-            }
-
-            // Swap elements files[lo] and files[hi]
-            if( lo < hi ) {
-                temp = fileArrayIndex[lo];
-                fileArrayIndex[lo] = fileArrayIndex[hi];
-                fileArrayIndex[hi] = temp;
-            }
-        }
-
-        // Put the median in the "center" of the list
-        fileArrayIndex[hi0] = fileArrayIndex[hi];
-        fileArrayIndex[hi] = pivotIndex;
-
-        // Recursive calls, elements files[lo0] to files[lo-1] are less than or
-        // equal to pivot, elements files[hi+1] to files[hi0] are greater than
-        // pivot.
-        sort(fc, lo0, lo-1);
-        sort(fc, hi+1, hi0);
+        this.snapshot = snapshot.sort(sortInfo);
     }
 
 
@@ -681,17 +1100,18 @@ public class FileTableModel extends AbstractTableModel {
     /**
      * Returns the total number of rows, including the special parent folder file '..', if there is one.
      */
-    public synchronized int getRowCount() {
-        return fileArrayIndex.length + (parent==null?0:1);
+    public int getRowCount() {
+        return snapshot.getRowCount();
     }
 
 		
     //	public Object getValueAt(int rowIndex, int columnIndex) {
-    public synchronized Object getValueAt(int rowIndex, int columnIndex) {
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        ListingSnapshot s = snapshot;
         // Need to check that row index is not larger than actual number of rows
         // because if table has just been changed (rows have been removed),
         // JTable may have an old row count value and may try to repaint rows that are out of bounds.
-        if(rowIndex>=getRowCount()) {
+        if(rowIndex>=s.getRowCount()) {
             // Returning null will have JTable ignore this row
             return null;
         }
@@ -701,13 +1121,11 @@ public class FileTableModel extends AbstractTableModel {
         if(column==Column.EXTENSION)
             return null;
 		
-        // Decrement column index for cellValuesCache array
-        columnIndex--;
         // Handle special '..' file
-        if(rowIndex==0 && parent!=null)
-            return cellValuesCache[0][columnIndex];
-        int fileIndex = parent==null?rowIndex:rowIndex-1;
-        return cellValuesCache[fileArrayIndex[fileIndex]+(parent==null?0:1)][columnIndex];
+        if(rowIndex==0 && s.parent!=null)
+            return s.parentCellValues[column.ordinal()-1];
+        int fileIndex = s.parent==null?rowIndex:rowIndex-1;
+        return s.getCellValue(s.fileArrayIndex[fileIndex], column);
     }
 
 	
@@ -719,7 +1137,7 @@ public class FileTableModel extends AbstractTableModel {
     public boolean isCellEditable(int rowIndex, int columnIndex) {
         // Name column can temporarily be made editable by FileTable
         // but parent file '..' name should never be editable
-        if(Column.valueOf(columnIndex)==Column.NAME && (parent==null || rowIndex!=0))
+        if(Column.valueOf(columnIndex)==Column.NAME && (snapshot.parent==null || rowIndex!=0))
             return nameColumnEditable;
 	
         return false;
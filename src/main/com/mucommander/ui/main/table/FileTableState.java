@@ -0,0 +1,82 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.awt.Point;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.CachedFile;
+
+/**
+ * The state of a {@link FileTable} when it was displaying a given folder: the folder's listing, in the order it was
+ * sorted, the selected file and the scroll position. A state is obtained with {@link FileTable#getState()} before
+ * leaving a folder, and can be restored with {@link FileTable#restoreState(FileTableState)} to display the folder
+ * again without listing it.
+ *
+ * <p>A state is a snapshot: it is up to the caller to make sure that the folder has not changed since it was taken,
+ * by comparing the folder's date to {@link #getFolderDate()}.</p>
+ *
+ * @see com.mucommander.core.LocalLocationHistory
+ */
+public class FileTableState {
+
+    /** The folder's listing */
+    final ListingSnapshot snapshot;
+
+    /** The file that was selected, null if there was none */
+    final AbstractFile selectedFile;
+
+    /** The position of the table in its viewport, null if the table was not in a viewport */
+    final Point viewPosition;
+
+
+    FileTableState(ListingSnapshot snapshot, AbstractFile selectedFile, Point viewPosition) {
+        this.snapshot = snapshot;
+        this.selectedFile = selectedFile;
+        this.viewPosition = viewPosition;
+    }
+
+    /**
+     * Returns the folder that was displayed.
+     *
+     * @return the folder that was displayed
+     */
+    public AbstractFile getFolder() {
+        AbstractFile folder = snapshot.folder;
+        return (folder instanceof CachedFile)?((CachedFile)folder).getProxiedFile():folder;
+    }
+
+    /**
+     * Returns the date of the folder when it was listed.
+     *
+     * @return the date of the folder when it was listed
+     */
+    public long getFolderDate() {
+        return snapshot.folderDate;
+    }
+
+    /**
+     * Returns the number of files the folder contained, excluding the parent '..' file.
+     *
+     * @return the number of files the folder contained
+     */
+    public int getFileCount() {
+        return snapshot.files.length;
+    }
+}
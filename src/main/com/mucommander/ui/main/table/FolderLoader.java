@@ -0,0 +1,198 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import javax.swing.SwingUtilities;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * This thread loads the children of a large folder into a {@link FileTable} in several batches, after the first
+ * batch has been displayed. Each batch is wrapped and has its attributes pre-fetched by an
+ * {@link AttributePrefetcher}, and is then merged into a new snapshot of the table's model, which is handed to
+ * {@link FileTable#addLoadedFiles(FolderLoader, AbstractFile[], ListingSnapshot, ListingSnapshot)} in the event
+ * dispatch thread.
+ *
+ * <p>Batches are flushed whenever they reach the current batch size or when {@link #BATCH_PERIOD} milliseconds have
+ * elapsed since the last flush, whichever comes first: on fast filesystems the batch size doubles after every flush,
+ * on slow ones rows keep coming in at a regular pace. At most one batch is waiting in the event queue at any time.</p>
+ *
+ * <p>The loader is cancelled using {@link #cancel()} when the table's folder changes, batches that were already
+ * queued are then discarded.</p>
+ */
+class FolderLoader extends Thread {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FolderLoader.class);
+
+    /** Number of files above which a folder is loaded in several batches */
+    final static int STREAMING_THRESHOLD = 2000;
+
+    /** Number of files that are displayed right away, before the loader takes over */
+    final static int FIRST_BATCH_SIZE = 500;
+
+    /** Maximum number of milliseconds between two batches */
+    private final static int BATCH_PERIOD = 250;
+
+    /** Maximum size of a batch */
+    private final static int MAX_BATCH_SIZE = 32768;
+
+    /** The table to load the files into */
+    private FileTable table;
+
+    /** The children of the folder being loaded */
+    private AbstractFile children[];
+
+    /** Index of the first child that this loader takes care of */
+    private int startIndex;
+
+    /** Pre-fetches the attributes of each batch */
+    private AttributePrefetcher prefetcher;
+
+    /** True when this loader has been cancelled */
+    private volatile boolean cancelled;
+
+    /** Number of batches that have been queued but not yet applied to the table */
+    private int pendingBatches;
+
+    /**
+     * Creates a new loader for the given children, starting at the specified index. The loader does nothing until
+     * it is started.
+     *
+     * @param table the table to load the files into
+     * @param children the children of the table's new current folder
+     * @param startIndex index of the first child to load, children before it have already been displayed
+     * @param prefetcher the prefetcher to use for the folder's children
+     */
+    FolderLoader(FileTable table, AbstractFile children[], int startIndex, AttributePrefetcher prefetcher) {
+        super("FolderLoader");
+        this.table = table;
+        this.children = children;
+        this.startIndex = startIndex;
+        this.prefetcher = prefetcher;
+
+        setDaemon(true);
+    }
+
+    /**
+     * Cancels this loader: no further batches will be added to the table, including those that have already been
+     * queued. This method returns immediately.
+     */
+    void cancel() {
+        cancelled = true;
+        prefetcher.cancel();
+        interrupt();
+    }
+
+    /**
+     * Returns <code>true</code> if this loader has been cancelled.
+     *
+     * @return true if this loader has been cancelled
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Returns the total number of files in the folder being loaded.
+     *
+     * @return the total number of files in the folder being loaded
+     */
+    int getTotalFileCount() {
+        return children.length;
+    }
+
+    /**
+     * Posts the given batch to the event dispatch thread, after the previously posted batch has been applied. The
+     * model's snapshot with the batch added is prepared in this thread.
+     */
+    private void flush(final AbstractFile batch[]) throws InterruptedException {
+        synchronized(this) {
+            while(pendingBatches>0 && !cancelled)
+                wait();
+
+            pendingBatches++;
+        }
+
+        final ListingSnapshot base = table.getFileTableModel().getSnapshot();
+        final ListingSnapshot prepared = base.append(batch);
+
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                try {
+                    if(!cancelled)
+                        table.addLoadedFiles(FolderLoader.this, batch, base, prepared);
+                }
+                finally {
+                    synchronized(FolderLoader.this) {
+                        pendingBatches--;
+                        FolderLoader.this.notify();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public void run() {
+        long startTime = System.currentTimeMillis();
+        int nbChildren = children.length;
+        int batchSize = FIRST_BATCH_SIZE;
+        int batchStart = startIndex;
+
+        try {
+            while(batchStart<nbChildren && !cancelled) {
+                long batchStartTime = System.currentTimeMillis();
+                int batchEnd = Math.min(batchStart+batchSize, nbChildren);
+                AbstractFile batch[] = new AbstractFile[batchEnd-batchStart];
+                System.arraycopy(children, batchStart, batch, 0, batch.length);
+
+                // Wrap files until the batch is full or it is time to display what we have
+                int nbFiles = prefetcher.prefetch(batch, 0, batch.length, batchStartTime+BATCH_PERIOD);
+                // Make sure that each batch contains at least one file
+                if(nbFiles==0 && !cancelled) {
+                    batch[0] = FileTableModel.createCachedFile(batch[0]);
+                    nbFiles = 1;
+                }
+
+                if(cancelled)
+                    break;
+
+                if(nbFiles<batch.length) {
+                    AbstractFile partialBatch[] = new AbstractFile[nbFiles];
+                    System.arraycopy(batch, 0, partialBatch, 0, nbFiles);
+                    batch = partialBatch;
+                }
+                flush(batch);
+
+                // Grow the batch size if the batch was filled within the period
+                batchStart += nbFiles;
+                if(batchStart==batchEnd)
+                    batchSize = Math.min(batchSize*2, MAX_BATCH_SIZE);
+            }
+        }
+        catch(InterruptedException e) {
+            // Cancelled
+        }
+
+        LOGGER.debug((cancelled?"cancelled":"loaded")+" "+(batchStart-startIndex)+" files in "+(System.currentTimeMillis()-startTime)+"ms");
+        prefetcher.logTotal();
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.swing.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Calculates the recursive size of the folders displayed by a {@link FileTable}, in the background, and hands the
+ * sizes to {@link FileTable#applyFolderSizes(FolderSizeCalculator, AbstractFile[], long[])} as they are known.
+ *
+ * <p>Folders are traversed by a pool of threads shared by all tables. Each subfolder is listed by a task of its own,
+ * so that several threads can work on the same large folder. Tasks are ordered by the row of the displayed folder
+ * they belong to, and deeper subfolders come first: the folders at the top of the table are calculated first, one
+ * after the other, rather than all of them at once. Symlinks are not followed, like {@link com.mucommander.job.PropertiesJob}.</p>
+ *
+ * <p>The size of every folder that has been fully traversed, including subfolders, is cached under its path and
+ * date: going back to a folder, or to its parent, does not traverse the folders that have not changed since. Note
+ * that a folder's date only reflects changes of its direct children.</p>
+ *
+ * <p>Sizes are gathered for {@link #BATCH_PERIOD} milliseconds before they are applied to the table. A calculator
+ * is cancelled using {@link #cancel()} when the table's folder changes: the tasks that are waiting return right away,
+ * and the sizes that have not been applied yet are discarded.</p>
+ */
+class FolderSizeCalculator {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FolderSizeCalculator.class);
+
+    /** Number of threads that traverse folders, shared by all tables */
+    private final static int NB_THREADS = Math.min(4, Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    /** Maximum number of folder sizes held by the cache */
+    private final static int CACHE_CAPACITY = 16384;
+
+    /** Number of milliseconds during which calculated sizes are gathered before being applied to the table */
+    private final static int BATCH_PERIOD = 250;
+
+    /** Sizes of the folders traversed so far, keyed by path and date, in access order */
+    private final static Map<String, Long> SIZE_CACHE = new LinkedHashMap<String, Long>(CACHE_CAPACITY*4/3+1, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size()>CACHE_CAPACITY;
+        }
+    };
+
+    /** Traverses folders, tasks are taken in the order defined by {@link TraversalTask#compareTo(TraversalTask)} */
+    private final static ExecutorService EXECUTOR = new ThreadPoolExecutor(NB_THREADS, NB_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+        private int count;
+
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FolderSizeCalculator-"+(++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** Rank of the last displayed folder submitted by any calculator */
+    private final static AtomicLong lastRank = new AtomicLong();
+
+    /** Sequence number of the last task submitted by any calculator */
+    private final static AtomicLong lastSequence = new AtomicLong();
+
+    /** The table to hand sizes to */
+    private FileTable table;
+
+    /** True when this calculator has been cancelled */
+    private volatile boolean cancelled;
+
+    /** Folders whose size has been requested, along with their size once it is known, by file instance */
+    private Map<AbstractFile, Long> sizes = new IdentityHashMap<AbstractFile, Long>();
+
+    /** Folders whose size is known but has not been applied to the table yet */
+    private List<AbstractFile> pendingFolders = new ArrayList<AbstractFile>();
+
+    /** Sizes of the pending folders */
+    private List<Long> pendingSizes = new ArrayList<Long>();
+
+    /** Applies the pending sizes to the table */
+    private Timer flushTimer;
+
+
+    /**
+     * Creates a new calculator for the given table. The calculator does nothing until
+     * {@link #calculate(ListingSnapshot)} is called.
+     *
+     * @param table the table to hand sizes to
+     */
+    FolderSizeCalculator(FileTable table) {
+        this.table = table;
+
+        flushTimer = new Timer(BATCH_PERIOD, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                flush();
+            }
+        });
+        flushTimer.setRepeats(false);
+    }
+
+    /**
+     * Starts calculating the size of the folders of the given snapshot whose size is not known yet, in the order
+     * of the snapshot's rows. Folders that have already been requested are not calculated again: the size of those
+     * that have been calculated is handed to the table again, in case it was lost by a refresh. This method must be
+     * called from the event dispatch thread, each time files are added to the table.
+     *
+     * @param snapshot the current snapshot of the table's model
+     */
+    void calculate(ListingSnapshot snapshot) {
+        ListingStore store = snapshot.store;
+
+        for(int fileIndex : snapshot.sortedFileArrayIndex) {
+            if((store.getFlags(fileIndex)&(ListingStore.DIRECTORY|ListingStore.SYMLINK))!=ListingStore.DIRECTORY
+                    || store.getSize(fileIndex)>=0)
+                continue;
+
+            AbstractFile file = snapshot.files[fileIndex];
+            String key = getKey(file.getAbsolutePath(), store.getDate(fileIndex));
+
+            synchronized(this) {
+                if(sizes.containsKey(file)) {
+                    Long size = sizes.get(file);
+                    if(size!=null)
+                        addPendingSize(file, size);
+                    continue;
+                }
+
+                Long cachedSize = getCachedSize(key);
+                if(cachedSize!=null) {
+                    sizes.put(file, cachedSize);
+                    addPendingSize(file, cachedSize);
+                    continue;
+                }
+
+                sizes.put(file, null);
+            }
+
+            EXECUTOR.execute(new TraversalTask(new Node(null, file, key), file, lastRank.incrementAndGet(), 0));
+        }
+    }
+
+    /**
+     * Cancels this calculator: the remaining folders are not traversed and no further sizes are handed to the table.
+     * This method returns immediately.
+     */
+    void cancel() {
+        cancelled = true;
+        flushTimer.stop();
+    }
+
+    /**
+     * Queues the size of a displayed folder, to be applied with the next batch. This method must be called while
+     * holding the lock of this calculator.
+     */
+    private void addPendingSize(AbstractFile file, long size) {
+        pendingFolders.add(file);
+        pendingSizes.add(size);
+
+        // Swing timers can be started from any thread
+        if(!flushTimer.isRunning())
+            flushTimer.start();
+    }
+
+    /**
+     * Hands the pending sizes to the table. This method is called from the event dispatch thread.
+     */
+    private void flush() {
+        AbstractFile folders[];
+        long folderSizes[];
+        synchronized(this) {
+            int nbFolders = pendingFolders.size();
+            folders = pendingFolders.toArray(new AbstractFile[nbFolders]);
+            folderSizes = new long[nbFolders];
+            for(int i=0; i<nbFolders; i++)
+                folderSizes[i] = pendingSizes.get(i);
+
+            pendingFolders.clear();
+            pendingSizes.clear();
+        }
+
+        if(!cancelled && folders.length>0)
+            table.applyFolderSizes(this, folders, folderSizes);
+    }
+
+    /**
+     * Called when one of the tasks of the given node has completed. Once all of them have, the node's size is cached
+     * and added to its parent, or handed to the table if the node is a displayed folder.
+     */
+    private void complete(Node node) {
+        while(node!=null && node.pendingTasks.decrementAndGet()==0) {
+            long size = node.size.get();
+            // The size of folders that could not be fully listed is displayed, but not cached
+            if(!node.incomplete)
+                putCachedSize(node.key, size);
+
+            Node parent = node.parent;
+            if(parent==null) {
+                synchronized(this) {
+                    sizes.put(node.file, size);
+                    if(!cancelled)
+                        addPendingSize(node.file, size);
+                }
+            }
+            else {
+                if(node.incomplete)
+                    parent.incomplete = true;
+                parent.size.addAndGet(size);
+            }
+
+            node = parent;
+        }
+    }
+
+    private static String getKey(String path, long date) {
+        return path+'|'+date;
+    }
+
+    private static Long getCachedSize(String key) {
+        synchronized(SIZE_CACHE) {
+            return SIZE_CACHE.get(key);
+        }
+    }
+
+    private static void putCachedSize(String key, long size) {
+        synchronized(SIZE_CACHE) {
+            SIZE_CACHE.put(key, size);
+        }
+    }
+
+
+    /**
+     * A folder being traversed. Its size is complete once the task that lists it and those of its subfolders have
+     * all completed.
+     */
+    private static class Node {
+        /** The node of the parent folder, null for a displayed folder */
+        private final Node parent;
+        /** The table's instance of a displayed folder, null for a subfolder */
+        private final AbstractFile file;
+        /** The key the folder's size is cached under */
+        private final String key;
+        /** Combined size of the files found so far */
+        private final AtomicLong size = new AtomicLong();
+        /** Number of tasks of this node and its subfolders that have not completed yet */
+        private final AtomicInteger pendingTasks = new AtomicInteger(1);
+        /** True if the folder or one of its subfolders could not be listed */
+        private volatile boolean incomplete;
+
+        private Node(Node parent, AbstractFile file, String key) {
+            this.parent = parent;
+            this.file = file;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Lists a folder, adds the size of its files to its node and submits a task for each of its subfolders whose
+     * size is not cached.
+     */
+    private class TraversalTask implements Runnable, Comparable<TraversalTask> {
+        private final Node node;
+        private final AbstractFile folder;
+        /** Rank of the displayed folder this task belongs to */
+        private final long rank;
+        /** Depth of the folder below the displayed folder */
+        private final int depth;
+        private final long sequence = lastSequence.incrementAndGet();
+
+        private TraversalTask(Node node, AbstractFile folder, long rank, int depth) {
+            this.node = node;
+            this.folder = folder;
+            this.rank = rank;
+            this.depth = depth;
+        }
+
+        public void run() {
+            if(cancelled)
+                return;
+
+            long total = 0;
+            try {
+                AbstractFile children[] = folder.ls();
+                for(AbstractFile child : children) {
+                    if(cancelled)
+                        return;
+
+                    if(child.isDirectory() && !child.isSymlink()) {
+                        String key = getKey(child.getAbsolutePath(), child.getDate());
+                        Long cachedSize = getCachedSize(key);
+                        if(cachedSize!=null) {
+                            total += cachedSize;
+                        }
+                        else {
+                            node.pendingTasks.incrementAndGet();
+                            EXECUTOR.execute(new TraversalTask(new Node(node, null, key), child, rank, depth+1));
+                        }
+                    }
+                    else {
+                        long fileSize = child.getSize();
+                        // Can be equal to -1 if size not available
+                        if(fileSize>0)
+                            total += fileSize;
+                    }
+                }
+            }
+            catch(Exception e) {
+                // Catch runtime exceptions as well: the node must complete in any case
+                LOGGER.debug("Could not list "+folder, e);
+                node.incomplete = true;
+            }
+
+            node.size.addAndGet(total);
+            complete(node);
+        }
+
+        public int compareTo(TraversalTask task) {
+            if(rank!=task.rank)
+                return rank<task.rank?-1:1;
+            if(depth!=task.depth)
+                return depth>task.depth?-1:1;
+            return sequence<task.sequence?-1:(sequence==task.sequence?0:1);
+        }
+    }
+}
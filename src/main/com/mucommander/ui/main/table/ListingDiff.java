@@ -0,0 +1,138 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.CachedFile;
+
+/**
+ * The differences between a {@link ListingSnapshot} and a new listing of the same folder, used to refresh a folder
+ * without rebuilding the whole table. Files are matched by name: a file whose type, size and date have not changed
+ * is considered unchanged and keeps its file instance, attributes, sort keys and cell values. Other files are
+ * wrapped and pre-fetched like the children of a new folder.
+ *
+ * <p>The differences are computed outside of the event dispatch thread, along with the snapshot that reflects the new
+ * listing. {@link FileTableModel#applyDiff(ListingDiff)} then publishes the snapshot, carries the marked files over
+ * and notifies the table of the rows that have been removed and inserted.</p>
+ */
+class ListingDiff {
+	private static final Logger LOGGER = LoggerFactory.getLogger(ListingDiff.class);
+
+    /** The snapshot the new listing was compared to */
+    final ListingSnapshot base;
+
+    /** The snapshot of the new listing, sorted like the base snapshot */
+    final ListingSnapshot snapshot;
+
+    /** For each file of the new snapshot, the index of the same file in the base snapshot if it has not changed, -1 otherwise */
+    final int baseIndexes[];
+
+    /** For each file of the base snapshot, the index of the file with the same name in the new snapshot, -1 if it
+     * has been removed. Unlike {@link #baseIndexes}, this includes files that have changed. */
+    final int newIndexes[];
+
+    /** Number of files of the new snapshot that have not changed */
+    final int nbUnchangedFiles;
+
+
+    private ListingDiff(ListingSnapshot base, ListingSnapshot snapshot, int baseIndexes[], int newIndexes[], int nbUnchangedFiles) {
+        this.base = base;
+        this.snapshot = snapshot;
+        this.baseIndexes = baseIndexes;
+        this.newIndexes = newIndexes;
+        this.nbUnchangedFiles = nbUnchangedFiles;
+    }
+
+    /**
+     * Compares the given children of a folder to the files of the given snapshot, which must be a snapshot of the
+     * same folder, and creates the snapshot of the new listing. The attributes of files that have changed or have
+     * been added are pre-fetched using the given prefetcher: this method is I/O-bound and should not be called from
+     * the event dispatch thread.
+     *
+     * @param base the snapshot to compare the children to
+     * @param folder the folder, as returned by the location manager
+     * @param children the folder's current children
+     * @param prefetcher the prefetcher to use for the files that have changed
+     * @return the differences between the snapshot and the given children
+     */
+    static ListingDiff compute(ListingSnapshot base, AbstractFile folder, AbstractFile children[], AttributePrefetcher prefetcher) {
+        long startTime = System.currentTimeMillis();
+
+        ListingStore baseStore = base.store;
+        int nbBaseFiles = baseStore.getCount();
+        Map<String, Integer> baseFileIndexes = new HashMap<String, Integer>(nbBaseFiles*4/3+1);
+        for(int i=0; i<nbBaseFiles; i++)
+            baseFileIndexes.put(baseStore.getName(i), i);
+
+        int nbFiles = children.length;
+        AbstractFile files[] = new AbstractFile[nbFiles];
+        int baseIndexes[] = new int[nbFiles];
+        int newIndexes[] = new int[nbBaseFiles];
+        for(int i=0; i<nbBaseFiles; i++)
+            newIndexes[i] = -1;
+
+        // The changed files are gathered in a separate array, so that they can be pre-fetched all at once
+        AbstractFile changedFiles[] = new AbstractFile[nbFiles];
+        int changedFileIndexes[] = new int[nbFiles];
+        int nbChangedFiles = 0;
+
+        for(int j=0; j<nbFiles; j++) {
+            // Only the attributes needed for the comparison are fetched for now
+            AbstractFile file = children[j];
+            if(!(file instanceof CachedFile))
+                file = new CachedFile(file, true);
+
+            Integer baseIndex = baseFileIndexes.get(file.getName());
+            int i = baseIndex==null?-1:baseIndex;
+            if(i!=-1 && newIndexes[i]==-1) {
+                newIndexes[i] = j;
+
+                boolean isDirectory = file.isDirectory();
+                if(isDirectory==baseStore.isDirectory(i)
+                        && (isDirectory || file.getSize()==baseStore.getSize(i))
+                        && file.getDate()==baseStore.getDate(i)) {
+                    files[j] = base.files[i];
+                    baseIndexes[j] = i;
+                    continue;
+                }
+            }
+
+            baseIndexes[j] = -1;
+            changedFiles[nbChangedFiles] = file;
+            changedFileIndexes[nbChangedFiles++] = j;
+        }
+
+        prefetcher.prefetch(changedFiles, 0, nbChangedFiles, 0);
+        for(int k=0; k<nbChangedFiles; k++)
+            files[changedFileIndexes[k]] = changedFiles[k];
+
+        ListingSnapshot snapshot = base.update(folder, files, baseIndexes);
+
+        LOGGER.debug("Compared "+nbFiles+" files of "+folder+" to "+nbBaseFiles+" files in "
+                +(System.currentTimeMillis()-startTime)+"ms, "+nbChangedFiles+" changed or added");
+
+        return new ListingDiff(base, snapshot, baseIndexes, newIndexes, nbFiles-nbChangedFiles);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+
+/**
+ * Computes the fingerprint of a folder listing: a hash of the name, type, size and date of its files, which are the
+ * attributes {@link ListingDiff} compares to tell changed files apart. Two listings that would not yield any difference
+ * have the same fingerprint, whatever the order of their files; listings that differ have different fingerprints,
+ * barring hash collisions.
+ *
+ * <p>Fingerprints allow to detect changes in folders whose date does not change when the files they contain are
+ * modified, as is the case with some FTP, SMB and NFS servers, by comparing the fingerprint of a new listing to the
+ * one of the listing displayed by the table, without refreshing the table.</p>
+ */
+public class ListingFingerprint {
+
+    /** Returned when the fingerprint of a listing is not available */
+    public final static long UNKNOWN = -1;
+
+    /**
+     * Cannot be instantiated.
+     */
+    private ListingFingerprint() {
+    }
+
+    /**
+     * Returns the fingerprint of the given files, which attributes must be available without I/O for the computation
+     * to be cheap, as is the case with the files returned by the listing of most protocols.
+     *
+     * @param files the children of a folder
+     * @return the fingerprint of the files, never {@link #UNKNOWN}
+     */
+    public static long compute(AbstractFile files[]) {
+        long fingerprint = 0;
+        for(AbstractFile file : files) {
+            boolean isDirectory = file.isDirectory();
+            fingerprint += hash(file.getName(), isDirectory, isDirectory?0:file.getSize(), file.getDate());
+        }
+
+        return fingerprint==UNKNOWN?0:fingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of the files of the given store.
+     *
+     * @param store the files of a listing
+     * @return the fingerprint of the files, never {@link #UNKNOWN}
+     */
+    static long compute(ListingStore store) {
+        long fingerprint = 0;
+        int nbFiles = store.getCount();
+        for(int i=0; i<nbFiles; i++) {
+            boolean isDirectory = store.isDirectory(i);
+            // Folder sizes that have been calculated are not part of the listing
+            fingerprint += hash(store.getName(i), isDirectory, isDirectory?0:store.getSize(i), store.getDate(i));
+        }
+
+        return fingerprint==UNKNOWN?0:fingerprint;
+    }
+
+    /**
+     * Hashes the attributes of a file. Hashes are summed up, so that the fingerprint does not depend on the order of
+     * files: they are mixed so that changes in different files do not cancel each other out.
+     */
+    private static long hash(String name, boolean isDirectory, long size, long date) {
+        long h = name.hashCode();
+        h = h*31 + (isDirectory?1:0);
+        h = h*0x9E3779B97F4A7C15L + size;
+        h = h*0x9E3779B97F4A7C15L + date;
+
+        // Final mix (from MurmurHash3's 64-bit finalizer)
+        h ^= h>>>33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h>>>33;
+        h *= 0xC4CEB93FE1A85EC3L;
+        h ^= h>>>33;
+        return h;
+    }
+}
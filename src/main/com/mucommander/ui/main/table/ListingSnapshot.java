@@ -0,0 +1,638 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.CachedFile;
+import com.mucommander.text.CustomDateFormat;
+import com.mucommander.text.SizeFormat;
+
+/**
+ * The contents of a {@link FileTableModel} at a given time: the current folder, its children and their attributes,
+ * the order in which they are displayed and the cache of formatted cell values.
+ *
+ * <p>A snapshot is built entirely before it is handed to the model, possibly outside of the event dispatch thread,
+ * and is not modified afterwards: sorting the rows, adding files or discarding the cell values creates a new snapshot
+ * which shares whatever has not changed with the previous one. The model publishes snapshots with a single volatile
+ * write, which allows the table to read them without locking.</p>
+ *
+ * <p>A snapshot may be filtered, in which case its rows are only those of the files whose name matches a
+ * {@link NameFilter}: files that do not match are kept in the snapshot, sorted along with the others, so that
+ * changing or removing the filter does not require to sort the files again.</p>
+ *
+ * <p>There are two exceptions to immutability, neither of which involves the rows' number or order:
+ * <ul>
+ *  <li>cell values are formatted the first time they are requested. Concurrent requests may format the same value
+ * twice, which is harmless since strings are immutable.</li>
+ *  <li>the marked state of files, which is shared by snapshots that only differ by their order. It is only modified by
+ * the model, while holding its lock.</li>
+ * </ul>
+ * </p>
+ */
+class ListingSnapshot {
+
+    /** Number of rows whose sizes and dates are formatted when a snapshot is created for a new folder */
+    private final static int NB_PREFORMATTED_ROWS = 256;
+
+    /** The current folder, as a CachedFile */
+    final AbstractFile folder;
+
+    /** Date of the current folder when the snapshot was created */
+    final long folderDate;
+
+    /** The current folder's parent, as a CachedFile, null if there is none */
+    final AbstractFile parent;
+
+    /** The current folder's children, as returned by the folder's listing: their attributes are held by the store */
+    final AbstractFile files[];
+
+    /** Attributes of the files, indexed like the files array */
+    final ListingStore store;
+
+    /** Keys used to sort the files */
+    final SortKeys sortKeys;
+
+    /** Index array: file index of each row, not counting the parent folder '..' row */
+    final int fileArrayIndex[];
+
+    /** Index array of all files, including those that do not match the filter. Same as {@link #fileArrayIndex} if
+     * there is no filter. */
+    final int sortedFileArrayIndex[];
+
+    /** Filter that the files displayed in rows match, null if all files are displayed */
+    final NameFilter filter;
+
+    /** For each file, whether it matches the filter. Indexed by file index, null if there is no filter. */
+    final boolean filterMatches[];
+
+    /** How the index array is sorted */
+    final SortInfo sortInfo;
+
+    /** Cell values cache: one array per column, indexed by file index. A column's array is allocated the first time
+     * one of its cells is requested, and a cell's value is computed the first time it is requested. Only the columns
+     * whose values are formatted are cached, others are read from the store. */
+    private final String cellValuesCache[][];
+
+    /** Cell values of the parent folder '..' row, null if there is no parent */
+    final String parentCellValues[];
+
+    /** Marked files, indexed by file index. Modified by FileTableModel only. */
+    final MarkSet marks;
+
+
+    private ListingSnapshot(AbstractFile folder, long folderDate, AbstractFile parent, AbstractFile files[],
+                            ListingStore store, SortKeys sortKeys, int fileArrayIndex[], int sortedFileArrayIndex[],
+                            SortInfo sortInfo, NameFilter filter, boolean filterMatches[],
+                            String cellValuesCache[][], String parentCellValues[], MarkSet marks) {
+        this.folder = folder;
+        this.folderDate = folderDate;
+        this.parent = parent;
+        this.files = files;
+        this.store = store;
+        this.sortKeys = sortKeys;
+        this.fileArrayIndex = fileArrayIndex;
+        this.sortedFileArrayIndex = sortedFileArrayIndex;
+        this.sortInfo = sortInfo;
+        this.filter = filter;
+        this.filterMatches = filterMatches;
+        this.cellValuesCache = cellValuesCache;
+        this.parentCellValues = parentCellValues;
+        this.marks = marks;
+    }
+
+    /**
+     * Creates a snapshot of an empty folder, to be used until a folder is set.
+     *
+     * @return a snapshot without any folder nor files
+     */
+    static ListingSnapshot createEmpty() {
+        AbstractFile files[] = new AbstractFile[0];
+        ListingStore store = new ListingStore(files, 0);
+
+        int fileArrayIndex[] = new int[0];
+        return new ListingSnapshot(null, 0, null, files, store, new SortKeys(store), fileArrayIndex, fileArrayIndex,
+                new SortInfo(), null, null, new String[Column.values().length-1][], null, new MarkSet(0));
+    }
+
+    /**
+     * Creates a snapshot of the given folder and children, sorted as specified. Children that haven't been wrapped yet
+     * are wrapped using {@link FileTableModel#createCachedFile(AbstractFile)}, which is I/O-bound: this method should
+     * not be called from the event dispatch thread. Once their attributes have been read into the store, the snapshot
+     * keeps the files that the CachedFile instances wrap.
+     *
+     * @param folder the current folder
+     * @param children the current folder's children, the array is modified to contain CachedFile instances
+     * @param sortInfo how to sort the children
+     * @param attributes the optional attributes to store, see {@link ListingStore}
+     * @return a new snapshot of the given folder
+     */
+    static ListingSnapshot create(AbstractFile folder, AbstractFile children[], SortInfo sortInfo, int attributes) {
+        int nbFiles = children.length;
+
+        AbstractFile cachedFolder = (folder instanceof CachedFile)?folder:new CachedFile(folder, true);
+
+        AbstractFile parent = cachedFolder.getParent();    // Note: the returned parent is a CachedFile instance
+        if(parent!=null) {
+            // Pre-fetch the attributes that are used by the table renderer and some actions.
+            FileTableModel.prefetchCachedFileAttributes(parent);
+        }
+
+        // Create CachedFile instances to speed up table display and navigation, unless this was already done
+        int fileArrayIndex[] = new int[nbFiles];
+        for(int i=0; i<nbFiles; i++) {
+            if(!(children[i] instanceof CachedFile))
+                children[i] = FileTableModel.createCachedFile(children[i]);
+            fileArrayIndex[i] = i;
+        }
+
+        // Read the files' attributes once and for all, sort keys are extracted as they are needed
+        ListingStore store = new ListingStore(children, attributes);
+        SortKeys sortKeys = new SortKeys(store);
+        sortInfo = sortInfo.clone();
+        SortKeys.sort(fileArrayIndex, 0, nbFiles, sortKeys.getComparator(sortInfo));
+
+        long folderDate = cachedFolder.getDate();
+        ListingSnapshot snapshot = new ListingSnapshot(cachedFolder, folderDate, parent, unwrap(children), store, sortKeys,
+                fileArrayIndex, fileArrayIndex, sortInfo, null, null, new String[Column.values().length-1][],
+                createParentCellValues(parent, folderDate), new MarkSet(nbFiles));
+
+        // Format the cells that are most likely to be displayed first
+        int nbRows = Math.min(nbFiles, NB_PREFORMATTED_ROWS);
+        for(int i=0; i<nbRows; i++) {
+            snapshot.getCellValue(fileArrayIndex[i], Column.SIZE);
+            snapshot.getCellValue(fileArrayIndex[i], Column.DATE);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the files that the given CachedFile instances wrap, in a new array: the store takes over from the
+     * CachedFile instances once it has read their attributes.
+     */
+    private static AbstractFile[] unwrap(AbstractFile cachedFiles[]) {
+        int nbFiles = cachedFiles.length;
+        AbstractFile files[] = new AbstractFile[nbFiles];
+        for(int i=0; i<nbFiles; i++) {
+            AbstractFile file = cachedFiles[i];
+            files[i] = (file instanceof CachedFile)?((CachedFile)file).getProxiedFile():file;
+        }
+
+        return files;
+    }
+
+    private static String[] createParentCellValues(AbstractFile parent, long folderDate) {
+        if(parent==null)
+            return null;
+
+        String parentCellValues[] = new String[Column.values().length-1];
+        parentCellValues[Column.NAME.ordinal()-1] = "..";
+        parentCellValues[Column.SIZE.ordinal()-1] = FileTableModel.DIRECTORY_SIZE_STRING;
+        parentCellValues[Column.DATE.ordinal()-1] =	CustomDateFormat.format(folderDate);
+        // Don't display parent's permissions as they can have a different format from the folder contents
+        // (e.g. for archives) and this looks weird
+        parentCellValues[Column.PERMISSIONS.ordinal()-1] = "";
+        parentCellValues[Column.OWNER.ordinal()-1] = "";
+        parentCellValues[Column.GROUP.ordinal()-1] = "";
+
+        return parentCellValues;
+    }
+
+    /**
+     * Returns a snapshot of the same files, sorted as specified. If only the ascending/descending order differs from
+     * this snapshot's, rows are simply reversed. The marked state of files and the filter are shared with this snapshot.
+     *
+     * @param sortInfo how to sort the files
+     * @return a snapshot of the same files sorted as specified, this snapshot if it is already sorted that way
+     */
+    ListingSnapshot sort(SortInfo sortInfo) {
+        if(sortInfo.getCriterion()==this.sortInfo.getCriterion() && sortInfo.getFoldersFirst()==this.sortInfo.getFoldersFirst()
+                && sortInfo.getAscendingOrder()==this.sortInfo.getAscendingOrder())
+            return this;
+
+        sortInfo = sortInfo.clone();
+        int newFileArrayIndex[] = new int[sortedFileArrayIndex.length];
+        System.arraycopy(sortedFileArrayIndex, 0, newFileArrayIndex, 0, sortedFileArrayIndex.length);
+
+        if(sortInfo.getCriterion()==this.sortInfo.getCriterion() && sortInfo.getFoldersFirst()==this.sortInfo.getFoldersFirst())
+            sortKeys.reverse(newFileArrayIndex, sortInfo);
+        else
+            SortKeys.sort(newFileArrayIndex, 0, newFileArrayIndex.length, sortKeys.getComparator(sortInfo));
+
+        return new ListingSnapshot(folder, folderDate, parent, files, store, sortKeys,
+                filterRows(newFileArrayIndex, filterMatches), newFileArrayIndex, sortInfo, filter, filterMatches,
+                cellValuesCache, parentCellValues, marks);
+    }
+
+    /**
+     * Returns a snapshot containing the files of this one followed by the given ones. The new files are sorted and
+     * merged into this snapshot's order, so that rows that were already displayed remain sorted. The new files are
+     * displayed only if they match this snapshot's filter. This method reads this snapshot only and can be called
+     * from any thread.
+     *
+     * <p>The returned snapshot has its own array of marked files, which only reflects the marked files of this
+     * snapshot at the time of the call: the model updates it when the snapshot is published.</p>
+     *
+     * @param newFiles the files to add, as CachedFile instances with their attributes pre-fetched
+     * @return a snapshot containing the files of this one followed by the given ones
+     */
+    ListingSnapshot append(AbstractFile newFiles[]) {
+        int nbNewFiles = newFiles.length;
+        int nbOldFiles = files.length;
+        int nbFiles = nbOldFiles + nbNewFiles;
+
+        // Append the new files, their mark state and cell values at the end of the existing arrays
+        AbstractFile allFiles[] = new AbstractFile[nbFiles];
+        System.arraycopy(files, 0, allFiles, 0, nbOldFiles);
+        System.arraycopy(unwrap(newFiles), 0, allFiles, nbOldFiles, nbNewFiles);
+
+        MarkSet newMarks = new MarkSet(nbFiles);
+        newMarks.copy(marks);
+
+        // Keep the cell values that have already been computed
+        String newCellValuesCache[][] = new String[cellValuesCache.length][];
+        for(int i=0; i<cellValuesCache.length; i++) {
+            String values[] = cellValuesCache[i];
+            if(values!=null) {
+                newCellValuesCache[i] = new String[nbFiles];
+                System.arraycopy(values, 0, newCellValuesCache[i], 0, nbOldFiles);
+            }
+        }
+
+        ListingStore newStore = new ListingStore(store, newFiles);
+        SortKeys newSortKeys = new SortKeys(sortKeys, newStore);
+
+        boolean newFilterMatches[] = null;
+        if(filter!=null) {
+            newFilterMatches = new boolean[nbFiles];
+            System.arraycopy(filterMatches, 0, newFilterMatches, 0, nbOldFiles);
+            for(int i=nbOldFiles; i<nbFiles; i++)
+                newFilterMatches[i] = filter.accept(newStore.getName(i));
+        }
+
+        // Sort the new files on their own, in the tail of the index array, and merge both sorted runs
+        int newFileArrayIndex[] = new int[nbFiles];
+        System.arraycopy(sortedFileArrayIndex, 0, newFileArrayIndex, 0, nbOldFiles);
+        for(int i=nbOldFiles; i<nbFiles; i++)
+            newFileArrayIndex[i] = i;
+
+        SortKeys.IndexComparator comparator = newSortKeys.getComparator(sortInfo);
+        SortKeys.sort(newFileArrayIndex, nbOldFiles, nbFiles, comparator);
+        newFileArrayIndex = merge(comparator, newFileArrayIndex, nbOldFiles);
+
+        return new ListingSnapshot(folder, folderDate, parent, allFiles, newStore, newSortKeys,
+                filterRows(newFileArrayIndex, newFilterMatches), newFileArrayIndex, sortInfo, filter, newFilterMatches,
+                newCellValuesCache, parentCellValues, newMarks);
+    }
+
+    /**
+     * Returns a snapshot of the given folder, which must be the same as this snapshot's, and of its current children.
+     * Children that have not changed since this snapshot was created are identified by <code>baseIndexes</code>:
+     * their attributes, sort keys and cell values are read from this snapshot rather than from the files, and their
+     * rows keep their relative order. The other files are sorted and merged into this order. This snapshot's filter
+     * is applied to the new files. This method reads this snapshot only and can be called from any thread.
+     *
+     * <p>The returned snapshot has its own array of marked files, in which no file is marked: the model marks them
+     * again when the snapshot is published.</p>
+     *
+     * @param folder the current folder
+     * @param newFiles the current folder's children. Unchanged files must be this snapshot's instances, others must
+     * be CachedFile instances with their attributes pre-fetched.
+     * @param baseIndexes for each file, the index of the same file in this snapshot if it has not changed,
+     * <code>-1</code> otherwise
+     * @return a snapshot of the given folder's current children
+     */
+    ListingSnapshot update(AbstractFile folder, AbstractFile newFiles[], int baseIndexes[]) {
+        int nbFiles = newFiles.length;
+
+        AbstractFile cachedFolder = (folder instanceof CachedFile)?folder:new CachedFile(folder, true);
+        AbstractFile newParent = cachedFolder.getParent();
+        if(newParent!=null)
+            FileTableModel.prefetchCachedFileAttributes(newParent);
+
+        ListingStore newStore = new ListingStore(store, baseIndexes, newFiles);
+        SortKeys newSortKeys = new SortKeys(sortKeys, baseIndexes, newStore);
+
+        // Keep the cell values of the files that have not changed
+        String newCellValuesCache[][] = new String[cellValuesCache.length][];
+        for(int i=0; i<cellValuesCache.length; i++) {
+            String values[] = cellValuesCache[i];
+            if(values!=null) {
+                String newValues[] = newCellValuesCache[i] = new String[nbFiles];
+                for(int j=0; j<nbFiles; j++) {
+                    if(baseIndexes[j]>=0)
+                        newValues[j] = values[baseIndexes[j]];
+                }
+            }
+        }
+
+        // Unchanged files come first in the index array, in the order of this snapshot: their sort keys have not
+        // changed, so they are still sorted. Changed files are sorted on their own, in the tail of the index array,
+        // and both sorted runs are merged.
+        int newIndexes[] = new int[files.length];
+        for(int i=0; i<newIndexes.length; i++)
+            newIndexes[i] = -1;
+        int nbUnchangedFiles = 0;
+        for(int j=0; j<nbFiles; j++) {
+            if(baseIndexes[j]>=0) {
+                newIndexes[baseIndexes[j]] = j;
+                nbUnchangedFiles++;
+            }
+        }
+
+        int newFileArrayIndex[] = new int[nbFiles];
+        int row = 0;
+        for(int fileIndex : sortedFileArrayIndex) {
+            if(newIndexes[fileIndex]>=0)
+                newFileArrayIndex[row++] = newIndexes[fileIndex];
+        }
+        for(int j=0; j<nbFiles; j++) {
+            if(baseIndexes[j]<0)
+                newFileArrayIndex[row++] = j;
+        }
+
+        SortKeys.IndexComparator comparator = newSortKeys.getComparator(sortInfo);
+        SortKeys.sort(newFileArrayIndex, nbUnchangedFiles, nbFiles, comparator);
+        newFileArrayIndex = merge(comparator, newFileArrayIndex, nbUnchangedFiles);
+
+        // Files keep their name, hence whether they match the filter
+        boolean newFilterMatches[] = null;
+        if(filter!=null) {
+            newFilterMatches = new boolean[nbFiles];
+            for(int j=0; j<nbFiles; j++)
+                newFilterMatches[j] = baseIndexes[j]>=0?filterMatches[baseIndexes[j]]:filter.accept(newStore.getName(j));
+        }
+
+        long newFolderDate = cachedFolder.getDate();
+        return new ListingSnapshot(cachedFolder, newFolderDate, newParent, unwrap(newFiles), newStore, newSortKeys,
+                filterRows(newFileArrayIndex, newFilterMatches), newFileArrayIndex, sortInfo, filter, newFilterMatches,
+                newCellValuesCache, createParentCellValues(newParent, newFolderDate), new MarkSet(nbFiles));
+    }
+
+    /**
+     * Returns a snapshot of the same files in which no file is marked. This snapshot's marked files are left unchanged.
+     *
+     * @return a snapshot of the same files, none of which is marked
+     */
+    ListingSnapshot clearMarks() {
+        return new ListingSnapshot(folder, folderDate, parent, files, store, sortKeys, fileArrayIndex,
+                sortedFileArrayIndex, sortInfo, filter, filterMatches, cellValuesCache, parentCellValues,
+                new MarkSet(files.length));
+    }
+
+    /**
+     * Returns a snapshot of the same files, whose rows are those of the files matching the given filter. Only the
+     * files that matched this snapshot's filter are tested if the new filter {@link NameFilter#narrows(NameFilter) narrows}
+     * it. The marked state of files is shared with this snapshot.
+     *
+     * <p>This method can be called from any thread. It checks regularly whether the current thread has been
+     * interrupted, which means that the filter has been superseded by another one, and returns <code>null</code>
+     * if it has.</p>
+     *
+     * @param filter the filter to apply, <code>null</code> to display all files
+     * @return a snapshot of the same files filtered as specified, <code>null</code> if the current thread has been
+     * interrupted
+     */
+    ListingSnapshot filter(NameFilter filter) {
+        boolean newFilterMatches[] = null;
+        if(filter!=null) {
+            int nbFiles = files.length;
+            boolean narrows = filter.narrows(this.filter);
+            newFilterMatches = new boolean[nbFiles];
+            for(int i=0; i<nbFiles; i++) {
+                if((i&1023)==0 && Thread.currentThread().isInterrupted())
+                    return null;
+
+                if(!narrows || filterMatches[i])
+                    newFilterMatches[i] = filter.accept(store.getName(i));
+            }
+        }
+
+        return new ListingSnapshot(folder, folderDate, parent, files, store, sortKeys,
+                filterRows(sortedFileArrayIndex, newFilterMatches), sortedFileArrayIndex, sortInfo, filter, newFilterMatches,
+                cellValuesCache, parentCellValues, marks);
+    }
+
+    /**
+     * Returns a snapshot of this snapshot's files, in this snapshot's order, filtered like the given snapshot, which
+     * must contain the same files, e.g. a snapshot derived from this one by {@link #filter(NameFilter)} which may
+     * since have been sorted differently. The marked state of files is shared with this snapshot.
+     *
+     * @param filtered a snapshot of the same files
+     * @return a snapshot of this snapshot's files, filtered like the given one
+     */
+    ListingSnapshot filterLike(ListingSnapshot filtered) {
+        return new ListingSnapshot(folder, folderDate, parent, files, store, sortKeys,
+                filterRows(sortedFileArrayIndex, filtered.filterMatches), sortedFileArrayIndex, sortInfo,
+                filtered.filter, filtered.filterMatches, cellValuesCache, parentCellValues, marks);
+    }
+
+    /**
+     * Returns a snapshot of the same files, in which the directories located at the given indexes have the given
+     * sizes, as calculated by a {@link FolderSizeCalculator}. Rows keep their order, the size cells of the
+     * directories are formatted again when they are next requested. The marked state of files is shared with this
+     * snapshot.
+     *
+     * @param fileIndexes indexes of directories
+     * @param directorySizes the size of each directory, in bytes
+     * @param nbDirectories number of values to read from <code>fileIndexes</code> and <code>directorySizes</code>
+     * @return a snapshot of the same files, with the given directory sizes
+     */
+    ListingSnapshot setDirectorySizes(int fileIndexes[], long directorySizes[], int nbDirectories) {
+        ListingStore newStore = new ListingStore(store, fileIndexes, directorySizes, nbDirectories);
+        SortKeys newSortKeys = new SortKeys(sortKeys, newStore);
+
+        // Only the size column's values need to be formatted again
+        String newCellValuesCache[][] = new String[cellValuesCache.length][];
+        System.arraycopy(cellValuesCache, 0, newCellValuesCache, 0, cellValuesCache.length);
+        int sizeColumnIndex = Column.SIZE.ordinal()-1;
+        String sizeValues[] = cellValuesCache[sizeColumnIndex];
+        if(sizeValues!=null) {
+            String newSizeValues[] = new String[sizeValues.length];
+            System.arraycopy(sizeValues, 0, newSizeValues, 0, sizeValues.length);
+            for(int i=0; i<nbDirectories; i++)
+                newSizeValues[fileIndexes[i]] = null;
+            newCellValuesCache[sizeColumnIndex] = newSizeValues;
+        }
+
+        return new ListingSnapshot(folder, folderDate, parent, files, newStore, newSortKeys, fileArrayIndex,
+                sortedFileArrayIndex, sortInfo, filter, filterMatches, newCellValuesCache, parentCellValues, marks);
+    }
+
+    /**
+     * Returns a snapshot of the same files, whose attributes are held by the given store rather than by this
+     * snapshot's. The store must contain the same files and hold more optional attributes, whose values are read
+     * from the store rather than from the cell cache: only rows are sorted again, if they are sorted by one of them.
+     * The marked state of files, the cell cache and the filter are shared with this snapshot.
+     *
+     * @param newStore a store created from this snapshot's by {@link ListingStore#ListingStore(ListingStore, AbstractFile[], int)}
+     * @return a snapshot of the same files, with the attributes of the given store
+     */
+    ListingSnapshot setStore(ListingStore newStore) {
+        // String keys of the new attributes were extracted from missing values, extract them all again
+        SortKeys newSortKeys = new SortKeys(newStore);
+        ListingSnapshot snapshot = new ListingSnapshot(folder, folderDate, parent, files, newStore, newSortKeys,
+                fileArrayIndex, sortedFileArrayIndex, sortInfo, filter, filterMatches, cellValuesCache,
+                parentCellValues, marks);
+
+        int criterionAttribute = ListingStore.getAttribute(sortInfo.getCriterion());
+        if(criterionAttribute!=0 && !store.hasAttributes(criterionAttribute))
+            snapshot = snapshot.resort();
+
+        return snapshot;
+    }
+
+    /**
+     * Returns a snapshot of the same files sorted again the way this snapshot is, after the keys of some files have
+     * changed. The marked state of files and the filter are shared with this snapshot.
+     *
+     * @return a snapshot of the same files, sorted again
+     */
+    ListingSnapshot resort() {
+        int newFileArrayIndex[] = new int[sortedFileArrayIndex.length];
+        System.arraycopy(sortedFileArrayIndex, 0, newFileArrayIndex, 0, sortedFileArrayIndex.length);
+        // The rows are mostly sorted already, the merge sort skips the runs that are in order
+        SortKeys.sort(newFileArrayIndex, 0, newFileArrayIndex.length, sortKeys.getComparator(sortInfo));
+
+        return new ListingSnapshot(folder, folderDate, parent, files, store, sortKeys,
+                filterRows(newFileArrayIndex, filterMatches), newFileArrayIndex, sortInfo, filter, filterMatches,
+                cellValuesCache, parentCellValues, marks);
+    }
+
+    /**
+     * Returns the given index array restricted to the files that match the filter, the array itself if there is no
+     * filter.
+     */
+    private static int[] filterRows(int indexes[], boolean filterMatches[]) {
+        if(filterMatches==null)
+            return indexes;
+
+        int nbRows = 0;
+        for(int fileIndex : indexes) {
+            if(filterMatches[fileIndex])
+                nbRows++;
+        }
+
+        int rows[] = new int[nbRows];
+        int row = 0;
+        for(int fileIndex : indexes) {
+            if(filterMatches[fileIndex])
+                rows[row++] = fileIndex;
+        }
+
+        return rows;
+    }
+
+    /**
+     * Returns <code>true</code> if this snapshot and the given one share the same cell values cache, i.e. if one was
+     * derived from the other by sorting it.
+     *
+     * @param other another snapshot
+     * @return <code>true</code> if both snapshots share the same cell values cache
+     */
+    boolean sharesCellCache(ListingSnapshot other) {
+        return cellValuesCache==other.cellValuesCache;
+    }
+
+    /**
+     * Merges the two sorted runs of the given index array, <code>[0, mid)</code> and <code>[mid, length)</code>,
+     * into a new sorted index array.
+     */
+    private static int[] merge(SortKeys.IndexComparator comparator, int indexes[], int mid) {
+        int len = indexes.length;
+        int merged[] = new int[len];
+        int left = 0;
+        int right = mid;
+
+        for(int i=0; i<len; i++) {
+            if(right>=len || (left<mid && comparator.compare(indexes[left], indexes[right])<=0))
+                merged[i] = indexes[left++];
+            else
+                merged[i] = indexes[right++];
+        }
+
+        return merged;
+    }
+
+    /**
+     * Returns a snapshot of the same files, whose cell values will be formatted again when they are next requested.
+     * The marked state of files is shared with this snapshot.
+     *
+     * @return a snapshot of the same files, with an empty cell cache
+     */
+    ListingSnapshot clearCellCache() {
+        long newFolderDate = folder==null?0:folder.getDate();
+
+        return new ListingSnapshot(folder, newFolderDate, parent, files, store, sortKeys, fileArrayIndex,
+                sortedFileArrayIndex, sortInfo, filter, filterMatches, new String[Column.values().length-1][],
+                createParentCellValues(parent, newFolderDate), marks);
+    }
+
+    /**
+     * Returns the value of the given column for the file located at the given index. Sizes and dates are formatted
+     * the first time they are requested and then stored in the cell cache, other values are read from the store.
+     *
+     * @param fileIndex index of the file in the {@link #files} array
+     * @param column a column other than {@link Column#EXTENSION}
+     * @return the cell's value, may be <code>null</code>
+     */
+    String getCellValue(int fileIndex, Column column) {
+        switch(column) {
+            case NAME:
+                return store.getName(fileIndex);
+            case PERMISSIONS:
+                return store.getPermissions(fileIndex);
+            case OWNER:
+                return store.getOwner(fileIndex);
+            case GROUP:
+                return store.getGroup(fileIndex);
+        }
+
+        int columnIndex = column.ordinal()-1;
+        String values[] = cellValuesCache[columnIndex];
+        if(values==null)
+            values = cellValuesCache[columnIndex] = new String[files.length];
+
+        String value = values[fileIndex];
+        if(value==null) {
+            if(column==Column.SIZE) {
+                // Directories have a size once it has been calculated
+                long size = store.getSize(fileIndex);
+                value = store.isDirectory(fileIndex)&&size<0?FileTableModel.DIRECTORY_SIZE_STRING:SizeFormat.format(size, FileTableModel.getSizeFormat());
+            }
+            else {
+                value = CustomDateFormat.format(store.getDate(fileIndex));
+            }
+
+            values[fileIndex] = value;
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the number of rows, including the parent folder '..' row if there is one.
+     *
+     * @return the number of rows
+     */
+    int getRowCount() {
+        return fileArrayIndex.length + (parent==null?0:1);
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FilePermissions;
+import com.mucommander.commons.file.impl.CachedFile;
+
+/**
+ * Stores the attributes of a folder's children that are displayed by a {@link FileTable}, one array per attribute
+ * rather than one object per file: sizes and dates are stored in <code>long</code> arrays, the directory, hidden,
+ * symlink and browsable flags are packed into a byte, and extensions, permissions, owners and groups are
+ * deduplicated, as a folder usually contains only a handful of distinct values.
+ *
+ * <p>Permissions, owners and groups are optional attributes: they are only read, and their arrays only allocated,
+ * if the store is created for them, i.e. if the corresponding columns are enabled. With compressed object pointers,
+ * the arrays take 25 bytes per file, plus 8 for the permissions and 4 for each of the owner and group when they are
+ * stored, not counting the file names. The store takes over from the {@link CachedFile} instances the files were
+ * loaded with: {@link ListingSnapshot} only keeps a reference to each file as returned by the folder's listing, and
+ * {@link FileTableModel} hands out short-lived {@link StoredFile} views that read the attributes from the store.
+ * A file thus costs the table 29 bytes, plus its optional attributes, on top of its name and of the listing's own
+ * file instance.</p>
+ *
+ * <p>The core attributes are read once, when files are added to the store, from the CachedFile instances created by
+ * {@link FileTableModel#createCachedFile(AbstractFile)} which have them pre-fetched, and which are discarded
+ * afterwards. Optional attributes are read from the files that the CachedFile instances wrap, as the CachedFile
+ * instances would otherwise fetch their own copy of them. {@link FileTableModel}, {@link SortKeys} and
+ * {@link FileTableCellRenderer} then read them from the store only.</p>
+ *
+ * <p>A store is not modified once it has been created: files are added by creating a new store, so that a store can
+ * be read by any number of threads without synchronization.</p>
+ */
+class ListingStore {
+
+    /** Flag set for directories */
+    final static int DIRECTORY = 1;
+    /** Flag set for hidden files */
+    final static int HIDDEN = 2;
+    /** Flag set for symlinks */
+    final static int SYMLINK = 4;
+    /** Flag set for browsable files, i.e. directories and archives */
+    final static int BROWSABLE = 8;
+
+    /** Optional attribute: permission bits and permission string */
+    final static int PERMISSIONS_ATTRIBUTE = 1;
+    /** Optional attribute: file owner */
+    final static int OWNER_ATTRIBUTE = 2;
+    /** Optional attribute: file group */
+    final static int GROUP_ATTRIBUTE = 4;
+
+    /** Optional attributes held by the store */
+    private int attributes;
+
+    /** Number of files in the store */
+    private int count;
+
+    /** File names */
+    private String names[];
+
+    /** File sizes, <code>-1</code> for directories whose size has not been calculated */
+    private long sizes[];
+
+    /** File dates */
+    private long dates[];
+
+    /** Packed file flags */
+    private byte flags[];
+
+    /** Permission bits, as returned by {@link FilePermissions#getIntValue()}, null if permissions are not stored */
+    private int permissionBits[];
+
+    /** Deduplicated file extensions, null for files without an extension */
+    private String extensions[];
+
+    /** Deduplicated permission strings, null if permissions are not stored */
+    private String permissions[];
+
+    /** Deduplicated file owners, may contain null values. Null if owners are not stored. */
+    private String owners[];
+
+    /** Deduplicated file groups, may contain null values. Null if groups are not stored. */
+    private String groups[];
+
+    /** Distinct string values seen so far, used to deduplicate them */
+    private Map<String, String> stringPool;
+
+
+    /**
+     * Creates a new store containing the attributes of the given files.
+     *
+     * @param files CachedFile instances with their attributes pre-fetched
+     * @param attributes the optional attributes to store, a combination of <code>PERMISSIONS_ATTRIBUTE</code>,
+     * <code>OWNER_ATTRIBUTE</code> and <code>GROUP_ATTRIBUTE</code>
+     */
+    ListingStore(AbstractFile files[], int attributes) {
+        this.attributes = attributes;
+        this.stringPool = new HashMap<String, String>();
+        allocate(files.length);
+        addFiles(files);
+    }
+
+    /**
+     * Creates a new store containing the attributes of the files of the given store, followed by those of the given
+     * files. The new store holds the same optional attributes as the given store. The given store is left unchanged,
+     * so that it can still be read while the new one is being created.
+     *
+     * @param base the store whose files come first
+     * @param files CachedFile instances with their attributes pre-fetched
+     */
+    ListingStore(ListingStore base, AbstractFile files[]) {
+        // The base store may be in use by other threads: it is only read here, including its pool
+        this.attributes = base.attributes;
+        this.stringPool = new HashMap<String, String>(base.stringPool);
+        allocate(base.count + files.length);
+
+        int baseCount = base.count;
+        System.arraycopy(base.names, 0, names, 0, baseCount);
+        System.arraycopy(base.sizes, 0, sizes, 0, baseCount);
+        System.arraycopy(base.dates, 0, dates, 0, baseCount);
+        System.arraycopy(base.flags, 0, flags, 0, baseCount);
+        System.arraycopy(base.extensions, 0, extensions, 0, baseCount);
+        if(permissions!=null) {
+            System.arraycopy(base.permissionBits, 0, permissionBits, 0, baseCount);
+            System.arraycopy(base.permissions, 0, permissions, 0, baseCount);
+        }
+        if(owners!=null)
+            System.arraycopy(base.owners, 0, owners, 0, baseCount);
+        if(groups!=null)
+            System.arraycopy(base.groups, 0, groups, 0, baseCount);
+        this.count = baseCount;
+
+        addFiles(files);
+    }
+
+    /**
+     * Creates a new store containing the attributes of the given files, some of which are read from the given store
+     * rather than from the files: for each index <code>i</code>, if <code>baseIndexes[i]</code> is positive, the
+     * attributes of the file located at that index in the base store are used. The new store holds the same optional
+     * attributes as the base store, which is left unchanged.
+     *
+     * @param base the store to read the attributes of some files from
+     * @param baseIndexes for each file, its index in the base store or <code>-1</code>
+     * @param files CachedFile instances with their attributes pre-fetched, at least those without a base index
+     */
+    ListingStore(ListingStore base, int baseIndexes[], AbstractFile files[]) {
+        this.attributes = base.attributes;
+        this.stringPool = new HashMap<String, String>(base.stringPool);
+        int nbFiles = files.length;
+        allocate(nbFiles);
+
+        for(int i=0; i<nbFiles; i++) {
+            int baseIndex = baseIndexes[i];
+            if(baseIndex<0) {
+                set(i, files[i]);
+            }
+            else {
+                names[i] = base.names[baseIndex];
+                sizes[i] = base.sizes[baseIndex];
+                dates[i] = base.dates[baseIndex];
+                flags[i] = base.flags[baseIndex];
+                extensions[i] = base.extensions[baseIndex];
+                if(permissions!=null) {
+                    permissionBits[i] = base.permissionBits[baseIndex];
+                    permissions[i] = base.permissions[baseIndex];
+                }
+                if(owners!=null)
+                    owners[i] = base.owners[baseIndex];
+                if(groups!=null)
+                    groups[i] = base.groups[baseIndex];
+            }
+        }
+        this.count = nbFiles;
+    }
+
+    /**
+     * Creates a new store containing the files of the given store, in which the directories located at the given
+     * indexes have the given sizes rather than <code>-1</code>. Only the sizes array is copied, the other arrays are
+     * shared with the base store, which is left unchanged.
+     *
+     * @param base the store whose files to use
+     * @param fileIndexes indexes of directories in the base store
+     * @param directorySizes the size of each directory, in bytes
+     * @param nbDirectories number of values to read from <code>fileIndexes</code> and <code>directorySizes</code>
+     */
+    ListingStore(ListingStore base, int fileIndexes[], long directorySizes[], int nbDirectories) {
+        share(base);
+
+        this.sizes = new long[base.sizes.length];
+        System.arraycopy(base.sizes, 0, sizes, 0, base.sizes.length);
+        for(int i=0; i<nbDirectories; i++)
+            sizes[fileIndexes[i]] = directorySizes[i];
+    }
+
+    /**
+     * Creates a new store containing the files of the given store, which also holds the given optional attributes.
+     * The attributes that the base store does not hold are read from the given files, the other arrays are shared
+     * with the base store, which is left unchanged. This method is I/O-bound and should not be called from the event
+     * dispatch thread.
+     *
+     * @param base the store whose files to use
+     * @param files the files of the base store, indexed like it
+     * @param attributes the optional attributes to store in addition to those of the base store
+     */
+    ListingStore(ListingStore base, AbstractFile files[], int attributes) {
+        share(base);
+        this.attributes = base.attributes | attributes;
+        // The base store's pool may be in use by other threads
+        this.stringPool = new HashMap<String, String>(base.stringPool);
+
+        int missingAttributes = this.attributes & ~base.attributes;
+        allocateOptional(missingAttributes, count);
+        for(int i=0; i<count; i++)
+            setOptional(i, files[i], missingAttributes);
+    }
+
+    /**
+     * Shares the arrays of the given store, which are not modified once it has been created.
+     */
+    private void share(ListingStore base) {
+        this.attributes = base.attributes;
+        this.stringPool = base.stringPool;
+        this.count = base.count;
+        this.names = base.names;
+        this.sizes = base.sizes;
+        this.dates = base.dates;
+        this.flags = base.flags;
+        this.permissionBits = base.permissionBits;
+        this.extensions = base.extensions;
+        this.permissions = base.permissions;
+        this.owners = base.owners;
+        this.groups = base.groups;
+    }
+
+    private void allocate(int capacity) {
+        names = new String[capacity];
+        sizes = new long[capacity];
+        dates = new long[capacity];
+        flags = new byte[capacity];
+        extensions = new String[capacity];
+        allocateOptional(attributes, capacity);
+    }
+
+    private void allocateOptional(int optionalAttributes, int capacity) {
+        if((optionalAttributes&PERMISSIONS_ATTRIBUTE)!=0) {
+            permissionBits = new int[capacity];
+            permissions = new String[capacity];
+        }
+        if((optionalAttributes&OWNER_ATTRIBUTE)!=0)
+            owners = new String[capacity];
+        if((optionalAttributes&GROUP_ATTRIBUTE)!=0)
+            groups = new String[capacity];
+    }
+
+    /**
+     * Appends the attributes of the given files to the store, which must have room for them. This method is only
+     * called while the store is being created.
+     */
+    private void addFiles(AbstractFile files[]) {
+        for(AbstractFile file : files)
+            set(count++, file);
+    }
+
+    /**
+     * Reads the attributes of the given file into the given index.
+     */
+    private void set(int i, AbstractFile file) {
+        boolean isDirectory = file.isDirectory();
+
+        names[i] = file.getName();
+        // Do not call getSize() on directories, it's unnecessary and the value is most likely not cached
+        sizes[i] = isDirectory?-1:file.getSize();
+        dates[i] = file.getDate();
+
+        int fileFlags = 0;
+        if(isDirectory)
+            fileFlags |= DIRECTORY;
+        if(file.isHidden())
+            fileFlags |= HIDDEN;
+        if(file.isSymlink())
+            fileFlags |= SYMLINK;
+        if(file.isBrowsable())
+            fileFlags |= BROWSABLE;
+        flags[i] = (byte)fileFlags;
+
+        extensions[i] = pool(file.getExtension());
+
+        setOptional(i, file, attributes);
+    }
+
+    /**
+     * Reads the given optional attributes of the given file into the given index. They are read from the file that
+     * a CachedFile wraps, as the CachedFile would otherwise keep its own copy.
+     */
+    private void setOptional(int i, AbstractFile file, int optionalAttributes) {
+        if(optionalAttributes==0)
+            return;
+
+        if(file instanceof CachedFile)
+            file = ((CachedFile)file).getProxiedFile();
+
+        if((optionalAttributes&PERMISSIONS_ATTRIBUTE)!=0) {
+            FilePermissions filePermissions = file.getPermissions();
+            permissionBits[i] = filePermissions==null?0:filePermissions.getIntValue();
+            permissions[i] = pool(file.getPermissionsString());
+        }
+        if((optionalAttributes&OWNER_ATTRIBUTE)!=0)
+            owners[i] = pool(file.getOwner());
+        if((optionalAttributes&GROUP_ATTRIBUTE)!=0)
+            groups[i] = pool(file.getGroup());
+    }
+
+    /**
+     * Returns the optional attribute that the values of the given column are read from, <code>0</code> if the
+     * column's values are always stored.
+     *
+     * @param column a column
+     * @return the optional attribute of the given column, <code>0</code> if there is none
+     */
+    static int getAttribute(Column column) {
+        switch(column) {
+            case PERMISSIONS:
+                return PERMISSIONS_ATTRIBUTE;
+            case OWNER:
+                return OWNER_ATTRIBUTE;
+            case GROUP:
+                return GROUP_ATTRIBUTE;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Returns the instance of the given string that is held by the pool, adding it to the pool if it is not there yet.
+     */
+    private String pool(String s) {
+        if(s==null)
+            return null;
+
+        String pooled = stringPool.get(s);
+        if(pooled==null) {
+            stringPool.put(s, s);
+            pooled = s;
+        }
+
+        return pooled;
+    }
+
+
+    /////////////
+    // Getters //
+    /////////////
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns <code>true</code> if the store holds all of the given optional attributes.
+     *
+     * @param attributes a combination of optional attributes
+     * @return true if the store holds all of the given optional attributes
+     */
+    boolean hasAttributes(int attributes) {
+        return (this.attributes&attributes)==attributes;
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    long getSize(int index) {
+        return sizes[index];
+    }
+
+    long getDate(int index) {
+        return dates[index];
+    }
+
+    int getFlags(int index) {
+        return flags[index];
+    }
+
+    boolean isDirectory(int index) {
+        return (flags[index]&DIRECTORY)!=0;
+    }
+
+    int getPermissionBits(int index) {
+        return permissionBits==null?0:permissionBits[index];
+    }
+
+    String getExtension(int index) {
+        return extensions[index];
+    }
+
+    String getPermissions(int index) {
+        return permissions==null?null:permissions[index];
+    }
+
+    String getOwner(int index) {
+        return owners==null?null:owners[index];
+    }
+
+    String getGroup(int index) {
+        return groups==null?null:groups[index];
+    }
+
+    /**
+     * Returns the array holding the file names. The array must not be modified.
+     *
+     * @return the array holding the file names
+     */
+    String[] getNames() {
+        return names;
+    }
+
+    /**
+     * Returns the array holding the file sizes, <code>-1</code> for directories whose size has not been calculated.
+     * The array must not be modified.
+     *
+     * @return the array holding the file sizes
+     */
+    long[] getSizes() {
+        return sizes;
+    }
+
+    /**
+     * Returns the array holding the file dates. The array must not be modified.
+     *
+     * @return the array holding the file dates
+     */
+    long[] getDates() {
+        return dates;
+    }
+
+    /**
+     * Returns the array holding the file permission bits, null if permissions are not stored. The array must not be
+     * modified.
+     *
+     * @return the array holding the file permission bits, null if permissions are not stored
+     */
+    int[] getPermissionBits() {
+        return permissionBits;
+    }
+}
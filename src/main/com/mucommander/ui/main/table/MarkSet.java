@@ -0,0 +1,198 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+/**
+ * The marked files of a {@link ListingSnapshot}, stored as a bitset indexed by file index: one bit per file, 64 files
+ * per word. Files can be marked one at a time, or in bulk by applying a mask of the same layout with
+ * {@link #apply(long[], int, Listener)}, which processes 64 files at a time and only visits the files whose mark has
+ * actually changed.
+ *
+ * <p>A mark set is shared by the snapshots derived from the same listing by sorting or filtering it, and is only
+ * modified by {@link FileTableModel}, which keeps the number and combined size of marked files up to date.</p>
+ */
+class MarkSet {
+
+    /** Marks files that are not marked */
+    final static int MARK = 0;
+    /** Unmarks files that are marked */
+    final static int UNMARK = 1;
+    /** Marks files that are not marked and unmarks files that are */
+    final static int INVERT = 2;
+
+    /** Number of files */
+    private final int nbFiles;
+
+    /** One bit per file, set if the file is marked */
+    private final long words[];
+
+
+    /**
+     * Creates a new mark set for the given number of files, none of which is marked.
+     *
+     * @param nbFiles number of files of the listing
+     */
+    MarkSet(int nbFiles) {
+        this.nbFiles = nbFiles;
+        this.words = new long[getNbWords(nbFiles)];
+    }
+
+    /**
+     * Returns the number of words needed to store the given number of bits.
+     *
+     * @param nbFiles a number of files
+     * @return the number of words of a bitset of <code>nbFiles</code> bits
+     */
+    static int getNbWords(int nbFiles) {
+        return (nbFiles+63)>>>6;
+    }
+
+    /**
+     * Returns a mask in which the bits of all files are set.
+     *
+     * @param nbFiles number of files of the listing
+     * @return a mask with the first <code>nbFiles</code> bits set
+     */
+    static long[] createFullMask(int nbFiles) {
+        long mask[] = new long[getNbWords(nbFiles)];
+        for(int i=0; i<mask.length; i++)
+            mask[i] = -1L;
+        if((nbFiles&63)!=0)
+            mask[mask.length-1] = (1L<<(nbFiles&63))-1;
+        return mask;
+    }
+
+    /**
+     * Returns the number of files of the listing.
+     *
+     * @return the number of files of the listing
+     */
+    int getNbFiles() {
+        return nbFiles;
+    }
+
+    /**
+     * Returns <code>true</code> if the file with the given index is marked.
+     *
+     * @param fileIndex index of a file
+     * @return <code>true</code> if the file is marked
+     */
+    boolean isMarked(int fileIndex) {
+        return (words[fileIndex>>>6]&(1L<<fileIndex))!=0;
+    }
+
+    /**
+     * Marks or unmarks the file with the given index.
+     *
+     * @param fileIndex index of a file
+     * @param marked <code>true</code> to mark the file, <code>false</code> to unmark it
+     */
+    void setMarked(int fileIndex, boolean marked) {
+        if(marked)
+            words[fileIndex>>>6] |= 1L<<fileIndex;
+        else
+            words[fileIndex>>>6] &= ~(1L<<fileIndex);
+    }
+
+    /**
+     * Returns the index of the first marked file whose index is greater than or equal to the given one.
+     *
+     * @param fromIndex the index to start from
+     * @return the index of the next marked file, -1 if there is none
+     */
+    int nextMarked(int fromIndex) {
+        int w = fromIndex>>>6;
+        if(w>=words.length)
+            return -1;
+
+        long word = words[w] & (-1L<<fromIndex);
+        while(true) {
+            if(word!=0)
+                return (w<<6) + Long.numberOfTrailingZeros(word);
+            if(++w==words.length)
+                return -1;
+            word = words[w];
+        }
+    }
+
+    /**
+     * Copies the marks of the given set, which must not have more files than this one.
+     *
+     * @param marks the marks to copy
+     */
+    void copy(MarkSet marks) {
+        System.arraycopy(marks.words, 0, words, 0, marks.words.length);
+    }
+
+    /**
+     * Marks, unmarks or inverts the marks of the files whose bit is set in the given mask, and notifies the given
+     * listener of each file whose mark has changed.
+     *
+     * @param mask one bit per file, as returned by {@link #createFullMask(int)}
+     * @param operation one of {@link #MARK}, {@link #UNMARK} and {@link #INVERT}
+     * @param listener notified of the files whose mark has changed
+     * @return <code>true</code> if the mark of at least one file has changed
+     */
+    boolean apply(long mask[], int operation, Listener listener) {
+        boolean changed = false;
+        for(int w=0; w<words.length; w++) {
+            long oldWord = words[w];
+            long newWord;
+            switch(operation) {
+                case MARK:
+                    newWord = oldWord | mask[w];
+                    break;
+                case UNMARK:
+                    newWord = oldWord & ~mask[w];
+                    break;
+                default:
+                    newWord = oldWord ^ mask[w];
+            }
+
+            long changedBits = oldWord ^ newWord;
+            if(changedBits==0)
+                continue;
+
+            words[w] = newWord;
+            changed = true;
+            while(changedBits!=0) {
+                int bit = Long.numberOfTrailingZeros(changedBits);
+                listener.markChanged((w<<6)+bit, (newWord&(1L<<bit))!=0);
+                changedBits &= changedBits-1;
+            }
+        }
+
+        return changed;
+    }
+
+
+    /**
+     * Notified of the files whose mark has been changed by {@link MarkSet#apply(long[], int, Listener)}.
+     */
+    interface Listener {
+
+        /**
+         * Called when the mark of a file has changed.
+         *
+         * @param fileIndex index of the file
+         * @param marked <code>true</code> if the file is now marked
+         */
+        void markChanged(int fileIndex, boolean marked);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches file names against a pattern typed in the quick filter, case-insensitively. The pattern's syntax depends on
+ * its first characters:
+ * <ul>
+ *  <li>a pattern starting with <code>/</code> is a regular expression, which may match any part of a name
+ *  (<code>/^a.*\.txt$</code>)</li>
+ *  <li>a pattern containing <code>*</code> or <code>?</code> is a glob, which must match the whole name
+ *  (<code>*.txt</code>)</li>
+ *  <li>any other pattern must be contained in the name, like the quick search string</li>
+ * </ul>
+ *
+ * <p>Plain strings, which are the most common patterns, are tested without creating any object, so that folders of
+ * hundreds of thousands of files can be filtered as the pattern is being typed.</p>
+ */
+class NameFilter {
+
+    /** The pattern, as typed */
+    private final String pattern;
+
+    /** Compiled regular expression or glob, null if the pattern is a plain string */
+    private final Pattern regexp;
+
+
+    private NameFilter(String pattern, Pattern regexp) {
+        this.pattern = pattern;
+        this.regexp = regexp;
+    }
+
+    /**
+     * Creates a filter for the given pattern.
+     *
+     * @param pattern a regular expression starting with <code>/</code>, a glob or a plain string
+     * @return a filter for the given pattern, <code>null</code> if the pattern is empty or is not a valid regular
+     * expression
+     */
+    static NameFilter compile(String pattern) {
+        if(pattern.length()==0)
+            return null;
+
+        try {
+            if(pattern.charAt(0)=='/')
+                return pattern.length()==1?null:new NameFilter(pattern, Pattern.compile(pattern.substring(1), Pattern.CASE_INSENSITIVE|Pattern.UNICODE_CASE));
+
+            if(pattern.indexOf('*')!=-1 || pattern.indexOf('?')!=-1)
+                return new NameFilter(pattern, Pattern.compile(globToRegexp(pattern), Pattern.CASE_INSENSITIVE|Pattern.UNICODE_CASE));
+        }
+        catch(PatternSyntaxException e) {
+            // The regular expression is most likely still being typed
+            return null;
+        }
+
+        return new NameFilter(pattern, null);
+    }
+
+    /**
+     * Converts the given glob into an equivalent regular expression.
+     */
+    private static String globToRegexp(String glob) {
+        StringBuilder sb = new StringBuilder(glob.length()+8);
+        int len = glob.length();
+        int start = 0;
+        for(int i=0; i<len; i++) {
+            char c = glob.charAt(i);
+            if(c=='*' || c=='?') {
+                if(i>start)
+                    sb.append(Pattern.quote(glob.substring(start, i)));
+                sb.append(c=='*'?".*":".");
+                start = i+1;
+            }
+        }
+        if(start<len)
+            sb.append(Pattern.quote(glob.substring(start)));
+
+        return sb.toString();
+    }
+
+    /**
+     * Returns the pattern this filter was created for.
+     *
+     * @return the pattern this filter was created for
+     */
+    String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns <code>true</code> if the names that match this filter are necessarily among those that match the given
+     * one, i.e. if both are plain strings and the given filter's string is contained in this one's. Only the names
+     * that match the given filter then need to be tested.
+     *
+     * @param filter another filter, may be <code>null</code>
+     * @return <code>true</code> if this filter can only match names that the given one matches
+     */
+    boolean narrows(NameFilter filter) {
+        return filter!=null && regexp==null && filter.regexp==null
+            && pattern.toLowerCase().indexOf(filter.pattern.toLowerCase())!=-1;
+    }
+
+    /**
+     * Returns <code>true</code> if the given file name matches this filter.
+     *
+     * @param name a file name
+     * @return <code>true</code> if the given file name matches this filter
+     */
+    boolean accept(String name) {
+        if(regexp!=null) {
+            return pattern.charAt(0)=='/'?regexp.matcher(name).find():regexp.matcher(name).matches();
+        }
+
+        // Case-insensitive contains, without lower-casing the name
+        int patternLen = pattern.length();
+        int max = name.length()-patternLen;
+        for(int i=0; i<=max; i++) {
+            if(name.regionMatches(true, i, pattern, 0, patternLen))
+                return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FilePermissions;
+
+/**
+ * Holds the keys that {@link FileTableModel} sorts its files by. Sizes, dates and permissions are compared straight
+ * from the arrays of the model's {@link ListingStore}, names and other strings are case-folded once, the first
+ * time a criterion is used, so that no file is called while sorting.
+ *
+ * <p>Files are always ordered by the current criterion first, then by case-insensitive name, then by
+ * case-sensitive name. Descending order is the exact opposite of ascending order, except that folders remain before
+ * regular files if they are displayed first: an index array sorted in one order can be turned into the other by
+ * reversing it, see {@link #reverse(int[], SortInfo)}.</p>
+ *
+ * <p>Sorting is done by a stable merge sort, which is split across several threads for large folders.</p>
+ *
+ * @see FileTableModel#sortRows()
+ */
+class SortKeys {
+	private static final Logger LOGGER = LoggerFactory.getLogger(SortKeys.class);
+
+    /** Number of files above which sorting is split across several threads */
+    private final static int PARALLEL_SORT_THRESHOLD = 65536;
+
+    /** Size under which ranges are sorted using an insertion sort */
+    private final static int INSERTION_SORT_THRESHOLD = 16;
+
+    /** Number of threads used for sorting */
+    private final static int NB_SORT_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Threads used for sorting large folders, created on demand */
+    private static ExecutorService sortExecutor;
+
+    /** The attributes of the files to sort */
+    private ListingStore store;
+
+    /** Case-folded file names */
+    private String foldedNames[];
+
+    /** Case-folded string keys, indexed by column ordinal and file index. Allocated the first time a criterion is used. */
+    private String stringKeys[][];
+
+
+    /**
+     * Creates the keys of the files contained by the given store. Name keys are extracted right away, other string
+     * keys are extracted the first time the corresponding criterion is used.
+     *
+     * @param store the attributes of the files to sort
+     */
+    SortKeys(ListingStore store) {
+        this.store = store;
+        this.stringKeys = new String[Column.values().length][];
+
+        int nbFiles = store.getCount();
+        this.foldedNames = new String[nbFiles];
+        for(int i=0; i<nbFiles; i++)
+            foldedNames[i] = fold(store.getName(i));
+    }
+
+    /**
+     * Creates the keys of the files contained by the given store, which must start with the files of the store of
+     * <code>base</code>. Keys that have already been extracted by <code>base</code> are reused, keys of the new files
+     * are extracted for the name and all the string criteria that have been used so far. <code>base</code> is left
+     * unchanged.
+     *
+     * @param base the keys of the first files of the store
+     * @param store the attributes of the files to sort
+     */
+    SortKeys(SortKeys base, ListingStore store) {
+        this.store = store;
+        this.stringKeys = new String[Column.values().length][];
+
+        int nbOldFiles = base.foldedNames.length;
+        int nbFiles = store.getCount();
+        this.foldedNames = grow(base.foldedNames, nbFiles);
+        for(int i=nbOldFiles; i<nbFiles; i++)
+            foldedNames[i] = fold(store.getName(i));
+
+        synchronized(base) {
+            for(Column criterion : Column.values()) {
+                int c = criterion.ordinal();
+                if(base.stringKeys[c]!=null) {
+                    stringKeys[c] = grow(base.stringKeys[c], nbFiles);
+                    extractStringKeys(criterion, stringKeys[c], nbOldFiles, nbFiles);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the keys of the files contained by the given store, some of which are files of the store of
+     * <code>base</code>: for each index <code>i</code>, if <code>baseIndexes[i]</code> is positive, the keys of the
+     * file located at that index in <code>base</code> are reused. Keys of the other files are extracted for the name
+     * and all the string criteria that have been used so far. <code>base</code> is left unchanged.
+     *
+     * @param base the keys to reuse
+     * @param baseIndexes for each file of the store, its index in <code>base</code> or <code>-1</code>
+     * @param store the attributes of the files to sort
+     */
+    SortKeys(SortKeys base, int baseIndexes[], ListingStore store) {
+        this.store = store;
+        this.stringKeys = new String[Column.values().length][];
+
+        int nbFiles = store.getCount();
+        this.foldedNames = new String[nbFiles];
+        for(int i=0; i<nbFiles; i++)
+            foldedNames[i] = baseIndexes[i]<0?fold(store.getName(i)):base.foldedNames[baseIndexes[i]];
+
+        synchronized(base) {
+            for(Column criterion : Column.values()) {
+                String baseKeys[] = base.stringKeys[criterion.ordinal()];
+                if(baseKeys==null)
+                    continue;
+
+                String keys[] = new String[nbFiles];
+                Map<String, String> foldedValues = new HashMap<String, String>();
+                for(int i=0; i<nbFiles; i++)
+                    keys[i] = baseIndexes[i]<0?extractStringKey(criterion, i, foldedValues):baseKeys[baseIndexes[i]];
+                stringKeys[criterion.ordinal()] = keys;
+            }
+        }
+    }
+
+    private static String[] grow(String array[], int length) {
+        String newArray[] = new String[length];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+
+    /////////////////////
+    // Key extraction  //
+    /////////////////////
+
+    /**
+     * Returns a case-folded version of the given string. Comparing two folded strings with
+     * {@link String#compareTo(String)} gives the same result as comparing the original strings with
+     * {@link String#compareToIgnoreCase(String)}.
+     *
+     * @param s the string to fold
+     * @return the folded string
+     */
+    static String fold(String s) {
+        int len = s.length();
+        int i = 0;
+        // Avoid creating a new string when it is already folded, which is the most common case
+        while(i<len) {
+            char c = s.charAt(i);
+            if(Character.toLowerCase(Character.toUpperCase(c))!=c)
+                break;
+            i++;
+        }
+        if(i==len)
+            return s;
+
+        char chars[] = s.toCharArray();
+        for(; i<len; i++)
+            chars[i] = Character.toLowerCase(Character.toUpperCase(chars[i]));
+
+        return new String(chars);
+    }
+
+    /**
+     * Returns <code>true</code> if the given criterion has string keys.
+     */
+    private static boolean hasStringKeys(Column criterion) {
+        return criterion==Column.EXTENSION || criterion==Column.OWNER || criterion==Column.GROUP;
+    }
+
+    /**
+     * Returns the numerical key of the given file, which must be consistent with the values held by
+     * {@link ListingStore}.
+     */
+    private static long getLongKey(AbstractFile file, Column criterion) {
+        switch(criterion) {
+            case SIZE:
+                // Directories come before the smallest files
+                return file.isDirectory()?-1:file.getSize();
+            case DATE:
+                return file.getDate();
+            case PERMISSIONS:
+                FilePermissions permissions = file.getPermissions();
+                return permissions==null?0:permissions.getIntValue();
+            default:
+                return 0;
+        }
+    }
+
+    private static String getStringKey(AbstractFile file, Column criterion) {
+        String value;
+        switch(criterion) {
+            case EXTENSION:
+                value = file.getExtension();
+                break;
+            case OWNER:
+                value = file.getOwner();
+                break;
+            case GROUP:
+                value = file.getGroup();
+                break;
+            default:
+                value = null;
+        }
+
+        return value==null?"":fold(value);
+    }
+
+    private void extractStringKeys(Column criterion, String keys[], int from, int to) {
+        // Stored values are deduplicated, fold each of them only once
+        Map<String, String> foldedValues = new HashMap<String, String>();
+        for(int i=from; i<to; i++)
+            keys[i] = extractStringKey(criterion, i, foldedValues);
+    }
+
+    private String extractStringKey(Column criterion, int i, Map<String, String> foldedValues) {
+        String value;
+        switch(criterion) {
+            case EXTENSION:
+                value = store.getExtension(i);
+                break;
+            case OWNER:
+                value = store.getOwner(i);
+                break;
+            default:
+                value = store.getGroup(i);
+        }
+
+        if(value==null)
+            return "";
+
+        String folded = foldedValues.get(value);
+        if(folded==null) {
+            folded = fold(value);
+            foldedValues.put(value, folded);
+        }
+        return folded;
+    }
+
+
+    /////////////////
+    // Comparators //
+    /////////////////
+
+    /**
+     * Returns a comparator of file indexes for the given sort information, extracting the keys of its criterion if
+     * needed. This method can be called from any thread.
+     *
+     * @param sortInfo the criterion, order and 'folders first' value to compare files with
+     * @return a comparator of file indexes
+     */
+    synchronized IndexComparator getComparator(SortInfo sortInfo) {
+        Column criterion = sortInfo.getCriterion();
+        int c = criterion.ordinal();
+        if(hasStringKeys(criterion) && stringKeys[c]==null) {
+            int nbFiles = store.getCount();
+            String keys[] = new String[nbFiles];
+            extractStringKeys(criterion, keys, 0, nbFiles);
+            stringKeys[c] = keys;
+        }
+
+        return new IndexComparator(criterion, sortInfo.getAscendingOrder(), sortInfo.getFoldersFirst());
+    }
+
+    /**
+     * Compares file indexes using the keys of the enclosing instance. The comparator uses the key arrays that were
+     * current at the time it was created.
+     */
+    class IndexComparator {
+        private Column criterion;
+        private boolean ascending;
+        private boolean foldersFirst;
+        private ListingStore store;
+        private String names[];
+        private String foldedNames[];
+        private long longKeys[];
+        private int intKeys[];
+        private String stringKeys[];
+
+        private IndexComparator(Column criterion, boolean ascending, boolean foldersFirst) {
+            this.criterion = criterion;
+            this.ascending = ascending;
+            this.foldersFirst = foldersFirst;
+            this.store = SortKeys.this.store;
+            this.names = store.getNames();
+            this.foldedNames = SortKeys.this.foldedNames;
+            this.stringKeys = SortKeys.this.stringKeys[criterion.ordinal()];
+            if(criterion==Column.SIZE)
+                this.longKeys = store.getSizes();
+            else if(criterion==Column.DATE)
+                this.longKeys = store.getDates();
+            else if(criterion==Column.PERMISSIONS)
+                this.intKeys = store.getPermissionBits();
+        }
+
+        /**
+         * Compares the files located at the given indexes.
+         *
+         * @param i index of a file
+         * @param j index of another file
+         * @return a negative value if the first file comes first, a positive value if it comes second, 0 if the
+         * indexes are equal
+         */
+        int compare(int i, int j) {
+            boolean iDirectory = store.isDirectory(i);
+            if(foldersFirst && iDirectory!=store.isDirectory(j))
+                return iDirectory?-1:1;
+
+            int diff;
+            if(longKeys!=null) {
+                long li = longKeys[i];
+                long lj = longKeys[j];
+                diff = li<lj?-1:(li==lj?0:1);
+            }
+            else if(intKeys!=null) {
+                int ii = intKeys[i];
+                int ij = intKeys[j];
+                diff = ii<ij?-1:(ii==ij?0:1);
+            }
+            else if(stringKeys!=null) {
+                diff = stringKeys[i].compareTo(stringKeys[j]);
+            }
+            else {
+                diff = 0;
+            }
+
+            if(diff==0) {
+                diff = foldedNames[i].compareTo(foldedNames[j]);
+                if(diff==0) {
+                    diff = names[i].compareTo(names[j]);
+                    // Only files with the exact same name left (e.g. in some archives), order them by index
+                    if(diff==0)
+                        diff = i<j?-1:(i==j?0:1);
+                }
+            }
+
+            return ascending?diff:-diff;
+        }
+
+        /**
+         * Compares the given file, which may not be one of the indexed files, to the file located at the given index.
+         *
+         * @param file a file
+         * @param j index of a file
+         * @return a negative value if the given file comes first, a positive value if it comes second, 0 if both
+         * files have the same keys
+         */
+        int compareFile(AbstractFile file, int j) {
+            boolean directory = file.isDirectory();
+            if(foldersFirst && directory!=store.isDirectory(j))
+                return directory?-1:1;
+
+            int diff;
+            if(longKeys!=null || intKeys!=null) {
+                long li = getLongKey(file, criterion);
+                long lj = longKeys!=null?longKeys[j]:intKeys[j];
+                diff = li<lj?-1:(li==lj?0:1);
+            }
+            else if(stringKeys!=null) {
+                // Values that the store does not hold have empty keys
+                String key = store.hasAttributes(ListingStore.getAttribute(criterion))?getStringKey(file, criterion):"";
+                diff = key.compareTo(stringKeys[j]);
+            }
+            else {
+                diff = 0;
+            }
+
+            if(diff==0) {
+                String name = file.getName();
+                diff = fold(name).compareTo(foldedNames[j]);
+                if(diff==0)
+                    diff = name.compareTo(names[j]);
+            }
+
+            return ascending?diff:-diff;
+        }
+    }
+
+
+    /////////////
+    // Sorting //
+    /////////////
+
+    /**
+     * Sorts the given range of file indexes, using a stable merge sort. Ranges larger than
+     * {@link #PARALLEL_SORT_THRESHOLD} are split into chunks that are sorted concurrently and then merged.
+     *
+     * @param indexes the array of file indexes to sort
+     * @param from index of the first element to sort
+     * @param to index of the last element to sort, plus one
+     * @param comparator the comparator to sort indexes with
+     */
+    static void sort(final int indexes[], int from, int to, final IndexComparator comparator) {
+        int len = to-from;
+        final int tmp[] = new int[indexes.length];
+
+        if(len<PARALLEL_SORT_THRESHOLD || NB_SORT_THREADS<2) {
+            mergeSort(indexes, tmp, from, to, comparator);
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+
+        // Sort chunks concurrently
+        int nbChunks = NB_SORT_THREADS;
+        int bounds[] = new int[nbChunks+1];
+        for(int i=0; i<=nbChunks; i++)
+            bounds[i] = from + (int)((long)len*i/nbChunks);
+
+        ExecutorService executor = getSortExecutor();
+        // Tasks that have not started when sorting is cancelled do nothing, the range is then sorted by this thread
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        Future<?> futures[] = new Future<?>[nbChunks];
+        for(int i=0; i<nbChunks; i++) {
+            final int chunkFrom = bounds[i];
+            final int chunkTo = bounds[i+1];
+            futures[i] = executor.submit(new Runnable() {
+                public void run() {
+                    if(!cancelled.get())
+                        mergeSort(indexes, tmp, chunkFrom, chunkTo, comparator);
+                }
+            });
+        }
+
+        if(!waitFor(futures, cancelled)) {
+            // Interrupted while sorting concurrently, all the tasks are done: fall back to the current thread
+            mergeSort(indexes, tmp, from, to, comparator);
+            return;
+        }
+
+        // Merge adjacent chunks, pairs are merged concurrently
+        for(int width=1; width<nbChunks; width*=2) {
+            int nbMerges = 0;
+            futures = new Future<?>[(nbChunks+2*width-1)/(2*width)];
+            for(int i=0; i+width<nbChunks; i+=2*width) {
+                final int mergeFrom = bounds[i];
+                final int mergeMid = bounds[i+width];
+                final int mergeTo = bounds[Math.min(i+2*width, nbChunks)];
+                futures[nbMerges++] = executor.submit(new Runnable() {
+                    public void run() {
+                        if(!cancelled.get())
+                            merge(indexes, tmp, mergeFrom, mergeMid, mergeTo, comparator);
+                    }
+                });
+            }
+
+            if(!waitFor(futures, cancelled)) {
+                mergeSort(indexes, tmp, from, to, comparator);
+                return;
+            }
+        }
+
+        LOGGER.debug("Sorted "+len+" files in "+(System.currentTimeMillis()-startTime)+"ms using "+nbChunks+" threads");
+    }
+
+    /**
+     * Waits for all the given tasks to complete, even if the current thread is interrupted, as they write to the
+     * arrays being sorted until they are done. If the current thread is interrupted, the tasks that have not started
+     * are cancelled, <code>false</code> is returned and the interrupt status is restored. If one of the tasks failed,
+     * the failure is rethrown once all the tasks are done, as the range it was sorting is left incomplete.
+     */
+    private static boolean waitFor(Future<?> futures[], AtomicBoolean cancelled) {
+        boolean interrupted = false;
+        RuntimeException failure = null;
+        try {
+            for(Future<?> future : futures) {
+                if(future==null)
+                    continue;
+
+                boolean done = false;
+                while(!done) {
+                    try {
+                        future.get();
+                        done = true;
+                    }
+                    catch(InterruptedException e) {
+                        interrupted = true;
+                        cancelled.set(true);
+                    }
+                    catch(ExecutionException e) {
+                        cancelled.set(true);
+                        if(failure==null)
+                            failure = e.getCause() instanceof RuntimeException?(RuntimeException)e.getCause():new RuntimeException(e.getCause());
+                        done = true;
+                    }
+                }
+            }
+        }
+        finally {
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        if(failure!=null)
+            throw failure;
+
+        return !interrupted;
+    }
+
+    private static synchronized ExecutorService getSortExecutor() {
+        if(sortExecutor==null) {
+            sortExecutor = Executors.newFixedThreadPool(NB_SORT_THREADS, new ThreadFactory() {
+                private int count;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FileTableSorter-"+(++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return sortExecutor;
+    }
+
+    /**
+     * Sorts the range <code>[from, to)</code> of the given array, using the same range of <code>tmp</code> as
+     * scratch space.
+     */
+    private static void mergeSort(int indexes[], int tmp[], int from, int to, IndexComparator comparator) {
+        if(to-from<=INSERTION_SORT_THRESHOLD) {
+            for(int i=from+1; i<to; i++) {
+                int index = indexes[i];
+                int j = i;
+                while(j>from && comparator.compare(indexes[j-1], index)>0) {
+                    indexes[j] = indexes[j-1];
+                    j--;
+                }
+                indexes[j] = index;
+            }
+            return;
+        }
+
+        int mid = (from+to)>>>1;
+        mergeSort(indexes, tmp, from, mid, comparator);
+        mergeSort(indexes, tmp, mid, to, comparator);
+        merge(indexes, tmp, from, mid, to, comparator);
+    }
+
+    /**
+     * Merges the sorted ranges <code>[from, mid)</code> and <code>[mid, to)</code> of the given array, using the same
+     * range of <code>tmp</code> as scratch space.
+     */
+    private static void merge(int indexes[], int tmp[], int from, int mid, int to, IndexComparator comparator) {
+        // Already in order
+        if(mid==from || mid==to || comparator.compare(indexes[mid-1], indexes[mid])<=0)
+            return;
+
+        System.arraycopy(indexes, from, tmp, from, to-from);
+        int left = from;
+        int right = mid;
+        for(int i=from; i<to; i++) {
+            if(right>=to || (left<mid && comparator.compare(tmp[left], tmp[right])<=0))
+                indexes[i] = tmp[left++];
+            else
+                indexes[i] = tmp[right++];
+        }
+    }
+
+    /**
+     * Turns an array of file indexes sorted in one order into the opposite order, for the same criterion and
+     * 'folders first' value, without comparing any files.
+     *
+     * @param indexes an array of file indexes sorted in the opposite order of the given sort information
+     * @param sortInfo the sort information to reverse the array to
+     */
+    void reverse(int indexes[], SortInfo sortInfo) {
+        int len = indexes.length;
+        if(sortInfo.getFoldersFirst()) {
+            // Folders remain before files: reverse both parts separately
+            int nbFolders = 0;
+            while(nbFolders<len && store.isDirectory(indexes[nbFolders]))
+                nbFolders++;
+
+            reverse(indexes, 0, nbFolders);
+            reverse(indexes, nbFolders, len);
+        }
+        else {
+            reverse(indexes, 0, len);
+        }
+    }
+
+    private static void reverse(int indexes[], int from, int to) {
+        for(int i=from, j=to-1; i<j; i++, j--) {
+            int temp = indexes[i];
+            indexes[i] = indexes[j];
+            indexes[j] = temp;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.impl.ProxyFile;
+
+/**
+ * A file of a {@link ListingStore}, whose attributes are read from the store rather than from the file itself, so
+ * that they are available without any I/O, like those of a {@link com.mucommander.commons.file.impl.CachedFile}.
+ * Other methods are delegated to the file.
+ *
+ * <p>Instances are created on demand by {@link FileTableModel} and are short-lived: the table does not keep one per
+ * file, the store holds the attributes of all files.</p>
+ */
+class StoredFile extends ProxyFile {
+
+    /** The store holding the attributes of the file */
+    private ListingStore store;
+
+    /** Index of the file in the store */
+    private int index;
+
+
+    /**
+     * Creates a new file whose attributes are read from the given store.
+     *
+     * @param file the file located at the given index in the store
+     * @param store the store holding the attributes of the file
+     * @param index index of the file in the store
+     */
+    StoredFile(AbstractFile file, ListingStore store, int index) {
+        super(file);
+
+        this.store = store;
+        this.index = index;
+    }
+
+    private boolean hasFlag(int flag) {
+        return (store.getFlags(index)&flag)!=0;
+    }
+
+
+    ////////////////////////
+    // Overridden methods //
+    ////////////////////////
+
+    @Override
+    public String getName() {
+        return store.getName(index);
+    }
+
+    @Override
+    public String getExtension() {
+        return store.getExtension(index);
+    }
+
+    @Override
+    public long getDate() {
+        return store.getDate(index);
+    }
+
+    @Override
+    public long getSize() {
+        // The store holds the calculated size of directories, rather than their own
+        if(hasFlag(ListingStore.DIRECTORY))
+            return file.getSize();
+
+        return store.getSize(index);
+    }
+
+    @Override
+    public boolean isDirectory() {
+        return hasFlag(ListingStore.DIRECTORY);
+    }
+
+    @Override
+    public boolean isHidden() {
+        return hasFlag(ListingStore.HIDDEN);
+    }
+
+    @Override
+    public boolean isSymlink() {
+        return hasFlag(ListingStore.SYMLINK);
+    }
+
+    @Override
+    public boolean isBrowsable() {
+        return hasFlag(ListingStore.BROWSABLE);
+    }
+
+    @Override
+    public String getPermissionsString() {
+        if(store.hasAttributes(ListingStore.PERMISSIONS_ATTRIBUTE))
+            return store.getPermissions(index);
+
+        return file.getPermissionsString();
+    }
+
+    @Override
+    public String getOwner() {
+        if(store.hasAttributes(ListingStore.OWNER_ATTRIBUTE))
+            return store.getOwner(index);
+
+        return file.getOwner();
+    }
+
+    @Override
+    public String getGroup() {
+        if(store.hasAttributes(ListingStore.GROUP_ATTRIBUTE))
+            return store.getGroup(index);
+
+        return file.getGroup();
+    }
+}
@@ -19,19 +19,26 @@
 package com.mucommander.ui.main.tree;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * A class that monitors IOThread if it is running or has been blocked.
- * This class maintains a list of tasks to execute and a thread that 
- * executes these tasks. It checks periodically if the IOThread is running.
- * If IOThread has been blocked then it's killed and a new IOThread is 
+ * A class that monitors IOThreads if they are running or have been blocked.
+ * This class maintains a list of tasks to execute and a pool of threads that 
+ * execute these tasks. It checks periodically if the IOThreads are running.
+ * If an IOThread has been blocked then it's killed and a new IOThread is 
  * instantiated. Then the next task from the list will be executed.
+ * <p>
+ * Tasks are picked by order of priority, then by order of arrival. No more
+ * than a given number of tasks of the same volume are executed at the same
+ * time, so that a slow volume doesn't hold every thread. A task replaces an
+ * equivalent task that is already queued, and tasks that are no longer
+ * needed are cancelled instead of being executed.
  * @author Mariusz Jakubowski
  *
  */
@@ -39,25 +46,46 @@ public class AbstractIOThreadManager extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractIOThreadManager.class);
 	
     /** a queue with tasks to execute */
-    protected final List<Runnable> queue = Collections.synchronizedList(new ArrayList<Runnable>());
+    protected final List<IOTask> queue = new ArrayList<IOTask>();
 
-    /** a thread that executes tasks */
-    protected IOThread ioThread;
+    /** threads that execute tasks */
+    protected IOThread ioThreads[];
+
+    /** number of tasks being executed, by volume */
+    private final Map<String, Integer> runningTasks = new HashMap<String, Integer>();
+
+    /** maximum number of tasks of the same volume executed at the same time */
+    private int maxTasksPerVolume;
     
     /** a time after i/o thread is marked as blocked */
     protected long blockThreshold;
     
 
     /**
-     * Creates a new monitoring thread.
+     * Creates a new monitoring thread with a single i/o thread.
      * @param name a name of this thread
      * @param blockThreshold a time after an i/o task is marked as blocked [ms]
      */
     public AbstractIOThreadManager(String name, long blockThreshold) {
+        this(name, blockThreshold, 1, 1);
+    }
+
+    /**
+     * Creates a new monitoring thread.
+     * @param name a name of this thread
+     * @param blockThreshold a time after an i/o task is marked as blocked [ms]
+     * @param nbThreads number of i/o threads
+     * @param maxTasksPerVolume maximum number of tasks of the same volume executed at the same time
+     */
+    public AbstractIOThreadManager(String name, long blockThreshold, int nbThreads, int maxTasksPerVolume) {
         super(name);
         this.blockThreshold = blockThreshold;
-        ioThread = new IOThread(queue, blockThreshold);
-        ioThread.start();
+        this.maxTasksPerVolume = maxTasksPerVolume;
+        ioThreads = new IOThread[nbThreads];
+        for (int i = 0; i < nbThreads; i++) {
+            ioThreads[i] = new IOThread(this, blockThreshold);
+            ioThreads[i].start();
+        }
     }
 
     /**
@@ -66,24 +94,153 @@ public class AbstractIOThreadManager extends Thread {
      * If this task rises an exception, this exception is printed to stderr.
      * @param task a task to be executed
      */
-    public void addTask(Runnable task) {
-        queue.add(task);
-        synchronized(ioThread) {
-            ioThread.notify();
+    public void addTask(final Runnable task) {
+        addTask(new IOTask(null, "") {
+            public void run() {
+                task.run();
+            }
+        });
+    }
+
+    /**
+     * Adds new task to execute. If a task with the same key is already queued,
+     * the new task takes its place in the queue and the queued task is
+     * cancelled.
+     * @param task a task to be executed
+     */
+    public void addTask(IOTask task) {
+        IOTask replacedTask = null;
+        synchronized (queue) {
+            if (task.getKey() != null) {
+                for (int i = 0; i < queue.size(); i++) {
+                    if (task.getKey().equals(queue.get(i).getKey())) {
+                        replacedTask = queue.set(i, task);
+                        break;
+                    }
+                }
+            }
+            if (replacedTask == null) {
+                queue.add(task);
+            }
+            queue.notifyAll();
+        }
+
+        if (replacedTask != null) {
+            LOGGER.trace("Replacing task queued for " + task.getKey());
+            replacedTask.cancel();
         }
     }
-    
 
+    /**
+     * Returns the next task to execute by the given thread, waiting for one
+     * at most the given time. The task with the highest priority whose volume
+     * has not reached its limit is picked, obsolete tasks are removed from the
+     * queue and cancelled.
+     * @param ioThread the thread that will execute the task
+     * @param timeout the maximum time to wait [ms]
+     * @return the task to execute, null if there is none
+     * @throws InterruptedException if the thread has been interrupted while waiting
+     */
+    IOTask nextTask(IOThread ioThread, long timeout) throws InterruptedException {
+        List<IOTask> obsoleteTasks = null;
+        IOTask task = null;
+
+        synchronized (queue) {
+            int taskIndex = -1;
+            int taskPriority = -1;
+            for (int i = 0; i < queue.size(); i++) {
+                IOTask queuedTask = queue.get(i);
+                if (queuedTask.isObsolete()) {
+                    if (obsoleteTasks == null) {
+                        obsoleteTasks = new ArrayList<IOTask>();
+                    }
+                    obsoleteTasks.add(queue.remove(i--));
+                    continue;
+                }
+
+                int priority = queuedTask.getPriority();
+                if (priority > taskPriority && getRunningTasks(queuedTask.getVolume()) < maxTasksPerVolume) {
+                    taskIndex = i;
+                    taskPriority = priority;
+                }
+            }
+
+            if (taskIndex != -1) {
+                task = queue.remove(taskIndex);
+                String volume = task.getVolume();
+                runningTasks.put(volume, getRunningTasks(volume) + 1);
+                ioThread.setTask(task);
+            } else if (obsoleteTasks == null) {
+                queue.wait(timeout);
+            }
+        }
+
+        // Tasks are cancelled outside of the lock, as they may need to acquire other locks
+        if (obsoleteTasks != null) {
+            for (IOTask obsoleteTask : obsoleteTasks) {
+                LOGGER.trace("Cancelling obsolete task for " + obsoleteTask.getKey());
+                obsoleteTask.cancel();
+            }
+        }
+
+        return task;
+    }
+
+    /**
+     * Signals that the given thread has executed its task. The task's volume
+     * slot is released, unless the thread has been replaced in the meantime.
+     * @param ioThread the thread that executed the task
+     */
+    void taskFinished(IOThread ioThread) {
+        synchronized (queue) {
+            IOTask task = ioThread.getTask();
+            ioThread.setTask(null);
+            if (task != null && !ioThread.isReplaced()) {
+                releaseVolume(task.getVolume());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of tasks of the given volume being executed.
+     */
+    private int getRunningTasks(String volume) {
+        Integer nbTasks = runningTasks.get(volume);
+        return nbTasks == null ? 0 : nbTasks;
+    }
+
+    /**
+     * Releases a slot of the given volume, and wakes up threads that may be
+     * waiting for it.
+     */
+    private void releaseVolume(String volume) {
+        int nbTasks = getRunningTasks(volume) - 1;
+        if (nbTasks <= 0) {
+            runningTasks.remove(volume);
+        } else {
+            runningTasks.put(volume, nbTasks);
+        }
+        queue.notifyAll();
+    }
     
     @Override
     public void run() {
         while (!interrupted()) {
             synchronized (queue) {
-                if (ioThread.isBlocked()) {
-                	LOGGER.debug("Killing IOThread " + ioThread);
-                    ioThread.interrupt();
-                    ioThread = new IOThread(queue, blockThreshold);
-                    ioThread.start();
+                for (int i = 0; i < ioThreads.length; i++) {
+                    IOThread ioThread = ioThreads[i];
+                    if (ioThread.isBlocked()) {
+                        LOGGER.debug("Killing IOThread " + ioThread);
+                        ioThread.setReplaced();
+                        ioThread.interrupt();
+                        // The blocked task's volume slot is handed over to the next tasks
+                        IOTask task = ioThread.getTask();
+                        if (task != null) {
+                            releaseVolume(task.getVolume());
+                        }
+                        ioThreads[i] = new IOThread(this, blockThreshold);
+                        ioThreads[i].start();
+                    }
                 }
             }
             try {
@@ -92,7 +249,11 @@ public class AbstractIOThreadManager extends Thread {
                 break;
             }
         }
-        ioThread.interrupt();
+        synchronized (queue) {
+            for (IOThread ioThread : ioThreads) {
+                ioThread.interrupt();
+            }
+        }
     }
     
     
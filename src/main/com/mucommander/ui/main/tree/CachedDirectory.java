@@ -19,6 +19,7 @@
 
 package com.mucommander.ui.main.tree;
 
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
 
 import javax.swing.Icon;
@@ -29,6 +30,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.mucommander.commons.file.AbstractFile;
+import com.mucommander.commons.file.FileURL;
 import com.mucommander.commons.file.impl.ProxyFile;
 import com.mucommander.ui.icon.CustomFileIconProvider;
 import com.mucommander.ui.icon.FileIcons;
@@ -59,6 +61,15 @@ public class CachedDirectory extends ProxyFile {
 
     /** a cached icon */
     private Icon cachedIcon;
+
+    /**
+     * the cached parent of this directory in the tree, null if not known; guarded by the cache's lock.
+     * It is weakly referenced so that an evicted parent and its children are not kept in memory by its children.
+     */
+    private WeakReference<CachedDirectory> treeParent;
+
+    /** estimated memory used by this directory and its children, in bytes; guarded by the cache's lock */
+    long cacheSize;
     
 
     /**
@@ -85,16 +96,48 @@ public class CachedDirectory extends ProxyFile {
         if (lsTimeStamp != file.getDate()) {
             setReadingChildren(true);
             // read children in caching thread
-            TreeIOThreadManager.getInstance().addTask(new Runnable() {
+            TreeIOThreadManager.getInstance().addTask(new IOTask(this, getVolumeKey()) {
                 public void run() {
                     lsAsync();
                 }
+
+                @Override
+                public int getPriority() {
+                    if (cache.isExpanded(CachedDirectory.this)) {
+                        return HIGH_PRIORITY;
+                    }
+                    return cache.isDisplayed(CachedDirectory.this) ? NORMAL_PRIORITY : LOW_PRIORITY;
+                }
+
+                @Override
+                public boolean isObsolete() {
+                    return cache.isCollapsed(CachedDirectory.this);
+                }
+
+                @Override
+                public void cancel() {
+                    // children will be read again if the directory is displayed again
+                    SwingUtilities.invokeLater(new Runnable() {
+                        public void run() {
+                            cancelReadingChildren();
+                        }
+                    });
+                }
             });
             return false;
         }
         return true;
     }
 
+    /**
+     * Returns a key that identifies the volume of this directory, used to limit
+     * the number of directories of the same server read at the same time.
+     */
+    private String getVolumeKey() {
+        FileURL url = file.getURL();
+        return url.getScheme() + "://" + url.getHost();
+    }
+
     /**
      * Gets children of current directory. Files are filtered and then sorted. This
      * method is executed in caching thread.
@@ -120,9 +163,11 @@ public class CachedDirectory extends ProxyFile {
         }
         synchronized (cache) {
             for (int i = 0; i < children.length; i++) {
-                CachedDirectory cachedChild = cache.getOrAdd(children[i]);
+                CachedDirectory cachedChild = cache.getOrAdd(children[i], this, false);
                 cachedChild.setCachedIcon(icons[i]);
             }
+            // trims the cache once for all the children rather than after each of them
+            cache.trim();
         }
         
         final AbstractFile[] children2 = children;
@@ -134,6 +179,7 @@ public class CachedDirectory extends ProxyFile {
             SwingUtilities.invokeAndWait(new Runnable() {
                 public void run() {
                     setLsCache(children2, file.getDate());
+                    cache.childrenCached(CachedDirectory.this, children2);
                 }
             });
         } catch (Exception e) {
@@ -152,6 +198,23 @@ public class CachedDirectory extends ProxyFile {
         setReadingChildren(false);
     }
 
+    /**
+     * Returns the cached parent of this directory in the tree, null if it is not
+     * known or has been garbage collected. Must be called with the cache's lock held.
+     */
+    CachedDirectory getTreeParent() {
+        return treeParent == null ? null : treeParent.get();
+    }
+
+    /**
+     * Sets the cached parent of this directory in the tree. Must be called with
+     * the cache's lock held.
+     * @param treeParent the cached parent of this directory, null if not known
+     */
+    void setTreeParent(CachedDirectory treeParent) {
+        this.treeParent = treeParent == null ? null : new WeakReference<CachedDirectory>(treeParent);
+    }
+
     /**
      * Returns true if caching thread is running.
      */
@@ -169,6 +232,17 @@ public class CachedDirectory extends ProxyFile {
         cache.fireChildrenCached(this, readingChildren);
     }
 
+    /**
+     * Clears the flag that indicates if caching thread is running, after the
+     * caching thread has been cancelled. Unlike {@link #setReadingChildren(boolean)},
+     * the structure of the tree is left unchanged so that the directory is not
+     * read again right away.
+     */
+    private synchronized void cancelReadingChildren() {
+        this.readingChildren = false;
+        cache.fireCachingCancelled(this);
+    }
+
     /**
      * Gets cached children.
      * @return cached children.
@@ -33,4 +33,6 @@ public interface CachedDirectoryListener extends EventListener {
     
     public void cachingEnded(AbstractFile parent);
 
+    public void cachingCancelled(AbstractFile parent);
+
 }
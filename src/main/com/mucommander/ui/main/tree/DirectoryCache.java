@@ -22,20 +22,81 @@ import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.util.FileComparator;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import javax.swing.event.EventListenerList;
+import javax.swing.tree.TreePath;
+import java.lang.ref.SoftReference;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * This class holds cached directories. 
  * It maps AbstractFiles to DirectoryCache instances.
+ *
+ * <p>The cache is bounded by a number of entries and by an estimate of the memory used by the cached children.
+ * When it goes over budget, the least recently used directories that are not displayed by the tree, i.e. whose
+ * parent is not showing its children, are evicted first. If that is not enough, the least recently used displayed
+ * directories are spilled to soft references: they are kept until memory runs low, and put back in the cache if they
+ * are accessed again. Displayed and undisplayed directories are kept in two maps of their own, each in access order,
+ * so that trimming the cache only visits the directories it removes. The number of hits, misses and evictions is
+ * available through {@link #getHitCount()}, {@link #getMissCount()} and {@link #getEvictionCount()}.</p>
+ *
+ * <p>The expanded state of folders mirrors the one of the tree, see {@link #setExpanded(TreePath, boolean)}: like
+ * JTree, the cache remembers the folders expanded beneath a collapsed folder, which are shown again when it is
+ * expanded again, and forgets them when the structure of the tree changes beneath them, see
+ * {@link #removeExpandedDescendants(TreePath)}.</p>
+ *
  * @author Mariusz Jakubowski
  *
  */
 public class DirectoryCache {
+	private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryCache.class);
+
+    /** estimated memory used by a cached directory, not counting its children */
+    private final static int ESTIMATED_DIRECTORY_SIZE = 256;
+
+    /** estimated memory used by a child of a cached directory, not counting its name */
+    private final static int ESTIMATED_CHILD_SIZE = 128;
     
-    /** a map that holds cached folders */
-    private Map<AbstractFile, CachedDirectory> cache;
+    /** cached folders that are displayed by the tree, from the least recently used to the most recently used */
+    private Map<AbstractFile, CachedDirectory> displayedCache;
+
+    /** cached folders that are not displayed by the tree, from the least recently used to the most recently used */
+    private Map<AbstractFile, CachedDirectory> undisplayedCache;
+
+    /** cached folders that have been spilled out of the cache, until they are garbage collected */
+    private Map<AbstractFile, SoftReference<CachedDirectory>> spilledCache;
+
+    /** folders that are expanded in the tree, with their path, including those beneath a collapsed folder */
+    private Map<AbstractFile, TreePath> expandedFolders;
+
+    /** root of the tree, never evicted */
+    private AbstractFile root;
+
+    /** maximum number of cached folders */
+    private int maxEntries;
+
+    /** maximum estimated memory used by cached folders, in bytes */
+    private long maxMemory;
+
+    /** estimated memory used by cached folders, in bytes */
+    private long memory;
+
+    /** number of lookups that found the folder in the cache */
+    private long hitCount;
+
+    /** number of lookups that did not find the folder in the cache */
+    private long missCount;
+
+    /** number of folders evicted from the cache */
+    private long evictionCount;
+
+    /** number of folders spilled to soft references */
+    private long spillCount;
     
     /** Comparator used to sort folders */
     private FileComparator sort;
@@ -51,12 +112,18 @@ public class DirectoryCache {
      * Creates a new directory cache.
      * @param filter filter used to filter children directories.
      * @param sort a comparator used to sort children
+     * @param maxEntries maximum number of cached folders
+     * @param maxMemory maximum estimated memory used by cached folders, in bytes
      */
-    public DirectoryCache(FileFilter filter, FileComparator sort) {
-        //this.cache = Collections.synchronizedMap(new HashMap());
-        this.cache = new HashMap<AbstractFile, CachedDirectory>();
+    public DirectoryCache(FileFilter filter, FileComparator sort, int maxEntries, long maxMemory) {
+        this.displayedCache = new LinkedHashMap<AbstractFile, CachedDirectory>(16, 0.75f, true);
+        this.undisplayedCache = new LinkedHashMap<AbstractFile, CachedDirectory>(16, 0.75f, true);
+        this.spilledCache = new HashMap<AbstractFile, SoftReference<CachedDirectory>>();
+        this.expandedFolders = new HashMap<AbstractFile, TreePath>();
         this.filter = filter;
         this.sort = sort;
+        this.maxEntries = maxEntries;
+        this.maxMemory = maxMemory;
     }
 
     /**
@@ -91,6 +158,19 @@ public class DirectoryCache {
         }
     }
     
+    /**
+     * Fires a cachingCancelled event on all listeners.
+     * @param cachedDirectory a directory those children have not been cached
+     */
+    public void fireCachingCancelled(CachedDirectory cachedDirectory) {
+        Object[] listeners = listenerList.getListenerList();
+        for (int i = listeners.length - 2; i >= 0; i -= 2) {
+            if (listeners[i] == CachedDirectoryListener.class) {
+                ((CachedDirectoryListener) listeners[i + 1]).cachingCancelled(cachedDirectory);
+            }
+        }
+    }
+
     public void addCachedDirectoryListener(CachedDirectoryListener l) {
         listenerList.add(CachedDirectoryListener.class, l);
     }
@@ -100,24 +180,77 @@ public class DirectoryCache {
     }
 
     public synchronized void clear() {
-        cache.clear();
+        displayedCache.clear();
+        undisplayedCache.clear();
+        spilledCache.clear();
+        expandedFolders.clear();
+        root = null;
+        memory = 0;
+    }
+
+    /**
+     * Empties the cache and adds the root of the tree, which is never evicted.
+     * @param cachedRoot the cached root of the tree
+     */
+    public synchronized void setRoot(CachedDirectory cachedRoot) {
+        clear();
+        root = cachedRoot.getProxiedFile();
+        put(root, cachedRoot);
     }
 
     public synchronized CachedDirectory get(AbstractFile key) {
-        return cache.get(key);
+        return get(key, true);
+    }
+
+    private CachedDirectory get(AbstractFile key, boolean trim) {
+        CachedDirectory cachedDir = lookup(key);
+        if (cachedDir == null) {
+            cachedDir = unspill(key, trim);
+        }
+
+        if (cachedDir != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return cachedDir;
     }
 
     public synchronized void put(AbstractFile key, CachedDirectory value) {
-        cache.put(key, value);
+        put(key, value, true);
+    }
+
+    private void put(AbstractFile key, CachedDirectory value, boolean trim) {
+        CachedDirectory previous = remove(key);
+        if (previous != null) {
+            memory -= previous.cacheSize;
+        }
+        spilledCache.remove(key);
+
+        if (value.cacheSize == 0) {
+            value.cacheSize = ESTIMATED_DIRECTORY_SIZE;
+        }
+        memory += value.cacheSize;
+        (isDisplayed(key, value) ? displayedCache : undisplayedCache).put(key, value);
+
+        if (trim) {
+            trim();
+        }
     }
     
     /**
      * Deletes entry and all children from the cache.
      */
     public synchronized void removeWithChildren(AbstractFile key) {
-        CachedDirectory cachedDir = cache.get(key);
+        CachedDirectory cachedDir = remove(key);
+        if (cachedDir == null) {
+            SoftReference<CachedDirectory> ref = spilledCache.remove(key);
+            cachedDir = ref == null ? null : ref.get();
+        } else {
+            memory -= cachedDir.cacheSize;
+        }
+
         if (cachedDir != null) {
-            cache.remove(key);
             AbstractFile[] children = cachedDir.get();
             if (children != null) {
                 for (AbstractFile child : children) {
@@ -134,13 +267,354 @@ public class DirectoryCache {
      * @return a cached file instance
      */
     public synchronized CachedDirectory getOrAdd(AbstractFile key) {
-        CachedDirectory cachedDir = cache.get(key);
+        return getOrAdd(key, null);
+    }
+
+    /**
+     * Gets a cached instance of a file, which is a child of the given
+     * cached directory. If the cached instance of the file doesn't exists
+     * it's added to the cache.
+     * @param key an AbstractFile instance
+     * @param parent the cached parent of the file, null if not known
+     * @return a cached file instance
+     */
+    public synchronized CachedDirectory getOrAdd(AbstractFile key, CachedDirectory parent) {
+        return getOrAdd(key, parent, true);
+    }
+
+    /**
+     * Gets a cached instance of a file, which is a child of the given
+     * cached directory, adding it to the cache if needed. The cache is trimmed
+     * only if requested, so that the children of a directory can be added
+     * before the cache is trimmed once, using {@link #trim()}.
+     * @param key an AbstractFile instance
+     * @param parent the cached parent of the file, null if not known
+     * @param trim true to trim the cache if it goes over budget
+     * @return a cached file instance
+     */
+    synchronized CachedDirectory getOrAdd(AbstractFile key, CachedDirectory parent, boolean trim) {
+        CachedDirectory cachedDir = get(key, trim);
         if (cachedDir == null) {
             cachedDir = new CachedDirectory(key, this);
-            cache.put(key, cachedDir);
+            cachedDir.setTreeParent(parent);
+            put(key, cachedDir, trim);
+        } else if (parent != null && cachedDir.getTreeParent() == null) {
+            cachedDir.setTreeParent(parent);
+            updateDisplayed(key, cachedDir);
         }
         return cachedDir;
     }
-   
+
+    /**
+     * Updates the estimated memory used by the given directory, whose children
+     * have just been cached. This method must not be called with the lock of
+     * the directory held.
+     * @param cachedDir a cached directory
+     * @param children the cached children of the directory
+     */
+    void childrenCached(CachedDirectory cachedDir, AbstractFile[] children) {
+        long size = ESTIMATED_DIRECTORY_SIZE;
+        for (AbstractFile child : children) {
+            size += ESTIMATED_CHILD_SIZE + 2 * child.getName().length();
+        }
+
+        synchronized (this) {
+            AbstractFile key = cachedDir.getProxiedFile();
+            if (displayedCache.get(key) == cachedDir || undisplayedCache.get(key) == cachedDir) {
+                memory += size - cachedDir.cacheSize;
+                cachedDir.cacheSize = size;
+                // The children cached beneath an expanded folder are displayed
+                updateDisplayedChildren(cachedDir);
+                trim();
+            } else {
+                cachedDir.cacheSize = size;
+            }
+        }
+    }
+
+    /**
+     * Records that a folder has been expanded or collapsed in the tree. Like
+     * JTree, the folders expanded beneath a collapsed folder are remembered:
+     * they are no longer displayed, but are shown again when the folder is
+     * expanded again. Folders that are displayed by the tree are evicted last.
+     * @param path the path of a folder of the tree
+     * @param expanded true if the folder has been expanded, false if it has been collapsed
+     */
+    public synchronized void setExpanded(TreePath path, boolean expanded) {
+        AbstractFile folder = (AbstractFile) path.getLastPathComponent();
+        if (expanded) {
+            expandedFolders.put(folder, path);
+        } else {
+            expandedFolders.remove(folder);
+        }
+
+        CachedDirectory cachedDir = lookup(folder);
+        if (cachedDir != null) {
+            updateDisplayedChildren(cachedDir);
+        }
+    }
+
+    /**
+     * Forgets the folders expanded beneath the given path, not including the
+     * folder of the path itself. This method must be called when the structure
+     * of the tree has changed beneath the path, as JTree forgets them as well.
+     * @param path the path of a folder of the tree
+     */
+    public synchronized void removeExpandedDescendants(TreePath path) {
+        boolean removed = false;
+        Iterator<TreePath> iterator = expandedFolders.values().iterator();
+        while (iterator.hasNext()) {
+            TreePath expandedPath = iterator.next();
+            if (expandedPath.getPathCount() > path.getPathCount() && path.isDescendant(expandedPath)) {
+                iterator.remove();
+                removed = true;
+            }
+        }
+
+        if (removed) {
+            CachedDirectory cachedDir = lookup((AbstractFile) path.getLastPathComponent());
+            if (cachedDir != null) {
+                updateDisplayedChildren(cachedDir);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given directory is expanded in the tree and
+     * displayed, i.e. if its children are displayed, or if it is the root.
+     * @param cachedDir a cached directory
+     */
+    public synchronized boolean isExpanded(CachedDirectory cachedDir) {
+        return isShowingChildren(cachedDir.getProxiedFile());
+    }
+
+    /**
+     * Returns true if the given directory is displayed by the tree: the root,
+     * or a child of a directory that shows its children.
+     * @param cachedDir a cached directory
+     */
+    public synchronized boolean isDisplayed(CachedDirectory cachedDir) {
+        return isDisplayed(cachedDir.getProxiedFile(), cachedDir);
+    }
+
+    /**
+     * Returns true if the given directory is known to be hidden because its
+     * parent, or one of its ancestors, is collapsed.
+     * @param cachedDir a cached directory
+     */
+    public synchronized boolean isCollapsed(CachedDirectory cachedDir) {
+        return cachedDir.getTreeParent() != null && !isDisplayed(cachedDir.getProxiedFile(), cachedDir);
+    }
+
+    /**
+     * Returns the number of lookups that found the folder in the cache, including
+     * the folders that had been spilled and were still available.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of lookups that did not find the folder in the cache.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of folders evicted from the cache because it was over budget.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of displayed folders spilled to soft references because
+     * the cache was over budget.
+     */
+    public synchronized long getSpillCount() {
+        return spillCount;
+    }
+
+    /**
+     * Returns the number of cached folders, not counting spilled folders.
+     */
+    public synchronized int size() {
+        return displayedCache.size() + undisplayedCache.size();
+    }
+
+    /**
+     * Returns the estimated memory used by cached folders, in bytes, not counting spilled folders.
+     */
+    public synchronized long getEstimatedMemory() {
+        return memory;
+    }
+
+    /**
+     * Returns the cached folder with the given key, not counting spilled folders.
+     */
+    private CachedDirectory lookup(AbstractFile key) {
+        CachedDirectory cachedDir = displayedCache.get(key);
+        return cachedDir != null ? cachedDir : undisplayedCache.get(key);
+    }
+
+    /**
+     * Removes the cached folder with the given key, not counting spilled folders.
+     */
+    private CachedDirectory remove(AbstractFile key) {
+        CachedDirectory cachedDir = displayedCache.remove(key);
+        return cachedDir != null ? cachedDir : undisplayedCache.remove(key);
+    }
+
+    /**
+     * Puts a spilled folder back in the cache, if it has not been garbage collected.
+     */
+    private CachedDirectory unspill(AbstractFile key, boolean trim) {
+        SoftReference<CachedDirectory> ref = spilledCache.remove(key);
+        if (ref == null) {
+            return null;
+        }
+
+        CachedDirectory cachedDir = ref.get();
+        if (cachedDir != null) {
+            put(key, cachedDir, trim);
+        }
+        return cachedDir;
+    }
+
+    /**
+     * Moves the given cached folder to the map that matches whether it is
+     * displayed or not, if it is not there already.
+     */
+    private void updateDisplayed(AbstractFile key, CachedDirectory cachedDir) {
+        boolean displayed = isDisplayed(key, cachedDir);
+        Map<AbstractFile, CachedDirectory> from = displayed ? undisplayedCache : displayedCache;
+        if (from.remove(key) != null) {
+            (displayed ? displayedCache : undisplayedCache).put(key, cachedDir);
+        }
+    }
+
+    /**
+     * Updates the map of the cached children of the given folder, and of the
+     * folders expanded beneath it, after the folder has been expanded or
+     * collapsed.
+     */
+    private void updateDisplayedChildren(CachedDirectory cachedDir) {
+        AbstractFile[] children = cachedDir.get();
+        if (children == null) {
+            return;
+        }
+
+        for (AbstractFile child : children) {
+            CachedDirectory cachedChild = lookup(child);
+            if (cachedChild != null) {
+                updateDisplayed(child, cachedChild);
+                if (expandedFolders.containsKey(child)) {
+                    updateDisplayedChildren(cachedChild);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the cache is over its entry or memory budget.
+     */
+    private boolean isOverBudget() {
+        return size() > maxEntries || memory > maxMemory;
+    }
+
+    /**
+     * Returns true if the children of the given folder are displayed by the
+     * tree: the folder is the root, or it is expanded along with all of its
+     * ancestors.
+     */
+    private boolean isShowingChildren(AbstractFile key) {
+        if (key.equals(root)) {
+            return true;
+        }
+
+        TreePath path = expandedFolders.get(key);
+        if (path == null) {
+            return false;
+        }
+        // The first component of the path is the root
+        for (path = path.getParentPath(); path != null && path.getPathCount() > 1; path = path.getParentPath()) {
+            if (!expandedFolders.containsKey(path.getLastPathComponent())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the given folder is displayed by the tree: the root, or
+     * a child of a folder that shows its children.
+     */
+    private boolean isDisplayed(AbstractFile key, CachedDirectory cachedDir) {
+        if (key.equals(root)) {
+            return true;
+        }
+
+        CachedDirectory parent = cachedDir.getTreeParent();
+        if (parent != null) {
+            return isShowingChildren(parent.getProxiedFile());
+        }
+
+        // The parent of an expanded folder is known from its path
+        TreePath path = expandedFolders.get(key);
+        return path != null && path.getParentPath() != null
+                && isShowingChildren((AbstractFile) path.getParentPath().getLastPathComponent());
+    }
+
+    /**
+     * Brings the cache back within its budget, evicting the least recently used
+     * folders that are not displayed, then spilling the least recently used
+     * displayed folders to soft references.
+     */
+    synchronized void trim() {
+        if (!isOverBudget()) {
+            return;
+        }
+
+        int nbEvicted = 0;
+        int nbSpilled = 0;
+
+        Iterator<Map.Entry<AbstractFile, CachedDirectory>> iterator = undisplayedCache.entrySet().iterator();
+        while (isOverBudget() && iterator.hasNext()) {
+            Map.Entry<AbstractFile, CachedDirectory> entry = iterator.next();
+            iterator.remove();
+            memory -= entry.getValue().cacheSize;
+            nbEvicted++;
+        }
+
+        if (isOverBudget()) {
+            // Forget the spilled folders that have been garbage collected
+            if (spilledCache.size() > maxEntries) {
+                Iterator<SoftReference<CachedDirectory>> refIterator = spilledCache.values().iterator();
+                while (refIterator.hasNext()) {
+                    if (refIterator.next().get() == null) {
+                        refIterator.remove();
+                    }
+                }
+            }
+
+            iterator = displayedCache.entrySet().iterator();
+            while (isOverBudget() && iterator.hasNext()) {
+                Map.Entry<AbstractFile, CachedDirectory> entry = iterator.next();
+                if (!entry.getKey().equals(root)) {
+                    iterator.remove();
+                    memory -= entry.getValue().cacheSize;
+                    spilledCache.put(entry.getKey(), new SoftReference<CachedDirectory>(entry.getValue()));
+                    nbSpilled++;
+                }
+            }
+        }
+
+        evictionCount += nbEvicted;
+        spillCount += nbSpilled;
+        LOGGER.debug("Evicted " + nbEvicted + " and spilled " + nbSpilled + " folders, " + size()
+                + " folders and ~" + memory + " bytes cached, hits=" + hitCount + ", misses=" + missCount
+                + ", evictions=" + evictionCount);
+    }
 
 }
@@ -21,16 +21,22 @@ package com.mucommander.ui.main.tree;
 import com.mucommander.commons.file.AbstractFile;
 import com.mucommander.commons.file.filter.FileFilter;
 import com.mucommander.commons.file.util.FileComparator;
+import com.mucommander.conf.MuConfigurations;
+import com.mucommander.conf.MuPreference;
+import com.mucommander.conf.MuPreferences;
 import com.mucommander.ui.icon.FileIcons;
 import com.mucommander.ui.icon.SpinningDial;
 
 import javax.swing.*;
 import javax.swing.event.EventListenerList;
+import javax.swing.event.TreeExpansionEvent;
+import javax.swing.event.TreeExpansionListener;
 import javax.swing.event.TreeModelEvent;
 import javax.swing.event.TreeModelListener;
 import javax.swing.tree.TreeModel;
 import javax.swing.tree.TreePath;
 import java.util.Arrays;
+import java.util.Enumeration;
 
 /**
  * A tree model for files.
@@ -39,7 +45,7 @@ import java.util.Arrays;
  * @author Mariusz Jakubowski
  * 
  */
-public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
+public class FilesTreeModel implements TreeModel, CachedDirectoryListener, TreeExpansionListener {
 
     private DirectoryCache cache;
     
@@ -62,7 +68,9 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
     public FilesTreeModel(FileFilter filter, FileComparator sort) {
         super();
         this.sort = sort;
-        cache = new DirectoryCache(filter, sort);
+        cache = new DirectoryCache(filter, sort,
+                MuConfigurations.getPreferences().getVariable(MuPreference.TREE_CACHE_MAX_ENTRIES, MuPreferences.DEFAULT_TREE_CACHE_MAX_ENTRIES),
+                MuConfigurations.getPreferences().getVariable(MuPreference.TREE_CACHE_MAX_MEMORY, MuPreferences.DEFAULT_TREE_CACHE_MAX_MEMORY));
         cache.addCachedDirectoryListener(this);
     }
 
@@ -77,8 +85,7 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
                 root = cachedRoot.getProxiedFile();
-                cache.clear();
-                cache.put(root, cachedRoot);
+                cache.setRoot(cachedRoot);
                 TreePath path = new TreePath(root);
                 fireTreeStructureChanged(this, path);
             }
@@ -88,6 +95,14 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
     public Object getRoot() {
         return root;
     }
+
+    /**
+     * Returns the cache that holds the children of the folders of this tree.
+     * @return the cache of this tree's folders
+     */
+    public DirectoryCache getDirectoryCache() {
+        return cache;
+    }
     
 
     /**
@@ -156,6 +171,8 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
                 ((TreeModelListener) listeners[i + 1]).treeStructureChanged(e);
             }
         }
+        // JTree forgets the folders expanded beneath the path when its structure changes
+        cache.removeExpandedDescendants(path);
     }
 
     /**
@@ -231,6 +248,21 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
         fireTreeStructureChanged(this, path);
     }
 
+    public void treeExpanded(TreeExpansionEvent event) {
+        cache.setExpanded(event.getPath(), true);
+        // JTree shows again the folders that were expanded beneath the path, without firing events for them
+        Enumeration<TreePath> expandedPaths = ((JTree) event.getSource()).getExpandedDescendants(event.getPath());
+        if (expandedPaths != null) {
+            while (expandedPaths.hasMoreElements()) {
+                cache.setExpanded(expandedPaths.nextElement(), true);
+            }
+        }
+    }
+
+    public void treeCollapsed(TreeExpansionEvent event) {
+        cache.setExpanded(event.getPath(), false);
+    }
+
     public void cachingStarted(AbstractFile parent) {
         cachingNum++;
         if (cachingNum == 1) {
@@ -246,6 +278,15 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
         TreePath path = new TreePath(getPathToRoot(parent));
         fireTreeStructureChanged(this, path);
     }
+
+    public void cachingCancelled(AbstractFile parent) {
+        // the children of the folder have not changed, firing a structure change
+        // would read them again and cancel the reading again
+        cachingNum--;
+        if (cachingNum == 0) {
+            spinningIcon.setAnimated(false);
+        }
+    }
     
     /**
      * Returns an icon of this directory or spinning icon if this directory is
@@ -261,6 +302,8 @@ public class FilesTreeModel implements TreeModel, CachedDirectoryListener {
             }
             return cached.getCachedIcon();
         }
+        // The folder may have been evicted from the cache while it was displayed
+        cache.getOrAdd(file).isCached();
         return spinningIcon;
     }
 
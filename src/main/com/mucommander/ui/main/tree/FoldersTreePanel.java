@@ -120,6 +120,7 @@ public class FoldersTreePanel extends JPanel implements TreeSelectionListener,
                 TreeSelectionModel.SINGLE_TREE_SELECTION);
         tree.setExpandsSelectedPaths(true);
         tree.getModel().addTreeModelListener(this);
+        tree.addTreeExpansionListener(model);
 
         JScrollPane sp = new JScrollPane(tree);
         // JScrollPane usually comes with a tiny border, remove it
@@ -0,0 +1,100 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.tree;
+
+/**
+ * A task executed by the threads of an {@link AbstractIOThreadManager}.
+ * Tasks are executed by order of priority, which is evaluated each time a
+ * task is picked, so that it can follow the state of the tree. Each task
+ * belongs to a volume, and the number of tasks of a volume executed at the
+ * same time is limited, so that a slow volume cannot hold all threads.
+ * @author Mariusz Jakubowski
+ *
+ */
+public abstract class IOTask implements Runnable {
+
+    /** priority of tasks that are not needed for the tree to be displayed */
+    public final static int LOW_PRIORITY = 0;
+
+    /** priority of tasks that are needed for the tree to be displayed */
+    public final static int NORMAL_PRIORITY = 1;
+
+    /** priority of tasks that a node being expanded is waiting for */
+    public final static int HIGH_PRIORITY = 2;
+
+    /** identifies the work done by the task, null if the task can't be de-duplicated */
+    private Object key;
+
+    /** identifies the volume accessed by the task */
+    private String volume;
+
+
+    /**
+     * Creates a new task.
+     * @param key identifies the work done by the task: a task replaces a queued
+     * task with an equal key, which is cancelled. Can be null.
+     * @param volume identifies the volume accessed by the task
+     */
+    protected IOTask(Object key, String volume) {
+        this.key = key;
+        this.volume = volume;
+    }
+
+    /**
+     * Returns the key that identifies the work done by this task, null if the
+     * task can't be de-duplicated.
+     */
+    public Object getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the volume accessed by this task.
+     */
+    public String getVolume() {
+        return volume;
+    }
+
+    /**
+     * Returns the current priority of this task: {@link #LOW_PRIORITY},
+     * {@link #NORMAL_PRIORITY} or {@link #HIGH_PRIORITY}. This method is called
+     * each time a task is picked and must not perform any i/o.
+     * @return the current priority of this task
+     */
+    public int getPriority() {
+        return NORMAL_PRIORITY;
+    }
+
+    /**
+     * Returns true if this task is no longer needed, in which case it's
+     * removed from the queue and {@link #cancel()} is called instead of
+     * {@link #run()}. This method must not perform any i/o.
+     * @return true if this task is no longer needed
+     */
+    public boolean isObsolete() {
+        return false;
+    }
+
+    /**
+     * Called instead of {@link #run()} when this task is no longer needed.
+     */
+    public void cancel() {
+    }
+
+}
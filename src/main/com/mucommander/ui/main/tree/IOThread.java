@@ -18,8 +18,6 @@
 
 package com.mucommander.ui.main.tree;
 
-import java.util.List;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,8 +29,14 @@ import org.slf4j.LoggerFactory;
 public class IOThread extends Thread {
 	private static final Logger LOGGER = LoggerFactory.getLogger(IOThread.class);
 	
-    /** a queue with tasks to execute */
-    private List<Runnable> queue;
+    /** the manager that provides tasks to execute */
+    private AbstractIOThreadManager manager;
+
+    /** the task being executed, guarded by the manager's queue */
+    private IOTask task;
+
+    /** true if this thread has been replaced because it was blocked */
+    private volatile boolean replaced;
     
     /** a time after this thread is marked as blocked */
     private long blockThreshold;
@@ -43,12 +47,12 @@ public class IOThread extends Thread {
     
     /**
      * Creates a new instance of an IOThread.
-     * @param queue a queue with tasks
+     * @param manager the manager that provides tasks to execute
      * @param blockThreshold a time after this thread is marked as blocked [ms]
      */
-    public IOThread(List<Runnable> queue, long blockThreshold) {
+    public IOThread(AbstractIOThreadManager manager, long blockThreshold) {
         super("IOThread");
-        this.queue = queue;
+        this.manager = manager;
         this.blockThreshold = blockThreshold;
     }
     
@@ -57,27 +61,54 @@ public class IOThread extends Thread {
     @Override
     public void run() {
         
-        while (!interrupted()) {
+        while (!interrupted() && !replaced) {
             lastActionTime = System.currentTimeMillis(); 
-            while (queue.size() > 0) {
-                Runnable task = queue.remove(0);
+            IOTask task;
+            try {
+                task = manager.nextTask(this, blockThreshold / 2);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (task != null) {
                 try {
                     task.run();
                 } catch (Exception e) {
                     LOGGER.debug("Caught exception", e);
+                } finally {
+                    manager.taskFinished(this);
                 }
-                lastActionTime = System.currentTimeMillis(); 
-            }
-            try {
-                synchronized (this) {
-                    wait(blockThreshold / 2);
-                }
-            } catch (InterruptedException e) {
-                break;
             }
         }
         
     }
+
+    /**
+     * Returns the task being executed by this thread, null if none.
+     */
+    IOTask getTask() {
+        return task;
+    }
+
+    /**
+     * Sets the task being executed by this thread.
+     */
+    void setTask(IOTask task) {
+        this.task = task;
+    }
+    
+    /**
+     * Returns true if this thread has been replaced because it was blocked.
+     */
+    boolean isReplaced() {
+        return replaced;
+    }
+
+    /**
+     * Marks this thread as replaced by another thread.
+     */
+    void setReplaced() {
+        replaced = true;
+    }
     
     /**
      * Checks if current thread is blocked. This is done by checking if 
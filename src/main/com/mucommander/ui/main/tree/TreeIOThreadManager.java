@@ -19,7 +19,7 @@
 package com.mucommander.ui.main.tree;
 
 /**
- * Monitors thread that reads children and icons for the tree.
+ * Monitors threads that read children and icons for the tree.
  * @author Mariusz Jakubowski
  *
  */
@@ -27,8 +27,14 @@ public class TreeIOThreadManager extends AbstractIOThreadManager {
 
     public final static TreeIOThreadManager instance = new TreeIOThreadManager();
     
+    /** number of threads reading children */
+    private final static int NB_THREADS = 4;
+
+    /** maximum number of children read at the same time from the same volume */
+    private final static int MAX_TASKS_PER_VOLUME = 2;
+    
     private TreeIOThreadManager() {
-        super("TreeIOThreadManager", 5000);
+        super("TreeIOThreadManager", 5000, NB_THREADS, MAX_TASKS_PER_VOLUME);
     }
     
     public static TreeIOThreadManager getInstance() {
@@ -40,6 +40,12 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
 	/** Quick search string */
     private String searchString;
 
+    /** Lower-case version of the quick search string */
+    private String searchStringLC;
+
+    /** Index of the items, null until a match is first looked for */
+    private QuickSearchIndex index;
+
 	/** Timestamp of the last search string change, used when quick search is active */
     private long lastSearchStringChange;
 
@@ -74,6 +80,9 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         if(!isActive()) {
             // Reset search string
             searchString = "";
+            searchStringLC = "";
+            if(index!=null)
+                index.clearMatches();
             // Start the thread that's responsible for canceling the quick search on timeout
             timeoutThread = new Thread(this, "QuickSearch timeout thread");
             timeoutThread.start();
@@ -90,6 +99,10 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         if(isActive()) {
             timeoutThread = null;
 
+            // Keep the index only if it can tell whether the items have changed by the next search
+            if(index!=null && index.getKey()==null)
+                index = null;
+
             searchStopped();
         }
     }
@@ -112,7 +125,26 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
      * @return true if the current quick search string matches the given string
      */
     public boolean matches(String string) {
-        return isActive() && string.toLowerCase().indexOf(searchString.toLowerCase())!=-1;
+        return isActive() && string.toLowerCase().indexOf(searchStringLC)!=-1;
+    }
+
+    /**
+     * Returns <code>true</code> if the current quick search string matches the item located at the given index.
+     * Always returns <code>false</code> when the quick search is inactive. This method is faster than
+     * {@link #matches(String)} as it uses the lower-case versions of the items that have been computed for the search.
+     *
+     * @param index index of the item to test against the quick search string
+     * @return true if the current quick search string matches the given item
+     */
+    public boolean matchesItem(int index) {
+        if(!isActive())
+            return false;
+
+        QuickSearchIndex searchIndex = this.index;
+        if(searchIndex!=null && searchIndex.getKey()==getItemsKey() && index<searchIndex.getNumOfItems())
+            return searchIndex.getLowerCaseItem(index).indexOf(searchStringLC)!=-1;
+
+        return matches(getItemString(index));
     }
 
 
@@ -146,6 +178,10 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
 		this.lastSearchStringChange = lastSearchStringChange;
 	}
 
+	protected String getSearchString() {
+		return searchString;
+	}
+
 	protected boolean isSearchStringEmpty() {
 		return searchString.length() == 0;
 	}
@@ -158,6 +194,7 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         // the cancel() method will be called, and repainting twice would result in an
         // unpleasant graphical artifact.
         searchString = searchString.substring(0, searchString.length()-1);
+        searchStringLC = searchString.toLowerCase();
         if(searchString.length() != 0)
             component.repaint();
 	}
@@ -167,6 +204,7 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         // Since the search string has been updated, match information has changed as well
         // and we need to repaint the table.
         searchString += keyChar;
+        searchStringLC = searchString.toLowerCase();
         component.repaint();
 	}
 	
@@ -194,14 +232,42 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         }
     }
 	
+	/**
+	 * Returns the index of the current items, creating it if there is none or if the items have changed since it
+	 * was created.
+	 */
+	private QuickSearchIndex getIndex() {
+		Object key = getItemsKey();
+		if(index==null || index.getKey()!=key)
+			index = new QuickSearchIndex(this, key);
+
+		return index;
+	}
+
 	private int getBestMatch(int startRow, boolean descending, boolean findBestMatch) {
-    	String searchStringLC = searchString.toLowerCase();
-    	int searchStringLen = searchString.length();
+        int searchStringLen = searchString.length();
         int startsWithCaseMatch = -1;
         int startsWithNoCaseMatch = -1;
         int containsCaseMatch = -1;
         int containsNoCaseMatch = -1;
-        int nbRows = getNumOfItems();
+
+        // Only the rows that contain the search string, whatever the case, can match: the index narrows them down
+        // from the rows that matched the search string before its last character was typed
+        QuickSearchIndex searchIndex = getIndex();
+        int candidates[] = searchIndex.findMatches(searchStringLC);
+        int nbCandidates = searchIndex.getNbMatches();
+
+        // Position of the first candidate to test, i.e. the first one after (resp. before) startRow
+        int left = 0;
+        int right = nbCandidates;
+        while(left<right) {
+            int mid = (left+right)>>>1;
+            if(candidates[mid]<startRow)
+                left = mid+1;
+            else
+                right = mid;
+        }
+        int start = descending || (left<nbCandidates && candidates[left]==startRow)?left:left-1;
 
         // Iterate on rows and look the first strings to match one of the following tests,
         // in the following order of importance :
@@ -209,19 +275,15 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
         // - search string matches the beginning of the string with a different case
         // - string contains search string with the same case
         // - string contains search string with a different case
-        for(int i=startRow; descending?i<nbRows:i>=0; i=descending?i+1:i-1) {
+        for(int c=start; descending?c<nbCandidates:c>=0; c=descending?c+1:c-1) {
             // if findBestMatch was not specified, stop to the first match
             if(!findBestMatch && (startsWithCaseMatch!=-1 || startsWithNoCaseMatch!=-1 || containsCaseMatch!=-1 || containsNoCaseMatch!=-1))
                 break;
 
-            String item = getItemString(i);
+            int i = candidates[c];
+            String item = searchIndex.getItem(i);
             int itemLen = item.length();
 
-            // No need to compare strings if quick search string is longer than compared string,
-            // they won't match
-            if(itemLen<searchStringLen)
-                continue;
-
             // Compare quick search string against
             if (item.startsWith(searchString)) {
                 // We've got the best match we could ever have, let's get out of this loop!
@@ -233,7 +295,7 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
             if(startsWithNoCaseMatch!=-1)
                 continue;
 
-            String itemLC = item.toLowerCase();
+            String itemLC = searchIndex.getLowerCaseItem(i);
             if(itemLC.startsWith(searchStringLC)) {
                 // We've got a match, let's see if we can find a better match on the next string
                 startsWithNoCaseMatch = i;
@@ -258,11 +320,8 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
             if(containsNoCaseMatch!=-1)
                 continue;
 
-            if(itemLC.indexOf(searchStringLC)!=-1) {
-                // We've got a match, let's see if we can find a better match on the next string
-                containsNoCaseMatch = i;
-                continue;
-            }
+            // The index guarantees that the string contains search string with a different case
+            containsNoCaseMatch = i;
         }
     	
         // Determines what the best match is, based on all the matches we found
@@ -307,6 +366,28 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
 	 */
 	protected abstract String getItemString(int index);
 	
+	/**
+	 * Returns an object that identifies the current items: the lower-case versions of the items are computed once
+	 * and reused for as long as this method returns the same object, across searches. The default implementation
+	 * returns <code>null</code>, in which case they are computed once per search, the items being assumed not to
+	 * change during a search.
+	 *
+	 * @return an object that changes whenever the items change, <code>null</code> if there is none
+	 */
+	protected Object getItemsKey() {
+		return null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the quick search is stopped when the search string has not changed for a few
+	 * seconds. The default implementation returns <code>true</code>.
+	 *
+	 * @return true if the quick search times out
+	 */
+	protected boolean isTimeoutEnabled() {
+		return true;
+	}
+
 	/**
 	 * Hook that is called after a search was done for an empty string
 	 * 
@@ -341,7 +422,7 @@ public abstract class QuickSearch<T> extends KeyAdapter implements Runnable {
             }
 
             synchronized(this) {
-                if(timeoutThread!=null && System.currentTimeMillis()-lastSearchStringChange >= QUICK_SEARCH_TIMEOUT) {
+                if(timeoutThread!=null && isTimeoutEnabled() && System.currentTimeMillis()-lastSearchStringChange >= QUICK_SEARCH_TIMEOUT) {
                     stop();
                 }
             }
@@ -0,0 +1,177 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.quicksearch;
+
+/**
+ * Holds the items searched by a {@link QuickSearch} along with their lower-case versions, which are computed once
+ * rather than on each keystroke, and the items that match the successive versions of the search string.
+ *
+ * <p>Items matching a search string are those that contain it, case-insensitively: items that match a search string
+ * are necessarily among those that match any of its prefixes. The index keeps the matching items of each search
+ * string as a stack, so that typing a character only tests the items that matched before it was typed, and removing
+ * a character brings back the previous matches without testing any item.</p>
+ */
+class QuickSearchIndex {
+
+    /** Identifies the items this index was built for, see {@link QuickSearch#getItemsKey()} */
+    private Object key;
+
+    /** The items, as returned by {@link QuickSearch#getItemString(int)} */
+    private String items[];
+
+    /** Lower-case versions of the items */
+    private String lowerCaseItems[];
+
+    /** Lower-case search strings whose matches are on the stack, from the shortest to the longest */
+    private String searchStrings[] = new String[16];
+
+    /** Indexes of the items that match each search string of the stack, in ascending order */
+    private int matches[][] = new int[16][];
+
+    /** Number of matching items of each search string of the stack */
+    private int nbMatches[] = new int[16];
+
+    /** Number of search strings on the stack */
+    private int depth;
+
+
+    /**
+     * Creates a new index of the items of the given quick search.
+     *
+     * @param search the quick search whose items to index
+     * @param key identifies the current items of the quick search
+     */
+    QuickSearchIndex(QuickSearch<?> search, Object key) {
+        this.key = key;
+
+        int nbItems = search.getNumOfItems();
+        items = new String[nbItems];
+        lowerCaseItems = new String[nbItems];
+        for(int i=0; i<nbItems; i++) {
+            String item = search.getItemString(i);
+            items[i] = item;
+            // Note: toLowerCase() returns the same instance if the item is lower-case already
+            lowerCaseItems[i] = item.toLowerCase();
+        }
+    }
+
+    /**
+     * Returns the object that identifies the items this index was built for.
+     *
+     * @return the object that identifies the items this index was built for
+     */
+    Object getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the number of indexed items.
+     *
+     * @return the number of indexed items
+     */
+    int getNumOfItems() {
+        return items.length;
+    }
+
+    /**
+     * Returns the item located at the given index.
+     *
+     * @param index index of an item
+     * @return the item located at the given index
+     */
+    String getItem(int index) {
+        return items[index];
+    }
+
+    /**
+     * Returns the lower-case version of the item located at the given index.
+     *
+     * @param index index of an item
+     * @return the lower-case version of the item located at the given index
+     */
+    String getLowerCaseItem(int index) {
+        return lowerCaseItems[index];
+    }
+
+    /**
+     * Returns the indexes of the items that contain the given lower-case search string, in ascending order. Only the
+     * first values of the returned array are valid, their number is returned by {@link #getNbMatches()}. The
+     * returned array must not be modified.
+     *
+     * @param searchStringLC a lower-case search string, not empty
+     * @return the indexes of the items that contain the given search string
+     */
+    int[] findMatches(String searchStringLC) {
+        // Discard the search strings that are not prefixes of the new one, e.g. after a character has been removed
+        while(depth>0 && !searchStringLC.startsWith(searchStrings[depth-1]))
+            depth--;
+
+        if(depth>0 && searchStrings[depth-1].equals(searchStringLC))
+            return matches[depth-1];
+
+        // Narrow down the matches of the longest prefix, or test all items if there is none
+        int candidates[] = depth>0?matches[depth-1]:null;
+        int nbCandidates = depth>0?nbMatches[depth-1]:items.length;
+        int searchStringLen = searchStringLC.length();
+
+        int newMatches[] = new int[nbCandidates];
+        int nbNewMatches = 0;
+        for(int c=0; c<nbCandidates; c++) {
+            int i = candidates==null?c:candidates[c];
+            String itemLC = lowerCaseItems[i];
+            if(itemLC.length()>=searchStringLen && itemLC.indexOf(searchStringLC)!=-1)
+                newMatches[nbNewMatches++] = i;
+        }
+
+        if(depth==searchStrings.length) {
+            // Drop the shortest search string, the longest ones are the most likely to be needed again
+            System.arraycopy(searchStrings, 1, searchStrings, 0, depth-1);
+            System.arraycopy(matches, 1, matches, 0, depth-1);
+            System.arraycopy(nbMatches, 1, nbMatches, 0, depth-1);
+            depth--;
+        }
+
+        searchStrings[depth] = searchStringLC;
+        matches[depth] = newMatches;
+        nbMatches[depth] = nbNewMatches;
+        depth++;
+
+        return newMatches;
+    }
+
+    /**
+     * Returns the number of items matching the search string last passed to {@link #findMatches(String)}.
+     *
+     * @return the number of items matching the last search string
+     */
+    int getNbMatches() {
+        return depth==0?0:nbMatches[depth-1];
+    }
+
+    /**
+     * Discards the matches of all search strings, this method is called when the search string is reset.
+     */
+    void clearMatches() {
+        for(int i=0; i<depth; i++) {
+            searchStrings[i] = null;
+            matches[i] = null;
+        }
+        depth = 0;
+    }
+}
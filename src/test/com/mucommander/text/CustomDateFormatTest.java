@@ -0,0 +1,106 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.text;
+
+import org.testng.annotations.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A test case for {@link CustomDateFormat}: dates formatted with the cached date and time parts must be the same as
+ * those formatted by a <code>SimpleDateFormat</code> with the whole format, whichever thread they are formatted from.
+ */
+public class CustomDateFormatTest {
+
+    /** Number of milliseconds in a day */
+    private final static long DAY = 24*60*60*1000L;
+
+    /**
+     * Returns dates spread over a few days, including dates before the epoch and around DST changes, in random order.
+     */
+    private static long[] createDates() {
+        Random random = new Random(0);
+        long dates[] = new long[20000];
+        long base[] = {
+            System.currentTimeMillis(),
+            0,
+            -DAY/2,
+            1301187600000L,     // Around the March 2011 DST change in Europe
+            1320544800000L,     // Around the November 2011 DST change in the US
+        };
+        for(int i=0; i<dates.length; i++)
+            dates[i] = base[i%base.length] + (random.nextInt(7*24*60*60) - 3*24*60*60)*1000L + random.nextInt(1000);
+        return dates;
+    }
+
+    /**
+     * Asserts that {@link CustomDateFormat#format(long)} returns the same strings as <code>SimpleDateFormat</code>,
+     * both when the parts of a date are first formatted and when they are cached.
+     */
+    @Test
+    public void testSameAsSimpleDateFormat() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(CustomDateFormat.getDateFormatString());
+        long dates[] = createDates();
+
+        for(int pass=0; pass<2; pass++) {
+            for(long date : dates)
+                assert dateFormat.format(new Date(date)).equals(CustomDateFormat.format(date));
+        }
+    }
+
+    /**
+     * Asserts that dates formatted concurrently by several threads are the same as those formatted by a single
+     * <code>SimpleDateFormat</code>.
+     *
+     * @throws InterruptedException should not happen
+     */
+    @Test
+    public void testConcurrentFormatting() throws InterruptedException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat(CustomDateFormat.getDateFormatString());
+        final long dates[] = createDates();
+        final String expected[] = new String[dates.length];
+        for(int i=0; i<dates.length; i++)
+            expected[i] = dateFormat.format(new Date(dates[i]));
+
+        final AtomicInteger nbErrors = new AtomicInteger();
+        Thread threads[] = new Thread[4];
+        for(int t=0; t<threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for(int i=0; i<dates.length; i++) {
+                        int index = (i+offset*dates.length/4)%dates.length;
+                        if(!expected[index].equals(CustomDateFormat.format(dates[index])))
+                            nbErrors.incrementAndGet();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        for(Thread thread : threads)
+            thread.join();
+
+        assert nbErrors.get()==0;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.text;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Measures the time spent and the memory allocated to format the size and date of the rows of a large folder with
+ * {@link SizeFormat} and {@link CustomDateFormat}, compared to formatting them with a plain
+ * <code>SimpleDateFormat</code>. Results are logged; allocations are only measured on JVMs whose
+ * <code>ThreadMXBean</code> reports the number of bytes allocated by a thread. The benchmark belongs to the
+ * <code>benchmark</code> group, which is not run by the default test suite, see <code>benchmarks.xml</code>.
+ * The output of the formats is tested by {@link CustomDateFormatTest} and {@link SizeFormatTest}.
+ */
+public class FormatBenchmarkTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(FormatBenchmarkTest.class);
+
+    /** Number of rows of the folder */
+    private final static int NB_ROWS = 100000;
+
+    /** Number of passes, the first ones warm up the JIT */
+    private final static int NB_PASSES = 5;
+
+    /** Format of sizes in the file table */
+    private final static int SIZE_FORMAT = SizeFormat.DIGITS_MEDIUM | SizeFormat.UNIT_SHORT | SizeFormat.ROUND_TO_KB;
+
+    static {
+        // SizeFormat uses localized strings
+        try { Translator.loadDictionaryFile(); }
+        catch(Exception e) { throw new RuntimeException(e); }
+    }
+
+    /**
+     * Formats the rows of a folder of photos taken over a few days, and reports the allocation per row.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkRowFormatting() {
+        Random random = new Random(0);
+        long sizes[] = new long[NB_ROWS];
+        long dates[] = new long[NB_ROWS];
+        long now = System.currentTimeMillis();
+        for(int i=0; i<NB_ROWS; i++) {
+            sizes[i] = 1000000 + random.nextInt(8000000);
+            dates[i] = now - random.nextInt(5*24*60*60)*1000L;
+        }
+
+        final SimpleDateFormat simpleDateFormat = new SimpleDateFormat(CustomDateFormat.getDateFormatString());
+
+        Measure plain = null;
+        Measure custom = null;
+        for(int pass=0; pass<NB_PASSES; pass++) {
+            plain = measure(new Row() {
+                public Object format(long size, long date) {
+                    SizeFormat.format(size, SIZE_FORMAT);
+                    return simpleDateFormat.format(new Date(date));
+                }
+            }, sizes, dates);
+
+            custom = measure(new Row() {
+                public Object format(long size, long date) {
+                    SizeFormat.format(size, SIZE_FORMAT);
+                    return CustomDateFormat.format(date);
+                }
+            }, sizes, dates);
+        }
+
+        LOGGER.info("SimpleDateFormat: "+plain);
+        LOGGER.info("CustomDateFormat: "+custom);
+
+        if(custom.bytesPerRow>=0)
+            assert custom.bytesPerRow<plain.bytesPerRow;
+    }
+
+    private static Measure measure(Row row, long sizes[], long dates[]) {
+        long bytes = getAllocatedBytes();
+        long time = System.nanoTime();
+
+        int hash = 0;
+        for(int i=0; i<sizes.length; i++)
+            hash += row.format(sizes[i], dates[i]).hashCode();
+
+        Measure measure = new Measure();
+        measure.nanosPerRow = (System.nanoTime()-time)/sizes.length;
+        measure.bytesPerRow = bytes<0?-1:(getAllocatedBytes()-bytes)/sizes.length;
+        measure.hash = hash;
+        return measure;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the current thread so far, -1 if the JVM does not report it.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        try {
+            // com.sun.management.ThreadMXBean is not available on all JVMs
+            Method method = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+            return (Long)method.invoke(threadBean, Thread.currentThread().getId());
+        }
+        catch(Exception e) {
+            return -1;
+        }
+    }
+
+    private static interface Row {
+        Object format(long size, long date);
+    }
+
+    private static class Measure {
+        private long nanosPerRow;
+        private long bytesPerRow;
+        private int hash;
+
+        @Override
+        public String toString() {
+            return nanosPerRow+" ns/row, "+(bytesPerRow<0?"?":""+bytesPerRow)+" bytes/row";
+        }
+    }
+}
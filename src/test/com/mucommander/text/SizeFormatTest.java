@@ -187,4 +187,23 @@ public class SizeFormatTest {
     private void testRoundToKb(long size, int digitFormat) {
         assert "1".equals(SizeFormat.format(size, digitFormat | SizeFormat.ROUND_TO_KB | SizeFormat.UNIT_NONE));
     }
+
+    /**
+     * Tests that the strings cached by {@link SizeFormat#format(long, int)} are specific to each format, and that the
+     * same string is returned each time a size is formatted with the same format.
+     */
+    @Test
+    public void testCachedStrings() {
+        int format = SizeFormat.DIGITS_MEDIUM | SizeFormat.UNIT_SHORT | SizeFormat.INCLUDE_SPACE;
+        for (int i = 0; i < UNITS.length; i++) {
+            long unit = UNITS[i];
+            String unitString = SizeFormat.getUnitString(SizeFormat.KILOBYTE_UNIT + i, false);
+            for (long size : new long[] { unit, unit * 5 + unit / 2, unit * 436, unit * 1023 }) {
+                String digits = SizeFormat.format(size, SizeFormat.DIGITS_MEDIUM | SizeFormat.UNIT_NONE);
+                String string = SizeFormat.format(size, format);
+                assert (digits + " " + unitString).equals(string);
+                assert string == SizeFormat.format(size, format);
+            }
+        }
+    }
 }
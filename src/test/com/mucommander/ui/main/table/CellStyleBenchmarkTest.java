@@ -0,0 +1,227 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import com.mucommander.ui.theme.ThemeCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Measures the time spent painting the cells of a 1000-row viewport with {@link CellLabel}, when the colors of each
+ * cell are worked out from the theme's colors as {@link FileTableCellRenderer} used to, and when they are looked up in
+ * the styles created by {@link CellStyle}. Both must paint the same colors, which is tested by the default test suite.
+ * The benchmark belongs to the <code>benchmark</code> group, which is not run by the default test suite, see
+ * <code>benchmarks.xml</code>; its results are logged.
+ */
+public class CellStyleBenchmarkTest {
+	private static final Logger LOGGER = LoggerFactory.getLogger(CellStyleBenchmarkTest.class);
+
+    /** Number of rows of the viewport */
+    private final static int NB_ROWS = 1000;
+
+    /** Number of text columns of the viewport */
+    private final static int NB_COLUMNS = 4;
+
+    /** Number of passes, the first ones warm up the JIT */
+    private final static int NB_PASSES = 10;
+
+    private final static int ROW_HEIGHT = 18;
+    private final static int COLUMN_WIDTH = 120;
+
+    private Color foregroundColors[][][] = new Color[2][2][ThemeCache.PLAIN_FILE+1];
+    private Color backgroundColors[][] = new Color[2][4];
+    private Color unmatchedForeground;
+    private Color unmatchedBackground;
+    private Color activeOutlineColor;
+    private Color inactiveOutlineColor;
+
+    /** Row states, as a combination of CellStyle bits */
+    private int states[] = new int[NB_ROWS];
+
+    /** Color index of each row */
+    private int colorIndexes[] = new int[NB_ROWS];
+
+    public CellStyleBenchmarkTest() {
+        Random random = new Random(0);
+        for(Color colors[][] : foregroundColors)
+            for(int i=0; i<colors.length; i++)
+                for(int j=0; j<colors[i].length; j++)
+                    colors[i][j] = new Color(random.nextInt(0x1000000));
+        for(Color colors[] : backgroundColors)
+            for(int i=0; i<colors.length; i++)
+                colors[i] = new Color(random.nextInt(0x1000000));
+        unmatchedForeground = new Color(random.nextInt(0x1000000));
+        unmatchedBackground = new Color(random.nextInt(0x1000000));
+        activeOutlineColor = new Color(random.nextInt(0x1000000));
+        inactiveOutlineColor = new Color(random.nextInt(0x1000000));
+
+        // A focused table whose 10th row is selected, with quick search active on every other pass
+        for(int row=0; row<NB_ROWS; row++) {
+            states[row] = CellStyle.FOCUSED | (row%2!=0?CellStyle.ALTERNATE:0) | (row==10?CellStyle.SELECTED:0);
+            colorIndexes[row] = random.nextInt(ThemeCache.PLAIN_FILE+1);
+        }
+    }
+
+    /**
+     * Paints the viewport with both methods, with and without quick search, and asserts that they paint the same
+     * image.
+     */
+    @Test
+    public void testSameColors() {
+        CellStyle styles[] = createStyles();
+        CellLabel label = createLabel();
+        BufferedImage before = createImage();
+        BufferedImage after = createImage();
+
+        for(int pass=0; pass<2; pass++) {
+            boolean searching = pass!=0;
+            paintBefore(label, before, searching);
+            paintAfter(label, after, styles, searching);
+            assertSameImage(before, after);
+        }
+    }
+
+    /**
+     * Paints the viewport with both methods and logs the time spent painting it.
+     */
+    @Test(groups = "benchmark")
+    public void benchmarkViewportPainting() {
+        CellStyle styles[] = createStyles();
+        CellLabel label = createLabel();
+        BufferedImage before = createImage();
+        BufferedImage after = createImage();
+
+        long beforeNanos = 0;
+        long afterNanos = 0;
+        for(int pass=0; pass<NB_PASSES; pass++) {
+            boolean searching = pass%2!=0;
+
+            long time = System.nanoTime();
+            paintBefore(label, before, searching);
+            beforeNanos = System.nanoTime()-time;
+
+            time = System.nanoTime();
+            paintAfter(label, after, styles, searching);
+            afterNanos = System.nanoTime()-time;
+        }
+
+        LOGGER.info("Per-cell colors: "+beforeNanos/1000+" us/viewport");
+        LOGGER.info("Style tables:    "+afterNanos/1000+" us/viewport");
+
+        assertSameImage(before, after);
+    }
+
+    private CellStyle[] createStyles() {
+        return CellStyle.createStyles(foregroundColors, backgroundColors, unmatchedForeground, unmatchedBackground,
+                activeOutlineColor, inactiveOutlineColor);
+    }
+
+    private static CellLabel createLabel() {
+        CellLabel label = new CellLabel();
+        label.setSize(COLUMN_WIDTH, ROW_HEIGHT);
+        return label;
+    }
+
+    private static BufferedImage createImage() {
+        return new BufferedImage(COLUMN_WIDTH*NB_COLUMNS, ROW_HEIGHT*NB_ROWS, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private static void assertSameImage(BufferedImage before, BufferedImage after) {
+        for(int y=0; y<before.getHeight(); y++)
+            for(int x=0; x<before.getWidth(); x++)
+                assert before.getRGB(x, y)==after.getRGB(x, y);
+    }
+
+    /**
+     * Paints the viewport, working out the colors of each cell as FileTableCellRenderer used to.
+     */
+    private void paintBefore(CellLabel label, BufferedImage image, boolean searching) {
+        Graphics2D g = image.createGraphics();
+        for(int row=0; row<NB_ROWS; row++) {
+            for(int column=0; column<NB_COLUMNS; column++) {
+                boolean hasFocus = (states[row]&CellStyle.FOCUSED)!=0;
+                boolean isSelected = (states[row]&CellStyle.SELECTED)!=0;
+                boolean matches = !searching || row%3!=0;
+                int selectedIndex = isSelected ? ThemeCache.SELECTED : ThemeCache.NORMAL;
+                int focusedIndex = hasFocus ? ThemeCache.ACTIVE : ThemeCache.INACTIVE;
+                int colorIndex = colorIndexes[row];
+
+                if(matches || isSelected)
+                    label.setForeground(foregroundColors[focusedIndex][selectedIndex][colorIndex]);
+                else
+                    label.setForeground(unmatchedForeground);
+                label.setText("file"+row);
+
+                if(selectedIndex == ThemeCache.SELECTED)
+                    label.setBackground(backgroundColors[focusedIndex][ThemeCache.SELECTED], backgroundColors[focusedIndex][ThemeCache.SECONDARY]);
+                else if(matches) {
+                    if(hasFocus && searching)
+                        label.setBackground(backgroundColors[focusedIndex][ThemeCache.NORMAL]);
+                    else
+                        label.setBackground(backgroundColors[focusedIndex][(row % 2 == 0) ? ThemeCache.NORMAL : ThemeCache.ALTERNATE]);
+                }
+                else
+                    label.setBackground(unmatchedBackground);
+
+                if(selectedIndex == ThemeCache.SELECTED)
+                    label.setOutline(hasFocus ? activeOutlineColor : inactiveOutlineColor);
+                else
+                    label.setOutline(null);
+
+                paintCell(label, g, row, column);
+            }
+        }
+        g.dispose();
+    }
+
+    /**
+     * Paints the viewport, looking up the style of each cell.
+     */
+    private void paintAfter(CellLabel label, BufferedImage image, CellStyle styles[], boolean searching) {
+        Graphics2D g = image.createGraphics();
+        for(int row=0; row<NB_ROWS; row++) {
+            int state = states[row];
+            if(searching) {
+                state |= CellStyle.SEARCHING;
+                if(row%3==0)
+                    state |= CellStyle.UNMATCHED;
+            }
+            CellStyle style = styles[CellStyle.getIndex(state, colorIndexes[row])];
+
+            for(int column=0; column<NB_COLUMNS; column++) {
+                style.apply(label, true);
+                label.setText("file"+row);
+                paintCell(label, g, row, column);
+            }
+        }
+        g.dispose();
+    }
+
+    private static void paintCell(CellLabel label, Graphics2D g, int row, int column) {
+        Graphics2D cellGraphics = (Graphics2D)g.create(column*COLUMN_WIDTH, row*ROW_HEIGHT, COLUMN_WIDTH, ROW_HEIGHT);
+        label.paint(cellGraphics);
+        cellGraphics.dispose();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * This file is part of muCommander, http://www.mucommander.com
+ * Copyright (C) 2002-2012 Maxence Bernard
+ *
+ * muCommander is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * muCommander is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.mucommander.ui.main.table;
+
+import org.testng.annotations.Test;
+
+import java.util.Random;
+
+/**
+ * A test case for {@link MarkSet}: bulk operations must leave the same marks as marking files one at a time, and
+ * report each file whose mark has changed exactly once.
+ */
+public class MarkSetTest {
+
+    /**
+     * Applies random masks to a mark set and compares the result with an array of booleans.
+     */
+    @Test
+    public void testApply() {
+        Random random = new Random(0);
+        // Sizes around word boundaries
+        int sizes[] = {0, 1, 63, 64, 65, 1000};
+
+        for(int nbFiles : sizes) {
+            MarkSet marks = new MarkSet(nbFiles);
+            final boolean expected[] = new boolean[nbFiles];
+
+            for(int pass=0; pass<20; pass++) {
+                long mask[] = pass%5==0?MarkSet.createFullMask(nbFiles):new long[MarkSet.getNbWords(nbFiles)];
+                boolean masked[] = new boolean[nbFiles];
+                for(int i=0; i<nbFiles; i++) {
+                    masked[i] = (mask[i>>>6]&(1L<<i))!=0;
+                    if(pass%5!=0 && random.nextBoolean()) {
+                        mask[i>>>6] |= 1L<<i;
+                        masked[i] = true;
+                    }
+                }
+
+                final int operation = random.nextInt(3);
+                final boolean notified[] = new boolean[nbFiles];
+                final boolean before[] = expected.clone();
+                for(int i=0; i<nbFiles; i++) {
+                    if(masked[i])
+                        expected[i] = operation==MarkSet.MARK || (operation==MarkSet.INVERT && !expected[i]);
+                }
+
+                boolean changed = marks.apply(mask, operation, new MarkSet.Listener() {
+                    public void markChanged(int fileIndex, boolean marked) {
+                        assert !notified[fileIndex];
+                        assert marked==expected[fileIndex];
+                        notified[fileIndex] = true;
+                    }
+                });
+
+                boolean anyChanged = false;
+                for(int i=0; i<nbFiles; i++) {
+                    assert marks.isMarked(i)==expected[i];
+                    assert notified[i]==(before[i]!=expected[i]);
+                    anyChanged |= notified[i];
+                }
+                assert changed==anyChanged;
+            }
+        }
+    }
+
+    /**
+     * Asserts that {@link MarkSet#nextMarked(int)} visits all marked files in order.
+     */
+    @Test
+    public void testNextMarked() {
+        int nbFiles = 300;
+        MarkSet marks = new MarkSet(nbFiles);
+        int marked[] = {0, 5, 63, 64, 127, 200, 299};
+        for(int fileIndex : marked)
+            marks.setMarked(fileIndex, true);
+        marks.setMarked(5, false);
+        marks.setMarked(5, true);
+
+        int n = 0;
+        for(int i=marks.nextMarked(0); i!=-1; i=marks.nextMarked(i+1))
+            assert i==marked[n++];
+        assert n==marked.length;
+        assert marks.nextMarked(nbFiles)==-1;
+    }
+}